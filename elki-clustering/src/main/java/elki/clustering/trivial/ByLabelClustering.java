@@ -27,6 +27,7 @@ import java.util.regex.Pattern;
 import elki.clustering.ClusteringAlgorithm;
 import elki.data.Cluster;
 import elki.data.Clustering;
+import elki.data.LabelList;
 import elki.data.model.ClusterModel;
 import elki.data.model.Model;
 import elki.data.type.NoSupportedDataTypeException;
@@ -156,10 +157,16 @@ public class ByLabelClustering implements ClusteringAlgorithm<Clustering<Model>>
    */
   private HashMap<String, DBIDs> singleAssignment(Relation<?> data) {
     HashMap<String, DBIDs> labelMap = new HashMap<>();
-
+    // Shared label objects (e.g., from a label dictionary) need to be
+    // converted to strings only once in a row.
+    Object prev = null;
+    String label = null;
     for(DBIDIter iditer = data.iterDBIDs(); iditer.valid(); iditer.advance()) {
       final Object val = data.get(iditer);
-      String label = (val != null) ? val.toString() : null;
+      if(val != prev || label == null) {
+        label = (val == null) ? null : (val instanceof LabelList && ((LabelList) val).size() == 1) ? ((LabelList) val).get(0) : val.toString();
+        prev = val;
+      }
       assign(labelMap, label, iditer);
     }
     return labelMap;
@@ -176,7 +183,22 @@ public class ByLabelClustering implements ClusteringAlgorithm<Clustering<Model>>
     HashMap<String, DBIDs> labelMap = new HashMap<>();
 
     for(DBIDIter iditer = data.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      String[] labels = data.get(iditer).toString().split(" ");
+      final Object val = data.get(iditer);
+      if(val instanceof LabelList && ((LabelList) val).size() > 0) {
+        LabelList ll = (LabelList) val;
+        for(int i = 0; i < ll.size(); i++) {
+          final String l = ll.get(i);
+          if(l.indexOf(' ') < 0) {
+            assign(labelMap, l, iditer);
+            continue;
+          }
+          for(String label : l.split(" ")) {
+            assign(labelMap, label, iditer);
+          }
+        }
+        continue;
+      }
+      String[] labels = val.toString().split(" ");
       for(String label : labels) {
         assign(labelMap, label, iditer);
       }
@@ -210,5 +210,23 @@ public interface SparseNumberVector extends NumberVector, SparseFeatureVector<Nu
      * @return a new NumberVector of N for the given values
      */
     V newNumberVector(Int2DoubleOpenHashMap values, int maxdim);
+
+    /**
+     * Returns a new NumberVector of N for the given index and value arrays.
+     * The arrays are not kept, and may be reused by the caller.
+     *
+     * @param indexes Indexes, sorted and without duplicates
+     * @param values Values
+     * @param size Number of entries used
+     * @param maxdim Maximum dimensionality.
+     * @return a new NumberVector of N for the given values
+     */
+    default V newNumberVector(int[] indexes, double[] values, int size, int maxdim) {
+      Int2DoubleOpenHashMap map = new Int2DoubleOpenHashMap(size);
+      for(int i = 0; i < size; i++) {
+        map.put(indexes[i], values[i]);
+      }
+      return newNumberVector(map, maxdim);
+    }
   }
 }
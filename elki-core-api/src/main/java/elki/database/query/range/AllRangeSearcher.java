@@ -0,0 +1,45 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.query.range;
+
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DoubleDBIDList;
+
+/**
+ * Range searcher that can also compute the neighbors within the query radius
+ * of all indexed objects at once (a range self-join), which can be much faster
+ * than querying every object individually, e.g., by processing the queries in
+ * an order favorable for the index, and in parallel.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public interface AllRangeSearcher extends RangeSearcher<DBIDRef> {
+  /**
+   * Compute the neighbors within the given radius of all indexed objects,
+   * sorted by distance.
+   *
+   * @param range Query radius
+   * @param result Output storage, for all indexed objects
+   */
+  void getAllRange(double range, WritableDataStore<? super DoubleDBIDList> result);
+}
@@ -20,7 +20,9 @@
  */
 package elki.database.relation;
 
-import elki.database.ids.DBIDRef;
+import java.util.List;
+
+import elki.database.ids.*;
 
 /**
  * Relations that allow modification.
@@ -48,4 +50,30 @@ public interface ModifiableRelation<O> extends Relation<O> {
    * @param id ID to delete
    */
   void delete(DBIDRef id);
+
+  /**
+   * Insert the representations of a batch of objects. Implementations should
+   * update their indexes once for the entire batch.
+   *
+   * @param ids Object IDs
+   * @param vals Values, in the same order as the IDs
+   */
+  default void insertAll(ArrayDBIDs ids, List<? extends O> vals) {
+    assert ids.size() == vals.size() : "Number of values does not match.";
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      insert(it, vals.get(it.getOffset()));
+    }
+  }
+
+  /**
+   * Delete the values of a batch of objects. Implementations should update
+   * their indexes once for the entire batch.
+   *
+   * @param ids IDs to delete
+   */
+  default void deleteAll(DBIDs ids) {
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      delete(it);
+    }
+  }
 }
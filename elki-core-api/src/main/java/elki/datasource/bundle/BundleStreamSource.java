@@ -82,6 +82,15 @@ public interface BundleStreamSource {
    */
   Event nextEvent();
 
+  /**
+   * Release the resources of a stream that is abandoned before its end, such
+   * as temporary files. Streams read until {@link Event#END_OF_STREAM} need
+   * not be closed.
+   */
+  default void close() {
+    // Nothing to release by default.
+  }
+
   /**
    * Return (or collect) the stream as bundle.
    * 
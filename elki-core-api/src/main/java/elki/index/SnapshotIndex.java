@@ -0,0 +1,58 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Index that can write its built structure to a snapshot file, and reload it
+ * on the next run instead of rebuilding the index.
+ * <p>
+ * The snapshot file header (including a fingerprint of the indexed relation)
+ * is handled by the database; the index only writes its own parameters and
+ * structure, and must reject snapshots written with different parameters.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public interface SnapshotIndex extends Index {
+  /**
+   * Write the index parameters and structure to a snapshot.
+   *
+   * @param out Output
+   * @throws IOException on write errors
+   */
+  void writeSnapshot(DataOutput out) throws IOException;
+
+  /**
+   * Load the index structure from a snapshot, instead of calling
+   * {@link #initialize()}.
+   *
+   * @param in Snapshot contents, positioned at the data written by
+   *        {@link #writeSnapshot}
+   * @return {@code false} if the snapshot does not match the parameters of
+   *         this index, and the index needs to be rebuilt.
+   * @throws IOException on invalid data
+   */
+  boolean loadSnapshot(ByteBuffer in) throws IOException;
+}
@@ -0,0 +1,207 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+import elki.utilities.datastructures.arraylike.ArrayAdapter;
+import elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
+import elki.utilities.optionhandling.Parameterizer;
+
+/**
+ * Vector type that is a view on a range of a {@link DoubleBuffer}.
+ * <p>
+ * This is used for memory-mapped data, where copying every row into a
+ * {@code double[]} would defeat the purpose of mapping the file. The buffer
+ * must not be modified once the vector has been added to a database.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class DoubleBufferVector implements NumberVector {
+  /**
+   * Static factory instance.
+   */
+  public static final DoubleBufferVector.Factory FACTORY = new DoubleBufferVector.Factory();
+
+  /**
+   * Serializer using varint encoding.
+   */
+  public static final ByteBufferSerializer<DoubleBufferVector> VARIABLE_SERIALIZER = new VariableSerializer();
+
+  /**
+   * Backing buffer.
+   */
+  private final DoubleBuffer buffer;
+
+  /**
+   * Offset in the buffer.
+   */
+  private final int offset;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Constructor.
+   *
+   * @param buffer Backing buffer (not copied)
+   * @param offset Offset of the first value
+   * @param dim Dimensionality
+   */
+  public DoubleBufferVector(DoubleBuffer buffer, int offset, int dim) {
+    assert offset >= 0 && offset + dim <= buffer.limit() : "Vector exceeds buffer limits.";
+    this.buffer = buffer;
+    this.offset = offset;
+    this.dim = dim;
+  }
+
+  @Override
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public double doubleValue(int dimension) {
+    assert dimension < dim : "Non-existant dimension accessed.";
+    return buffer.get(offset + dimension);
+  }
+
+  @Override
+  public long longValue(int dimension) {
+    return (long) doubleValue(dimension);
+  }
+
+  @Override
+  public double[] toArray() {
+    double[] values = new double[dim];
+    for(int i = 0; i < dim; i++) {
+      values[i] = buffer.get(offset + i);
+    }
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder featureLine = new StringBuilder();
+    for(int i = 0; i < dim; i++) {
+      featureLine.append(buffer.get(offset + i));
+      if(i + 1 < dim) {
+        featureLine.append(ATTRIBUTE_SEPARATOR);
+      }
+    }
+    return featureLine.toString();
+  }
+
+  /**
+   * Factory for buffer-backed vectors.
+   * <p>
+   * Vectors constructed by the factory are backed by a new heap buffer.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - DoubleBufferVector
+   */
+  public static class Factory implements NumberVector.Factory<DoubleBufferVector> {
+    @Override
+    public <A> DoubleBufferVector newFeatureVector(A array, ArrayAdapter<? extends Number, A> adapter) {
+      final int dim = adapter.size(array);
+      double[] values = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        values[i] = adapter.get(array, i).doubleValue();
+      }
+      return new DoubleBufferVector(DoubleBuffer.wrap(values), 0, dim);
+    }
+
+    @Override
+    public <A> DoubleBufferVector newNumberVector(A array, NumberArrayAdapter<?, ? super A> adapter) {
+      final int dim = adapter.size(array);
+      double[] values = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        values[i] = adapter.getDouble(array, i);
+      }
+      return new DoubleBufferVector(DoubleBuffer.wrap(values), 0, dim);
+    }
+
+    @Override
+    public ByteBufferSerializer<DoubleBufferVector> getDefaultSerializer() {
+      return VARIABLE_SERIALIZER;
+    }
+
+    @Override
+    public Class<? super DoubleBufferVector> getRestrictionClass() {
+      return DoubleBufferVector.class;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     */
+    public static class Par implements Parameterizer {
+      @Override
+      public DoubleBufferVector.Factory make() {
+        return FACTORY;
+      }
+    }
+  }
+
+  /**
+   * Serialization class using VarInt encoding of the dimensionality, with the
+   * same binary layout as {@link DoubleVector.VariableSerializer}.
+   *
+   * @author Erich Schubert
+   *
+   * @assoc - serializes - DoubleBufferVector
+   */
+  public static class VariableSerializer implements ByteBufferSerializer<DoubleBufferVector> {
+    @Override
+    public DoubleBufferVector fromByteBuffer(ByteBuffer buffer) throws IOException {
+      final int dimensionality = ByteArrayUtil.readUnsignedVarint(buffer);
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_DOUBLE * dimensionality) : "Not enough data remaining in buffer to read " + dimensionality + " doubles";
+      final double[] values = new double[dimensionality];
+      for(int i = 0; i < dimensionality; i++) {
+        values[i] = buffer.getDouble();
+      }
+      return new DoubleBufferVector(DoubleBuffer.wrap(values), 0, dimensionality);
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, DoubleBufferVector vec) throws IOException {
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_DOUBLE * vec.dim) : "Not enough space remaining in buffer to write " + vec.dim + " doubles";
+      ByteArrayUtil.writeUnsignedVarint(buffer, vec.dim);
+      for(int i = 0; i < vec.dim; i++) {
+        buffer.putDouble(vec.buffer.get(vec.offset + i));
+      }
+    }
+
+    @Override
+    public int getByteSize(DoubleBufferVector vec) {
+      return ByteArrayUtil.getUnsignedVarintSize(vec.dim) + ByteArrayUtil.SIZE_DOUBLE * vec.dim;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Dictionary for label lists, to share a single {@link LabelList} instance
+ * (and its strings) among all objects with the same labels.
+ * <p>
+ * Each distinct label list is assigned an integer code in the order of first
+ * occurrence, and the label list of a code can be retrieved via
+ * {@link #get(int)}. On large data sets with few distinct labels, this avoids
+ * keeping one label list and one string per object.
+ * <p>
+ * To bound the memory use on data with unique labels (e.g., object names), the
+ * dictionary stops growing at a maximum size; further new label lists are then
+ * returned unshared, and have no code.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - LabelList
+ */
+public class LabelDictionary {
+  /**
+   * Default maximum size.
+   */
+  public static final int DEFAULT_MAXSIZE = 1 << 16;
+
+  /**
+   * Codes of the known label lists.
+   */
+  private HashMap<List<String>, Integer> codes = new HashMap<>();
+
+  /**
+   * Label lists, by code.
+   */
+  private ArrayList<LabelList> entries = new ArrayList<>();
+
+  /**
+   * Shared strings.
+   */
+  private HashMap<String, String> strings = new HashMap<>();
+
+  /**
+   * Maximum number of entries.
+   */
+  private int maxsize;
+
+  /**
+   * Constructor.
+   *
+   * @param maxsize Maximum number of entries
+   */
+  public LabelDictionary(int maxsize) {
+    super();
+    this.maxsize = maxsize;
+  }
+
+  /**
+   * Constructor with default maximum size.
+   */
+  public LabelDictionary() {
+    this(DEFAULT_MAXSIZE);
+  }
+
+  /**
+   * Get the shared label list for the given labels.
+   * <p>
+   * The list is not retained and may be reused by the caller.
+   *
+   * @param labels Labels
+   * @return Shared label list, if possible
+   */
+  public LabelList intern(List<String> labels) {
+    if(labels.isEmpty()) {
+      return LabelList.EMPTY_LABELS;
+    }
+    Integer code = codes.get(labels);
+    if(code != null) {
+      return entries.get(code);
+    }
+    final int size = labels.size();
+    String[] array = new String[size];
+    if(entries.size() >= maxsize) {
+      return new LabelList(labels.toArray(array));
+    }
+    for(int i = 0; i < size; i++) {
+      final String s = labels.get(i);
+      String shared = strings.putIfAbsent(s, s);
+      array[i] = shared != null ? shared : s;
+    }
+    LabelList ll = new LabelList(array);
+    codes.put(ll.asList(), entries.size());
+    entries.add(ll);
+    return ll;
+  }
+
+  /**
+   * Get the shared label list for the given labels.
+   *
+   * @param labels Labels, may be {@code null}
+   * @return Shared label list, if possible
+   */
+  public LabelList intern(LabelList labels) {
+    return labels != null ? intern(labels.asList()) : null;
+  }
+
+  /**
+   * Get the code of a label list.
+   *
+   * @param labels Label list
+   * @return Code, or -1 if not in the dictionary
+   */
+  public int code(LabelList labels) {
+    Integer code = codes.get(labels.asList());
+    return code != null ? code : -1;
+  }
+
+  /**
+   * Get the label list with the given code.
+   *
+   * @param code Code
+   * @return Label list
+   */
+  public LabelList get(int code) {
+    return entries.get(code);
+  }
+
+  /**
+   * Number of distinct label lists in the dictionary.
+   *
+   * @return Size
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Remove all entries.
+   */
+  public void clear() {
+    codes.clear();
+    entries.clear();
+    strings.clear();
+  }
+}
@@ -22,7 +22,10 @@ package elki.data;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import elki.utilities.io.ByteArrayUtil;
 import elki.utilities.io.ByteBufferSerializer;
@@ -107,6 +110,25 @@ public class LabelList {
     return labels[i];
   }
 
+  /**
+   * Get the labels as (unmodifiable) list.
+   *
+   * @return List view
+   */
+  public List<String> asList() {
+    return Collections.unmodifiableList(Arrays.asList(labels));
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return this == obj || (obj != null && getClass() == obj.getClass() && Arrays.equals(labels, ((LabelList) obj).labels));
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(labels);
+  }
+
   @Override
   public String toString() {
     return FormatUtil.format(labels, " ");
@@ -307,6 +307,11 @@ public class SparseDoubleVector implements SparseNumberVector {
       return new SparseDoubleVector(values, maxdim);
     }
 
+    @Override
+    public SparseDoubleVector newNumberVector(int[] indexes, double[] values, int size, int maxdim) {
+      return new SparseDoubleVector(Arrays.copyOf(indexes, size), Arrays.copyOf(values, size), maxdim);
+    }
+
     @Override
     public ByteBufferSerializer<SparseDoubleVector> getDefaultSerializer() {
       return VARIABLE_SERIALIZER;
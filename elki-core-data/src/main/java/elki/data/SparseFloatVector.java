@@ -333,6 +333,15 @@ public class SparseFloatVector implements SparseNumberVector {
       return new SparseFloatVector(indexes, values, maxdim);
     }
 
+    @Override
+    public SparseFloatVector newNumberVector(int[] indexes, double[] values, int size, int maxdim) {
+      float[] fvalues = new float[size];
+      for(int i = 0; i < size; i++) {
+        fvalues[i] = (float) values[i];
+      }
+      return new SparseFloatVector(Arrays.copyOf(indexes, size), fvalues, maxdim);
+    }
+
     @Override
     public ByteBufferSerializer<SparseFloatVector> getDefaultSerializer() {
       return VARIABLE_SERIALIZER;
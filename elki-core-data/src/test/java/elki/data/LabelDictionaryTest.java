@@ -0,0 +1,72 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the label dictionary.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class LabelDictionaryTest {
+  @Test
+  public void testIntern() {
+    LabelDictionary dict = new LabelDictionary();
+    ArrayList<String> buf = new ArrayList<>();
+    buf.add(new String("a"));
+    buf.add(new String("b"));
+    LabelList ab = dict.intern(buf);
+    buf.clear();
+    buf.add(new String("a"));
+    LabelList a = dict.intern(buf);
+    buf.add(new String("b"));
+    assertSame("Not shared.", ab, dict.intern(buf));
+    assertSame("Strings not shared.", ab.get(0), a.get(0));
+    assertSame("Not shared.", a, dict.intern(LabelList.make(Arrays.asList("a"))));
+    assertSame("Empty labels.", LabelList.EMPTY_LABELS, dict.intern(new ArrayList<>()));
+    assertEquals("Wrong size.", 2, dict.size());
+    assertEquals("Wrong code.", 0, dict.code(ab));
+    assertEquals("Wrong code.", 1, dict.code(LabelList.make(Arrays.asList("a"))));
+    assertSame("Wrong entry.", a, dict.get(1));
+    assertEquals("Label lists not equal.", ab, LabelList.make(Arrays.asList("a", "b")));
+  }
+
+  @Test
+  public void testMaxSize() {
+    LabelDictionary dict = new LabelDictionary(1);
+    LabelList a = dict.intern(Arrays.asList("a"));
+    assertSame("Not shared.", a, dict.intern(Arrays.asList("a")));
+    LabelList b = dict.intern(Arrays.asList("b"));
+    assertNotSame("Dictionary should be full.", b, dict.intern(Arrays.asList("b")));
+    assertEquals("Label lists not equal.", b, dict.intern(Arrays.asList("b")));
+    assertEquals("Wrong code.", -1, dict.code(b));
+    assertEquals("Wrong size.", 1, dict.size());
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database.datastore.memory;
+
+import java.util.Arrays;
+
+import elki.database.datastore.ObjectNotFoundException;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+
+/**
+ * Array storage for append-only data, which grows in fixed-size chunks. Objects
+ * are addressed by their integer DBID relative to the first DBID stored, so
+ * this works best with DBIDs allocated in increasing ranges.
+ * <p>
+ * In contrast to {@link ArrayStore}, growing this storage never copies the
+ * stored data, only the (small) array of chunk references.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <T> Representation object type
+ */
+public class ChunkedArrayStore<T> implements WritableDataStore<T> {
+  /**
+   * Number of bits used for the offset within a chunk.
+   */
+  private static final int CHUNK_BITS = 14;
+
+  /**
+   * Size of a chunk.
+   */
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  /**
+   * Mask for the offset within a chunk.
+   */
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /**
+   * Data chunks, allocated on demand.
+   */
+  private Object[][] chunks = new Object[4][];
+
+  /**
+   * First DBID, or {@code Integer.MIN_VALUE} if nothing was stored yet.
+   */
+  private int base = Integer.MIN_VALUE;
+
+  /**
+   * Constructor.
+   */
+  public ChunkedArrayStore() {
+    super();
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param first First DBID to be stored
+   */
+  public ChunkedArrayStore(DBIDRef first) {
+    super();
+    this.base = DBIDUtil.asInteger(first);
+  }
+
+  /**
+   * Offset of an object, or -1.
+   *
+   * @param id Object id
+   * @return Offset relative to the first object
+   */
+  private int offset(DBIDRef id) {
+    return base == Integer.MIN_VALUE ? -1 : DBIDUtil.asInteger(id) - base;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public T get(DBIDRef id) {
+    final int off = offset(id), c = off >>> CHUNK_BITS;
+    if(off < 0 || c >= chunks.length || chunks[c] == null) {
+      throw new ObjectNotFoundException(id);
+    }
+    return (T) chunks[c][off & CHUNK_MASK];
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public T put(DBIDRef id, T value) {
+    if(base == Integer.MIN_VALUE) {
+      base = DBIDUtil.asInteger(id);
+    }
+    final int off = offset(id), c = off >>> CHUNK_BITS;
+    if(off < 0) {
+      throw new ObjectNotFoundException(id);
+    }
+    if(c >= chunks.length) {
+      chunks = Arrays.copyOf(chunks, Math.max(chunks.length << 1, c + 1));
+    }
+    Object[] chunk = chunks[c];
+    if(chunk == null) {
+      chunk = chunks[c] = new Object[CHUNK_SIZE];
+    }
+    final int i = off & CHUNK_MASK;
+    T ret = (T) chunk[i];
+    chunk[i] = value;
+    return ret;
+  }
+
+  /**
+   * Check if an object is stored (non-null).
+   *
+   * @param id Object id
+   * @return {@code true} if a non-null value is stored
+   */
+  public boolean contains(DBIDRef id) {
+    final int off = offset(id), c = off >>> CHUNK_BITS;
+    return off >= 0 && c < chunks.length && chunks[c] != null && chunks[c][off & CHUNK_MASK] != null;
+  }
+
+  @Override
+  public void destroy() {
+    chunks = null;
+  }
+
+  @Override
+  public void delete(DBIDRef id) {
+    final int off = offset(id), c = off >>> CHUNK_BITS;
+    if(off >= 0 && c < chunks.length && chunks[c] != null) {
+      chunks[c][off & CHUNK_MASK] = null;
+    }
+  }
+
+  @Override
+  public void clear() {
+    for(Object[] chunk : chunks) {
+      if(chunk != null) {
+        Arrays.fill(chunk, null);
+      }
+    }
+  }
+}
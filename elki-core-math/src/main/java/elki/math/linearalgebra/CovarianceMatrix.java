@@ -229,6 +229,39 @@ public class CovarianceMatrix {
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  /**
+   * Join the data of another covariance matrix, e.g., a partial result
+   * computed in parallel.
+   * <p>
+   * Reference:
+   * <p>
+   * T. F. Chan, G. H. Golub, R. J. LeVeque<br>
+   * Updating formulae and a pairwise algorithm for computing sample
+   * variances
+   * 
+   * @param other Data to join with
+   */
+  public void put(CovarianceMatrix other) {
+    assert (other.mean.length == mean.length);
+    if(other.wsum <= 0.) {
+      return;
+    }
+    final double nwsum = wsum + other.wsum, f = wsum * other.wsum / nwsum;
+    for(int i = 0; i < mean.length; i++) {
+      nmea[i] = other.mean[i] - mean[i]; // Delta of the means
+    }
+    for(int i = 0; i < mean.length; i++) {
+      final double[] row = elements[i], orow = other.elements[i];
+      for(int j = 0; j < mean.length; j++) {
+        row[j] += orow[j] + nmea[i] * nmea[j] * f;
+      }
+    }
+    for(int i = 0; i < mean.length; i++) {
+      mean[i] += nmea[i] * other.wsum / nwsum;
+    }
+    wsum = nwsum;
+  }
+
   /**
    * Get the weight sum, to test whether the covariance matrix can be
    * materialized.
@@ -144,6 +144,19 @@ public class MeanVarianceTest {
     assertEquals("Fourth stddev", 4.8, m2.getSampleVariance(), 0);
   }
 
+  @Test
+  public void combineEmpty() {
+    MeanVariance m1 = new MeanVariance(), m2 = new MeanVariance();
+    m2.put(new double[] { 4, 5, 6, 7 });
+    m1.put(m2);
+    assertEquals("Mean", 5.5, m1.getMean(), 0.);
+    assertEquals("Variance", 1.25, m1.getPopulationVariance(), 0.);
+    m1.put(new MeanVariance());
+    assertEquals("Count", 4, m1.getCount(), 0.);
+    assertEquals("Mean", 5.5, m1.getMean(), 0.);
+    assertEquals("Variance", 1.25, m1.getPopulationVariance(), 0.);
+  }
+
   @Test(expected = ArithmeticException.class)
   public void testEmpty() {
     new MeanVariance().put(new double[0]).getSampleVariance();
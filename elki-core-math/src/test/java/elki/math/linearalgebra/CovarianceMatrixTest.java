@@ -0,0 +1,66 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.math.linearalgebra;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit test {@link CovarianceMatrix}.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class CovarianceMatrixTest {
+  @Test
+  public void testMerge() {
+    final int dim = 3, size = 1000;
+    Random r = new Random(0L);
+    CovarianceMatrix all = new CovarianceMatrix(dim);
+    CovarianceMatrix[] parts = new CovarianceMatrix[4];
+    for(int p = 0; p < parts.length; p++) {
+      parts[p] = new CovarianceMatrix(dim);
+    }
+    double[] v = new double[dim];
+    for(int i = 0; i < size; i++) {
+      for(int d = 0; d < dim; d++) {
+        v[d] = r.nextGaussian() * (d + 1) + d * 10;
+      }
+      all.put(v);
+      // Uneven partitions, the last one remains empty:
+      parts[i < 100 ? 0 : i < 700 ? 1 : 2].put(v);
+    }
+    CovarianceMatrix merged = new CovarianceMatrix(dim);
+    for(CovarianceMatrix part : parts) {
+      merged.put(part);
+    }
+    assertEquals("Weight sum", all.getWeight(), merged.getWeight(), 0.);
+    assertArrayEquals("Mean", all.getMeanVector(), merged.getMeanVector(), 1e-12);
+    double[][] expected = all.makeSampleMatrix(), actual = merged.makeSampleMatrix();
+    for(int d = 0; d < dim; d++) {
+      assertArrayEquals("Covariance", expected[d], actual[d], 1e-10);
+    }
+  }
+}
@@ -41,6 +41,11 @@ public class ParallelCore {
    */
   private static final ParallelCore STATIC = new ParallelCore(ALL_PROCESSORS);
 
+  /**
+   * Flag to identify the worker threads.
+   */
+  private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<>();
+
   /**
    * Executor service.
    */
@@ -73,6 +78,18 @@ public class ParallelCore {
     return STATIC;
   }
 
+  /**
+   * Test whether the current thread is a worker thread of the parallel core.
+   * <p>
+   * Nested parallel tasks must not be submitted from a worker thread and be
+   * waited for, as this can deadlock when all threads are busy.
+   *
+   * @return {@code true} when called from a worker thread
+   */
+  public static boolean isWorkerThread() {
+    return WORKER.get() != null;
+  }
+
   /**
    * Get desired level of parallelism
    * 
@@ -98,7 +115,12 @@ public class ParallelCore {
    */
   public synchronized void connect() {
     if(executor == null) {
-      executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+      final ThreadFactory factory = Executors.defaultThreadFactory();
+      executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), //
+          r -> factory.newThread(() -> {
+            WORKER.set(Boolean.TRUE);
+            r.run();
+          }));
       executor.allowCoreThreadTimeOut(true);
     }
     if(++connected == 1) {
@@ -20,12 +20,15 @@
  */
 package elki.parallel;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import elki.database.ids.ArrayDBIDs;
 import elki.database.ids.DBIDArrayIter;
@@ -61,6 +64,12 @@ public final class ParallelExecutor {
    * @param procs Processors to run
    */
   public static void run(DBIDs ids, Processor... procs) {
+    if(ParallelCore.isWorkerThread()) {
+      // Nested call: process in the current thread.
+      ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+      new BlockArrayRunner(aids, 0, aids.size(), procs).call();
+      return;
+    }
     ParallelCore core = ParallelCore.getCore();
     core.connect();
     try {
@@ -95,6 +104,106 @@ public final class ParallelExecutor {
     }
   }
 
+  /**
+   * Run independent tasks on all available CPUs, and collect their results.
+   * <p>
+   * When called from a worker thread (nested parallelism), the tasks are run in
+   * the current thread instead.
+   *
+   * @param tasks Tasks to run
+   * @param <T> Result type
+   * @return Results, in the order of the tasks
+   */
+  public static <T> List<T> runTasks(List<? extends Callable<T>> tasks) {
+    if(ParallelCore.isWorkerThread()) {
+      // Nested call: process in the current thread.
+      List<T> results = new ArrayList<>(tasks.size());
+      for(Callable<T> task : tasks) {
+        try {
+          results.add(task.call());
+        }
+        catch(Exception e) {
+          throw new RuntimeException("Task execution failed.", e);
+        }
+      }
+      return results;
+    }
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      List<Future<T>> futures = new ArrayList<>(tasks.size());
+      for(Callable<T> task : tasks) {
+        futures.add(core.submit(task));
+      }
+      List<T> results = new ArrayList<>(tasks.size());
+      for(Future<T> fut : futures) {
+        results.add(fut.get());
+      }
+      return results;
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Task execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Run independent tasks on all available CPUs, and pass their results to a
+   * consumer in the order of the tasks.
+   * <p>
+   * At most {@code maxpending} tasks are submitted and not yet consumed at any
+   * time, to bound the memory needed for results. The consumer is always called
+   * from the current thread. When called from a worker thread (nested
+   * parallelism), the tasks are run in the current thread instead.
+   *
+   * @param tasks Tasks to run
+   * @param maxpending Maximum number of pending results
+   * @param consumer Consumer of the results
+   * @param <T> Result type
+   */
+  public static <T> void runTasks(Iterator<? extends Callable<T>> tasks, int maxpending, Consumer<? super T> consumer) {
+    if(ParallelCore.isWorkerThread()) {
+      // Nested call: process in the current thread.
+      while(tasks.hasNext()) {
+        try {
+          consumer.accept(tasks.next().call());
+        }
+        catch(Exception e) {
+          throw new RuntimeException("Task execution failed.", e);
+        }
+      }
+      return;
+    }
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    ArrayDeque<Future<T>> pending = new ArrayDeque<>(maxpending);
+    try {
+      while(tasks.hasNext() || !pending.isEmpty()) {
+        while(tasks.hasNext() && pending.size() < maxpending) {
+          pending.add(core.submit(tasks.next()));
+        }
+        consumer.accept(pending.poll().get());
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Task execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      for(Future<T> fut : pending) {
+        fut.cancel(true);
+      }
+      core.disconnect();
+    }
+  }
+
   /**
    * Run for an array part, without step size.
    *
@@ -0,0 +1,100 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.parallel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test the parallel task executor.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ParallelExecutorTest {
+  @Test
+  public void testRunTasks() {
+    List<Callable<Long>> tasks = makeTasks(100, null);
+    List<Long> results = ParallelExecutor.runTasks(tasks);
+    assertEquals("Number of results", tasks.size(), results.size());
+    for(int i = 0; i < tasks.size(); i++) {
+      assertEquals("Result not in task order", serial(i), (long) results.get(i));
+    }
+  }
+
+  @Test
+  public void testRunTasksStreaming() {
+    final int maxpending = 3;
+    AtomicInteger started = new AtomicInteger();
+    List<Callable<Long>> tasks = makeTasks(100, started);
+    List<Long> results = new ArrayList<>();
+    ParallelExecutor.runTasks(tasks.iterator(), maxpending, r -> {
+      results.add(r);
+      assertTrue("Too many pending tasks", started.get() - results.size() < maxpending);
+    });
+    assertEquals("Number of results", tasks.size(), results.size());
+    for(int i = 0; i < tasks.size(); i++) {
+      assertEquals("Result not in task order", serial(i), (long) results.get(i));
+    }
+  }
+
+  /**
+   * Make tasks of varying duration.
+   *
+   * @param num Number of tasks
+   * @param started Counter of started tasks, may be {@code null}
+   * @return Tasks
+   */
+  private static List<Callable<Long>> makeTasks(int num, AtomicInteger started) {
+    List<Callable<Long>> tasks = new ArrayList<>(num);
+    for(int i = 0; i < num; i++) {
+      final int n = i;
+      tasks.add(() -> {
+        if(started != null) {
+          started.incrementAndGet();
+        }
+        return serial(n);
+      });
+    }
+    return tasks;
+  }
+
+  /**
+   * Serial reference computation, with a duration varying by task.
+   *
+   * @param n Task number
+   * @return Result
+   */
+  private static long serial(int n) {
+    long x = n;
+    for(int i = 0; i < ((n * 7919) % 13) * 10000; i++) {
+      x = x * 6364136223846793005L + 1442695040888963407L;
+    }
+    return x;
+  }
+}
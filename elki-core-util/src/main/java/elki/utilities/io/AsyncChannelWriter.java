@@ -0,0 +1,209 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.utilities.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Double-buffered writer for a byte channel.
+ * <p>
+ * The caller fills one buffer, while the previous buffer is written to the
+ * channel by a background thread. Thus, encoding the output and the actual
+ * I/O overlap. Buffers are obtained with {@link #buffer(int)}, which
+ * guarantees the requested amount of free space, and are only valid until the
+ * next call.
+ * <p>
+ * This class is not thread-safe; it is meant to be used by a single producer.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class AsyncChannelWriter implements Closeable {
+  /**
+   * Default buffer size.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Output channel.
+   */
+  private WritableByteChannel channel;
+
+  /**
+   * Buffer currently being filled.
+   */
+  private ByteBuffer current;
+
+  /**
+   * Buffer currently being written, or free.
+   */
+  private ByteBuffer spare;
+
+  /**
+   * Background writer thread.
+   */
+  private ExecutorService executor;
+
+  /**
+   * Pending write operation, may be {@code null}.
+   */
+  private Future<?> pending;
+
+  /**
+   * Constructor.
+   *
+   * @param channel Output channel
+   * @param bufsize Buffer size
+   * @param order Byte order of the buffers
+   */
+  public AsyncChannelWriter(WritableByteChannel channel, int bufsize, ByteOrder order) {
+    super();
+    this.channel = channel;
+    this.current = ByteBuffer.allocateDirect(bufsize).order(order);
+    this.spare = ByteBuffer.allocateDirect(bufsize).order(order);
+    this.executor = Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "ELKI async writer");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Constructor, with the default buffer size and little endian byte order.
+   *
+   * @param channel Output channel
+   */
+  public AsyncChannelWriter(WritableByteChannel channel) {
+    this(channel, DEFAULT_BUFFER_SIZE, ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Get the current buffer, with at least {@code n} bytes of free space.
+   *
+   * @param n Number of bytes needed
+   * @return Buffer to write to
+   * @throws IOException on errors of a previous write
+   */
+  public ByteBuffer buffer(int n) throws IOException {
+    if(current.remaining() < n) {
+      if(n > current.capacity()) {
+        throw new IllegalArgumentException("Requested " + n + " bytes, but the buffer size is " + current.capacity());
+      }
+      swap();
+    }
+    return current;
+  }
+
+  /**
+   * Write a character sequence consisting of ASCII characters only.
+   *
+   * @param seq Character sequence
+   * @throws IOException on errors of a previous write
+   */
+  public void writeASCII(CharSequence seq) throws IOException {
+    for(int i = 0, len = seq.length(); i < len;) {
+      ByteBuffer buf = buffer(1);
+      for(int end = Math.min(len, i + buf.remaining()); i < end; i++) {
+        buf.put((byte) seq.charAt(i));
+      }
+    }
+  }
+
+  /**
+   * Hand over the current buffer to the background thread, and continue with
+   * the other buffer once it has been written.
+   *
+   * @throws IOException on errors of a previous write
+   */
+  private void swap() throws IOException {
+    await();
+    final ByteBuffer full = current;
+    full.flip();
+    pending = executor.submit(() -> {
+      while(full.hasRemaining()) {
+        channel.write(full);
+      }
+      return null;
+    });
+    current = spare;
+    current.clear();
+    spare = full;
+  }
+
+  /**
+   * Wait for the pending write operation.
+   *
+   * @throws IOException on write errors
+   */
+  private void await() throws IOException {
+    if(pending == null) {
+      return;
+    }
+    try {
+      pending.get();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the output.");
+    }
+    catch(ExecutionException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+    }
+    finally {
+      pending = null;
+    }
+  }
+
+  /**
+   * Write all buffered data, and wait for completion.
+   *
+   * @throws IOException on write errors
+   */
+  public void flush() throws IOException {
+    if(current.position() > 0) {
+      swap();
+    }
+    await();
+  }
+
+  /**
+   * Flush the buffers, stop the background thread and close the channel.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    }
+    finally {
+      executor.shutdown();
+      channel.close();
+    }
+  }
+}
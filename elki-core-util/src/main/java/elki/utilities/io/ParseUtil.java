@@ -492,6 +492,64 @@ public final class ParseUtil {
     return isNegative ? -decimal : decimal;
   }
 
+  /**
+   * Parse an integer from a byte array.
+   *
+   * @param str Bytes
+   * @param start Begin
+   * @param end End
+   * @return int value
+   */
+  public static int parseIntBase10(final byte[] str, final int start, final int end) {
+    if(start >= end) {
+      throw LOG.isDebuggingFine() ? new NumberFormatException(EMPTY_STRING.getMessage()) : EMPTY_STRING;
+    }
+    // Current position and character.
+    int pos = start;
+    byte cur = str[pos];
+
+    // Match sign
+    boolean isNegative = (cur == '-');
+    // Carefully consume the - character, update c and i:
+    if((isNegative || (cur == '+')) && (++pos < end)) {
+      cur = str[pos];
+    }
+
+    // Begin parsing real numbers!
+    if((cur < '0') || (cur > '9')) {
+      throw LOG.isDebuggingFine() ? new NumberFormatException(NOT_A_NUMBER.getMessage()) : NOT_A_NUMBER;
+    }
+
+    // Parse digits into a int, remember offset of decimal point.
+    int decimal = 0;
+    while(true) {
+      final int digit = cur - '0';
+      if((digit >= 0) && (digit <= 9)) {
+        final int tmp = (decimal << 3) + (decimal << 1) + digit;
+        if(tmp < decimal) {
+          // Special case, Integer.MIN_VALUE only.
+          if(isNegative && tmp == 0x80000000 && pos + 1 == end) {
+            return Integer.MIN_VALUE;
+          }
+          throw LOG.isDebuggingFine() ? new NumberFormatException(PRECISION_OVERFLOW.getMessage()) : PRECISION_OVERFLOW;
+        }
+        decimal = tmp;
+      }
+      else { // No more digits
+        break;
+      }
+      if(++pos >= end) {
+        break;
+      }
+      cur = str[pos];
+    }
+    if(pos != end) {
+      throw LOG.isDebuggingFine() ? new NumberFormatException(TRAILING_CHARACTERS.getMessage()) : TRAILING_CHARACTERS;
+    }
+
+    return isNegative ? -decimal : decimal;
+  }
+
   /**
    * Match "inf", "infinity" in a number of different capitalizations.
    *
@@ -106,7 +106,7 @@ public class FileListParameter extends ListParameter<FileListParameter, List<URI
         if(o instanceof URI) {
           r.add((URI) o);
         }
-        if(o instanceof URL) {
+        else if(o instanceof URL) {
           try {
             r.add(((URL) o).toURI());
           }
@@ -114,7 +114,7 @@ public class FileListParameter extends ListParameter<FileListParameter, List<URI
             throw new WrongParameterValueException(this, o.toString(), e.getMessage());
           }
         }
-        if(o instanceof Path) {
+        else if(o instanceof Path) {
           r.add(((Path) o).toUri());
         }
         else if(o instanceof File) {
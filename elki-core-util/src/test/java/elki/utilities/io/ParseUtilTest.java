@@ -199,6 +199,23 @@ public class ParseUtilTest {
     assertEquals(Integer.MIN_VALUE, ParseUtil.parseIntBase10(Integer.toString(Integer.MIN_VALUE)));
   }
 
+  @Test
+  public void testIntegerBytes() {
+    for(int v : new int[] { 0, 42, -31415, Integer.MAX_VALUE, Integer.MIN_VALUE + 1, Integer.MIN_VALUE }) {
+      byte[] buf = (" " + v + " ").getBytes();
+      assertEquals(v, ParseUtil.parseIntBase10(buf, 1, buf.length - 1));
+    }
+    for(String bad : BAD_INTEGERS) {
+      try {
+        ParseUtil.parseIntBase10(bad.getBytes(), 0, bad.length());
+        fail("No exception on '" + bad + "'");
+      }
+      catch(NumberFormatException e) {
+        // Good
+      }
+    }
+  }
+
   @Test
   public void testLong() {
     assertEquals(0L, ParseUtil.parseLongBase10("0"));
@@ -0,0 +1,407 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import elki.data.type.SimpleTypeInformation;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.memory.ChunkedArrayStore;
+import elki.database.ids.*;
+import elki.database.relation.DBIDView;
+import elki.database.relation.MaterializedRelation;
+import elki.database.relation.Relation;
+import elki.datasource.DatabaseConnection;
+import elki.datasource.FileBasedDatabaseConnection;
+import elki.datasource.bundle.ObjectBundle;
+import elki.index.DynamicIndex;
+import elki.index.Index;
+import elki.index.IndexFactory;
+import elki.logging.Logging;
+import elki.logging.statistics.Duration;
+import elki.logging.statistics.LongStatistic;
+import elki.result.Metadata;
+import elki.utilities.datastructures.iterator.It;
+import elki.utilities.documentation.Description;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.ObjectListParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Database optimized for incremental loads, which only supports appending new
+ * objects, but not removing them.
+ * <p>
+ * Objects are stored in arrays that grow in chunks, indexed by DBID (which
+ * therefore must be increasing), so appending never copies existing data.
+ * Each appended batch is passed to the indexes in one bulk operation
+ * ({@link DynamicIndex#insertAll}), and a single insertion event is fired for
+ * the entire batch. Indexes that do not support dynamic updates are replaced
+ * by a new instance from their factory.
+ * <p>
+ * All objects of the database must have the same relations, i.e., every
+ * appended batch must provide the same columns as the first one.
+ * <p>
+ * As objects cannot be removed, this is not an {@link UpdatableDatabase}.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @composed - - - ChunkedArrayStore
+ * @assoc - - - DatabaseConnection
+ */
+@Description("Database optimized for appending batches of objects, with incremental index maintenance.")
+public class AppendOnlyDatabase extends AbstractDatabase {
+  /**
+   * Our logger
+   */
+  private static final Logging LOG = Logging.getLogger(AppendOnlyDatabase.class);
+
+  /**
+   * IDs of this database, in insertion order.
+   */
+  private ArrayModifiableDBIDs ids;
+
+  /**
+   * The DBID representation we use
+   */
+  private final DBIDView idrep;
+
+  /**
+   * Data stores of the relations (excluding the DBID view).
+   */
+  private WritableDataStore<?>[] stores;
+
+  /**
+   * Relations corresponding to the data stores.
+   */
+  private Relation<?>[] columns;
+
+  /**
+   * Factories of the non-dynamic indexes we added, to rebuild them.
+   */
+  private Map<Index, IndexFactory<?>> factoryOf = new IdentityHashMap<>();
+
+  /**
+   * Indexes we added to each relation, in order.
+   */
+  private Map<Relation<?>, List<Index>> ownIndexes = new HashMap<>();
+
+  /**
+   * Largest DBID stored so far.
+   */
+  private int lastid = Integer.MIN_VALUE;
+
+  /**
+   * The data source we get the initial data from.
+   */
+  protected DatabaseConnection databaseConnection;
+
+  /**
+   * Constructor.
+   *
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   */
+  public AppendOnlyDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories) {
+    super();
+    this.databaseConnection = databaseConnection;
+    this.ids = DBIDUtil.newArray();
+    this.idrep = new DBIDView(this.ids);
+    this.relations.add(idrep);
+    Metadata.hierarchyOf(this).addChild(idrep);
+
+    // Add indexes.
+    if(indexFactories != null) {
+      this.indexFactories.addAll(indexFactories);
+    }
+  }
+
+  /**
+   * Constructor with no indexes.
+   */
+  public AppendOnlyDatabase() {
+    this(null, null);
+  }
+
+  /**
+   * Initialize the database by getting the initial data from the database
+   * connection.
+   */
+  @Override
+  public void initialize() {
+    if(databaseConnection != null) {
+      this.insert(databaseConnection.loadData());
+      // Run at most once.
+      databaseConnection = null;
+    }
+  }
+
+  /**
+   * Append a batch of objects to the database.
+   * <p>
+   * If the bundle does not provide DBIDs, a new range of DBIDs is allocated.
+   * Given DBIDs must be larger than all DBIDs already in the database.
+   *
+   * @param objpackages Objects to append
+   * @return the IDs assigned to the appended objects
+   */
+  public DBIDs insert(ObjectBundle objpackages) {
+    final int size = objpackages.dataLength();
+    if(size == 0) {
+      return DBIDUtil.EMPTYDBIDS;
+    }
+    Duration duration = LOG.isStatistics() ? LOG.newDuration(getClass().getName() + ".append").begin() : null;
+    final boolean first = stores == null;
+    // Validate everything before modifying the database.
+    List<List<Index>> indexes = null;
+    if(!first) {
+      validateColumns(objpackages);
+      indexes = collectIndexes();
+    }
+    ArrayDBIDs newids = assignDBIDs(objpackages);
+    if(first) {
+      createStores(objpackages);
+    }
+    ids.addDBIDs(newids);
+    // Store data
+    for(int i = 0; i < stores.length; i++) {
+      @SuppressWarnings("unchecked")
+      final WritableDataStore<Object> store = (WritableDataStore<Object>) stores[i];
+      for(DBIDArrayIter it = newids.iter(); it.valid(); it.advance()) {
+        store.put(it, objpackages.data(it.getOffset(), i));
+      }
+    }
+    // Build or update indexes
+    for(int i = 0; i < stores.length; i++) {
+      if(first) {
+        addIndexes(columns[i]);
+      }
+      else {
+        updateIndexes(columns[i], indexes.get(i), newids);
+      }
+    }
+    if(duration != null) {
+      LOG.statistics(duration.end());
+      LOG.statistics(new LongStatistic(getClass().getName() + ".appended", size));
+      LOG.statistics(new LongStatistic(getClass().getName() + ".size", ids.size()));
+    }
+    // fire a single insertion event for the batch
+    eventManager.fireObjectsInserted(newids);
+    return newids;
+  }
+
+  /**
+   * Verify that a batch has the same columns as the existing data.
+   *
+   * @param objpackages Objects to append
+   */
+  private void validateColumns(ObjectBundle objpackages) {
+    if(objpackages.metaLength() != columns.length) {
+      throw new AbortException("Appended objects must have the same relations as the existing objects.");
+    }
+    for(int i = 0; i < columns.length; i++) {
+      if(!columns[i].getDataTypeInformation().isAssignableFromType(objpackages.meta(i))) {
+        throw new AbortException("Appended objects have an incompatible type: " + objpackages.meta(i) + " for relation " + columns[i].getLongName());
+      }
+    }
+  }
+
+  /**
+   * Assign DBIDs to a batch of objects.
+   *
+   * @param objpackages Objects to append
+   * @return DBIDs
+   */
+  private ArrayDBIDs assignDBIDs(ObjectBundle objpackages) {
+    final int size = objpackages.dataLength();
+    DBIDVar var = DBIDUtil.newVar();
+    if(!objpackages.assignDBID(0, var)) {
+      DBIDRange range = DBIDUtil.generateStaticDBIDRange(size);
+      if(DBIDUtil.asInteger(range.iter()) <= lastid) {
+        throw new AbortException("Newly allocated DBIDs conflict with previously appended DBIDs.");
+      }
+      lastid = DBIDUtil.asInteger(range.iter().seek(size - 1));
+      return range;
+    }
+    ArrayModifiableDBIDs newids = DBIDUtil.newArray(size);
+    int prev = lastid;
+    for(int j = 0; j < size; j++) {
+      if(j > 0 && !objpackages.assignDBID(j, var)) {
+        throw new AbortException("Either all or no objects of a batch must have DBIDs.");
+      }
+      final int id = DBIDUtil.asInteger(var);
+      if(id <= prev) {
+        throw new AbortException("Appended DBIDs must be increasing: " + id + " <= " + prev);
+      }
+      prev = id;
+      newids.add(var);
+    }
+    lastid = prev;
+    return newids;
+  }
+
+  /**
+   * Collect the indexes of all relations, and verify that each can either be
+   * updated or be rebuilt from its factory.
+   *
+   * @return Indexes of each relation
+   */
+  private List<List<Index>> collectIndexes() {
+    List<List<Index>> indexes = new ArrayList<>(columns.length);
+    for(Relation<?> relation : columns) {
+      List<Index> idx = new ArrayList<>();
+      for(It<Index> it = Metadata.hierarchyOf(relation).iterDescendants().filter(Index.class); it.valid(); it.advance()) {
+        if(!(it.get() instanceof DynamicIndex) && !factoryOf.containsKey(it.get())) {
+          throw new AbortException("A non-dynamic index was added to this database. Modifications are not allowed, unless this index is removed.");
+        }
+        idx.add(it.get());
+      }
+      indexes.add(idx);
+    }
+    return indexes;
+  }
+
+  /**
+   * Pass a batch of new objects to the indexes of a relation. Non-dynamic
+   * indexes are replaced by a new instance, built from their factory.
+   *
+   * @param relation Relation
+   * @param indexes Indexes of the relation, see {@link #collectIndexes}
+   * @param newids New objects
+   */
+  @SuppressWarnings("unchecked")
+  private void updateIndexes(Relation<?> relation, List<Index> indexes, DBIDs newids) {
+    final List<Index> own = ownIndexes.get(relation);
+    int firstReplaced = own.size();
+    for(Index index : indexes) {
+      if(index instanceof DynamicIndex) {
+        ((DynamicIndex) index).insertAll(newids);
+        continue;
+      }
+      if(LOG.isVerbose()) {
+        LOG.verbose("Rebuilding non-dynamic index " + index.getClass().getName());
+      }
+      final IndexFactory<?> factory = factoryOf.remove(index);
+      final Index rebuilt = ((IndexFactory<Object>) factory).instantiate((Relation<Object>) relation);
+      rebuilt.initialize();
+      factoryOf.put(rebuilt, factory);
+      final int pos = own.indexOf(index);
+      own.set(pos, rebuilt);
+      Metadata.hierarchyOf(relation).removeChild(index);
+      firstReplaced = Math.min(firstReplaced, pos);
+    }
+    // Re-add in the original order, which the query optimizer uses.
+    for(int k = firstReplaced; k < own.size(); k++) {
+      Metadata.hierarchyOf(relation).removeChild(own.get(k));
+      Metadata.hierarchyOf(relation).addChild(own.get(k));
+    }
+  }
+
+  /**
+   * Create the relations and data stores for the first batch.
+   *
+   * @param pack Package to process
+   */
+  @SuppressWarnings("unchecked")
+  private void createStores(ObjectBundle pack) {
+    stores = new WritableDataStore<?>[pack.metaLength()];
+    columns = new Relation<?>[pack.metaLength()];
+    for(int i = 0; i < stores.length; i++) {
+      final ChunkedArrayStore<Object> store = new ChunkedArrayStore<>();
+      stores[i] = store;
+      Relation<?> relation = columns[i] = new MaterializedRelation<>(null, (SimpleTypeInformation<Object>) pack.meta(i), ids, store);
+      relations.add(relation);
+      Metadata.hierarchyOf(this).addChild(relation);
+    }
+  }
+
+  /**
+   * Add and build the indexes of a relation.
+   *
+   * @param relation Relation
+   */
+  @SuppressWarnings("unchecked")
+  private void addIndexes(Relation<?> relation) {
+    final SimpleTypeInformation<?> meta = relation.getDataTypeInformation();
+    final List<Index> own = new ArrayList<>();
+    ownIndexes.put(relation, own);
+    for(IndexFactory<?> factory : indexFactories) {
+      if(factory.getInputTypeRestriction().isAssignableFromType(meta)) {
+        final Index index = ((IndexFactory<Object>) factory).instantiate((Relation<Object>) relation);
+        Duration duration = LOG.isStatistics() ? LOG.newDuration(index.getClass().getName() + ".construction").begin() : null;
+        index.initialize();
+        if(duration != null) {
+          LOG.statistics(duration.end());
+        }
+        Metadata.hierarchyOf(relation).addChild(index);
+        own.add(index);
+        if(!(index instanceof DynamicIndex)) {
+          factoryOf.put(index, factory);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par extends AbstractDatabase.Par {
+    /**
+     * Holds the database connection to get the initial data from.
+     */
+    protected DatabaseConnection databaseConnection = null;
+
+    /**
+     * Indexes to add.
+     */
+    private Collection<? extends IndexFactory<?>> indexFactories;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      // Get database connection.
+      new ObjectParameter<DatabaseConnection>(DATABASE_CONNECTION_ID, DatabaseConnection.class, FileBasedDatabaseConnection.class) //
+          .grab(config, x -> databaseConnection = x);
+      // Get indexes.
+      new ObjectListParameter<IndexFactory<?>>(INDEX_ID, IndexFactory.class) //
+          .setOptional(true) //
+          .grab(config, x -> indexFactories = x);
+    }
+
+    @Override
+    public AppendOnlyDatabase make() {
+      return new AppendOnlyDatabase(databaseConnection, indexFactories);
+    }
+  }
+}
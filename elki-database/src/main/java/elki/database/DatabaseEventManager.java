@@ -95,28 +95,45 @@ public class DatabaseEventManager {
    * @see DataStoreEvent
    */
   public void flushDataStoreEvents() {
+    dispatchAccumulated();
+    accumulateDataStoreEvents = false;
+  }
+
+  /**
+   * Fire the accumulated event, if any, but remain in accumulation mode.
+   */
+  private void dispatchAccumulated() {
+    if(currentDataStoreEventType != null && dataStoreObjects != null) {
+      dispatch(dataStoreObjects, currentDataStoreEventType);
+    }
+    currentDataStoreEventType = null;
+    dataStoreObjects = null;
+  }
+
+  /**
+   * Notify the listeners of a change of a batch of objects.
+   *
+   * @param objects Changed objects
+   * @param type Type of change
+   */
+  private void dispatch(DBIDs objects, Type type) {
     DataStoreEvent e;
-    switch(currentDataStoreEventType){
+    switch(type){
     case INSERT:
-      e = DataStoreEvent.insertionEvent(dataStoreObjects);
+      e = DataStoreEvent.insertionEvent(objects);
       break;
     case REMOVE:
-      e = DataStoreEvent.removalEvent(dataStoreObjects);
+      e = DataStoreEvent.removalEvent(objects);
       break;
     case UPDATE:
-      e = DataStoreEvent.updateEvent(dataStoreObjects);
+      e = DataStoreEvent.updateEvent(objects);
       break;
     default:
       return;
     }
-
     for(int i = dataListenerList.size(); --i >= 0;) {
       dataListenerList.get(i).contentChanged(e);
     }
-    // reset
-    accumulateDataStoreEvents = false;
-    currentDataStoreEventType = null;
-    dataStoreObjects = null;
   }
 
   /**
@@ -236,37 +253,20 @@ public class DatabaseEventManager {
    *        or updated
    */
   private void fireObjectsChanged(DBIDs objects, Type type) {
-    // flush first
+    // flush first, but keep accumulating
     if(currentDataStoreEventType != null && !currentDataStoreEventType.equals(type)) {
-      flushDataStoreEvents();
+      dispatchAccumulated();
     }
     if(accumulateDataStoreEvents) {
       if(this.dataStoreObjects == null) {
-        this.dataStoreObjects = DBIDUtil.newHashSet();
+        this.dataStoreObjects = DBIDUtil.newHashSet(objects.size());
       }
       this.dataStoreObjects.addDBIDs(objects);
       currentDataStoreEventType = type;
       return;
     }
-    // Execute immediately:
-    DataStoreEvent e;
-    switch(type){
-    case INSERT:
-      e = DataStoreEvent.insertionEvent(objects);
-      break;
-    case REMOVE:
-      e = DataStoreEvent.removalEvent(objects);
-      break;
-    case UPDATE:
-      e = DataStoreEvent.updateEvent(objects);
-      break;
-    default:
-      return;
-    }
-
-    for(int i = dataListenerList.size(); --i >= 0;) {
-      dataListenerList.get(i).contentChanged(e);
-    }
+    // Execute immediately, as one event for the entire batch:
+    dispatch(objects, type);
   }
 
   /**
@@ -283,19 +283,19 @@ public class DatabaseEventManager {
    *        updated
    */
   private void fireObjectChanged(DBIDRef object, Type type) {
-    // flush first
+    // flush first, but keep accumulating
     if(currentDataStoreEventType != null && !currentDataStoreEventType.equals(type)) {
-      flushDataStoreEvents();
+      dispatchAccumulated();
+    }
+    if(!accumulateDataStoreEvents) {
+      dispatch(DBIDUtil.deref(object), type);
+      return;
     }
     if(this.dataStoreObjects == null) {
       this.dataStoreObjects = DBIDUtil.newHashSet();
     }
     this.dataStoreObjects.add(object);
     currentDataStoreEventType = type;
-
-    if(!accumulateDataStoreEvents) {
-      flushDataStoreEvents();
-    }
   }
 
   /**
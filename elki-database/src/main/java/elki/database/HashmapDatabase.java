@@ -22,6 +22,7 @@ package elki.database;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import elki.data.type.SimpleTypeInformation;
 import elki.database.ids.*;
@@ -125,12 +126,12 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
       return DBIDUtil.EMPTYDBIDS;
     }
     // insert into db
-    ArrayModifiableDBIDs newids = DBIDUtil.newArray(objpackages.dataLength());
+    final int size = objpackages.dataLength();
+    ArrayModifiableDBIDs newids = DBIDUtil.newArray(size);
     Relation<?>[] targets = alignColumns(objpackages);
 
     DBIDVar var = DBIDUtil.newVar();
-    for(int j = 0; j < objpackages.dataLength(); j++) {
-      // insert object
+    for(int j = 0; j < size; j++) {
       if(!objpackages.assignDBID(j, var)) {
         var.set(DBIDUtil.generateSingleDBID());
       }
@@ -138,16 +139,21 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
         throw new AbortException("Duplicate DBID conflict.");
       }
       ids.add(var);
-      for(int i = 0; i < targets.length; i++) {
-        if(!(targets[i] instanceof ModifiableRelation)) {
-          throw new AbortException("Non-modifiable relations have been added to the database.");
-        }
-        @SuppressWarnings("unchecked")
-        final ModifiableRelation<Object> relation = (ModifiableRelation<Object>) targets[i];
-        relation.insert(var, objpackages.data(j, i));
-      }
       newids.add(var);
     }
+    // insert the entire batch into each relation, to allow bulk index updates
+    for(int i = 0; i < targets.length; i++) {
+      if(!(targets[i] instanceof ModifiableRelation)) {
+        throw new AbortException("Non-modifiable relations have been added to the database.");
+      }
+      @SuppressWarnings("unchecked")
+      final ModifiableRelation<Object> relation = (ModifiableRelation<Object>) targets[i];
+      List<Object> column = new ArrayList<>(size);
+      for(int j = 0; j < size; j++) {
+        column.add(objpackages.data(j, i));
+      }
+      relation.insertAll(newids, column);
+    }
 
     // fire insertion event
     eventManager.fireObjectsInserted(newids);
@@ -210,9 +216,8 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
   }
 
   /**
-   * Removes the objects from the database (by calling
-   * {@link #doDelete(DBIDRef)} for each object) and indexes and fires a
-   * deletion event.
+   * Removes the objects from the database and indexes (in one batch per
+   * relation) and fires a deletion event.
    *
    * {@inheritDoc}
    */
@@ -228,8 +233,16 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
       bundle.appendColumn(relation.getDataTypeInformation(), data);
     }
     // remove from db
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      doDelete(iter);
+    this.ids.removeDBIDs(ids);
+    for(Relation<?> relation : relations) {
+      // IDs have already been removed, and this would loop...
+      if(relation == idrep) {
+        continue;
+      }
+      if(!(relation instanceof ModifiableRelation)) {
+        throw new AbortException("Non-modifiable relations have been added to the database.");
+      }
+      ((ModifiableRelation<?>) relation).deleteAll(ids);
     }
     // fire deletion event
     eventManager.fireObjectsRemoved(ids);
@@ -0,0 +1,527 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import elki.data.NumberVector;
+import elki.database.ids.*;
+import elki.database.relation.Relation;
+import elki.index.SnapshotIndex;
+import elki.logging.Logging;
+import elki.utilities.ClassGenericsUtil;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.parameterization.EmptyParameterization;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
+import elki.utilities.optionhandling.parameterization.TrackedParameter;
+import elki.utilities.optionhandling.parameters.ObjectListParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.Parameter;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Utility functions to write and load snapshots of built indexes, see
+ * {@link SnapshotIndex}.
+ * <p>
+ * A snapshot file starts with a header containing the index class and a
+ * fingerprint of the indexed relation (the DBIDs and the data), followed by
+ * the index parameters and structure. Index parameters are compared by a
+ * description provided by the index factories (see {@link #describe}), and
+ * indexes with parameters without a stable description are not stored.
+ * <p>
+ * Indexes read their structure from a {@link ByteBuffer} of the file contents
+ * into their usual in-memory data structures, so loading a snapshot saves the
+ * construction cost, but not memory. Because buffers are indexed by integers,
+ * snapshots are limited to 2 GB each; larger indexes are not stored.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @assoc - - - SnapshotIndex
+ */
+public final class IndexSnapshots {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(IndexSnapshots.class);
+
+  /**
+   * Magic number of snapshot files.
+   */
+  public static final int SNAPSHOT_MAGIC = 0x454C4B53; // "ELKS"
+
+  /**
+   * Version of the snapshot header.
+   */
+  private static final int VERSION = 2;
+
+  /**
+   * Private constructor. Static methods only.
+   */
+  private IndexSnapshots() {
+    // Do not use.
+  }
+
+  /**
+   * Compute a fingerprint of a relation, from the DBIDs and the data.
+   * <p>
+   * Number vectors are hashed by their values; other objects use their hash
+   * code (if this is not stable across runs, snapshots will not be reused).
+   *
+   * @param relation Relation
+   * @return Fingerprint
+   */
+  public static long fingerprint(Relation<?> relation) {
+    long h = mix(0xcbf29ce484222325L, relation.size());
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      h = mix(h, DBIDUtil.asInteger(it));
+      final Object o = relation.get(it);
+      if(o instanceof NumberVector) {
+        final NumberVector v = (NumberVector) o;
+        final int dim = v.getDimensionality();
+        h = mix(h, dim);
+        for(int d = 0; d < dim; d++) {
+          h = mix(h, Double.doubleToLongBits(v.doubleValue(d)));
+        }
+      }
+      else {
+        h = mix(h, o != null ? o.hashCode() : 0);
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Mix a value into a hash.
+   *
+   * @param h Previous hash
+   * @param v Value
+   * @return New hash
+   */
+  private static long mix(long h, long v) {
+    h ^= v;
+    h *= 0x100000001b3L;
+    return h ^ (h >>> 29);
+  }
+
+  /**
+   * Describe the parameters of an index factory, as tracked while configuring
+   * the factory. Factories should only track the parameters that affect the
+   * index structure.
+   * <p>
+   * Objects given as instances rather than configured by class name are only
+   * described by their class, if they do not have parameters themselves.
+   *
+   * @param config Tracked parameterization
+   * @return Description, or {@code null} if some parameter has no stable
+   *         description (then snapshots will not be stored)
+   */
+  public static String describe(TrackParameters config) {
+    final Collection<TrackedParameter> params = config.getAllParameters();
+    // Options and objects that were configured with nested parameters
+    Set<Object> configured = new HashSet<>();
+    for(TrackedParameter p : params) {
+      for(Object o = p.getOwner(); o != null && configured.add(o); o = config.getParent(o)) {
+        // Add all ancestors
+      }
+    }
+    StringBuilder buf = new StringBuilder(100);
+    for(TrackedParameter p : params) {
+      final Parameter<?> par = p.getParameter();
+      if(!par.isDefined()) {
+        continue;
+      }
+      if(!configured.contains(par)) {
+        if(par instanceof ObjectParameter && !isParameterless(((ObjectParameter<?>) par).getValue())) {
+          return null;
+        }
+        if(par instanceof ObjectListParameter) {
+          for(Class<?> c : ((ObjectListParameter<?>) par).getValue()) {
+            if(!isParameterless(c)) {
+              return null;
+            }
+          }
+        }
+      }
+      buf.append(par.getOptionID().getName()).append('=').append(par.getValueAsString()).append(';');
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Describe the parameters of an index factory that was not configured via
+   * a {@link Parameterization}, by their values. Objects are only described
+   * by their class, if they do not have parameters themselves.
+   * <p>
+   * Random generator factories are described by their current state, so the
+   * description needs to be obtained before the random generator is used.
+   *
+   * @param params Parameter values
+   * @return Description, or {@code null} if some parameter has no stable
+   *         description (then snapshots will not be stored)
+   */
+  public static String describe(Object... params) {
+    StringBuilder buf = new StringBuilder(100);
+    for(Object o : params) {
+      if(o == null || o instanceof Number || o instanceof Boolean || o instanceof String) {
+        buf.append(o);
+      }
+      else if(o instanceof Enum) {
+        buf.append(((Enum<?>) o).getDeclaringClass().getName()).append('.').append(((Enum<?>) o).name());
+      }
+      else if(o instanceof RandomFactory && o.getClass() == RandomFactory.class) {
+        buf.append(o);
+      }
+      else if(isParameterless(o.getClass())) {
+        buf.append(o.getClass().getName());
+      }
+      else {
+        return null;
+      }
+      buf.append(';');
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Test whether a class is configured without any parameters, so that all
+   * its instances are equivalent.
+   *
+   * @param c Class
+   * @return {@code true} if the class has a parameterizer without parameters
+   */
+  private static boolean isParameterless(Class<?> c) {
+    Parameterizer par = ClassGenericsUtil.getParameterizer(c);
+    if(par == null) {
+      return false;
+    }
+    TrackParameters track = new TrackParameters(new EmptyParameterization());
+    try {
+      par.configure(track);
+    }
+    catch(RuntimeException e) {
+      return false;
+    }
+    return track.getAllParameters().isEmpty();
+  }
+
+  /**
+   * Write a parameter description obtained from {@link #describe}.
+   *
+   * @param out Output
+   * @param parameters Parameter description
+   * @throws IOException if the parameters have no stable description
+   */
+  public static void writeParameters(DataOutput out, String parameters) throws IOException {
+    if(parameters == null) {
+      throw new IOException("The index parameters have no stable description.");
+    }
+    final byte[] buf = parameters.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(buf.length);
+    out.write(buf);
+  }
+
+  /**
+   * Read a parameter description written with {@link #writeParameters}, and
+   * compare it to the current parameters.
+   *
+   * @param in Input buffer
+   * @param parameters Current parameter description
+   * @return {@code true} if the parameters are the same
+   */
+  public static boolean matchParameters(ByteBuffer in, String parameters) {
+    final int len = in.getInt();
+    if(parameters == null || len < 0 || len > in.remaining()) {
+      return false;
+    }
+    final byte[] buf = new byte[len];
+    in.get(buf);
+    return parameters.equals(new String(buf, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Try to load an index snapshot.
+   *
+   * @param index Index to load
+   * @param file Snapshot file
+   * @param fingerprint Fingerprint of the indexed relation
+   * @return {@code true} if successful, {@code false} if the index needs to be
+   *         rebuilt
+   */
+  public static boolean load(SnapshotIndex index, Path file, long fingerprint) {
+    if(!Files.isRegularFile(file)) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if(channel.size() > Integer.MAX_VALUE) {
+        return false;
+      }
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      if(buffer.remaining() < 16 || buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != VERSION) {
+        LOG.warning("Not a valid index snapshot: " + file);
+        return false;
+      }
+      if(buffer.getLong() != fingerprint || !index.getClass().getName().equals(readString(buffer))) {
+        LOG.verbose("Index snapshot " + file + " does not match the data, rebuilding.");
+        return false;
+      }
+      if(!index.loadSnapshot(buffer)) {
+        LOG.verbose("Index snapshot " + file + " does not match the index parameters, rebuilding.");
+        return false;
+      }
+      LOG.verbose("Loaded index snapshot " + file);
+      return true;
+    }
+    catch(IOException | RuntimeException e) {
+      LOG.warning("Loading index snapshot " + file + " failed: " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Write an index snapshot. The file is replaced only when the new snapshot
+   * was written completely.
+   *
+   * @param index Index to store
+   * @param file Snapshot file
+   * @param fingerprint Fingerprint of the indexed relation
+   */
+  public static void save(SnapshotIndex index, Path file, long fingerprint) {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new LimitedOutputStream(Files.newOutputStream(tmp), Integer.MAX_VALUE), 1 << 16))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(fingerprint);
+        out.writeUTF(index.getClass().getName());
+        index.writeSnapshot(out);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      LOG.verbose("Wrote index snapshot " + file);
+    }
+    catch(IOException e) {
+      LOG.warning("Writing index snapshot " + file + " failed: " + e.getMessage());
+      try {
+        Files.deleteIfExists(tmp);
+      }
+      catch(IOException e2) {
+        // Ignore.
+      }
+    }
+  }
+
+  /**
+   * Read a string written with {@link DataOutput#writeUTF}.
+   *
+   * @param in Input buffer
+   * @return String
+   * @throws IOException on invalid data
+   */
+  public static String readString(ByteBuffer in) throws IOException {
+    final int len = in.getShort() & 0xFFFF;
+    byte[] buf = new byte[len + 2];
+    buf[0] = (byte) (len >>> 8);
+    buf[1] = (byte) len;
+    in.get(buf, 2, len);
+    return new DataInputStream(new ByteArrayInputStream(buf)).readUTF();
+  }
+
+  /**
+   * Write an integer array, with its length.
+   *
+   * @param out Output
+   * @param data Data to write
+   * @throws IOException on write errors
+   */
+  public static void writeInts(DataOutput out, int[] data) throws IOException {
+    out.writeInt(data.length);
+    for(int v : data) {
+      out.writeInt(v);
+    }
+  }
+
+  /**
+   * Read an integer array written with {@link #writeInts}.
+   *
+   * @param in Input buffer
+   * @return Data
+   */
+  public static int[] readInts(ByteBuffer in) {
+    int[] data = new int[in.getInt()];
+    in.asIntBuffer().get(data);
+    in.position(in.position() + (data.length << 2));
+    return data;
+  }
+
+  /**
+   * Write a double array, with its length.
+   *
+   * @param out Output
+   * @param data Data to write
+   * @throws IOException on write errors
+   */
+  public static void writeDoubles(DataOutput out, double[] data) throws IOException {
+    out.writeInt(data.length);
+    for(double v : data) {
+      out.writeDouble(v);
+    }
+  }
+
+  /**
+   * Read a double array written with {@link #writeDoubles}.
+   *
+   * @param in Input buffer
+   * @return Data
+   */
+  public static double[] readDoubles(ByteBuffer in) {
+    double[] data = new double[in.getInt()];
+    in.asDoubleBuffer().get(data);
+    in.position(in.position() + (data.length << 3));
+    return data;
+  }
+
+  /**
+   * Write DBIDs, with their count. The DBIDs are stored as integers, which is
+   * valid as long as the relation fingerprint matches.
+   *
+   * @param out Output
+   * @param ids DBIDs to write
+   * @throws IOException on write errors
+   */
+  public static void writeDBIDs(DataOutput out, DBIDs ids) throws IOException {
+    out.writeInt(ids.size());
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      out.writeInt(DBIDUtil.asInteger(it));
+    }
+  }
+
+  /**
+   * Read DBIDs written with {@link #writeDBIDs}.
+   *
+   * @param in Input buffer
+   * @return DBIDs
+   */
+  public static ArrayModifiableDBIDs readDBIDs(ByteBuffer in) {
+    final int size = in.getInt();
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray(size);
+    for(int i = 0; i < size; i++) {
+      ids.add(DBIDUtil.importInteger(in.getInt()));
+    }
+    return ids;
+  }
+
+  /**
+   * Write a list of DBIDs with distances, with its size.
+   *
+   * @param out Output
+   * @param list List to write
+   * @throws IOException on write errors
+   */
+  public static void writeDoubleDBIDList(DataOutput out, DoubleDBIDList list) throws IOException {
+    out.writeInt(list.size());
+    for(DoubleDBIDListIter it = list.iter(); it.valid(); it.advance()) {
+      out.writeInt(DBIDUtil.asInteger(it));
+      out.writeDouble(it.doubleValue());
+    }
+  }
+
+  /**
+   * Read a list written with {@link #writeDoubleDBIDList}.
+   *
+   * @param in Input buffer
+   * @return List
+   */
+  public static ModifiableDoubleDBIDList readDoubleDBIDList(ByteBuffer in) {
+    final int size = in.getInt();
+    ModifiableDoubleDBIDList list = DBIDUtil.newDistanceDBIDList(size);
+    for(int i = 0; i < size; i++) {
+      final int id = in.getInt();
+      list.add(in.getDouble(), DBIDUtil.importInteger(id));
+    }
+    return list;
+  }
+
+  /**
+   * Output stream that fails when more than a maximum number of bytes are
+   * written.
+   *
+   * @author Erich Schubert
+   */
+  private static class LimitedOutputStream extends FilterOutputStream {
+    /**
+     * Number of bytes written.
+     */
+    private long written = 0;
+
+    /**
+     * Maximum number of bytes.
+     */
+    private final long limit;
+
+    /**
+     * Constructor.
+     *
+     * @param out Output stream
+     * @param limit Maximum number of bytes
+     */
+    LimitedOutputStream(OutputStream out, long limit) {
+      super(out);
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      count(1);
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      count(len);
+      out.write(b, off, len);
+    }
+
+    /**
+     * Count written bytes.
+     *
+     * @param len Number of bytes
+     * @throws IOException when the limit is exceeded
+     */
+    private void count(int len) throws IOException {
+      if((written += len) > limit) {
+        throw new IOException("Snapshot exceeds the maximum size of " + limit + " bytes.");
+      }
+    }
+  }
+}
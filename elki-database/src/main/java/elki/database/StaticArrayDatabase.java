@@ -20,6 +20,10 @@
  */
 package elki.database;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collection;
 
 import elki.data.type.SimpleTypeInformation;
@@ -38,11 +42,15 @@ import elki.datasource.FileBasedDatabaseConnection;
 import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.index.Index;
 import elki.index.IndexFactory;
+import elki.index.SnapshotIndex;
 import elki.logging.Logging;
 import elki.logging.statistics.Duration;
 import elki.result.Metadata;
 import elki.utilities.documentation.Description;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
 import elki.utilities.optionhandling.parameters.ObjectListParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -81,6 +89,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
    */
   protected DatabaseConnection databaseConnection;
 
+  /**
+   * Directory for index snapshots, may be {@code null}.
+   */
+  protected Path snapshots;
+
   /**
    * Constructor.
    *
@@ -88,8 +101,21 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @param indexFactories Indexes to add
    */
   public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories) {
+    this(databaseConnection, indexFactories, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param snapshots Directory to store and load index snapshots, may be
+   *        {@code null}
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<? extends IndexFactory<?>> indexFactories, Path snapshots) {
     super();
     this.databaseConnection = databaseConnection;
+    this.snapshots = snapshots;
     this.ids = null;
     this.idrep = null;
 
@@ -123,6 +149,14 @@ public class StaticArrayDatabase extends AbstractDatabase {
     MultipleObjectsBundle bundle = databaseConnection.loadData();
     // Run at most once.
     databaseConnection = null;
+    if(snapshots != null) {
+      try {
+        Files.createDirectories(snapshots);
+      }
+      catch(IOException e) {
+        throw new AbortException("Cannot create the index snapshot directory " + snapshots, e);
+      }
+    }
 
     // Find DBIDs for bundle
     {
@@ -159,7 +193,10 @@ public class StaticArrayDatabase extends AbstractDatabase {
       Metadata.hierarchyOf(this).addChild(relation);
 
       // Try to add indexes where appropriate
+      long fingerprint = 0;
+      int j = 0;
       for(IndexFactory<?> factory : indexFactories) {
+        ++j;
         if(factory.getInputTypeRestriction().isAssignableFromType(ometa)) {
           @SuppressWarnings("unchecked")
           final IndexFactory<Object> ofact = (IndexFactory<Object>) factory;
@@ -167,7 +204,17 @@ public class StaticArrayDatabase extends AbstractDatabase {
           final Relation<Object> orep = (Relation<Object>) relation;
           final Index index = ofact.instantiate(orep);
           Duration duration = LOG.isStatistics() ? LOG.newDuration(index.getClass().getName() + ".construction").begin() : null;
-          index.initialize();
+          if(snapshots != null && index instanceof SnapshotIndex) {
+            fingerprint = fingerprint != 0 ? fingerprint : IndexSnapshots.fingerprint(relation);
+            final Path file = snapshots.resolve("relation" + i + "-index" + j + "-" + index.getClass().getName() + ".snapshot");
+            if(!IndexSnapshots.load((SnapshotIndex) index, file, fingerprint)) {
+              index.initialize();
+              IndexSnapshots.save((SnapshotIndex) index, file, fingerprint);
+            }
+          }
+          else {
+            index.initialize();
+          }
           if(duration != null) {
             LOG.statistics(duration.end());
           }
@@ -196,11 +243,21 @@ public class StaticArrayDatabase extends AbstractDatabase {
      */
     protected DatabaseConnection databaseConnection = null;
 
+    /**
+     * Option to specify a directory for index snapshots.
+     */
+    public static final OptionID SNAPSHOT_ID = new OptionID("db.index.snapshot", "Directory to store snapshots of the built indexes in, which are loaded on subsequent runs on the same data instead of rebuilding the indexes.");
+
     /**
      * Indexes to add.
      */
     private Collection<? extends IndexFactory<?>> indexFactories;
 
+    /**
+     * Directory for index snapshots.
+     */
+    private Path snapshots;
+
     @Override
     public void configure(Parameterization config) {
       super.configure(config);
@@ -211,11 +268,14 @@ public class StaticArrayDatabase extends AbstractDatabase {
       new ObjectListParameter<IndexFactory<?>>(INDEX_ID, IndexFactory.class) //
           .setOptional(true) //
           .grab(config, x -> indexFactories = x);
+      new FileParameter(SNAPSHOT_ID, FileParameter.FileType.OUTPUT_FILE) //
+          .setOptional(true) //
+          .grab(config, x -> snapshots = Paths.get(x));
     }
 
     @Override
     public StaticArrayDatabase make() {
-      return new StaticArrayDatabase(databaseConnection, indexFactories);
+      return new StaticArrayDatabase(databaseConnection, indexFactories, snapshots);
     }
   }
 }
@@ -77,6 +77,11 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
    */
   private final Constructor<? extends Index> kdIndex;
 
+  /**
+   * HNSW graph index class.
+   */
+  private final Constructor<? extends Index> hnswIndex;
+
   /**
    * Constructor.
    */
@@ -133,6 +138,19 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
       LOG.exception(e);
     }
     this.kdIndex = kdIndex;
+    //
+    Constructor<? extends Index> hnswIndex = null;
+    try {
+      Class<?> cls = this.getClass().getClassLoader().loadClass("elki.index.graph.HNSW");
+      hnswIndex = (Constructor<? extends Index>) cls.getConstructor(Relation.class, Distance.class);
+    }
+    catch(ClassNotFoundException e) {
+      LOG.verbose("HNSW is not available, and cannot be automatically used for optimization.");
+    }
+    catch(NoSuchMethodException | SecurityException e) {
+      LOG.exception(e);
+    }
+    this.hnswIndex = hnswIndex;
   }
 
   @Override
@@ -141,9 +159,7 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
       @SuppressWarnings("unchecked")
       DistanceIndex<O> idx = (DistanceIndex<O>) makeMatrixIndex(relation, distance);
       if(idx != null) {
-        if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
-          Metadata.hierarchyOf(relation).addWeakChild(idx);
-        }
+        addIndex(relation, idx, flags);
         return ((DistanceIndex<O>) idx).getDistanceQuery(distance);
       }
     }
@@ -153,14 +169,9 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
   @Override
   @SuppressWarnings("unchecked")
   public <O> KNNSearcher<O> kNNByObject(Relation<? extends O> relation, DistanceQuery<O> distanceQuery, int maxk, int flags) {
-    KNNIndex<O> idx = makeCoverTree(relation, distanceQuery.getDistance());
-    if(idx == null) { // Try k-d-tree for squared Euclidean mostly
-      idx = makeKDTree(relation, distanceQuery.getDistance());
-    }
+    KNNIndex<O> idx = makeIndex(relation, distanceQuery.getDistance(), flags);
     if(idx != null) {
-      if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
-        Metadata.hierarchyOf(relation).addWeakChild(idx);
-      }
+      addIndex(relation, idx, flags);
       // Precomputation can be useful additionally!
       if((flags & QueryBuilder.FLAG_PRECOMPUTE) == 0) {
         return idx.kNNByObject(distanceQuery, maxk, flags);
@@ -180,9 +191,7 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
       idx = (KNNIndex<O>) knnIndex.newInstance(relation, distanceQuery, maxk, true);
       LOG.verbose("Optimizer: Automatically adding a knn preprocessor.");
       idx.initialize();
-      if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
-        Metadata.hierarchyOf(relation).addWeakChild(idx);
-      }
+      addIndex(relation, idx, flags);
       return idx.kNNByObject(distanceQuery, maxk, flags);
     }
     catch(InstantiationException | IllegalAccessException
@@ -195,17 +204,12 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
   @Override
   @SuppressWarnings("unchecked")
   public <O> KNNSearcher<DBIDRef> kNNByDBID(Relation<? extends O> relation, DistanceQuery<O> distanceQuery, int maxk, int flags) {
-    KNNIndex<O> idx = makeCoverTree(relation, distanceQuery.getDistance());
-    if(idx == null) { // Try k-d-tree for squared Euclidean mostly
-      idx = makeKDTree(relation, distanceQuery.getDistance());
-    }
+    KNNIndex<O> idx = makeIndex(relation, distanceQuery.getDistance(), flags);
     if(idx == null && (flags & QueryBuilder.FLAG_PRECOMPUTE) != 0 && (relation.getDBIDs() instanceof DBIDRange)) {
       idx = makeMatrixIndex(relation, distanceQuery.getDistance());
     }
     if(idx != null) {
-      if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
-        Metadata.hierarchyOf(relation).addWeakChild(idx);
-      }
+      addIndex(relation, idx, flags);
       // Precomputation can be useful additionally!
       if((flags & QueryBuilder.FLAG_PRECOMPUTE) == 0) {
         return idx.kNNByDBID(distanceQuery, maxk, flags);
@@ -225,9 +229,7 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
       idx = (KNNIndex<O>) knnIndex.newInstance(relation, distanceQuery, maxk, true);
       LOG.verbose("Optimizer: Automatically adding a knn preprocessor.");
       idx.initialize();
-      if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
-        Metadata.hierarchyOf(relation).addWeakChild(idx);
-      }
+      addIndex(relation, idx, flags);
       return idx.kNNByDBID(distanceQuery, maxk, flags);
     }
     catch(InstantiationException | IllegalAccessException
@@ -239,68 +241,112 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
 
   @Override
   public <O> RangeSearcher<O> rangeByObject(Relation<? extends O> relation, DistanceQuery<O> distanceQuery, double maxrange, int flags) {
-    RangeIndex<O> idx = makeCoverTree(relation, distanceQuery.getDistance());
-    if(idx == null) { // Try k-d-tree for squared Euclidean mostly
-      idx = makeKDTree(relation, distanceQuery.getDistance());
-    }
+    RangeIndex<O> idx = makeIndex(relation, distanceQuery.getDistance(), flags);
     if(idx == null) {
       return null;
     }
-    if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
-      Metadata.hierarchyOf(relation).addWeakChild(idx);
-    }
+    addIndex(relation, idx, flags);
     return idx.rangeByObject(distanceQuery, maxrange, flags);
   }
 
   @Override
   public <O> RangeSearcher<DBIDRef> rangeByDBID(Relation<? extends O> relation, DistanceQuery<O> distanceQuery, double maxrange, int flags) {
-    RangeIndex<O> idx = makeCoverTree(relation, distanceQuery.getDistance());
-    if(idx == null) { // Try k-d-tree for squared Euclidean mostly
-      idx = makeKDTree(relation, distanceQuery.getDistance());
-    }
+    RangeIndex<O> idx = makeIndex(relation, distanceQuery.getDistance(), flags);
     if(idx == null && (flags & QueryBuilder.FLAG_PRECOMPUTE) != 0) {
       idx = makeMatrixIndex(relation, distanceQuery.getDistance());
     }
     if(idx == null) {
       return null;
     }
-    if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
-      Metadata.hierarchyOf(relation).addWeakChild(idx);
-    }
+    addIndex(relation, idx, flags);
     return idx.rangeByDBID(distanceQuery, maxrange, flags);
   }
 
   @Override
   public <O> PrioritySearcher<O> priorityByObject(Relation<? extends O> relation, DistanceQuery<O> distanceQuery, double maxrange, int flags) {
-    DistancePriorityIndex<O> idx = makeCoverTree(relation, distanceQuery.getDistance());
-    if(idx == null) { // Try k-d-tree for squared Euclidean mostly
-      idx = makeKDTree(relation, distanceQuery.getDistance());
-    }
+    DistancePriorityIndex<O> idx = makeIndex(relation, distanceQuery.getDistance(), flags);
     if(idx == null) {
       return null;
     }
-    if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
-      Metadata.hierarchyOf(relation).addWeakChild(idx);
-    }
+    addIndex(relation, idx, flags);
     return idx.priorityByObject(distanceQuery, maxrange, flags);
   }
 
   @Override
   public <O> PrioritySearcher<DBIDRef> priorityByDBID(Relation<? extends O> relation, DistanceQuery<O> distanceQuery, double maxrange, int flags) {
-    DistancePriorityIndex<O> idx = makeCoverTree(relation, distanceQuery.getDistance());
-    if(idx == null) { // Try k-d-tree for squared Euclidean mostly
-      idx = makeKDTree(relation, distanceQuery.getDistance());
-    }
+    DistancePriorityIndex<O> idx = makeIndex(relation, distanceQuery.getDistance(), flags);
     if(idx == null && (flags & QueryBuilder.FLAG_PRECOMPUTE) != 0) {
       idx = makeMatrixIndex(relation, distanceQuery.getDistance());
     }
     if(idx == null) {
       return null;
     }
-    if((flags & QueryBuilder.FLAG_NO_CACHE) == 0) {
+    addIndex(relation, idx, flags);
+    return idx.priorityByDBID(distanceQuery, maxrange, flags);
+  }
+
+  /**
+   * Attach an automatically built index to the relation, unless caching was
+   * disabled. Approximate indexes are never attached, because all later
+   * queries on the relation would then silently receive approximate results.
+   *
+   * @param relation Data relation
+   * @param idx Index
+   * @param flags Optimizer flags
+   */
+  private void addIndex(Relation<?> relation, Index idx, int flags) {
+    if((flags & QueryBuilder.FLAG_NO_CACHE) == 0 && !isApproximate(idx)) {
       Metadata.hierarchyOf(relation).addWeakChild(idx);
     }
-    return idx.priorityByDBID(distanceQuery, maxrange, flags);
+  }
+
+  /**
+   * Test if an index was built for approximate search only.
+   *
+   * @param idx Index
+   * @return {@code true} if the index is approximate
+   */
+  private boolean isApproximate(Index idx) {
+    return hnswIndex != null && hnswIndex.getDeclaringClass().isInstance(idx);
+  }
+
+  /**
+   * Choose and build a search index: cover tree or k-d-tree for exact
+   * queries; if approximate results are acceptable, a HNSW graph for
+   * high-dimensional data, or if no exact index is applicable.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param flags Optimizer flags
+   * @return Index, or {@code null}
+   */
+  private <O> DistancePriorityIndex<O> makeIndex(Relation<? extends O> relation, Distance<? super O> distance, int flags) {
+    final boolean approximate = (flags & QueryBuilder.FLAG_APPROXIMATE) != 0;
+    DistancePriorityIndex<O> idx = null;
+    if(approximate && getDimensionality(relation) > 32) {
+      idx = makeHNSW(relation, distance);
+    }
+    if(idx == null) {
+      idx = makeCoverTree(relation, distance);
+    }
+    if(idx == null) { // Try k-d-tree for squared Euclidean mostly
+      idx = makeKDTree(relation, distance);
+    }
+    if(idx == null && approximate) {
+      idx = makeHNSW(relation, distance);
+    }
+    return idx;
+  }
+
+  /**
+   * Get the dimensionality of a vector field relation.
+   *
+   * @param relation Relation
+   * @return Dimensionality, or -1 if not a vector field
+   */
+  private static int getDimensionality(Relation<?> relation) {
+    TypeInformation type = relation.getDataTypeInformation();
+    return TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(type) ? ((FieldTypeInformation) type).getDimensionality() : -1;
   }
 
   private <O> DistancePriorityIndex<O> makeMatrixIndex(Relation<? extends O> relation, Distance<? super O> distance) {
@@ -376,6 +422,25 @@ public class EmpiricalQueryOptimizer implements QueryOptimizer {
     return null;
   }
 
+  private <O> DistancePriorityIndex<O> makeHNSW(Relation<? extends O> relation, Distance<? super O> distance) {
+    // TODO: make sure there is no such graph index already!
+    if(hnswIndex == null) {
+      return null;
+    }
+    try {
+      @SuppressWarnings("unchecked")
+      DistancePriorityIndex<O> idx = (DistancePriorityIndex<O>) hnswIndex.newInstance(relation, distance);
+      LOG.verbose("Optimizer: automatically adding a HNSW graph index.");
+      idx.initialize();
+      return idx;
+    }
+    catch(InstantiationException | IllegalAccessException
+        | IllegalArgumentException | InvocationTargetException e) {
+      LOG.exception("Automatic HNSW creation failed.", e);
+    }
+    return null;
+  }
+
   /**
    * Get the currently free amount of memory.
    *
@@ -54,6 +54,11 @@ import elki.utilities.optionhandling.parameterization.EmptyParameterization;
 /**
  * Class to build a query.
  * <p>
+ * The lookup of indexes and the automatic creation of indexes by the optimizer
+ * are synchronized on the hierarchy of the relation, so that concurrent tasks
+ * on the same relation (e.g., ensemble members) neither modify the hierarchy
+ * concurrently nor build the same index twice.
+ * <p>
  * TODO: move this class to the elki-core-api module,
  * linking the linear-scan dependencies via dynamic class loading instead?
  * <p>
@@ -99,6 +104,12 @@ public class QueryBuilder<O> {
    */
   public static final int FLAG_PRECOMPUTE = 0b10_0000;
 
+  /**
+   * Approximate results are acceptable, allowing approximate indexes to be
+   * built automatically.
+   */
+  public static final int FLAG_APPROXIMATE = 0b100_0000;
+
   /**
    * Flags that do not allow the optimizer to run.
    */
@@ -220,10 +231,23 @@ public class QueryBuilder<O> {
    * @return query builder, for chaining
    */
   public QueryBuilder<O> exactOnly() {
+    assert (flags & FLAG_APPROXIMATE) == 0;
     this.flags |= FLAG_EXACT_ONLY;
     return this;
   }
 
+  /**
+   * Accept approximate results, and allow the optimizer to build approximate
+   * indexes. Cannot be combined with {@link #FLAG_EXACT_ONLY}.
+   * 
+   * @return query builder, for chaining
+   */
+  public QueryBuilder<O> approximate() {
+    assert (flags & FLAG_EXACT_ONLY) == 0;
+    this.flags |= FLAG_APPROXIMATE;
+    return this;
+  }
+
   /**
    * Only perform the cheapest optimizations, used to indicate that the query
    * will not be used much.
@@ -269,18 +293,21 @@ public class QueryBuilder<O> {
     if(distance == null) {
       throw new IllegalStateException("Distance query requested for 'null' distance!");
     }
-    for(It<DistanceIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(DistanceIndex.class); it.valid(); it.advance()) {
-      distQuery = it.get().getDistanceQuery(distance);
-      logUsing(it.get(), "distance", distQuery != null);
-      if(distQuery != null) {
-        return distQuery;
+    // Serialize index lookup and automatic index creation, see class doc
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<DistanceIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(DistanceIndex.class); it.valid(); it.advance()) {
+        distQuery = it.get().getDistanceQuery(distance);
+        logUsing(it.get(), "distance", distQuery != null);
+        if(distQuery != null) {
+          return distQuery;
+        }
       }
-    }
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      distQuery = OPTIMIZER.getDistanceQuery(relation, distance, flags);
-      if(distQuery != null) {
-        return distQuery;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        distQuery = OPTIMIZER.getDistanceQuery(relation, distance, flags);
+        if(distQuery != null) {
+          return distQuery;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0 && !(distance instanceof DBIDDistance)) {
@@ -304,18 +331,20 @@ public class QueryBuilder<O> {
     if(similarity == null) {
       throw new IllegalStateException("Similarity query requested for 'null' similarity!");
     }
-    for(It<SimilarityIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(SimilarityIndex.class); it.valid(); it.advance()) {
-      simQuery = it.get().getSimilarityQuery(similarity);
-      logUsing(it.get(), "similarity", simQuery != null);
-      if(simQuery != null) {
-        return simQuery;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<SimilarityIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(SimilarityIndex.class); it.valid(); it.advance()) {
+        simQuery = it.get().getSimilarityQuery(similarity);
+        logUsing(it.get(), "similarity", simQuery != null);
+        if(simQuery != null) {
+          return simQuery;
+        }
       }
-    }
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      simQuery = OPTIMIZER.getSimilarityQuery(relation, similarity, flags);
-      if(simQuery != null) {
-        return simQuery;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        simQuery = OPTIMIZER.getSimilarityQuery(relation, similarity, flags);
+        if(simQuery != null) {
+          return simQuery;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0 && !(similarity instanceof DBIDSimilarity)) {
@@ -345,18 +374,20 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     DistanceQuery<O> distanceQuery = distanceQuery();
     flags ^= precompute; // Restore
-    for(It<KNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(KNNIndex.class); it.valid(); it.advance()) {
-      KNNSearcher<O> q = it.get().kNNByObject(distanceQuery, maxk, flags);
-      logUsing(it.get(), "kNN", q != null);
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<KNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(KNNIndex.class); it.valid(); it.advance()) {
+        KNNSearcher<O> q = it.get().kNNByObject(distanceQuery, maxk, flags);
+        logUsing(it.get(), "kNN", q != null);
+        if(q != null) {
+          return q;
+        }
       }
-    }
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      KNNSearcher<O> q = OPTIMIZER.kNNByObject(relation, distanceQuery, maxk, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        KNNSearcher<O> q = OPTIMIZER.kNNByObject(relation, distanceQuery, maxk, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -396,18 +427,20 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     DistanceQuery<O> distanceQuery = distanceQuery();
     flags ^= precompute; // Restore
-    for(It<KNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(KNNIndex.class); it.valid(); it.advance()) {
-      KNNSearcher<DBIDRef> q = it.get().kNNByDBID(distanceQuery, maxk, flags);
-      logUsing(it.get(), "kNN", q != null);
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<KNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(KNNIndex.class); it.valid(); it.advance()) {
+        KNNSearcher<DBIDRef> q = it.get().kNNByDBID(distanceQuery, maxk, flags);
+        logUsing(it.get(), "kNN", q != null);
+        if(q != null) {
+          return q;
+        }
       }
-    }
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      KNNSearcher<DBIDRef> q = OPTIMIZER.kNNByDBID(relation, distanceQuery, maxk, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        KNNSearcher<DBIDRef> q = OPTIMIZER.kNNByDBID(relation, distanceQuery, maxk, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -447,21 +480,23 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     DistanceQuery<O> distanceQuery = distanceQuery();
     flags ^= precompute; // Restore
-    for(It<RangeIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(RangeIndex.class); it.valid(); it.advance()) {
-      RangeSearcher<O> q = it.get().rangeByObject(distanceQuery, maxrange, flags);
-      if(LOG.isDebuggingFinest()) {
-        LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
-      }
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<RangeIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(RangeIndex.class); it.valid(); it.advance()) {
+        RangeSearcher<O> q = it.get().rangeByObject(distanceQuery, maxrange, flags);
+        if(LOG.isDebuggingFinest()) {
+          LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
+        }
+        if(q != null) {
+          return q;
+        }
       }
-    }
 
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      RangeSearcher<O> q = OPTIMIZER.rangeByObject(relation, distanceQuery, maxrange, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        RangeSearcher<O> q = OPTIMIZER.rangeByObject(relation, distanceQuery, maxrange, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -501,21 +536,23 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     DistanceQuery<O> distanceQuery = distanceQuery();
     flags ^= precompute; // Restore
-    for(It<RangeIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(RangeIndex.class); it.valid(); it.advance()) {
-      RangeSearcher<DBIDRef> q = it.get().rangeByDBID(distanceQuery, maxrange, flags);
-      if(LOG.isDebuggingFinest()) {
-        LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
-      }
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<RangeIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(RangeIndex.class); it.valid(); it.advance()) {
+        RangeSearcher<DBIDRef> q = it.get().rangeByDBID(distanceQuery, maxrange, flags);
+        if(LOG.isDebuggingFinest()) {
+          LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
+        }
+        if(q != null) {
+          return q;
+        }
       }
-    }
 
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      RangeSearcher<DBIDRef> q = OPTIMIZER.rangeByDBID(relation, distanceQuery, maxrange, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        RangeSearcher<DBIDRef> q = OPTIMIZER.rangeByDBID(relation, distanceQuery, maxrange, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -556,21 +593,23 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     SimilarityQuery<O> simQuery = similarityQuery();
     flags ^= precompute; // Restore
-    for(It<SimilarityRangeIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(SimilarityRangeIndex.class); it.valid(); it.advance()) {
-      RangeSearcher<O> q = it.get().similarityRangeByObject(simQuery, threshold, flags);
-      if(LOG.isDebuggingFinest()) {
-        LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
-      }
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<SimilarityRangeIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(SimilarityRangeIndex.class); it.valid(); it.advance()) {
+        RangeSearcher<O> q = it.get().similarityRangeByObject(simQuery, threshold, flags);
+        if(LOG.isDebuggingFinest()) {
+          LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
+        }
+        if(q != null) {
+          return q;
+        }
       }
-    }
 
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      RangeSearcher<O> q = OPTIMIZER.similarityRangeByObject(relation, simQuery, threshold, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        RangeSearcher<O> q = OPTIMIZER.similarityRangeByObject(relation, simQuery, threshold, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -605,21 +644,23 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     SimilarityQuery<O> simQuery = similarityQuery();
     flags ^= precompute; // Restore
-    for(It<SimilarityRangeIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(SimilarityRangeIndex.class); it.valid(); it.advance()) {
-      RangeSearcher<DBIDRef> q = it.get().similarityRangeByDBID(simQuery, threshold, flags);
-      if(LOG.isDebuggingFinest()) {
-        LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
-      }
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<SimilarityRangeIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(SimilarityRangeIndex.class); it.valid(); it.advance()) {
+        RangeSearcher<DBIDRef> q = it.get().similarityRangeByDBID(simQuery, threshold, flags);
+        if(LOG.isDebuggingFinest()) {
+          LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
+        }
+        if(q != null) {
+          return q;
+        }
       }
-    }
 
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      RangeSearcher<DBIDRef> q = OPTIMIZER.similarityRangeByDBID(relation, simQuery, threshold, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        RangeSearcher<DBIDRef> q = OPTIMIZER.similarityRangeByDBID(relation, simQuery, threshold, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -652,21 +693,23 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     DistanceQuery<O> distanceQuery = distanceQuery();
     flags ^= precompute; // Restore
-    for(It<RKNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(RKNNIndex.class); it.valid(); it.advance()) {
-      RKNNSearcher<O> q = it.get().rkNNByObject(distanceQuery, k, flags);
-      if(LOG.isDebuggingFinest()) {
-        LOG.debugFinest((q != null ? "Using" : "Not using") + " index for RkNN query: " + it.get());
-      }
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<RKNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(RKNNIndex.class); it.valid(); it.advance()) {
+        RKNNSearcher<O> q = it.get().rkNNByObject(distanceQuery, k, flags);
+        if(LOG.isDebuggingFinest()) {
+          LOG.debugFinest((q != null ? "Using" : "Not using") + " index for RkNN query: " + it.get());
+        }
+        if(q != null) {
+          return q;
+        }
       }
-    }
 
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      RKNNSearcher<O> q = OPTIMIZER.rkNNByObject(relation, distanceQuery, k, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        RKNNSearcher<O> q = OPTIMIZER.rkNNByObject(relation, distanceQuery, k, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -696,21 +739,23 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     DistanceQuery<O> distanceQuery = distanceQuery();
     flags ^= precompute; // Restore
-    for(It<RKNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(RKNNIndex.class); it.valid(); it.advance()) {
-      RKNNSearcher<DBIDRef> q = it.get().rkNNByDBID(distanceQuery, k, flags);
-      if(LOG.isDebuggingFinest()) {
-        LOG.debugFinest((q != null ? "Using" : "Not using") + " index for RkNN query: " + it.get());
-      }
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<RKNNIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(RKNNIndex.class); it.valid(); it.advance()) {
+        RKNNSearcher<DBIDRef> q = it.get().rkNNByDBID(distanceQuery, k, flags);
+        if(LOG.isDebuggingFinest()) {
+          LOG.debugFinest((q != null ? "Using" : "Not using") + " index for RkNN query: " + it.get());
+        }
+        if(q != null) {
+          return q;
+        }
       }
-    }
 
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      RKNNSearcher<DBIDRef> q = OPTIMIZER.rkNNByDBID(relation, distanceQuery, k, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        RKNNSearcher<DBIDRef> q = OPTIMIZER.rkNNByDBID(relation, distanceQuery, k, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -741,21 +786,23 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     DistanceQuery<O> distanceQuery = distanceQuery();
     flags ^= precompute; // Restore
-    for(It<DistancePriorityIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(DistancePriorityIndex.class); it.valid(); it.advance()) {
-      PrioritySearcher<O> q = it.get().priorityByObject(distanceQuery, maxrange, flags);
-      if(LOG.isDebuggingFinest()) {
-        LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
-      }
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<DistancePriorityIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(DistancePriorityIndex.class); it.valid(); it.advance()) {
+        PrioritySearcher<O> q = it.get().priorityByObject(distanceQuery, maxrange, flags);
+        if(LOG.isDebuggingFinest()) {
+          LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
+        }
+        if(q != null) {
+          return q;
+        }
       }
-    }
 
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      PrioritySearcher<O> q = OPTIMIZER.priorityByObject(relation, distanceQuery, maxrange, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        PrioritySearcher<O> q = OPTIMIZER.priorityByObject(relation, distanceQuery, maxrange, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -790,21 +837,23 @@ public class QueryBuilder<O> {
     flags ^= precompute; // Mask
     DistanceQuery<O> distanceQuery = distanceQuery();
     flags ^= precompute; // Restore
-    for(It<DistancePriorityIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(DistancePriorityIndex.class); it.valid(); it.advance()) {
-      PrioritySearcher<DBIDRef> q = it.get().priorityByDBID(distanceQuery, maxrange, flags);
-      if(LOG.isDebuggingFinest()) {
-        LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
-      }
-      if(q != null) {
-        return q;
+    synchronized(Metadata.hierarchyOf(relation)) {
+      for(It<DistancePriorityIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(DistancePriorityIndex.class); it.valid(); it.advance()) {
+        PrioritySearcher<DBIDRef> q = it.get().priorityByDBID(distanceQuery, maxrange, flags);
+        if(LOG.isDebuggingFinest()) {
+          LOG.debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + it.get());
+        }
+        if(q != null) {
+          return q;
+        }
       }
-    }
 
-    // Use optimizer
-    if((flags & FLAGS_NO_OPTIMIZER) == 0) {
-      PrioritySearcher<DBIDRef> q = OPTIMIZER.priorityByDBID(relation, distanceQuery, maxrange, flags);
-      if(q != null) {
-        return q;
+      // Use optimizer
+      if((flags & FLAGS_NO_OPTIMIZER) == 0) {
+        PrioritySearcher<DBIDRef> q = OPTIMIZER.priorityByDBID(relation, distanceQuery, maxrange, flags);
+        if(q != null) {
+          return q;
+        }
       }
     }
     if((flags & FLAG_OPTIMIZED_ONLY) != 0) {
@@ -20,6 +20,9 @@
  */
 package elki.database.relation;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import elki.data.type.SimpleTypeInformation;
 import elki.database.datastore.DataStore;
 import elki.database.datastore.DataStoreFactory;
@@ -117,15 +120,27 @@ public class MaterializedRelation<O> implements ModifiableRelation<O> {
   @Override
   public void insert(DBIDRef id, O val) {
     assert (ids.contains(id)) : "Object not yet in DBIDs.";
-    if(!(content instanceof WritableDataStore)) {
-      throw new AbortException("Data is stored in a non-writable data store. Modifications are not possible.");
+    writableContent().put(id, val);
+    for(DynamicIndex index : dynamicIndexes()) {
+      index.insert(id);
     }
-    ((WritableDataStore<O>) content).put(id, val);
-    for(It<Index> it = Metadata.hierarchyOf(this).iterDescendants().filter(Index.class); it.valid(); it.advance()) {
-      if(!(it.get() instanceof DynamicIndex)) {
-        throw new AbortException("A non-dynamic index was added to this database. Modifications are not allowed, unless this index is removed.");
-      }
-      ((DynamicIndex) it.get()).insert(id);
+  }
+
+  /**
+   * Insert a batch of objects, and pass the entire batch to each index.
+   *
+   * @param newids IDs to insert
+   * @param vals Values, in the same order as the IDs
+   */
+  @Override
+  public void insertAll(ArrayDBIDs newids, List<? extends O> vals) {
+    assert newids.size() == vals.size() : "Number of values does not match.";
+    final WritableDataStore<O> store = writableContent();
+    for(DBIDArrayIter it = newids.iter(); it.valid(); it.advance()) {
+      store.put(it, vals.get(it.getOffset()));
+    }
+    for(DynamicIndex index : dynamicIndexes()) {
+      index.insertAll(newids);
     }
   }
 
@@ -137,16 +152,57 @@ public class MaterializedRelation<O> implements ModifiableRelation<O> {
   @Override
   public void delete(DBIDRef id) {
     assert (!ids.contains(id)) : "Object still in DBIDs.";
+    final WritableDataStore<O> store = writableContent();
+    for(DynamicIndex index : dynamicIndexes()) {
+      index.delete(id);
+    }
+    store.delete(id);
+  }
+
+  /**
+   * Delete a batch of objects, and pass the entire batch to each index.
+   *
+   * @param delids IDs to delete
+   */
+  @Override
+  public void deleteAll(DBIDs delids) {
+    final WritableDataStore<O> store = writableContent();
+    for(DynamicIndex index : dynamicIndexes()) {
+      index.deleteAll(delids);
+    }
+    for(DBIDIter it = delids.iter(); it.valid(); it.advance()) {
+      store.delete(it);
+    }
+  }
+
+  /**
+   * Get the writable data store.
+   *
+   * @return Data store
+   * @throws AbortException if the data store is not writable
+   */
+  private WritableDataStore<O> writableContent() {
     if(!(content instanceof WritableDataStore)) {
       throw new AbortException("Data is stored in a non-writable data store. Modifications are not possible.");
     }
+    return (WritableDataStore<O>) content;
+  }
+
+  /**
+   * Collect the indexes to update.
+   *
+   * @return Dynamic indexes
+   * @throws AbortException if a non-dynamic index is present
+   */
+  private List<DynamicIndex> dynamicIndexes() {
+    List<DynamicIndex> indexes = new ArrayList<>();
     for(It<Index> it = Metadata.hierarchyOf(this).iterDescendants().filter(Index.class); it.valid(); it.advance()) {
       if(!(it.get() instanceof DynamicIndex)) {
         throw new AbortException("A non-dynamic index was added to this database. Modifications are not allowed, unless this index is removed.");
       }
-      ((DynamicIndex) it.get()).delete(id);
+      indexes.add((DynamicIndex) it.get());
     }
-    ((WritableDataStore<O>) content).delete(id);
+    return indexes;
   }
 
   @Override
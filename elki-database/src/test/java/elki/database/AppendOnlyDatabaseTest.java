@@ -0,0 +1,147 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDs;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.index.DynamicIndex;
+import elki.index.Index;
+import elki.result.Metadata;
+import elki.utilities.exceptions.AbortException;
+
+/**
+ * Test the {@link AppendOnlyDatabase}.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class AppendOnlyDatabaseTest {
+  @Test
+  public void testRejectedBatch() {
+    AppendOnlyDatabase db = new AppendOnlyDatabase();
+    db.insert(MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2), //
+        Arrays.asList(DoubleVector.wrap(new double[] { 1, 2 }), DoubleVector.wrap(new double[] { 3, 4 }))));
+    try {
+      db.insert(MultipleObjectsBundle.makeSimple(TypeUtil.STRING, Arrays.asList("a", "b", "c")));
+      fail("Incompatible batch was accepted.");
+    }
+    catch(AbortException e) {
+      // expected
+    }
+    // The database must be unchanged, and still accept valid batches.
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    assertEquals("Rejected batch modified the database.", 2, relation.size());
+    DBIDs added = db.insert(MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2), //
+        Arrays.asList(DoubleVector.wrap(new double[] { 5, 6 }))));
+    assertEquals(3, relation.size());
+    double sum = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      sum += relation.get(it).doubleValue(0);
+    }
+    assertEquals(9., sum, 0.);
+    assertEquals(5., relation.get(added.iter()).doubleValue(0), 0.);
+  }
+
+  @Test
+  public void testUnknownIndex() {
+    AppendOnlyDatabase db = new AppendOnlyDatabase();
+    db.insert(MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2), //
+        Arrays.asList(DoubleVector.wrap(new double[] { 1, 2 }), DoubleVector.wrap(new double[] { 3, 4 })), //
+        TypeUtil.STRING, Arrays.asList("a", "b")));
+    Relation<DoubleVector> vectors = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    Relation<String> labels = db.getRelation(TypeUtil.STRING);
+    // The first relation has an updatable index, the second an unknown static
+    CountingIndex counter = new CountingIndex();
+    Metadata.hierarchyOf(vectors).addChild(counter);
+    Index unknown = () -> {
+      // Nothing to do.
+    };
+    Metadata.hierarchyOf(labels).addChild(unknown);
+    try {
+      db.insert(MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2), //
+          Arrays.asList(DoubleVector.wrap(new double[] { 5, 6 })), TypeUtil.STRING, Arrays.asList("c")));
+      fail("Batch was accepted despite a non-dynamic index.");
+    }
+    catch(AbortException e) {
+      // expected
+    }
+    assertEquals("Rejected batch modified the database.", 2, vectors.size());
+    assertEquals("Rejected batch modified the database.", 2, labels.size());
+    assertEquals("Rejected batch modified an index.", 0, counter.inserted);
+    // After removing the index, appending works again.
+    Metadata.hierarchyOf(labels).removeChild(unknown);
+    DBIDs added = db.insert(MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2), //
+        Arrays.asList(DoubleVector.wrap(new double[] { 5, 6 })), TypeUtil.STRING, Arrays.asList("c")));
+    assertEquals(3, vectors.size());
+    assertEquals(1, counter.inserted);
+    assertEquals("c", labels.get(added.iter()));
+  }
+
+  /**
+   * Dynamic index that only counts insertions.
+   *
+   * @author Erich Schubert
+   */
+  private static class CountingIndex implements DynamicIndex {
+    /**
+     * Number of inserted objects.
+     */
+    int inserted = 0;
+
+    @Override
+    public void initialize() {
+      // Nothing to do.
+    }
+
+    @Override
+    public boolean delete(DBIDRef id) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insert(DBIDRef id) {
+      inserted++;
+    }
+
+    @Override
+    public void deleteAll(DBIDs ids) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void insertAll(DBIDs ids) {
+      inserted += ids.size();
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.database;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import elki.database.datastore.DataStoreEvent;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDUtil;
+
+/**
+ * Test the batching of events in the {@link DatabaseEventManager}.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class DatabaseEventManagerTest {
+  @Test
+  public void testBatches() {
+    DatabaseEventManager manager = new DatabaseEventManager();
+    List<DataStoreEvent> events = new ArrayList<>();
+    manager.addListener(events::add);
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(10);
+
+    // Batches are dispatched as a single event each.
+    manager.fireObjectsInserted(ids);
+    assertEquals(1, events.size());
+    assertEquals(10, events.get(0).getInserts().size());
+
+    // Accumulate, and keep accumulating after a change of the event type.
+    events.clear();
+    manager.accumulateDataStoreEvents();
+    manager.fireObjectInserted(ids.iter().seek(0));
+    manager.fireObjectInserted(ids.iter().seek(1));
+    assertEquals(0, events.size());
+    manager.fireObjectsRemoved(ids);
+    assertEquals(1, events.size());
+    assertEquals(2, events.get(0).getInserts().size());
+    manager.fireObjectRemoved(ids.iter().seek(2));
+    assertEquals(1, events.size());
+    manager.flushDataStoreEvents();
+    assertEquals(2, events.size());
+    assertEquals(10, events.get(1).getRemovals().size());
+
+    // Flushing without events must not fail.
+    manager.flushDataStoreEvents();
+    assertEquals(2, events.size());
+  }
+}
@@ -20,9 +20,16 @@
  */
 package elki.index.lsh;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import elki.data.type.TypeInformation;
+import elki.database.IndexSnapshots;
 import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
@@ -33,22 +40,39 @@ import elki.index.AbstractRefiningIndex;
 import elki.index.IndexFactory;
 import elki.index.KNNIndex;
 import elki.index.RangeIndex;
+import elki.index.SnapshotIndex;
 import elki.index.lsh.hashfamilies.LocalitySensitiveHashFunctionFamily;
 import elki.index.lsh.hashfunctions.LocalitySensitiveHashFunction;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 
 /**
  * Locality Sensitive Hashing.
+ * <p>
+ * The hash tables are built in parallel, one table per task, and stored in a
+ * compact sorted layout (bucket keys, offsets, and members). Queries can probe
+ * multiple buckets per table (multi-probe LSH), which needs fewer hash tables
+ * for the same recall.
+ * <p>
+ * Reference:
+ * <p>
+ * Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li<br>
+ * Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity
+ * Search<br>
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)
  *
  * @author Erich Schubert
  * @since 0.6.0
@@ -58,6 +82,11 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
  *
  * @param <V> Object type to index
  */
+@Reference(authors = "Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li", //
+    title = "Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity Search", //
+    booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)", //
+    url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf", //
+    bibkey = "DBLP:conf/vldb/LvJWCL07")
 public class InMemoryLSHIndex<V> implements IndexFactory<V> {
   /**
    * Class logger
@@ -79,6 +108,16 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    */
   int numberOfBuckets;
 
+  /**
+   * Number of buckets to probe in each table.
+   */
+  int probes;
+
+  /**
+   * Description of the parameters, for snapshots.
+   */
+  String parameters;
+
   /**
    * Constructor.
    *
@@ -87,15 +126,42 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    * @param numberOfBuckets Number of buckets to use.
    */
   public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets) {
+    this(family, l, numberOfBuckets, 1);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param family Projection family
+   * @param l Number of hash tables to use
+   * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of buckets to probe in each table.
+   */
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes) {
+    this(family, l, numberOfBuckets, probes, IndexSnapshots.describe(family, l, numberOfBuckets));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param family Projection family
+   * @param l Number of hash tables to use
+   * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of buckets to probe in each table.
+   * @param parameters Description of the parameters, for snapshots
+   */
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes, String parameters) {
     super();
     this.family = family;
     this.l = l;
     this.numberOfBuckets = numberOfBuckets;
+    this.probes = probes;
+    this.parameters = parameters;
   }
 
   @Override
   public Instance instantiate(Relation<V> relation) {
-    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets);
+    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets, probes);
   }
 
   @Override
@@ -110,88 +176,178 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    *
    * @has - - - LocalitySensitiveHashFunction
    */
-  public class Instance extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+  public class Instance extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V>, SnapshotIndex {
     /**
      * Hash functions to use.
      */
     ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions;
 
     /**
-     * The actual table
+     * The actual tables
      */
-    ArrayList<Int2ObjectOpenHashMap<DBIDs>> hashtables;
+    HashTable[] hashtables;
+
+    /**
+     * Indexed objects, the tables store offsets into this array.
+     */
+    ArrayDBIDs ids;
 
     /**
      * Number of buckets to use.
      */
     private int numberOfBuckets;
 
+    /**
+     * Number of buckets to probe in each table.
+     */
+    private int probes;
+
     /**
      * Constructor.
      *
      * @param relation Relation to index.
      * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
      */
     public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets) {
+      this(relation, hashfunctions, numberOfBuckets, 1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation to index.
+     * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
+     * @param probes Number of buckets to probe in each table.
+     */
+    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets, int probes) {
       super(relation);
       this.hashfunctions = hashfunctions;
       this.numberOfBuckets = numberOfBuckets;
+      this.probes = probes;
     }
 
     @Override
     public void initialize() {
       final int numhash = hashfunctions.size();
-      hashtables = new ArrayList<>(numhash);
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      hashtables = new HashTable[numhash];
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH hash tables", numhash, LOG) : null;
+      List<Callable<Void>> tasks = new ArrayList<>(numhash);
       for(int i = 0; i < numhash; i++) {
-        hashtables.add(new Int2ObjectOpenHashMap<DBIDs>(numberOfBuckets));
-      }
-
-      // TODO: We assume all hash functions have the same dimensionality.
-      double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index", relation.size(), LOG) : null;
-      int expect = Math.max(2, (int) Math.ceil(relation.size() / (double) numberOfBuckets));
-      for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-        V obj = relation.get(iter);
-        for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj, buf);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur == null) {
-            table.put(bucket, DBIDUtil.deref(iter));
-          }
-          else if(cur.size() > 1) {
-            ((ModifiableDBIDs) cur).add(iter);
-          }
-          else {
-            ModifiableDBIDs newbuck = DBIDUtil.newArray(expect);
-            newbuck.addDBIDs(cur);
-            newbuck.add(iter);
-            table.put(bucket, newbuck);
-          }
-        }
-        LOG.incrementProcessed(progress);
+        final int t = i;
+        tasks.add(() -> {
+          hashtables[t] = buildTable(hashfunctions.get(t));
+          LOG.incrementProcessed(progress);
+          return null;
+        });
       }
+      ParallelExecutor.runTasks(tasks);
       LOG.ensureCompleted(progress);
       if(LOG.isStatistics()) {
         int min = Integer.MAX_VALUE, max = 0;
-        for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          for(DBIDs set : table.values()) {
-            final int size = set.size();
+        long buckets = 0;
+        for(HashTable table : hashtables) {
+          for(int j = 0, e = table.keys.length; j < e; j++) {
+            final int size = table.offsets[j + 1] - table.offsets[j];
             min = size < min ? size : min;
             max = size > max ? size : max;
           }
+          buckets += table.keys.length;
         }
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.min", min));
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.max", max));
-        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", hashtables.size()));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".buckets", buckets));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", hashtables.length));
+      }
+    }
+
+    @Override
+    public void writeSnapshot(DataOutput out) throws IOException {
+      IndexSnapshots.writeParameters(out, parameters);
+      IndexSnapshots.writeInts(out, sampleHashes());
+      IndexSnapshots.writeDBIDs(out, ids);
+      out.writeInt(hashtables.length);
+      for(HashTable table : hashtables) {
+        IndexSnapshots.writeInts(out, table.keys);
+        IndexSnapshots.writeInts(out, table.offsets);
+        IndexSnapshots.writeInts(out, table.members);
       }
     }
 
+    @Override
+    public boolean loadSnapshot(ByteBuffer in) throws IOException {
+      // The hash functions are randomly generated; the stored hash codes of
+      // some objects detect whether they differ from the previous run.
+      if(!IndexSnapshots.matchParameters(in, parameters) //
+          || !Arrays.equals(IndexSnapshots.readInts(in), sampleHashes())) {
+        return false;
+      }
+      ids = IndexSnapshots.readDBIDs(in);
+      hashtables = new HashTable[in.getInt()];
+      for(int i = 0; i < hashtables.length; i++) {
+        hashtables[i] = new HashTable(IndexSnapshots.readInts(in), IndexSnapshots.readInts(in), IndexSnapshots.readInts(in));
+      }
+      return true;
+    }
+
+    /**
+     * Hash codes of the first objects, to verify that the hash functions of a
+     * snapshot are the same.
+     *
+     * @return Hash codes
+     */
+    private int[] sampleHashes() {
+      final int numhash = hashfunctions.size();
+      double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
+      int[] sample = new int[Math.min(16, relation.size()) * numhash];
+      DBIDIter iter = relation.iterDBIDs();
+      for(int i = 0; i < sample.length && iter.valid(); iter.advance()) {
+        V obj = relation.get(iter);
+        for(int j = 0; j < numhash; j++) {
+          sample[i++] = hashfunctions.get(j).hashObject(obj, buf) % numberOfBuckets;
+        }
+      }
+      return sample;
+    }
+
+    /**
+     * Build a single hash table.
+     *
+     * @param hashfunc Hash function
+     * @return Hash table
+     */
+    private HashTable buildTable(LocalitySensitiveHashFunction<? super V> hashfunc) {
+      final int size = ids.size();
+      double[] buf = new double[hashfunc.getNumberOfProjections()];
+      // Bucket in the high bits, object offset in the low bits:
+      long[] pairs = new long[size];
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        // Get the initial (unbounded) hash code, reduce to hash table size
+        final int bucket = hashfunc.hashObject(relation.get(iter), buf) % numberOfBuckets;
+        pairs[iter.getOffset()] = (((long) bucket) << 32) | iter.getOffset();
+      }
+      Arrays.sort(pairs);
+      int numkeys = 0;
+      for(int i = 0; i < size; i++) {
+        if(i == 0 || (pairs[i] >> 32) != (pairs[i - 1] >> 32)) {
+          ++numkeys;
+        }
+      }
+      int[] keys = new int[numkeys], offsets = new int[numkeys + 1], members = new int[size];
+      for(int i = 0, k = -1; i < size; i++) {
+        final int bucket = (int) (pairs[i] >> 32);
+        if(k < 0 || keys[k] != bucket) {
+          keys[++k] = bucket;
+          offsets[k] = i;
+        }
+        members[i] = (int) pairs[i];
+      }
+      offsets[numkeys] = size;
+      return new HashTable(keys, offsets, members);
+    }
+
     @Override
     public Logging getLogger() {
       return LOG;
@@ -207,36 +363,77 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     @Override
     public RangeSearcher<V> rangeByObject(DistanceQuery<V> distanceQuery, double maxradius, int flags) {
       return (flags & QueryBuilder.FLAG_EXACT_ONLY) == 0 && // approximate
-          !family.isCompatible(distanceQuery.getDistance()) ? // compatible
+          family.isCompatible(distanceQuery.getDistance()) ? // compatible
               new LSHRangeQuery(distanceQuery) : null;
     }
 
     /**
-     * Get the candidates: points which have at least one hash bucket in common.
-     * 
-     * @param obj Query object
-     * @return Candidates
+     * Base class for queries, collecting the candidates: points which have
+     * at least one probed hash bucket in common with the query.
+     *
+     * @author Erich Schubert
      */
-    protected DBIDs getCandidates(V obj) {
-      ModifiableDBIDs candidates = null;
-      final int numhash = hashtables.size();
-      double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-      for(int i = 0; i < numhash; i++) {
-        final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-        final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-        // Get the initial (unbounded) hash code:
-        int hash = hashfunc.hashObject(obj, buf);
-        // Reduce to hash table size
-        int bucket = hash % numberOfBuckets;
-        DBIDs cur = table.get(bucket);
-        if(cur != null) {
-          if(candidates == null) {
-            candidates = DBIDUtil.newHashSet(cur.size() * numhash);
+    protected abstract class AbstractLSHQuery extends AbstractRefiningQuery {
+      /**
+       * Buffer for projections.
+       */
+      private double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
+
+      /**
+       * Buffer for probed hash values.
+       */
+      private int[] hashes = new int[probes];
+
+      /**
+       * Candidate offsets of the current query, in the order found.
+       */
+      protected IntArrayList candidates = new IntArrayList();
+
+      /**
+       * Candidates already seen in the current query. This only grows with
+       * the number of candidates, not with the data set size.
+       */
+      private IntOpenHashSet seen = new IntOpenHashSet();
+
+      /**
+       * Constructor.
+       *
+       * @param distanceQuery Distance query
+       */
+      public AbstractLSHQuery(DistanceQuery<V> distanceQuery) {
+        super(distanceQuery);
+      }
+
+      /**
+       * Get the candidates: points which have at least one probed hash bucket
+       * in common with the query, stored in {@link #candidates}.
+       *
+       * @param obj Query object
+       * @return Number of candidates
+       */
+      protected int getCandidates(V obj) {
+        candidates.clear();
+        seen.clear();
+        for(int i = 0; i < hashtables.length; i++) {
+          final HashTable table = hashtables[i];
+          // TODO: We assume all hash functions have the same dimensionality.
+          final int n = hashfunctions.get(i).hashProbes(obj, buf, hashes);
+          for(int j = 0; j < n; j++) {
+            // Reduce to hash table size
+            final int b = Arrays.binarySearch(table.keys, hashes[j] % numberOfBuckets);
+            if(b < 0) {
+              continue;
+            }
+            for(int p = table.offsets[b], e = table.offsets[b + 1]; p < e; p++) {
+              final int m = table.members[p];
+              if(seen.add(m)) {
+                candidates.add(m);
+              }
+            }
           }
-          candidates.addDBIDs(cur);
         }
+        return candidates.size();
       }
-      return (candidates == null) ? DBIDUtil.EMPTYDBIDS : candidates;
     }
 
     /**
@@ -244,7 +441,7 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      *
      * @author Erich Schubert
      */
-    protected class LSHKNNQuery extends AbstractRefiningQuery implements KNNSearcher<V> {
+    protected class LSHKNNQuery extends AbstractLSHQuery implements KNNSearcher<V> {
       /**
        * Constructor.
        *
@@ -256,24 +453,26 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
 
       @Override
       public KNNList getKNN(V obj, int k) {
-        DBIDs candidates = getCandidates(obj);
+        final int num = getCandidates(obj);
         // Refine.
         KNNHeap heap = DBIDUtil.newHeap(k);
-        for(DBIDIter iter = candidates.iter(); iter.valid(); iter.advance()) {
+        DBIDArrayIter iter = ids.iter();
+        for(int i = 0; i < num; i++) {
+          iter.seek(candidates.getInt(i));
           final double dist = distanceQuery.distance(obj, iter);
-          super.incRefinements(1);
           heap.insert(dist, iter);
         }
+        super.incRefinements(num);
         return heap.toKNNList();
       }
     }
 
     /**
-     * Class for handling kNN queries against the LSH index.
+     * Class for handling range queries against the LSH index.
      *
      * @author Erich Schubert
      */
-    protected class LSHRangeQuery extends AbstractRefiningQuery implements RangeSearcher<V> {
+    protected class LSHRangeQuery extends AbstractLSHQuery implements RangeSearcher<V> {
       /**
        * Constructor.
        *
@@ -285,20 +484,58 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
 
       @Override
       public ModifiableDoubleDBIDList getRange(V obj, double range, ModifiableDoubleDBIDList result) {
-        DBIDs candidates = getCandidates(obj);
+        final int num = getCandidates(obj);
         // Refine.
-        for(DBIDIter iter = candidates.iter(); iter.valid(); iter.advance()) {
+        DBIDArrayIter iter = ids.iter();
+        for(int i = 0; i < num; i++) {
+          iter.seek(candidates.getInt(i));
           final double dist = distanceQuery.distance(obj, iter);
-          super.incRefinements(1);
           if(dist <= range) {
             result.add(dist, iter);
           }
         }
+        super.incRefinements(num);
         return result;
       }
     }
   }
 
+  /**
+   * Frozen hash table: sorted bucket keys, with the members of bucket
+   * {@code keys[i]} stored in {@code members[offsets[i]..offsets[i+1]]}.
+   *
+   * @author Erich Schubert
+   */
+  private static class HashTable {
+    /**
+     * Sorted bucket keys.
+     */
+    final int[] keys;
+
+    /**
+     * Start offsets of the buckets, with one additional end marker.
+     */
+    final int[] offsets;
+
+    /**
+     * Bucket members, as offsets into the DBID array.
+     */
+    final int[] members;
+
+    /**
+     * Constructor.
+     *
+     * @param keys Sorted bucket keys
+     * @param offsets Bucket offsets
+     * @param members Bucket members
+     */
+    HashTable(int[] keys, int[] offsets, int[] members) {
+      this.keys = keys;
+      this.offsets = offsets;
+      this.members = members;
+    }
+  }
+
   /**
    * Parameterization class.
    *
@@ -320,6 +557,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     public static final OptionID BUCKETS_ID = new OptionID("lsh.buckets", "Number of hash buckets to use.");
 
+    /**
+     * Number of buckets to probe in each table.
+     */
+    public static final OptionID PROBES_ID = new OptionID("lsh.probes", "Number of buckets to probe in each hash table (multi-probe LSH).");
+
     /**
      * LSH hash function family to use.
      */
@@ -335,22 +577,38 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     int numberOfBuckets;
 
+    /**
+     * Number of buckets to probe in each table.
+     */
+    int probes = 1;
+
+    /**
+     * Description of the parameters, for snapshots.
+     */
+    String parameters;
+
     @Override
     public void configure(Parameterization config) {
+      // Track the parameters of the hash tables, for snapshots.
+      TrackParameters track = new TrackParameters(config);
       new ObjectParameter<LocalitySensitiveHashFunctionFamily<? super V>>(FAMILY_ID, LocalitySensitiveHashFunctionFamily.class) //
-          .grab(config, x -> family = x);
+          .grab(track, x -> family = x);
       new IntParameter(L_ID) //
           .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
-          .grab(config, x -> l = x);
+          .grab(track, x -> l = x);
       new IntParameter(BUCKETS_ID) //
           .setDefaultValue(7919) // Primes work best, apparently.
           .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
-          .grab(config, x -> numberOfBuckets = x);
+          .grab(track, x -> numberOfBuckets = x);
+      new IntParameter(PROBES_ID, 1) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> probes = x);
+      parameters = IndexSnapshots.describe(track);
     }
 
     @Override
     public InMemoryLSHIndex<V> make() {
-      return new InMemoryLSHIndex<>(family, l, numberOfBuckets);
+      return new InMemoryLSHIndex<>(family, l, numberOfBuckets, probes, parameters);
     }
   }
 }
@@ -81,6 +81,33 @@ public class CosineLocalitySensitiveHashFunction implements LocalitySensitiveHas
     return hashValue;
   }
 
+  /**
+   * Multi-probe LSH: the perturbations flip single bits, scored by the squared
+   * distance to the hyperplane.
+   */
+  @Override
+  public int hashProbes(NumberVector obj, double[] buf, int[] probes) {
+    if(probes.length == 0) {
+      return 0;
+    }
+    final int hashValue = probes[0] = hashObject(obj, buf);
+    double[] scores = new double[buf.length];
+    int[] conflict = new int[buf.length];
+    for(int i = 0; i < buf.length; i++) {
+      scores[i] = buf[i] * buf[i];
+      conflict[i] = -1;
+    }
+    int[][] sets = MultiProbeSequence.generate(scores, conflict, probes.length - 1);
+    for(int i = 0; i < sets.length; i++) {
+      int h = hashValue;
+      for(int p : sets[i]) {
+        h ^= 1 << p;
+      }
+      probes[i + 1] = h;
+    }
+    return sets.length + 1;
+  }
+
   @Override
   public int getNumberOfProjections() {
     return projection.getOutputDimensionality();
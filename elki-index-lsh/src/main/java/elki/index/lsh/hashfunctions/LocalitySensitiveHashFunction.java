@@ -46,6 +46,26 @@ public interface LocalitySensitiveHashFunction<V> {
    */
   int hashObject(V obj, double[] buf);
 
+  /**
+   * Compute the hash values of the buckets to probe for a query (multi-probe
+   * LSH), starting with the hash value of the object itself, followed by the
+   * hash values of the most likely neighboring buckets.
+   * <p>
+   * The default implementation only probes the bucket of the object.
+   *
+   * @param obj Object to hash
+   * @param buf Buffer, sized according to the number of projections.
+   * @param probes Output array, the length is the maximum number of probes.
+   * @return Number of hash values produced
+   */
+  default int hashProbes(V obj, double[] buf, int[] probes) {
+    if(probes.length == 0) {
+      return 0;
+    }
+    probes[0] = hashObject(obj, buf);
+    return 1;
+  }
+
   /**
    * Get the number of projections performed.
    *
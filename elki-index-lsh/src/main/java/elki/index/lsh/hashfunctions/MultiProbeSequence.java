@@ -0,0 +1,131 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.lsh.hashfunctions;
+
+import java.util.Arrays;
+
+import elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
+import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
+import elki.utilities.documentation.Reference;
+
+/**
+ * Query-directed probing sequence for multi-probe LSH: generate the sets of
+ * perturbations of the hash coordinates in increasing order of their score,
+ * such that the buckets most likely to contain near neighbors are probed
+ * first.
+ * <p>
+ * Reference:
+ * <p>
+ * Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li<br>
+ * Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity
+ * Search<br>
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+@Reference(authors = "Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li", //
+    title = "Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity Search", //
+    booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)", //
+    url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf", //
+    bibkey = "DBLP:conf/vldb/LvJWCL07")
+public final class MultiProbeSequence {
+  /**
+   * Private constructor. Static methods only.
+   */
+  private MultiProbeSequence() {
+    // Do not use.
+  }
+
+  /**
+   * Generate the perturbation sets with the smallest total score.
+   *
+   * @param scores Score of each single perturbation (smaller is better)
+   * @param conflict Index of the perturbation that cannot be combined with
+   *        each perturbation, or -1
+   * @param num Number of perturbation sets to generate
+   * @return Perturbation sets, as arrays of perturbation indexes
+   */
+  public static int[][] generate(double[] scores, int[] conflict, int num) {
+    final int size = scores.length;
+    if(num <= 0 || size == 0) {
+      return new int[0][];
+    }
+    // Order perturbations by score
+    int[] order = new int[size];
+    for(int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    IntegerArrayQuickSort.sort(order, (a, b) -> Double.compare(scores[a], scores[b]));
+    int[][] sets = new int[num][];
+    int found = 0;
+    // Sets are stored as positions in the sorted order, ascending.
+    DoubleObjectMinHeap<int[]> heap = new DoubleObjectMinHeap<>();
+    heap.add(scores[order[0]], new int[] { 0 });
+    while(found < num && !heap.isEmpty()) {
+      final double score = heap.peekKey();
+      final int[] cur = heap.peekValue();
+      heap.poll();
+      final int last = cur.length - 1, max = cur[last];
+      if(max + 1 < size) {
+        // Shift: replace the largest element with its successor
+        int[] shift = Arrays.copyOf(cur, cur.length);
+        shift[last] = max + 1;
+        heap.add(score - scores[order[max]] + scores[order[max + 1]], shift);
+        // Expand: add the successor of the largest element
+        int[] expand = Arrays.copyOf(cur, cur.length + 1);
+        expand[cur.length] = max + 1;
+        heap.add(score + scores[order[max + 1]], expand);
+      }
+      if(isValid(cur, order, conflict)) {
+        int[] set = new int[cur.length];
+        for(int i = 0; i < cur.length; i++) {
+          set[i] = order[cur[i]];
+        }
+        sets[found++] = set;
+      }
+    }
+    return found < num ? Arrays.copyOf(sets, found) : sets;
+  }
+
+  /**
+   * Check that a set does not contain conflicting perturbations.
+   *
+   * @param set Set of positions
+   * @param order Perturbation order
+   * @param conflict Conflicting perturbations
+   * @return {@code true} if valid
+   */
+  private static boolean isValid(int[] set, int[] order, int[] conflict) {
+    for(int i = 0; i < set.length; i++) {
+      final int c = conflict[order[set[i]]];
+      if(c < 0) {
+        continue;
+      }
+      for(int j = i + 1; j < set.length; j++) {
+        if(order[set[j]] == c) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -118,6 +118,42 @@ public class MultipleProjectionsLocalitySensitiveHashFunction implements Localit
     return fastModPrime(t1sum);
   }
 
+  /**
+   * Multi-probe LSH: the perturbations move single coordinates to the adjacent
+   * bin below or above, scored by the squared distance to the bin boundary.
+   */
+  @Override
+  public int hashProbes(NumberVector vec, double[] buf, int[] probes) {
+    if(probes.length == 0) {
+      return 0;
+    }
+    projection.project(vec, buf);
+    final int num = shift.length;
+    double[] scores = new double[num << 1];
+    int[] conflict = new int[num << 1];
+    long t1sum = 0L;
+    for(int i = 0, j = 0; i < num; i++, j += 2) {
+      final double v = (buf[i] + shift[i]) * iwidth, f = Math.floor(v);
+      t1sum += (randoms1[i] & MASK32) * (int) f; // unsigned math!
+      final double lo = v - f, hi = 1 - lo;
+      scores[j] = lo * lo; // Previous bin
+      scores[j + 1] = hi * hi; // Next bin
+      conflict[j] = j + 1;
+      conflict[j + 1] = j;
+    }
+    probes[0] = fastModPrime(t1sum);
+    int[][] sets = MultiProbeSequence.generate(scores, conflict, probes.length - 1);
+    for(int i = 0; i < sets.length; i++) {
+      long sum = t1sum;
+      for(int p : sets[i]) {
+        final long r = randoms1[p >>> 1] & MASK32;
+        sum += (p & 1) == 0 ? -r : r;
+      }
+      probes[i + 1] = fastModPrime(sum);
+    }
+    return sets.length + 1;
+  }
+
   /**
    * Fast modulo operation for the largest unsigned integer prime.
    *
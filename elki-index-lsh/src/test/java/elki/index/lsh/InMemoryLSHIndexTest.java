@@ -0,0 +1,143 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.lsh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.AbstractIndexStructureTest;
+import elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the in-memory LSH index, with and without multi-probing.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class InMemoryLSHIndexTest extends AbstractIndexStructureTest {
+  @Test
+  public void testMultiProbeRecall() {
+    final int size = 2000, dim = 16, k = 10;
+    Random rnd = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      for(int j = 0; j < dim; j++) {
+        data[i][j] = rnd.nextDouble();
+      }
+    }
+    double single = recall(data, k, 1), multi = recall(data, k, 20);
+    assertTrue("Multi-probe recall too low: " + multi + " single: " + single, multi >= 0.75);
+    assertTrue("Multi-probe did not improve recall: " + multi + " single: " + single, multi > 2 * single);
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+    Path dir = Files.createTempDirectory("elki-snapshot");
+    try {
+      List<KNNList> first = new ArrayList<>();
+      for(int run = 0; run < 2; run++) {
+        Database db = makeSnapshotDatabase(lsh(0.5, 1), dir, run > 0);
+        Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+        KNNSearcher<DoubleVector> approx = new QueryBuilder<>(relation, EuclideanDistance.STATIC).cheapOnly().kNNByObject(10);
+        assertTrue("Unexpected searcher: " + approx, approx instanceof InMemoryLSHIndex.Instance.LSHKNNQuery);
+        int i = 0;
+        for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance(), i++) {
+          KNNList knn = approx.getKNN(relation.get(it), 10);
+          if(run == 0) {
+            first.add(knn);
+            continue;
+          }
+          assertEquals("Results differ after loading the snapshot.", first.get(i).size(), knn.size());
+          assertEquals("Results differ after loading the snapshot.", knn.size(), DBIDUtil.intersectionSize(first.get(i), knn));
+        }
+      }
+    }
+    finally {
+      deleteSnapshots(dir);
+    }
+    // A different bucket width must not reuse the snapshot.
+    assertStaleSnapshot(() -> lsh(0.5, 1), () -> lsh(0.4, 1));
+  }
+
+  /**
+   * Build a LSH index factory.
+   *
+   * @param width Bucket width
+   * @param probes Number of probes
+   * @return Factory
+   */
+  private static InMemoryLSHIndex<DoubleVector> lsh(double width, int probes) {
+    return new ELKIBuilder<InMemoryLSHIndex<DoubleVector>>(InMemoryLSHIndex.class) //
+        .with(InMemoryLSHIndex.Par.FAMILY_ID, EuclideanHashFunctionFamily.class) //
+        .with(EuclideanHashFunctionFamily.Par.RANDOM_ID, 0L) //
+        .with(EuclideanHashFunctionFamily.Par.WIDTH_ID, width) //
+        .with(EuclideanHashFunctionFamily.Par.NUMPROJ_ID, 4) //
+        .with(InMemoryLSHIndex.Par.L_ID, 4) //
+        .with(InMemoryLSHIndex.Par.PROBES_ID, probes).build();
+  }
+
+  /**
+   * Compute the recall of the LSH index.
+   *
+   * @param data Data set
+   * @param k Number of neighbors
+   * @param probes Number of probes
+   * @return Recall
+   */
+  private static double recall(double[][] data, int k, int probes) {
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), Arrays.asList(lsh(0.5, probes)));
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    KNNSearcher<DoubleVector> exact = new QueryBuilder<>(relation, EuclideanDistance.STATIC).exactOnly().noCache().kNNByObject(k);
+    KNNSearcher<DoubleVector> approx = new QueryBuilder<>(relation, EuclideanDistance.STATIC).cheapOnly().kNNByObject(k);
+    assertTrue("Unexpected searcher: " + approx, approx instanceof InMemoryLSHIndex.Instance.LSHKNNQuery);
+    int hits = 0, total = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList ex = exact.getKNN(relation.get(it), k), ap = approx.getKNN(relation.get(it), k);
+      hits += DBIDUtil.intersectionSize(ex, ap);
+      total += k;
+    }
+    return hits / (double) total;
+  }
+}
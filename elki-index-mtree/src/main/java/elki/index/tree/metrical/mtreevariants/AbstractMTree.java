@@ -35,8 +35,11 @@ import elki.index.tree.metrical.mtreevariants.strategies.split.distribution.Assi
 import elki.index.tree.metrical.mtreevariants.strategies.split.distribution.DistanceEntry;
 import elki.logging.Logging;
 import elki.logging.statistics.Counter;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.Duration;
 import elki.logging.statistics.LongStatistic;
 import elki.persistent.PageFile;
+import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import elki.utilities.io.FormatUtil;
 import elki.utilities.pairs.DoubleIntPair;
 
@@ -61,6 +64,11 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
    */
   private static final boolean EXTRA_INTEGRITY_CHECKS = false;
 
+  /**
+   * Number of routing object candidates to try per node when bulk loading.
+   */
+  private static final int BULK_CANDIDATES = 8;
+
   /**
    * Tree settings.
    */
@@ -145,8 +153,18 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
    * @param withPreInsert if this flag is true, the preInsert method will be
    *        called before inserting the object
    */
-  // todo: implement a bulk load for M-Tree and remove this method
   public void insert(E entry, boolean withPreInsert) {
+    insertEntry(entry, withPreInsert);
+  }
+
+  /**
+   * Inserts the specified object into this M-Tree.
+   * 
+   * @param entry the entry to be inserted
+   * @param withPreInsert if this flag is true, the preInsert method will be
+   *        called before inserting the object
+   */
+  private void insertEntry(E entry, boolean withPreInsert) {
     final Logging log = getLogger();
     if(log.isDebugging()) {
       log.debugFine("insert " + entry.getRoutingObjectID());
@@ -189,9 +207,190 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     if(!initialized && !entries.isEmpty()) {
       initialize(entries.get(0));
     }
+    insertEntries(entries);
+  }
+
+  /**
+   * Insert entries into the initialized tree, without pre-insert processing.
+   * If bulk loading is enabled and the tree is empty, the tree is bulk loaded.
+   * 
+   * @param entries Entries to insert
+   */
+  protected void insertEntries(List<E> entries) {
+    if(settings.bulkLoad && !entries.isEmpty() && isEmpty()) {
+      bulkLoad(entries);
+      return;
+    }
     for(E entry : entries) {
-      insert(entry, false);
+      insertEntry(entry, false);
+    }
+  }
+
+  /**
+   * Test if the tree is empty.
+   * 
+   * @return {@code true} if the tree does not contain any entries
+   */
+  protected boolean isEmpty() {
+    N root = getNode(getRootID());
+    return root.isLeaf() && root.getNumEntries() == 0;
+  }
+
+  /**
+   * Bulk load an empty tree.
+   * <p>
+   * The entries are ordered by recursive generalized hyperplane partitioning
+   * (using two distant pivots), which yields groups of nearby objects that are
+   * packed into leaves. The directory levels are then built bottom-up from
+   * consecutive nodes, so that the tree is balanced and the nodes are well
+   * filled. As routing object of each node, the best of a few candidates
+   * (minimizing the covering radius) is used.
+   * 
+   * @param entries Leaf entries to load
+   */
+  protected void bulkLoad(List<E> entries) {
+    final Logging log = getLogger();
+    Duration duration = log.isStatistics() ? log.newDuration(this.getClass().getName() + ".bulk-load.time").begin() : null;
+    final int size = entries.size();
+    final List<E> work = new ArrayList<>(entries);
+    final int leafMax = leafCapacity - 1, dirMax = dirCapacity - 1;
+    N root;
+    int numLeaves = 1, numDirectory = 0;
+    if(size <= leafMax) {
+      root = createNewLeafNode();
+    }
+    else {
+      // Leaf level, by recursive partitioning:
+      List<E> level = new ArrayList<>(size / leafMax + 1);
+      bulkPartition(work, 0, size, leafMax, new double[size], new double[size], new int[size], level);
+      numLeaves = level.size();
+      // Directory levels, from consecutive nodes:
+      while(level.size() > dirMax) {
+        final int n = level.size(), m = (n + dirMax - 1) / dirMax;
+        List<E> next = new ArrayList<>(m);
+        for(int i = 0; i < m; i++) {
+          next.add(bulkNode(level, (int) ((long) i * n / m), (int) ((long) (i + 1) * n / m), false));
+        }
+        numDirectory += m;
+        level = next;
+      }
+      work.clear();
+      work.addAll(level);
+      root = createNewDirectoryNode();
+      ++numDirectory;
+    }
+    root.setPageID(getRootID());
+    final DBID rootID = getRootEntry().getRoutingObjectID();
+    for(E e : work) {
+      e.setParentDistance(distance(rootID, e.getRoutingObjectID()));
+      root.addEntry(e);
+    }
+    writeNode(root);
+    E rootEntry = getRootEntry();
+    root.adjustEntry(rootEntry, rootID, rootEntry.getParentDistance(), this);
+    doExtraIntegrityChecks();
+    if(duration != null) {
+      log.statistics(duration.end());
+      final String prefix = this.getClass().getName() + ".bulk-load.";
+      log.statistics(new LongStatistic(prefix + "leaves", numLeaves));
+      log.statistics(new LongStatistic(prefix + "directory-nodes", numDirectory));
+      log.statistics(new DoubleStatistic(prefix + "leaf-utilization", size / (double) (numLeaves * leafMax)));
+    }
+  }
+
+  /**
+   * Recursively partition the entries, and create leaf nodes.
+   * 
+   * @param work Entries
+   * @param start Begin of the current partition
+   * @param end End of the current partition
+   * @param leafMax Maximum number of entries in a leaf
+   * @param keys Scratch array of keys
+   * @param dists Scratch array of distances
+   * @param idx Scratch array of indexes
+   * @param leaves Output list of leaf entries
+   */
+  private void bulkPartition(List<E> work, int start, int end, int leafMax, double[] keys, double[] dists, int[] idx, List<E> leaves) {
+    final int size = end - start;
+    if(size <= leafMax) {
+      leaves.add(bulkNode(work, start, end, true));
+      return;
+    }
+    // Choose two distant pivots: the farthest from the first object, and the
+    // farthest from that.
+    DBID first = work.get(start).getRoutingObjectID(), p1 = first, p2 = first;
+    double max = -1;
+    for(int i = start; i < end; i++) {
+      final double d = distance(first, work.get(i).getRoutingObjectID());
+      if(d > max) {
+        max = d;
+        p1 = work.get(i).getRoutingObjectID();
+      }
+    }
+    max = -1;
+    for(int i = start; i < end; i++) {
+      final double d = dists[i] = distance(p1, work.get(i).getRoutingObjectID());
+      if(d > max) {
+        max = d;
+        p2 = work.get(i).getRoutingObjectID();
+      }
+    }
+    // Order by the generalized hyperplane between the two pivots.
+    for(int i = start; i < end; i++) {
+      keys[i] = dists[i] - distance(p2, work.get(i).getRoutingObjectID());
+      idx[i] = i;
+    }
+    DoubleIntegerArrayQuickSort.sort(keys, idx, start, end);
+    List<E> sorted = new ArrayList<>(size);
+    for(int i = start; i < end; i++) {
+      sorted.add(work.get(idx[i]));
+    }
+    for(int i = 0; i < size; i++) {
+      work.set(start + i, sorted.get(i));
+    }
+    // Split such that both halves can be stored in full leaves.
+    final int m = (size + leafMax - 1) / leafMax;
+    final int mid = start + (int) ((long) size * (m >>> 1) / m);
+    bulkPartition(work, start, mid, leafMax, keys, dists, idx, leaves);
+    bulkPartition(work, mid, end, leafMax, keys, dists, idx, leaves);
+  }
+
+  /**
+   * Create a node for bulk loading.
+   * 
+   * @param entries Entries
+   * @param start First entry of the node
+   * @param end End of the entries of the node
+   * @param leaf Flag to create a leaf
+   * @return Directory entry of the new node
+   */
+  private E bulkNode(List<E> entries, int start, int end, boolean leaf) {
+    final int size = end - start;
+    // Choose the routing object with the smallest covering radius:
+    final int step = Math.max(1, size / BULK_CANDIDATES);
+    DBID best = null;
+    double bestCover = Double.POSITIVE_INFINITY;
+    for(int c = start + (step >>> 1); c < end; c += step) {
+      final DBID cand = entries.get(c).getRoutingObjectID();
+      double cover = 0.;
+      for(int i = start; i < end && cover < bestCover; i++) {
+        final E e = entries.get(i);
+        final double d = distance(cand, e.getRoutingObjectID()) + e.getCoveringRadius();
+        cover = d > cover ? d : cover;
+      }
+      if(cover < bestCover) {
+        bestCover = cover;
+        best = cand;
+      }
+    }
+    N node = leaf ? createNewLeafNode() : createNewDirectoryNode();
+    for(int i = start; i < end; i++) {
+      final E e = entries.get(i);
+      e.setParentDistance(distance(best, e.getRoutingObjectID()));
+      node.addEntry(e);
     }
+    writeNode(node);
+    return createNewDirectoryEntry(node, best, Double.NaN);
   }
 
   @Override
@@ -49,4 +49,9 @@ public class MTreeSettings<O, N extends AbstractMTreeNode<O, N, E>, E extends MT
    * Insertion strategy.
    */
   protected MTreeInsert<E, N> insertStrategy;
+
+  /**
+   * Bulk load the tree when it is empty.
+   */
+  protected boolean bulkLoad = false;
 }
@@ -79,12 +79,10 @@ public abstract class AbstractMkTreeUnified<O, N extends AbstractMTreeNode<O, N,
     }
 
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-    // insert sequentially
     for (E entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
     }
+    insertEntries(entries);
 
     Map<DBID, KNNList> knnLists = batchNN(getNode(getRootID()), ids, settings.kmax);
 
@@ -112,12 +112,10 @@ public abstract class MkAppTree<O> extends AbstractMkTree<O, MkAppTreeNode<O>, M
     }
 
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-    // insert
     for(MkAppEntry entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
     }
+    insertEntries(entries);
 
     Map<DBID, KNNList> knnLists = batchNN(getNode(getRootID()), ids, settings.kmax + 1);
 
@@ -89,8 +89,8 @@ public class MkMaxTreeIndex<O> extends MkMaxTree<O> implements RangeIndex<O>, KN
   public void insertAll(DBIDs ids) {
     List<MkMaxEntry> objs = new ArrayList<>(ids.size());
     for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      DBID id = DBIDUtil.deref(iter);
-      objs.add(createNewLeafEntry(id, id, Double.NaN));
+      // The kNN distances are computed by insertAll, after insertion.
+      objs.add(new MkMaxLeafEntry(DBIDUtil.deref(iter), Double.NaN, Double.NaN));
     }
     insertAll(objs);
   }
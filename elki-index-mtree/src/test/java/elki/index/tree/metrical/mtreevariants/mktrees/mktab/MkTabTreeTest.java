@@ -0,0 +1,58 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.tree.metrical.mtreevariants.mktrees.mktab;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.index.AbstractIndexStructureTest;
+import elki.index.tree.metrical.mtreevariants.AbstractMTreeFactory;
+import elki.index.tree.metrical.mtreevariants.mktrees.AbstractMkTreeUnifiedFactory;
+import elki.index.tree.metrical.mtreevariants.query.MTreeKNNByObject;
+import elki.index.tree.metrical.mtreevariants.query.MTreeRangeByObject;
+import elki.index.tree.metrical.mtreevariants.query.MkTreeRKNNQuery;
+import elki.persistent.AbstractPageFileFactory;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the MkTab-tree.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class MkTabTreeTest extends AbstractIndexStructureTest {
+  /**
+   * Test {@link MkTabTree} with and without bulk loading.
+   */
+  @Test
+  public void testEuclidean() {
+    MkTabTreeFactory<DoubleVector> factory = new ELKIBuilder<>(MkTabTreeFactory.class) //
+        .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+        .with(AbstractMkTreeUnifiedFactory.Par.K_MAX_ID, 5).build();
+    MkTabTreeFactory<DoubleVector> bulk = new ELKIBuilder<>(MkTabTreeFactory.class) //
+        .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+        .with(AbstractMkTreeUnifiedFactory.Par.K_MAX_ID, 5) //
+        .with(AbstractMTreeFactory.Par.BULK_LOAD_ID).build();
+    assertExactEuclidean(factory, MTreeKNNByObject.class, MTreeRangeByObject.class);
+    assertExactEuclidean(bulk, MTreeKNNByObject.class, MTreeRangeByObject.class);
+    assertBulkLoadEuclidean(bulk, factory, 5, MkTreeRKNNQuery.class, 1.);
+  }
+}
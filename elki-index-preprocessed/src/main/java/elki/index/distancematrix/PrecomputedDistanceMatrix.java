@@ -20,9 +20,13 @@
  */
 package elki.index.distancematrix;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 
 import elki.data.type.TypeInformation;
+import elki.database.IndexSnapshots;
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.distance.DatabaseDistanceQuery;
@@ -42,6 +46,7 @@ import elki.utilities.exceptions.AbortException;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -63,7 +68,7 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  *
  * @param <O> Object type
  */
-public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeIndex<O>, KNNIndex<O>, DistancePriorityIndex<O> {
+public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeIndex<O>, KNNIndex<O>, DistancePriorityIndex<O>, SnapshotIndex {
   /**
    * Class logger.
    */
@@ -89,6 +94,11 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    */
   private DBIDRange ids;
 
+  /**
+   * Description of the parameters, for snapshots.
+   */
+  private final String parameters;
+
   /**
    * Constructor.
    *
@@ -97,10 +107,23 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
    * @param distance Distance function
    */
   public PrecomputedDistanceMatrix(Relation<O> relation, DBIDRange range, Distance<? super O> distance) {
+    this(relation, range, distance, IndexSnapshots.describe(distance));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param range DBID range
+   * @param distance Distance function
+   * @param parameters Description of the parameters, for snapshots
+   */
+  public PrecomputedDistanceMatrix(Relation<O> relation, DBIDRange range, Distance<? super O> distance, String parameters) {
     super();
     this.refrelation = new WeakReference<>(relation);
     this.ids = range;
     this.distance = distance;
+    this.parameters = parameters;
 
     if(!distance.isSymmetric()) {
       throw new AbortException("Distance matrixes currently only support symmetric distance functions (Patches welcome).");
@@ -156,6 +179,28 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
     return (y < x) ? (triangleSize(x) + y) : (triangleSize(y) + x);
   }
 
+  @Override
+  public void writeSnapshot(DataOutput out) throws IOException {
+    if(matrix.length > (Integer.MAX_VALUE >>> 3)) {
+      throw new IOException("Distance matrix too large for a snapshot.");
+    }
+    IndexSnapshots.writeParameters(out, parameters);
+    IndexSnapshots.writeDoubles(out, matrix);
+  }
+
+  @Override
+  public boolean loadSnapshot(ByteBuffer in) throws IOException {
+    if(!IndexSnapshots.matchParameters(in, parameters)) {
+      return false;
+    }
+    double[] m = IndexSnapshots.readDoubles(in);
+    if(m.length != triangleSize(ids.size())) {
+      return false;
+    }
+    matrix = m;
+    return true;
+  }
+
   @Override
   public void logStatistics() {
     if(matrix != null) {
@@ -471,14 +516,30 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
      */
     protected final Distance<? super O> distance;
 
+    /**
+     * Description of the parameters, for snapshots.
+     */
+    private final String parameters;
+
     /**
      * Constructor.
      *
      * @param distance Distance function
      */
     public Factory(Distance<? super O> distance) {
+      this(distance, IndexSnapshots.describe(distance));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param parameters Description of the parameters, for snapshots
+     */
+    public Factory(Distance<? super O> distance, String parameters) {
       super();
       this.distance = distance;
+      this.parameters = parameters;
     }
 
     @Override
@@ -487,7 +548,7 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
       if(!(rids instanceof DBIDRange)) {
         throw new AbortException("Distance matrixes are currently only supported for DBID ranges (as used by static databases; not on modifiable databases) for performance reasons (Patches welcome).");
       }
-      return new PrecomputedDistanceMatrix<>(relation, (DBIDRange) rids, distance);
+      return new PrecomputedDistanceMatrix<>(relation, (DBIDRange) rids, distance, parameters);
     }
 
     @Override
@@ -515,15 +576,22 @@ public class PrecomputedDistanceMatrix<O> implements DistanceIndex<O>, RangeInde
        */
       protected Distance<? super O> distanceFunction;
 
+      /**
+       * Description of the parameters, for snapshots.
+       */
+      protected String parameters;
+
       @Override
       public void configure(Parameterization config) {
+        TrackParameters track = new TrackParameters(config);
         new ObjectParameter<Distance<? super O>>(DISTANCE_ID, Distance.class) //
-            .grab(config, x -> distanceFunction = x);
+            .grab(track, x -> distanceFunction = x);
+        parameters = IndexSnapshots.describe(track);
       }
 
       @Override
       public Factory<O> make() {
-        return new Factory<>(distanceFunction);
+        return new Factory<>(distanceFunction, parameters);
       }
     }
   }
@@ -20,6 +20,9 @@
  */
 package elki.index.preprocessed.knn;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
@@ -84,6 +87,24 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     materializeKNNAndRKNNs(DBIDUtil.ensureArray(relation.getDBIDs()), progress);
   }
 
+  @Override
+  public boolean loadSnapshot(ByteBuffer in) throws IOException {
+    if(!super.loadSnapshot(in)) {
+      return false;
+    }
+    // Rebuild the reverse neighbors from the loaded kNN lists.
+    storageRkNN = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, ModifiableDoubleDBIDList.class);
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      storageRkNN.put(iter, DBIDUtil.newDistanceDBIDList());
+    }
+    for(DBIDIter id = relation.iterDBIDs(); id.valid(); id.advance()) {
+      for(DoubleDBIDListIter iter = storage.get(id).iter(); iter.valid(); iter.advance()) {
+        storageRkNN.get(iter).add(iter.doubleValue(), id);
+      }
+    }
+    return true;
+  }
+
   /**
    * Materializes the kNNs and RkNNs of the specified object IDs.
    *
@@ -226,13 +247,13 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     LOG.beginStep(stepprog, 2, "New deletions ocurred, update the affected kNNs and RkNNs.");
     // remove objects from RkNNs of objects (in kNN lists)
     {
+      // With batch deletions, a list may contain several removed objects.
       SetDBIDs idsSet = DBIDUtil.ensureSet(ids);
       for(DBIDIter nn = kNNs.iter(); nn.valid(); nn.advance()) {
         ModifiableDoubleDBIDList rkNN = storageRkNN.get(nn);
         for(DoubleDBIDListMIter it = rkNN.iter(); it.valid(); it.advance()) {
           if(idsSet.contains(it)) {
             it.remove();
-            break;
           }
         }
       }
@@ -20,16 +20,23 @@
  */
 package elki.index.preprocessed.knn;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import javax.swing.event.EventListenerList;
 
+import elki.database.IndexSnapshots;
 import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.AllKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.knn.PreprocessorKNNQuery;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DynamicIndex;
+import elki.index.SnapshotIndex;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.logging.progress.StepProgress;
@@ -37,6 +44,8 @@ import elki.logging.statistics.Duration;
 import elki.logging.statistics.LongStatistic;
 import elki.utilities.documentation.Description;
 import elki.utilities.documentation.Title;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
 
 /**
  * A preprocessor for annotation of the k nearest neighbors (and their
@@ -55,7 +64,7 @@ import elki.utilities.documentation.Title;
  */
 @Title("Materialize kNN Neighborhood preprocessor")
 @Description("Materializes the k nearest neighbors of objects of a database.")
-public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreprocessor<O> implements DynamicIndex {
+public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreprocessor<O> implements DynamicIndex, SnapshotIndex {
   /**
    * Logger to use.
    */
@@ -71,6 +80,11 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    */
   protected final EventListenerList listenerList = new EventListenerList();
 
+  /**
+   * Description of the parameters, for snapshots.
+   */
+  private final String parameters;
+
   /**
    * Constructor with preprocessing step.
    *
@@ -79,8 +93,21 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param k query k
    */
   public MaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k) {
+    this(relation, distance, k, IndexSnapshots.describe(k, distance));
+  }
+
+  /**
+   * Constructor with preprocessing step.
+   *
+   * @param relation Relation to preprocess
+   * @param distance the distance function to use
+   * @param k query k
+   * @param parameters Description of the parameters, for snapshots
+   */
+  public MaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k, String parameters) {
     super(relation, distance, k);
     this.knnQuery = new QueryBuilder<>(distanceQuery).noCache().kNNByDBID(k);
+    this.parameters = parameters;
     assert !(knnQuery instanceof PreprocessorKNNQuery) : knnQuery.toString();
   }
 
@@ -96,6 +123,7 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     super(relation, distanceQuery, k);
     QueryBuilder<O> qb = new QueryBuilder<>(distanceQuery).noCache();
     this.knnQuery = (noopt ? qb.cheapOnly() : qb).kNNByDBID(k);
+    this.parameters = IndexSnapshots.describe(k, distanceQuery.getDistance());
     assert !(knnQuery instanceof PreprocessorKNNQuery) : knnQuery.toString();
   }
 
@@ -114,7 +142,18 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
     Duration duration = log.isStatistics() ? log.newDuration(this.getClass().getName() + ".precomputation-time").begin() : null;
     FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", ids.size(), getLogger()) : null;
-    // Try bulk
+    if(knnQuery instanceof AllKNNSearcher) {
+      // Bulk computation, e.g., by a dual-tree self-join
+      ((AllKNNSearcher) knnQuery).getAllKNN(k, storage);
+      if(progress != null) {
+        progress.setProcessed(ids.size(), log);
+      }
+      log.ensureCompleted(progress);
+      if(duration != null) {
+        log.statistics(duration.end());
+      }
+      return;
+    }
     final boolean ismetric = getDistanceQuery().getDistance().isMetric();
     for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
       if(ismetric && storage.get(iter) != null) {
@@ -136,6 +175,30 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
   }
 
+  @Override
+  public void writeSnapshot(DataOutput out) throws IOException {
+    IndexSnapshots.writeParameters(out, parameters);
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      IndexSnapshots.writeDoubleDBIDList(out, storage.get(iter));
+    }
+  }
+
+  @Override
+  public boolean loadSnapshot(ByteBuffer in) throws IOException {
+    if(!IndexSnapshots.matchParameters(in, parameters)) {
+      return false;
+    }
+    createStorage();
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DoubleDBIDListIter it = IndexSnapshots.readDoubleDBIDList(in).iter(); it.valid(); it.advance()) {
+        heap.insert(it.doubleValue(), it);
+      }
+      storage.put(iter, heap.toKNNList());
+    }
+    return true;
+  }
+
   @Override
   public final void insert(DBIDRef id) {
     objectsInserted(DBIDUtil.deref(id));
@@ -351,6 +414,11 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param <O> The object type
    */
   public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+    /**
+     * Description of the parameters, for snapshots.
+     */
+    private final String parameters;
+
     /**
      * Index factory.
      *
@@ -358,12 +426,24 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @param distance distance function
      */
     public Factory(int k, Distance<? super O> distance) {
+      this(k, distance, IndexSnapshots.describe(k, distance));
+    }
+
+    /**
+     * Index factory.
+     *
+     * @param k k parameter
+     * @param distance distance function
+     * @param parameters Description of the parameters, for snapshots
+     */
+    public Factory(int k, Distance<? super O> distance, String parameters) {
       super(k, distance);
+      this.parameters = parameters;
     }
 
     @Override
     public MaterializeKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<O>(relation, distance, k);
+      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<O>(relation, distance, k, parameters);
       return instance;
     }
 
@@ -373,9 +453,21 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @author Erich Schubert
      */
     public static class Par<O> extends AbstractMaterializeKNNPreprocessor.Factory.Par<O> {
+      /**
+       * Description of the parameters, for snapshots.
+       */
+      protected String parameters;
+
+      @Override
+      public void configure(Parameterization config) {
+        TrackParameters track = new TrackParameters(config);
+        super.configure(track);
+        parameters = IndexSnapshots.describe(track);
+      }
+
       @Override
       public Factory<O> make() {
-        return new Factory<>(k, distance);
+        return new Factory<>(k, distance, parameters);
       }
     }
   }
@@ -35,6 +35,7 @@ import elki.database.query.QueryBuilder;
 import elki.database.relation.Relation;
 import elki.distance.CosineDistance;
 import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.WeightedEuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
 import elki.utilities.optionhandling.parameterization.ListParameterization;
@@ -82,6 +83,27 @@ public class PrecomputedDistanceMatrixTest extends AbstractIndexStructureTest {
     }
   }
 
+  @Test
+  public void testSnapshot() {
+    PrecomputedDistanceMatrix.Factory<?> factory = new ELKIBuilder<>(PrecomputedDistanceMatrix.Factory.class) //
+        .with(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, EuclideanDistance.class).build();
+    assertSnapshotEuclidean(() -> factory, PrecomputedDistanceMatrix.PrecomputedKNNQuery.class, PrecomputedDistanceMatrix.PrecomputedRangeQuery.class, true);
+    // Different weights of the distance function must not reuse the snapshot.
+    assertStaleSnapshot(() -> weighted(1., 1., 1.), () -> weighted(1., 2., 1.));
+  }
+
+  /**
+   * Build a distance matrix factory with a weighted Euclidean distance.
+   *
+   * @param weights Weights
+   * @return Factory
+   */
+  private static PrecomputedDistanceMatrix.Factory<?> weighted(double... weights) {
+    return new ELKIBuilder<>(PrecomputedDistanceMatrix.Factory.class) //
+        .with(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, WeightedEuclideanDistance.class) //
+        .with(WeightedEuclideanDistance.WEIGHTS_ID, weights).build();
+  }
+
   @Test
   public void testCosine() {
     PrecomputedDistanceMatrix.Factory<?> factory = new ELKIBuilder<>(PrecomputedDistanceMatrix.Factory.class) //
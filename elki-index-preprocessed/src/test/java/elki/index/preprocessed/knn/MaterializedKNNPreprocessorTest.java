@@ -39,11 +39,14 @@ import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.knn.LinearScanKNNByDBID;
+import elki.database.query.knn.PreprocessorKNNQuery;
 import elki.database.relation.Relation;
 import elki.database.relation.RelationUtil;
 import elki.datasource.FileBasedDatabaseConnection;
 import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.LPNormDistance;
+import elki.index.AbstractIndexStructureTest;
 import elki.result.Metadata;
 import elki.utilities.ELKIBuilder;
 
@@ -53,7 +56,7 @@ import elki.utilities.ELKIBuilder;
  * @author Erich Schubert
  * @since 0.7.5
  */
-public class MaterializedKNNPreprocessorTest {
+public class MaterializedKNNPreprocessorTest extends AbstractIndexStructureTest {
   // the following values depend on the data set used!
   static String dataset = "elki/testdata/unittests/3clusters-and-noise-2d.csv";
 
@@ -121,6 +124,26 @@ public class MaterializedKNNPreprocessorTest {
     testKNNQueries(relation, lin_knn_query, preproc_knn_query, k);
   }
 
+  @Test
+  public void testSnapshot() {
+    assertSnapshotEuclidean(new MaterializeKNNPreprocessor.Factory<>(10, EuclideanDistance.STATIC), PreprocessorKNNQuery.class, null);
+    // A different distance parameter must not reuse the snapshot.
+    assertStaleSnapshot(() -> lpnorm(2.), () -> lpnorm(3.));
+  }
+
+  /**
+   * Build a preprocessor factory with a L_p-norm distance.
+   *
+   * @param p Exponent
+   * @return Factory
+   */
+  private static MaterializeKNNPreprocessor.Factory<?> lpnorm(double p) {
+    return new ELKIBuilder<>(MaterializeKNNPreprocessor.Factory.class) //
+        .with(MaterializeKNNPreprocessor.Factory.K_ID, 10) //
+        .with(MaterializeKNNPreprocessor.Factory.DISTANCE_FUNCTION_ID, LPNormDistance.class) //
+        .with(LPNormDistance.Par.P_ID, p).build();
+  }
+
   public static void testKNNQueries(Relation<DoubleVector> rep, KNNSearcher<DBIDRef> lin_knn_query, KNNSearcher<DBIDRef> preproc_knn_query, int k) {
     assertNotEquals("Preprocessor knn query class incorrect.", lin_knn_query.getClass(), preproc_knn_query.getClass());
     for(DBIDIter iter = rep.iterDBIDs(); iter.valid(); iter.advance()) {
@@ -0,0 +1,85 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.preprocessed.knn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.database.AppendOnlyDatabase;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.KNNList;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.PreprocessorKNNQuery;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.Index;
+import elki.result.Metadata;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Test the {@link RandomSampleKNNPreprocessor}, as an example of a non-dynamic
+ * index in an append-only database.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class RandomSampleKNNPreprocessorTest {
+  @Test
+  public void testAppendOnlyDatabase() {
+    Random rnd = new Random(0L);
+    // With share 1, the kNN are exact.
+    AppendOnlyDatabase db = new AppendOnlyDatabase(null, Arrays.asList(new RandomSampleKNNPreprocessor.Factory<>(5, EuclideanDistance.STATIC, 1., RandomFactory.get(0L))));
+    Index previous = null;
+    for(int size : new int[] { 100, 20, 30 }) {
+      List<DoubleVector> batch = new ArrayList<>(size);
+      for(int i = 0; i < size; i++) {
+        batch.add(DoubleVector.wrap(new double[] { rnd.nextDouble(), rnd.nextDouble() }));
+      }
+      db.insert(MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2), batch));
+      Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+      Index index = Metadata.hierarchyOf(relation).iterChildren().filter(Index.class).get();
+      assertNotSame("Index was not rebuilt.", previous, index);
+      previous = index;
+      QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, EuclideanDistance.STATIC);
+      KNNSearcher<DBIDRef> knnq = qb.cheapOnly().kNNByDBID(5);
+      assertTrue("Preprocessor not used.", knnq instanceof PreprocessorKNNQuery);
+      KNNSearcher<DBIDRef> linq = qb.linearOnly().kNNByDBID(5);
+      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+        KNNList expect = linq.getKNN(it, 5), actual = knnq.getKNN(it, 5);
+        assertEquals("kNN distance differs.", expect.getKNNDistance(), actual.getKNNDistance(), 0.);
+      }
+    }
+  }
+}
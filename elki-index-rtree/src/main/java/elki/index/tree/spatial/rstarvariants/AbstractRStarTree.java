@@ -826,6 +826,17 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
       }
     }
 
+    /**
+     * Count multiple distance computations.
+     *
+     * @param n Number of distance computations
+     */
+    public void countDistanceCalculations(int n) {
+      if(distanceCalcs != null) {
+        distanceCalcs.increment(n);
+      }
+    }
+
     /**
      * Count a knn query invocation.
      */
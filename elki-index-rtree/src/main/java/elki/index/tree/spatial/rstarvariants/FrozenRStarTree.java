@@ -0,0 +1,428 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.tree.spatial.rstarvariants;
+
+import java.util.Arrays;
+
+import elki.data.NumberVector;
+import elki.data.spatial.SpatialComparable;
+import elki.database.ids.*;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.RangeSearcher;
+import elki.index.tree.LeafEntry;
+import elki.index.tree.spatial.SpatialDirectoryEntry;
+import elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+
+import net.jafama.FastMath;
+
+/**
+ * Read-only copy of an R*-tree, packed into flat primitive arrays for fast
+ * queries without object and page access overhead.
+ * <p>
+ * Nodes are numbered in breadth-first order. Then the children of each
+ * directory node are consecutive, and because the tree is balanced, all leaves
+ * come after the directory nodes. The bounding boxes of the children of a node
+ * (and the points of a leaf) are stored dimension by dimension, so the
+ * distances to all entries of a node are computed by simple loops over
+ * contiguous memory.
+ * <p>
+ * The packed tree must be discarded when the original tree is modified.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - FrozenKNNSearcher
+ * @has - - - FrozenRangeSearcher
+ */
+public class FrozenRStarTree {
+  /**
+   * Original tree, for statistics.
+   */
+  private final AbstractRStarTree<?, ?, ?> tree;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Number of directory nodes; nodes with larger indexes are leaves.
+   */
+  private final int numDirectory;
+
+  /**
+   * Children of directory node {@code n} are the nodes
+   * {@code children[n]..children[n+1]}.
+   */
+  private final int[] children;
+
+  /**
+   * Points of leaf {@code l} are {@code leaves[l]..leaves[l+1]}.
+   */
+  private final int[] leaves;
+
+  /**
+   * Bounding boxes of all nodes. For the children {@code [s, s+c)} of a node,
+   * the minimum in dimension {@code d} of child {@code i} is at
+   * {@code 2*dim*s + 2*d*c + i}, the maximum at {@code 2*dim*s + (2*d+1)*c + i}.
+   */
+  private final double[] boxes;
+
+  /**
+   * Point coordinates. For the points {@code [s, s+c)} of a leaf, coordinate
+   * {@code d} of point {@code i} is at {@code dim*s + d*c + i}.
+   */
+  private final double[] coords;
+
+  /**
+   * Object ids, in the order of the points.
+   */
+  private final ArrayModifiableDBIDs ids;
+
+  /**
+   * Maximum number of entries in a node.
+   */
+  private final int maxFanout;
+
+  /**
+   * Constructor, packing the current contents of the tree.
+   *
+   * @param tree Tree to pack, with point leaf entries
+   */
+  public FrozenRStarTree(AbstractRStarTree<?, ?, ?> tree) {
+    this.tree = tree;
+    // Collect the pages in breadth-first order.
+    int[] pages = new int[16];
+    int numNodes = 1, numDir = 0, numPoints = 0, fanout = 0, d = 0;
+    pages[0] = tree.getRootID();
+    for(int n = 0; n < numNodes; n++) {
+      AbstractRStarTreeNode<?, ?> node = tree.getNode(pages[n]);
+      final int c = node.getNumEntries();
+      fanout = c > fanout ? c : fanout;
+      if(c > 0) {
+        d = ((SpatialComparable) node.getEntry(0)).getDimensionality();
+      }
+      if(node.isLeaf()) {
+        numPoints += c;
+        continue;
+      }
+      assert numDir == n : "Unbalanced tree.";
+      ++numDir;
+      if(numNodes + c > pages.length) {
+        pages = Arrays.copyOf(pages, Math.max(pages.length << 1, numNodes + c));
+      }
+      for(int i = 0; i < c; i++) {
+        pages[numNodes++] = ((SpatialDirectoryEntry) node.getEntry(i)).getPageID();
+      }
+    }
+    this.dim = d;
+    this.numDirectory = numDir;
+    this.maxFanout = fanout;
+    this.children = new int[numDir + 1];
+    this.leaves = new int[numNodes - numDir + 1];
+    this.boxes = new double[2 * dim * numNodes];
+    this.coords = new double[dim * numPoints];
+    this.ids = DBIDUtil.newArray(numPoints);
+    // Pack the nodes.
+    int nextChild = 1, nextPoint = 0;
+    for(int n = 0; n < numNodes; n++) {
+      AbstractRStarTreeNode<?, ?> node = tree.getNode(pages[n]);
+      final int c = node.getNumEntries();
+      if(n < numDir) {
+        children[n] = nextChild;
+        for(int i = 0, base = 2 * dim * nextChild; i < c; i++) {
+          SpatialComparable e = (SpatialComparable) node.getEntry(i);
+          for(int j = 0; j < dim; j++) {
+            boxes[base + 2 * j * c + i] = e.getMin(j);
+            boxes[base + (2 * j + 1) * c + i] = e.getMax(j);
+          }
+        }
+        nextChild += c;
+        children[n + 1] = nextChild;
+      }
+      else {
+        leaves[n - numDir] = nextPoint;
+        for(int i = 0, base = dim * nextPoint; i < c; i++) {
+          SpatialComparable e = (SpatialComparable) node.getEntry(i);
+          for(int j = 0; j < dim; j++) {
+            coords[base + j * c + i] = e.getMin(j);
+          }
+          ids.add(((LeafEntry) e).getDBID());
+        }
+        nextPoint += c;
+        leaves[n - numDir + 1] = nextPoint;
+      }
+    }
+  }
+
+  /**
+   * Number of objects in the packed tree.
+   *
+   * @return Size
+   */
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Get a kNN searcher.
+   *
+   * @param squared Return squared Euclidean distances
+   * @param <O> Object type
+   * @return Searcher
+   */
+  public <O extends NumberVector> KNNSearcher<O> kNNSearcher(boolean squared) {
+    return new FrozenKNNSearcher<>(squared);
+  }
+
+  /**
+   * Get a range searcher.
+   *
+   * @param squared Use squared Euclidean distances
+   * @param <O> Object type
+   * @return Searcher
+   */
+  public <O extends NumberVector> RangeSearcher<O> rangeSearcher(boolean squared) {
+    return new FrozenRangeSearcher<>(squared);
+  }
+
+  /**
+   * Base class for searchers, with the vectorizable distance loops.
+   *
+   * @author Erich Schubert
+   */
+  private abstract class FrozenSearcher {
+    /**
+     * Query point.
+     */
+    protected final double[] query = new double[dim];
+
+    /**
+     * Squared distances to the entries of the current node.
+     */
+    protected final double[] dists = new double[maxFanout];
+
+    /**
+     * Iterator over the object ids.
+     */
+    protected final DBIDArrayIter iter = ids.iter();
+
+    /**
+     * Use squared Euclidean distance.
+     */
+    protected final boolean squared;
+
+    /**
+     * Constructor.
+     *
+     * @param squared Use squared Euclidean distance
+     */
+    FrozenSearcher(boolean squared) {
+      this.squared = squared;
+    }
+
+    /**
+     * Load the query vector.
+     *
+     * @param obj Query object
+     */
+    protected void setQuery(NumberVector obj) {
+      assert obj.getDimensionality() == dim || ids.isEmpty() : "Dimensionality mismatch.";
+      for(int d = 0; d < dim; d++) {
+        query[d] = obj.doubleValue(d);
+      }
+    }
+
+    /**
+     * Compute the squared minimum distances to the children of a directory
+     * node.
+     *
+     * @param s First child
+     * @param c Number of children
+     */
+    protected void boxDistances(int s, int c) {
+      tree.statistics.countDistanceCalculations(c);
+      final double[] dists = this.dists, boxes = FrozenRStarTree.this.boxes;
+      Arrays.fill(dists, 0, c, 0.);
+      for(int d = 0, lo = 2 * dim * s; d < dim; d++, lo += c << 1) {
+        final double q = query[d];
+        for(int i = 0, hi = lo + c; i < c; i++) {
+          final double a = boxes[lo + i] - q, b = q - boxes[hi + i];
+          final double v = a > b ? a : b;
+          dists[i] += v > 0 ? v * v : 0;
+        }
+      }
+    }
+
+    /**
+     * Compute the squared distances to the points of a leaf.
+     *
+     * @param s First point
+     * @param c Number of points
+     */
+    protected void pointDistances(int s, int c) {
+      tree.statistics.countDistanceCalculations(c);
+      final double[] dists = this.dists, coords = FrozenRStarTree.this.coords;
+      Arrays.fill(dists, 0, c, 0.);
+      for(int d = 0, off = dim * s; d < dim; d++, off += c) {
+        final double q = query[d];
+        for(int i = 0; i < c; i++) {
+          final double v = coords[off + i] - q;
+          dists[i] += v * v;
+        }
+      }
+    }
+  }
+
+  /**
+   * Best-first kNN search on the packed tree.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  public class FrozenKNNSearcher<O extends NumberVector> extends FrozenSearcher implements KNNSearcher<O> {
+    /**
+     * Priority queue of nodes.
+     */
+    private final DoubleIntegerMinHeap pq = new DoubleIntegerMinHeap(21);
+
+    /**
+     * Constructor.
+     *
+     * @param squared Return squared Euclidean distances
+     */
+    FrozenKNNSearcher(boolean squared) {
+      super(squared);
+    }
+
+    @Override
+    public KNNList getKNN(O obj, int k) {
+      if(k < 1) {
+        throw new IllegalArgumentException("At least one neighbor has to be requested!");
+      }
+      tree.statistics.countKNNQuery();
+      final KNNHeap knnList = DBIDUtil.newHeap(k);
+      if(ids.isEmpty()) {
+        return knnList.toKNNList();
+      }
+      setQuery(obj);
+      pq.clear();
+      double maxDist = expandNode(knnList, Double.POSITIVE_INFINITY, 0);
+      while(!pq.isEmpty() && pq.peekKey() <= maxDist) {
+        final int node = pq.peekValue();
+        pq.poll();
+        maxDist = expandNode(knnList, maxDist, node);
+      }
+      return squared ? knnList.toKNNList() : knnList.toKNNListSqrt();
+    }
+
+    /**
+     * Expand a node.
+     *
+     * @param knnList kNN heap
+     * @param maxDist Current squared kNN distance
+     * @param node Node number
+     * @return New squared kNN distance
+     */
+    private double expandNode(KNNHeap knnList, double maxDist, int node) {
+      if(node >= numDirectory) {
+        final int l = node - numDirectory, s = leaves[l], c = leaves[l + 1] - s;
+        pointDistances(s, c);
+        for(int i = 0; i < c; i++) {
+          if(dists[i] <= maxDist) {
+            maxDist = knnList.insert(dists[i], iter.seek(s + i));
+          }
+        }
+      }
+      else {
+        final int s = children[node], c = children[node + 1] - s;
+        boxDistances(s, c);
+        for(int i = 0; i < c; i++) {
+          if(dists[i] <= maxDist) {
+            pq.add(dists[i], s + i);
+          }
+        }
+      }
+      return maxDist;
+    }
+  }
+
+  /**
+   * Depth-first range search on the packed tree.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  public class FrozenRangeSearcher<O extends NumberVector> extends FrozenSearcher implements RangeSearcher<O> {
+    /**
+     * Stack of nodes to process.
+     */
+    private int[] stack = new int[64];
+
+    /**
+     * Constructor.
+     *
+     * @param squared Use squared Euclidean distances
+     */
+    FrozenRangeSearcher(boolean squared) {
+      super(squared);
+    }
+
+    @Override
+    public ModifiableDoubleDBIDList getRange(O obj, double range, ModifiableDoubleDBIDList result) {
+      tree.statistics.countRangeQuery();
+      if(ids.isEmpty()) {
+        return result;
+      }
+      setQuery(obj);
+      final double sqrange = squared ? range : range * range;
+      int sp = 0;
+      stack[sp++] = 0;
+      while(sp > 0) {
+        final int node = stack[--sp];
+        if(node >= numDirectory) {
+          final int l = node - numDirectory, s = leaves[l], c = leaves[l + 1] - s;
+          pointDistances(s, c);
+          for(int i = 0; i < c; i++) {
+            final double d = dists[i];
+            if(d <= sqrange) {
+              result.add(squared ? d : FastMath.sqrt(d), iter.seek(s + i));
+            }
+          }
+          continue;
+        }
+        final int s = children[node], c = children[node + 1] - s;
+        boxDistances(s, c);
+        if(sp + c > stack.length) {
+          stack = Arrays.copyOf(stack, Math.max(stack.length << 1, sp + c));
+        }
+        for(int i = 0; i < c; i++) {
+          if(dists[i] <= sqrange) {
+            stack[sp++] = s + i;
+          }
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -65,6 +65,11 @@ public class RTreeSettings {
    */
   protected double relativeMinFill = 0.4;
 
+  /**
+   * Pack the tree into flat arrays for read-only queries.
+   */
+  protected boolean freeze = false;
+
   /**
    * Constructor with default values.
    */
@@ -125,6 +130,23 @@ public class RTreeSettings {
     this.relativeMinFill = relative;
   }
 
+  /**
+   * Enable packing the tree into flat arrays after loading, for faster
+   * read-only queries.
+   * 
+   * @param freeze Freeze flag
+   */
+  public void setFreeze(boolean freeze) {
+    this.freeze = freeze;
+  }
+
+  /**
+   * @return the freeze flag
+   */
+  public boolean isFreeze() {
+    return freeze;
+  }
+
   /**
    * @return the overflowTreatment
    */
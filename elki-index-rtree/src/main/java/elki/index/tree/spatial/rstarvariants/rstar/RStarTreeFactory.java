@@ -28,6 +28,9 @@ import elki.index.tree.spatial.rstarvariants.RTreeSettings;
 import elki.persistent.PageFile;
 import elki.persistent.PageFileFactory;
 import elki.utilities.Alias;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * Factory for regular R*-Trees.
@@ -72,6 +75,17 @@ public class RStarTreeFactory<O extends NumberVector> extends AbstractRStarTreeF
    * @param <O> Object type
    */
   public static class Par<O extends NumberVector> extends AbstractRStarTreeFactory.Par<O, RTreeSettings> {
+    /**
+     * Flag to pack the tree into flat arrays for read-only queries.
+     */
+    public static final OptionID FREEZE_ID = new OptionID("rtree.freeze", "Pack the tree into flat arrays after loading, for faster read-only Euclidean queries. The packed copy is discarded when the data is modified.");
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new Flag(FREEZE_ID).grab(config, x -> settings.setFreeze(x));
+    }
+
     @Override
     public RStarTreeFactory<O> make() {
       return new RStarTreeFactory<>(pageFileFactory, settings);
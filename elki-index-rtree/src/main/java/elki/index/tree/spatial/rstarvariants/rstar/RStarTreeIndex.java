@@ -34,11 +34,15 @@ import elki.database.query.distance.SpatialDistanceQuery;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.DistancePriorityIndex;
 import elki.index.DynamicIndex;
 import elki.index.tree.IndexTreePath;
 import elki.index.tree.spatial.SpatialEntry;
 import elki.index.tree.spatial.SpatialPointLeafEntry;
+import elki.index.tree.spatial.rstarvariants.FrozenRStarTree;
 import elki.index.tree.spatial.rstarvariants.RTreeSettings;
 import elki.index.tree.spatial.rstarvariants.query.RStarTreeUtil;
 import elki.logging.Logging;
@@ -63,6 +67,11 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
    */
   private Relation<O> relation;
 
+  /**
+   * Packed read-only copy of the tree, if enabled and not modified.
+   */
+  private FrozenRStarTree frozen;
+
   /**
    * Constructor.
    * 
@@ -89,6 +98,9 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
   public void initialize() {
     super.initialize();
     insertAll(relation.getDBIDs()); // Will check for actual bulk load!
+    if(settings.isFreeze()) {
+      frozen = new FrozenRStarTree(this);
+    }
   }
 
   /**
@@ -98,6 +110,7 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
    */
   @Override
   public void insert(DBIDRef id) {
+    frozen = null;
     insertLeaf(createNewLeafEntry(id));
   }
 
@@ -112,6 +125,7 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
     if(ids.isEmpty()) {
       return;
     }
+    frozen = null;
 
     // Make an example leaf
     if(canBulkLoad()) {
@@ -144,6 +158,7 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
     if(deletionPath == null) {
       return false;
     }
+    frozen = null;
     deletePath(deletionPath);
     return true;
   }
@@ -157,6 +172,9 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
 
   @Override
   public KNNSearcher<O> kNNByObject(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    if(frozen != null && distanceQuery.getRelation() == relation && isEuclidean(distanceQuery.getDistance())) {
+      return frozen.kNNSearcher(SquaredEuclideanDistance.STATIC.equals(distanceQuery.getDistance()));
+    }
     // Can we support this distance function - spatial distances only!
     return distanceQuery.getRelation() == relation && distanceQuery instanceof SpatialDistanceQuery ? //
         RStarTreeUtil.getKNNQuery(this, (SpatialDistanceQuery<O>) distanceQuery, maxk, flags) : null;
@@ -164,6 +182,9 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
 
   @Override
   public RangeSearcher<O> rangeByObject(DistanceQuery<O> distanceQuery, double maxradius, int flags) {
+    if(frozen != null && distanceQuery.getRelation() == relation && isEuclidean(distanceQuery.getDistance())) {
+      return frozen.rangeSearcher(SquaredEuclideanDistance.STATIC.equals(distanceQuery.getDistance()));
+    }
     // Can we support this distance function - spatial distances only!
     return distanceQuery.getRelation() == relation && distanceQuery instanceof SpatialDistanceQuery ? //
         RStarTreeUtil.getRangeQuery(this, (SpatialDistanceQuery<O>) distanceQuery, maxradius, flags) : null;
@@ -176,6 +197,16 @@ public class RStarTreeIndex<O extends NumberVector> extends RStarTree implements
         RStarTreeUtil.getDistancePrioritySearcher(this, (SpatialDistanceQuery<O>) distanceQuery, maxradius, flags) : null;
   }
 
+  /**
+   * Test if a distance is supported by the packed tree.
+   *
+   * @param distance Distance function
+   * @return {@code true} for Euclidean and squared Euclidean distance
+   */
+  private static boolean isEuclidean(Distance<?> distance) {
+    return EuclideanDistance.STATIC.equals(distance) || SquaredEuclideanDistance.STATIC.equals(distance);
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
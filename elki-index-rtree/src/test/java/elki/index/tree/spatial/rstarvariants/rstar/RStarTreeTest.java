@@ -32,9 +32,11 @@ import elki.database.query.knn.WrappedKNNDBIDByLookup;
 import elki.database.query.range.WrappedRangeDBIDByLookup;
 import elki.index.AbstractIndexStructureTest;
 import elki.index.tree.spatial.rstarvariants.AbstractRStarTreeFactory;
+import elki.index.tree.spatial.rstarvariants.FrozenRStarTree;
 import elki.index.tree.spatial.rstarvariants.query.EuclideanRStarTreeDistancePrioritySearcher;
 import elki.index.tree.spatial.rstarvariants.query.RStarTreeKNNSearcher;
 import elki.index.tree.spatial.rstarvariants.query.RStarTreeRangeSearcher;
+import elki.index.tree.spatial.rstarvariants.strategies.bulk.SortTileRecursiveBulkSplit;
 import elki.index.tree.spatial.rstarvariants.strategies.insert.ApproximativeLeastOverlapInsertionStrategy;
 import elki.persistent.AbstractPageFileFactory;
 import elki.result.Metadata;
@@ -81,6 +83,22 @@ public class RStarTreeTest extends AbstractIndexStructureTest {
     assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
   }
 
+  /**
+   * Test the packed read-only R*-tree, after bulk loading.
+   */
+  @Test
+  public void testRStarTreeFrozen() {
+    RStarTreeFactory<NumberVector> factory = new ELKIBuilder<>(RStarTreeFactory.class) //
+        .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+        .with(AbstractRStarTreeFactory.Par.BULK_SPLIT_ID, SortTileRecursiveBulkSplit.class) //
+        .with(RStarTreeFactory.Par.FREEZE_ID) //
+        .build();
+    assertExactEuclidean(factory, FrozenRStarTree.FrozenKNNSearcher.class, FrozenRStarTree.FrozenRangeSearcher.class);
+    assertPrioritySearchEuclidean(factory, EuclideanRStarTreeDistancePrioritySearcher.class);
+    assertExactCosine(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
+    assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
+  }
+
   /**
    * Trigger some additional integrity checks on the tree.
    */
@@ -0,0 +1,1224 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.graph;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+import elki.data.type.TypeInformation;
+import elki.database.IndexSnapshots;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.*;
+import elki.database.query.PrioritySearcher;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.index.DistancePriorityIndex;
+import elki.index.IndexFactory;
+import elki.index.SnapshotIndex;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.datastructures.heap.DoubleIntegerHeap;
+import elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+import net.jafama.FastMath;
+
+/**
+ * Hierarchical navigable small world graphs (HNSW) for approximate nearest
+ * neighbor search with arbitrary distance functions.
+ * <p>
+ * Each object is assigned a random level with exponentially decaying
+ * probability, and is linked to its approximate nearest neighbors on all
+ * layers up to this level. Searches descend greedily from the top layer, and
+ * perform a beam search of width {@code ef} on the bottom layer.
+ * <p>
+ * The graph is built in parallel; as in the original implementation, the
+ * resulting graph (but not its quality) depends on the thread scheduling.
+ * <p>
+ * All queries are approximate, and hence are only used when the query does not
+ * request exact results.
+ * <p>
+ * Reference:
+ * <p>
+ * Y. A. Malkov, D. A. Yashunin<br>
+ * Efficient and robust approximate nearest neighbor search using Hierarchical
+ * Navigable Small World graphs<br>
+ * IEEE Trans. Pattern Analysis and Machine Intelligence 42(4)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "Y. A. Malkov, D. A. Yashunin", //
+    title = "Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs", //
+    booktitle = "IEEE Trans. Pattern Analysis and Machine Intelligence 42(4)", //
+    url = "https://doi.org/10.1109/TPAMI.2018.2889473", //
+    bibkey = "DBLP:journals/pami/MalkovY20")
+public class HNSW<O> implements DistancePriorityIndex<O>, SnapshotIndex {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(HNSW.class);
+
+  /**
+   * Maximum level, to bound the effect of extreme random values.
+   */
+  private static final int MAX_LEVEL = 32;
+
+  /**
+   * Data relation.
+   */
+  private Relation<O> relation;
+
+  /**
+   * Distance function.
+   */
+  private Distance<? super O> distance;
+
+  /**
+   * Distance query.
+   */
+  private DistanceQuery<O> distanceQuery;
+
+  /**
+   * Number of neighbors to link on each layer (twice on the bottom layer).
+   */
+  private int m;
+
+  /**
+   * Beam width during construction.
+   */
+  private int efConstruction;
+
+  /**
+   * Beam width during search.
+   */
+  private int efSearch;
+
+  /**
+   * Random generator for the levels.
+   */
+  private RandomFactory random;
+
+  /**
+   * Description of the parameters, for snapshots (before the random generator
+   * is used).
+   */
+  private final String parameters;
+
+  /**
+   * Indexed objects.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Offset of each object in {@link #ids}.
+   */
+  private WritableIntegerDataStore offsets;
+
+  /**
+   * Links of each node: {@code links[node][layer]} holds the number of
+   * neighbors in position 0, followed by the neighbors. {@code links[node]} is
+   * also used as lock for the node during construction.
+   */
+  private int[][][] links;
+
+  /**
+   * Entry point of the search, on the top layer.
+   */
+  private int entryPoint = -1;
+
+  /**
+   * Top layer.
+   */
+  private int maxLevel = -1;
+
+  /**
+   * Lock for the entry point.
+   */
+  private final Object entryLock = new Object();
+
+  /**
+   * Flag to indicate the graph is complete, and no locking is needed.
+   */
+  private volatile boolean built = false;
+
+  /**
+   * Number of distance computations.
+   */
+  private LongAdder distComputations = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param m Number of neighbors to link
+   * @param efConstruction Beam width during construction
+   * @param efSearch Beam width during search
+   * @param random Random generator for the levels
+   */
+  public HNSW(Relation<O> relation, Distance<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory random) {
+    this(relation, distance, m, efConstruction, efSearch, random, IndexSnapshots.describe(m, efConstruction, distance, random));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param m Number of neighbors to link
+   * @param efConstruction Beam width during construction
+   * @param efSearch Beam width during search
+   * @param random Random generator for the levels
+   * @param parameters Description of the parameters, for snapshots
+   */
+  public HNSW(Relation<O> relation, Distance<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory random, String parameters) {
+    super();
+    this.relation = relation;
+    this.distance = distance;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.random = random;
+    this.parameters = parameters;
+  }
+
+  /**
+   * Constructor with default parameters.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   */
+  // Note: used from {@link EmpiricalQueryOptimizer} via reflection!
+  public HNSW(Relation<O> relation, Distance<? super O> distance) {
+    this(relation, distance, 16, 200, 50, RandomFactory.DEFAULT);
+  }
+
+  @Override
+  public void initialize() {
+    distanceQuery = distance.instantiate(relation);
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    initializeOffsets();
+    // Draw the random levels, sequentially for reproducibility.
+    links = new int[size][][];
+    Random rnd = random.getSingleThreadedRandom();
+    final double mult = 1. / FastMath.log(m);
+    for(int i = 0; i < size; i++) {
+      final int level = Math.min(MAX_LEVEL, (int) (-FastMath.log(1. - rnd.nextDouble()) * mult));
+      int[][] l = links[i] = new int[level + 1][];
+      for(int j = 0; j <= level; j++) {
+        l[j] = new int[maxLinks(j) + 1];
+      }
+    }
+    if(size == 0) {
+      built = true;
+      return;
+    }
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building HNSW graph", size, LOG) : null;
+    entryPoint = 0;
+    maxLevel = links[0].length - 1;
+    LOG.incrementProcessed(prog);
+    // Insert the remaining objects in parallel blocks.
+    final int numparts = Math.max(1, Math.min(size - 1, ParallelCore.getCore().getParallelism() * 4));
+    final int blocksize = (size - 1 + numparts - 1) / numparts;
+    List<Callable<Void>> tasks = new ArrayList<>(numparts);
+    for(int start = 1; start < size; start += blocksize) {
+      final int s = start, e = Math.min(start + blocksize, size);
+      tasks.add(() -> {
+        Search search = new Search(efConstruction);
+        for(int i = s; i < e; i++) {
+          search.insert(i);
+          LOG.incrementProcessed(prog);
+        }
+        search.finish();
+        return null;
+      });
+    }
+    ParallelExecutor.runTasks(tasks);
+    LOG.ensureCompleted(prog);
+    built = true;
+  }
+
+  /**
+   * Build the map from objects to their offsets.
+   */
+  private void initializeOffsets() {
+    offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC, -1);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      offsets.putInt(it, it.getOffset());
+    }
+  }
+
+  @Override
+  public void writeSnapshot(DataOutput out) throws IOException {
+    IndexSnapshots.writeParameters(out, parameters);
+    IndexSnapshots.writeDBIDs(out, ids);
+    out.writeInt(entryPoint);
+    out.writeInt(maxLevel);
+    for(int[][] node : links) {
+      out.writeInt(node.length);
+      for(int[] layer : node) {
+        out.writeInt(layer[0]);
+        for(int i = 1; i <= layer[0]; i++) {
+          out.writeInt(layer[i]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean loadSnapshot(ByteBuffer in) throws IOException {
+    if(!IndexSnapshots.matchParameters(in, parameters)) {
+      return false;
+    }
+    distanceQuery = distance.instantiate(relation);
+    ids = IndexSnapshots.readDBIDs(in);
+    initializeOffsets();
+    entryPoint = in.getInt();
+    maxLevel = in.getInt();
+    links = new int[ids.size()][][];
+    for(int i = 0; i < links.length; i++) {
+      int[][] node = links[i] = new int[in.getInt()][];
+      for(int j = 0; j < node.length; j++) {
+        final int[] layer = node[j] = new int[maxLinks(j) + 1];
+        layer[0] = in.getInt();
+        for(int k = 1; k <= layer[0]; k++) {
+          layer[k] = in.getInt();
+        }
+      }
+    }
+    built = true;
+    return true;
+  }
+
+  /**
+   * Maximum number of links on a layer.
+   *
+   * @param layer Layer
+   * @return Maximum number of links
+   */
+  private int maxLinks(int layer) {
+    return layer == 0 ? m << 1 : m;
+  }
+
+  @Override
+  public KNNSearcher<O> kNNByObject(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    return isCompatible(distanceQuery, flags) ? new HNSWKNNObjectSearcher() : null;
+  }
+
+  @Override
+  public KNNSearcher<DBIDRef> kNNByDBID(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    return isCompatible(distanceQuery, flags) ? new HNSWKNNDBIDSearcher() : null;
+  }
+
+  @Override
+  public RangeSearcher<O> rangeByObject(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    return isCompatible(distanceQuery, flags) ? new HNSWRangeObjectSearcher() : null;
+  }
+
+  @Override
+  public RangeSearcher<DBIDRef> rangeByDBID(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    return isCompatible(distanceQuery, flags) ? new HNSWRangeDBIDSearcher() : null;
+  }
+
+  @Override
+  public PrioritySearcher<O> priorityByObject(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    return isCompatible(distanceQuery, flags) ? new HNSWPriorityObjectSearcher() : null;
+  }
+
+  @Override
+  public PrioritySearcher<DBIDRef> priorityByDBID(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    return isCompatible(distanceQuery, flags) ? new HNSWPriorityDBIDSearcher() : null;
+  }
+
+  /**
+   * Test if a query can be answered by this index.
+   *
+   * @param distanceQuery Distance query
+   * @param flags Optimizer flags
+   * @return {@code true} if supported
+   */
+  private boolean isCompatible(DistanceQuery<O> distanceQuery, int flags) {
+    return (flags & QueryBuilder.FLAG_EXACT_ONLY) == 0 && // approximate
+        distanceQuery.getRelation() == relation && this.distance.equals(distanceQuery.getDistance());
+  }
+
+  @Override
+  public void logStatistics() {
+    LOG.statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations.sum()));
+  }
+
+  /**
+   * Search state, for a single thread.
+   *
+   * @author Erich Schubert
+   */
+  private class Search {
+    /**
+     * Visited flags, by generation.
+     */
+    private int[] visited = new int[ids.size()];
+
+    /**
+     * Current generation.
+     */
+    private int tag = 0;
+
+    /**
+     * Candidates to expand.
+     */
+    protected DoubleIntegerMinHeap candidates = new DoubleIntegerMinHeap();
+
+    /**
+     * Best results found.
+     */
+    protected DoubleIntegerMaxHeap results = new DoubleIntegerMaxHeap();
+
+    /**
+     * Iterators for distance computations.
+     */
+    protected DBIDArrayIter iter = ids.iter(), iter2 = ids.iter();
+
+    /**
+     * Buffer for neighbors.
+     */
+    private int[] buf = new int[(m << 1) + 1];
+
+    /**
+     * Query node during construction, or -1.
+     */
+    private int qnode = -1;
+
+    /**
+     * Query object, or {@code null}.
+     */
+    protected O qobj;
+
+    /**
+     * Query reference, or {@code null}.
+     */
+    protected DBIDRef qref;
+
+    /**
+     * Number of distance computations.
+     */
+    private long dists = 0;
+
+    /**
+     * Beam width.
+     */
+    protected int ef;
+
+    /**
+     * Constructor.
+     *
+     * @param ef Beam width
+     */
+    protected Search(int ef) {
+      this.ef = ef;
+    }
+
+    /**
+     * Distance of the query to a node.
+     *
+     * @param node Node
+     * @return Distance
+     */
+    protected double queryDistance(int node) {
+      ++dists;
+      iter.seek(node);
+      return qnode >= 0 ? distanceQuery.distance(iter2.seek(qnode), iter) : //
+          qobj != null ? distanceQuery.distance(qobj, iter) : distanceQuery.distance(qref, iter);
+    }
+
+    /**
+     * Distance of two nodes.
+     *
+     * @param a First node
+     * @param b Second node
+     * @return Distance
+     */
+    private double nodeDistance(int a, int b) {
+      ++dists;
+      return distanceQuery.distance(iter.seek(a), iter2.seek(b));
+    }
+
+    /**
+     * Get the neighbors of a node, into the buffer.
+     *
+     * @param node Node
+     * @param layer Layer
+     * @return Buffer, with the number of neighbors at position 0
+     */
+    private int[] neighbors(int node, int layer) {
+      if(built) {
+        return links[node][layer];
+      }
+      final int[][] l = links[node];
+      synchronized(l) {
+        System.arraycopy(l[layer], 0, buf, 0, l[layer][0] + 1);
+      }
+      return buf;
+    }
+
+    /**
+     * Start a new search generation.
+     */
+    private void newTag() {
+      if(++tag == Integer.MAX_VALUE) {
+        java.util.Arrays.fill(visited, 0);
+        tag = 1;
+      }
+    }
+
+    /**
+     * Test and set the visited flag of a node.
+     *
+     * @param node Node
+     * @return {@code true} if it had been visited before
+     */
+    protected boolean visit(int node) {
+      if(visited[node] == tag) {
+        return true;
+      }
+      visited[node] = tag;
+      return false;
+    }
+
+    /**
+     * Find the entry point on the given layer by greedy descent.
+     *
+     * @param layer Target layer
+     * @param top Top layer
+     * @param cur Start node
+     * @param curd Distance of the start node
+     * @return Closest node found, also stored in {@link #results}
+     */
+    protected int descend(int layer, int top, int cur, double curd) {
+      for(int l = top; l > layer; l--) {
+        boolean changed = true;
+        while(changed) {
+          changed = false;
+          final int[] n = neighbors(cur, l);
+          for(int j = 1, e = n[0]; j <= e; j++) {
+            final int c = n[j];
+            final double d = queryDistance(c);
+            if(d < curd) {
+              cur = c;
+              curd = d;
+              changed = true;
+            }
+          }
+        }
+      }
+      results.clear();
+      results.add(curd, cur);
+      return cur;
+    }
+
+    /**
+     * Start a search from the top layer, and descend to the bottom layer. The
+     * closest node found is both the first candidate and the first result.
+     */
+    protected void startSearch() {
+      final int ep = entryPoint;
+      descend(0, maxLevel, ep, queryDistance(ep));
+      final int cur = results.peekValue();
+      final double curd = results.peekKey();
+      newTag();
+      candidates.clear();
+      visit(cur);
+      candidates.add(curd, cur);
+    }
+
+    /**
+     * Beam search on one layer, starting with the contents of
+     * {@link #results}.
+     *
+     * @param layer Layer
+     * @param ef Beam width
+     */
+    protected void searchLayer(int layer, int ef) {
+      newTag();
+      candidates.clear();
+      for(DoubleIntegerHeap.UnsortedIter it = results.unsortedIter(); it.valid(); it.advance()) {
+        visit(it.getValue());
+        candidates.add(it.getKey(), it.getValue());
+      }
+      expand(layer, ef);
+    }
+
+    /**
+     * Expand candidates until the beam search converges.
+     *
+     * @param layer Layer
+     * @param ef Beam width
+     */
+    protected void expand(int layer, int ef) {
+      while(!candidates.isEmpty()) {
+        if(expandNext(layer, ef) < 0) {
+          break;
+        }
+      }
+    }
+
+    /**
+     * Expand the next candidate.
+     *
+     * @param layer Layer
+     * @param ef Beam width
+     * @return Expanded node, -1 if the search has converged.
+     */
+    protected int expandNext(int layer, int ef) {
+      final double cd = candidates.peekKey();
+      final int c = candidates.peekValue();
+      if(results.size() >= ef && cd > results.peekKey()) {
+        candidates.clear();
+        return -1;
+      }
+      candidates.poll();
+      final int[] n = neighbors(c, layer);
+      for(int j = 1, e = n[0]; j <= e; j++) {
+        final int o = n[j];
+        if(visit(o)) {
+          continue;
+        }
+        final double d = queryDistance(o);
+        if(results.size() < ef || d < results.peekKey()) {
+          candidates.add(d, o);
+          results.add(d, o, ef);
+        }
+      }
+      return c;
+    }
+
+    /**
+     * Insert a node into the graph.
+     *
+     * @param node Node to insert
+     */
+    protected void insert(int node) {
+      qnode = node;
+      final int level = links[node].length - 1;
+      final int ep, top;
+      synchronized(entryLock) {
+        ep = entryPoint;
+        top = maxLevel;
+      }
+      descend(level, top, ep, queryDistance(ep));
+      for(int l = Math.min(level, top); l >= 0; l--) {
+        searchLayer(l, efConstruction);
+        // Keep the results for the next layer, select the neighbors:
+        final int size = results.size();
+        int[] cand = new int[size];
+        double[] cdist = new double[size];
+        for(int i = size - 1; i >= 0; i--) {
+          cand[i] = results.peekValue();
+          cdist[i] = results.peekKey();
+          results.poll();
+        }
+        final int[] sel = new int[m + 1];
+        sel[0] = selectNeighbors(cand, cdist, size, m, sel);
+        synchronized(links[node]) {
+          System.arraycopy(sel, 0, links[node][l], 0, sel[0] + 1);
+        }
+        for(int i = 1, e = sel[0]; i <= e; i++) {
+          connect(sel[i], node, l);
+        }
+        // Next layer starts from the candidates found:
+        for(int i = 0; i < size; i++) {
+          results.add(cdist[i], cand[i]);
+        }
+      }
+      if(level > top) {
+        synchronized(entryLock) {
+          if(level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+          }
+        }
+      }
+      qnode = -1;
+    }
+
+    /**
+     * Add a backlink, pruning the neighbors if necessary.
+     *
+     * @param node Node to add the link to
+     * @param target Link target
+     * @param layer Layer
+     */
+    private void connect(int node, int target, int layer) {
+      final int[][] l = links[node];
+      synchronized(l) {
+        final int[] n = l[layer];
+        final int cnt = n[0], max = maxLinks(layer);
+        if(cnt < max) {
+          n[cnt + 1] = target;
+          n[0] = cnt + 1;
+          return;
+        }
+        // Shrink the neighbor list, with the new link as additional candidate
+        int[] cand = new int[cnt + 1];
+        double[] cdist = new double[cnt + 1];
+        System.arraycopy(n, 1, cand, 0, cnt);
+        cand[cnt] = target;
+        for(int i = 0; i <= cnt; i++) {
+          cdist[i] = nodeDistance(node, cand[i]);
+        }
+        sortByDistance(cand, cdist, cnt + 1);
+        n[0] = selectNeighbors(cand, cdist, cnt + 1, max, n);
+      }
+    }
+
+    /**
+     * Select diverse neighbors with the heuristic of HNSW: a candidate is only
+     * used if it is closer to the query than to all neighbors selected so far.
+     *
+     * @param cand Candidates, sorted by distance
+     * @param cdist Candidate distances
+     * @param size Number of candidates
+     * @param max Maximum number of neighbors
+     * @param out Output array, starting at position 1
+     * @return Number of neighbors selected
+     */
+    private int selectNeighbors(int[] cand, double[] cdist, int size, int max, int[] out) {
+      int c = 0;
+      loop: for(int i = 0; i < size && c < max; i++) {
+        final int e = cand[i];
+        for(int j = 1; j <= c; j++) {
+          if(nodeDistance(e, out[j]) < cdist[i]) {
+            continue loop;
+          }
+        }
+        out[++c] = e;
+      }
+      return c;
+    }
+
+    /**
+     * Add the distance computations to the statistics.
+     */
+    protected void finish() {
+      distComputations.add(dists);
+      dists = 0;
+    }
+  }
+
+  /**
+   * Sort candidates by distance (insertion sort, for short lists).
+   *
+   * @param cand Candidates
+   * @param cdist Distances
+   * @param size Number of candidates
+   */
+  private static void sortByDistance(int[] cand, double[] cdist, int size) {
+    for(int i = 1; i < size; i++) {
+      final double d = cdist[i];
+      final int c = cand[i];
+      int j = i - 1;
+      for(; j >= 0 && cdist[j] > d; j--) {
+        cdist[j + 1] = cdist[j];
+        cand[j + 1] = cand[j];
+      }
+      cdist[j + 1] = d;
+      cand[j + 1] = c;
+    }
+  }
+
+  /**
+   * kNN search on the graph.
+   *
+   * @author Erich Schubert
+   */
+  private abstract class HNSWKNNSearcher extends Search {
+    /**
+     * Constructor.
+     */
+    public HNSWKNNSearcher() {
+      super(efSearch);
+    }
+
+    /**
+     * Perform the kNN search for the current query.
+     *
+     * @param k Number of neighbors
+     * @return kNN list
+     */
+    protected KNNList doKNN(int k) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      if(entryPoint >= 0) {
+        startSearch();
+        expand(0, Math.max(ef, k));
+        for(DoubleIntegerHeap.UnsortedIter it = results.unsortedIter(); it.valid(); it.advance()) {
+          heap.insert(it.getKey(), iter.seek(it.getValue()));
+        }
+      }
+      finish();
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * kNN search on the graph.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWKNNObjectSearcher extends HNSWKNNSearcher implements KNNSearcher<O> {
+    @Override
+    public KNNList getKNN(O query, int k) {
+      qobj = query;
+      return doKNN(k);
+    }
+  }
+
+  /**
+   * kNN search on the graph.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWKNNDBIDSearcher extends HNSWKNNSearcher implements KNNSearcher<DBIDRef> {
+    @Override
+    public KNNList getKNN(DBIDRef query, int k) {
+      qref = query;
+      return doKNN(k);
+    }
+  }
+
+  /**
+   * Range search on the graph, by repeated beam searches of increasing width.
+   *
+   * @author Erich Schubert
+   */
+  private abstract class HNSWRangeSearcher extends Search {
+    /**
+     * Constructor.
+     */
+    public HNSWRangeSearcher() {
+      super(efSearch);
+    }
+
+    /**
+     * Perform the range search for the current query.
+     *
+     * @param range Query radius
+     * @param result Output list
+     * @return Output list
+     */
+    protected ModifiableDoubleDBIDList doRange(double range, ModifiableDoubleDBIDList result) {
+      if(entryPoint >= 0) {
+        startSearch();
+        final int start = candidates.peekValue();
+        final double startd = candidates.peekKey();
+        for(int width = ef;; width = Math.min(width << 1, ids.size())) {
+          results.clear();
+          results.add(startd, start);
+          searchLayer(0, width);
+          // Stop if the beam was not filled within the radius.
+          if(results.size() < width || results.peekKey() > range || width >= ids.size()) {
+            break;
+          }
+        }
+        for(DoubleIntegerHeap.UnsortedIter it = results.unsortedIter(); it.valid(); it.advance()) {
+          if(it.getKey() <= range) {
+            result.add(it.getKey(), iter.seek(it.getValue()));
+          }
+        }
+      }
+      finish();
+      return result;
+    }
+  }
+
+  /**
+   * Range search on the graph.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWRangeObjectSearcher extends HNSWRangeSearcher implements RangeSearcher<O> {
+    @Override
+    public ModifiableDoubleDBIDList getRange(O query, double range, ModifiableDoubleDBIDList result) {
+      qobj = query;
+      return doRange(range, result);
+    }
+  }
+
+  /**
+   * Range search on the graph.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWRangeDBIDSearcher extends HNSWRangeSearcher implements RangeSearcher<DBIDRef> {
+    @Override
+    public ModifiableDoubleDBIDList getRange(DBIDRef query, double range, ModifiableDoubleDBIDList result) {
+      qref = query;
+      return doRange(range, result);
+    }
+  }
+
+  /**
+   * Best-first traversal of the bottom layer, returning the objects
+   * approximately in the order of increasing distance. The traversal stops
+   * when the beam search converges, so at most about {@code efSearch} objects
+   * beyond the cutoff are inspected.
+   *
+   * @author Erich Schubert
+   *
+   * @param <Q> Query type
+   */
+  private abstract class HNSWPrioritySearcher<Q> extends Search implements PrioritySearcher<Q> {
+    /**
+     * Cutoff distance.
+     */
+    private double threshold = Double.POSITIVE_INFINITY;
+
+    /**
+     * Current node, or -1.
+     */
+    private int cur = -1;
+
+    /**
+     * Distance of the current node.
+     */
+    private double curd;
+
+    /**
+     * Iterator for the current object.
+     */
+    private DBIDArrayIter res = ids.iter();
+
+    /**
+     * Constructor.
+     */
+    public HNSWPrioritySearcher() {
+      super(efSearch);
+    }
+
+    /**
+     * Start the search.
+     *
+     * @return this
+     */
+    protected PrioritySearcher<Q> doSearch() {
+      threshold = Double.POSITIVE_INFINITY;
+      cur = -1;
+      if(entryPoint < 0) {
+        return this;
+      }
+      startSearch();
+      return advance();
+    }
+
+    @Override
+    public PrioritySearcher<Q> advance() {
+      while(!candidates.isEmpty()) {
+        final double d = candidates.peekKey();
+        final int c = expandNext(0, ef);
+        if(c < 0) {
+          break;
+        }
+        if(d <= threshold) {
+          cur = c;
+          curd = d;
+          res.seek(c);
+          return this;
+        }
+      }
+      cur = -1;
+      finish();
+      return this;
+    }
+
+    @Override
+    public boolean valid() {
+      return cur >= 0;
+    }
+
+    @Override
+    public PrioritySearcher<Q> decreaseCutoff(double threshold) {
+      assert threshold <= this.threshold;
+      this.threshold = threshold;
+      return this;
+    }
+
+    @Override
+    public double computeExactDistance() {
+      return curd;
+    }
+
+    @Override
+    public double getApproximateDistance() {
+      return curd;
+    }
+
+    @Override
+    public double getApproximateAccuracy() {
+      return 0.;
+    }
+
+    @Override
+    public double getLowerBound() {
+      return curd;
+    }
+
+    @Override
+    public double getUpperBound() {
+      return curd;
+    }
+
+    @Override
+    public double allLowerBound() {
+      return 0.; // No guarantees, the graph search is approximate.
+    }
+
+    @Override
+    public int internalGetIndex() {
+      return res.internalGetIndex();
+    }
+  }
+
+  /**
+   * Priority search on the graph.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWPriorityObjectSearcher extends HNSWPrioritySearcher<O> {
+    @Override
+    public PrioritySearcher<O> search(O query) {
+      qobj = query;
+      return doSearch();
+    }
+  }
+
+  /**
+   * Priority search on the graph.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWPriorityDBIDSearcher extends HNSWPrioritySearcher<DBIDRef> {
+    @Override
+    public PrioritySearcher<DBIDRef> search(DBIDRef query) {
+      qref = query;
+      return doSearch();
+    }
+  }
+
+  /**
+   * Index factory.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - HNSW
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O> {
+    /**
+     * Distance function.
+     */
+    private Distance<? super O> distance;
+
+    /**
+     * Number of neighbors to link.
+     */
+    private int m;
+
+    /**
+     * Beam width during construction.
+     */
+    private int efConstruction;
+
+    /**
+     * Beam width during search.
+     */
+    private int efSearch;
+
+    /**
+     * Random generator for the levels.
+     */
+    private RandomFactory random;
+
+    /**
+     * Description of the parameters, for snapshots.
+     */
+    private String parameters;
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param m Number of neighbors to link
+     * @param efConstruction Beam width during construction
+     * @param efSearch Beam width during search
+     * @param random Random generator for the levels
+     */
+    public Factory(Distance<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory random) {
+      this(distance, m, efConstruction, efSearch, random, IndexSnapshots.describe(m, efConstruction, distance, random));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param m Number of neighbors to link
+     * @param efConstruction Beam width during construction
+     * @param efSearch Beam width during search
+     * @param random Random generator for the levels
+     * @param parameters Description of the parameters, for snapshots
+     */
+    public Factory(Distance<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory random, String parameters) {
+      super();
+      this.distance = distance;
+      this.m = m;
+      this.efConstruction = efConstruction;
+      this.efSearch = efSearch;
+      this.random = random;
+      this.parameters = parameters;
+    }
+
+    @Override
+    public HNSW<O> instantiate(Relation<O> relation) {
+      return new HNSW<>(relation, distance, m, efConstruction, efSearch, random, parameters);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @param <O> Object type
+     */
+    public static class Par<O> implements Parameterizer {
+      /**
+       * Distance function to use.
+       */
+      public static final OptionID DISTANCE_FUNCTION_ID = new OptionID("hnsw.distance", "Distance function to determine the distance between objects.");
+
+      /**
+       * Number of neighbors to link.
+       */
+      public static final OptionID M_ID = new OptionID("hnsw.m", "Number of neighbors to link on each layer (twice as many on the bottom layer).");
+
+      /**
+       * Beam width during construction.
+       */
+      public static final OptionID EFCONSTRUCTION_ID = new OptionID("hnsw.efconstruction", "Beam width during construction. Larger values build better graphs, but take longer.");
+
+      /**
+       * Beam width during search.
+       */
+      public static final OptionID EFSEARCH_ID = new OptionID("hnsw.efsearch", "Beam width during search. Larger values increase the recall, but make queries slower.");
+
+      /**
+       * Random generator seed.
+       */
+      public static final OptionID SEED_ID = new OptionID("hnsw.seed", "Random generator seed for the layer assignment.");
+
+      /**
+       * Distance function.
+       */
+      protected Distance<? super O> distance;
+
+      /**
+       * Number of neighbors to link.
+       */
+      protected int m = 16;
+
+      /**
+       * Beam width during construction.
+       */
+      protected int efConstruction = 200;
+
+      /**
+       * Beam width during search.
+       */
+      protected int efSearch = 50;
+
+      /**
+       * Random generator for the levels.
+       */
+      protected RandomFactory random;
+
+      /**
+       * Description of the parameters, for snapshots.
+       */
+      protected String parameters;
+
+      @Override
+      public void configure(Parameterization config) {
+        // Track the parameters of the graph construction, for snapshots.
+        TrackParameters track = new TrackParameters(config);
+        new ObjectParameter<Distance<? super O>>(DISTANCE_FUNCTION_ID, Distance.class) //
+            .grab(track, x -> distance = x);
+        new IntParameter(M_ID, 16) //
+            .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+            .grab(track, x -> m = x);
+        new IntParameter(EFCONSTRUCTION_ID, 200) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(track, x -> efConstruction = x);
+        new IntParameter(EFSEARCH_ID, 50) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> efSearch = x);
+        new RandomParameter(SEED_ID) //
+            .grab(track, x -> random = x);
+        parameters = IndexSnapshots.describe(track);
+      }
+
+      @Override
+      public HNSW.Factory<O> make() {
+        return new HNSW.Factory<>(distance, m, efConstruction, efSearch, random, parameters);
+      }
+    }
+  }
+}
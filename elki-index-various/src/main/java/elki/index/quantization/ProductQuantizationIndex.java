@@ -0,0 +1,744 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.quantization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import elki.clustering.kmeans.KMeans;
+import elki.clustering.kmeans.LloydKMeans;
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.model.MeanModel;
+import elki.data.model.Model;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.MaterializedRelation;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
+import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.index.AbstractRefiningIndex;
+import elki.index.IndexFactory;
+import elki.index.KNNIndex;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.LongStatistic;
+import elki.utilities.ClassGenericsUtil;
+import elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.constraints.LessEqualConstraint;
+import elki.utilities.optionhandling.parameterization.ChainedParameterization;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
+import elki.utilities.optionhandling.parameterization.TrackedParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+import net.jafama.FastMath;
+
+/**
+ * Product quantization index for compressed, approximate nearest neighbor
+ * search.
+ * <p>
+ * The vector dimensions are split into a number of subspaces, and each
+ * subspace is quantized independently with a codebook trained by k-means.
+ * Every vector is then stored as one byte per subspace, which for typical
+ * embeddings reduces the memory by an order of magnitude. Queries compute a
+ * table of the distances from the query to all codebook entries, and then
+ * scan the codes using table lookups only (asymmetric distance computation).
+ * <p>
+ * Optionally, a coarse quantizer partitions the data into inverted lists
+ * (IVF-PQ), in which case the residuals to the coarse centroids are encoded,
+ * and only the lists closest to the query are scanned. The best candidates
+ * can be refined with exact distances.
+ * <p>
+ * Reference:
+ * <p>
+ * H. Jégou, M. Douze, C. Schmid<br>
+ * Product Quantization for Nearest Neighbor Search<br>
+ * IEEE Trans. Pattern Analysis and Machine Intelligence 33(1)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - ProductQuantizationKNNSearcher
+ *
+ * @param <V> Vector type
+ */
+@Reference(authors = "H. Jégou, M. Douze, C. Schmid", //
+    title = "Product Quantization for Nearest Neighbor Search", //
+    booktitle = "IEEE Trans. Pattern Analysis and Machine Intelligence 33(1)", //
+    url = "https://doi.org/10.1109/TPAMI.2010.57", //
+    bibkey = "DBLP:journals/pami/JegouDS11")
+public class ProductQuantizationIndex<V extends NumberVector> extends AbstractRefiningIndex<V> implements KNNIndex<V> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ProductQuantizationIndex.class);
+
+  /**
+   * Maximum number of centroids per subspace, for 8 bit codes.
+   */
+  public static final int MAX_CENTROIDS = 256;
+
+  /**
+   * Number of subspaces.
+   */
+  private int subspaces;
+
+  /**
+   * Number of centroids per subspace.
+   */
+  private int centroids;
+
+  /**
+   * Number of inverted lists, 0 to disable.
+   */
+  private int lists;
+
+  /**
+   * Number of lists to scan per query.
+   */
+  private int probe;
+
+  /**
+   * Number of candidates to refine per requested neighbor, 0 to disable.
+   */
+  private int refine;
+
+  /**
+   * Number of objects used for training, 0 for all.
+   */
+  private int sample;
+
+  /**
+   * k-means variant for training.
+   */
+  private KMeans<DoubleVector, ?> kmeans;
+
+  /**
+   * Random generator for sampling.
+   */
+  private RandomFactory random;
+
+  /**
+   * First dimension of each subspace, and the total dimensionality at the end.
+   */
+  private int[] bounds;
+
+  /**
+   * Codebooks, per subspace.
+   */
+  private double[][][] codebooks;
+
+  /**
+   * Coarse centroids, one zero vector without inverted lists.
+   */
+  private double[][] coarse;
+
+  /**
+   * Object ids, sorted by inverted list.
+   */
+  private ArrayModifiableDBIDs ids;
+
+  /**
+   * Start offsets of the inverted lists in ids, plus the total size.
+   */
+  private int[] listStart;
+
+  /**
+   * Codes, one byte per subspace, in the order of ids.
+   */
+  private byte[] codes;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param subspaces Number of subspaces
+   * @param centroids Number of centroids per subspace
+   * @param lists Number of inverted lists, 0 to disable
+   * @param probe Number of lists to scan per query
+   * @param refine Candidates to refine per requested neighbor, 0 to disable
+   * @param sample Number of objects used for training, 0 for all
+   * @param kmeans k-means variant for training, not shared with other indexes
+   * @param random Random generator for sampling
+   */
+  public ProductQuantizationIndex(Relation<V> relation, int subspaces, int centroids, int lists, int probe, int refine, int sample, KMeans<DoubleVector, ?> kmeans, RandomFactory random) {
+    super(relation);
+    this.subspaces = subspaces;
+    this.centroids = centroids;
+    this.lists = lists;
+    this.probe = probe;
+    this.refine = refine;
+    this.sample = sample;
+    this.kmeans = kmeans;
+    this.random = random;
+  }
+
+  @Override
+  public void initialize() {
+    final int dim = RelationUtil.dimensionality(relation);
+    if(subspaces > dim) {
+      throw new IllegalArgumentException("The number of subspaces must not exceed the dimensionality " + dim + ".");
+    }
+    bounds = new int[subspaces + 1];
+    for(int s = 0; s <= subspaces; s++) {
+      bounds[s] = s * dim / subspaces;
+    }
+    final int size = relation.size();
+    DBIDs trainIds = sample > 0 && sample < size ? DBIDUtil.randomSample(relation.getDBIDs(), sample, random) : relation.getDBIDs();
+    // Coarse quantizer:
+    int[] assignment = new int[size];
+    coarse = lists > 0 ? train(trainIds, null, 0, dim, lists) : new double[][] { new double[dim] };
+    int[] counts = new int[coarse.length];
+    int i = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance(), i++) {
+      ++counts[assignment[i] = lists > 0 ? nearest(coarse, relation.get(it), null, 0, dim) : 0];
+    }
+    // Product quantizer, on the residuals:
+    codebooks = new double[subspaces][][];
+    WritableDataStore<double[]> residuals = lists > 0 ? computeResiduals(trainIds) : null;
+    for(int s = 0; s < subspaces; s++) {
+      codebooks[s] = train(trainIds, residuals, bounds[s], bounds[s + 1], centroids);
+    }
+    // Sort by inverted list, and encode:
+    listStart = new int[coarse.length + 1];
+    for(int l = 0; l < coarse.length; l++) {
+      listStart[l + 1] = listStart[l] + counts[l];
+    }
+    int[] pos = Arrays.copyOf(listStart, coarse.length), order = new int[size];
+    for(int j = 0; j < size; j++) {
+      order[pos[assignment[j]]++] = j;
+    }
+    ArrayDBIDs aids = DBIDUtil.ensureArray(relation.getDBIDs());
+    ids = DBIDUtil.newArray(size);
+    codes = new byte[size * subspaces];
+    double[] buf = new double[dim];
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Encoding vectors", size, LOG) : null;
+    DBIDArrayIter it = aids.iter();
+    for(int p = 0; p < size; p++) {
+      ids.add(it.seek(order[p]));
+      residual(relation.get(it), coarse[assignment[order[p]]], buf);
+      for(int s = 0, off = p * subspaces; s < subspaces; s++) {
+        codes[off + s] = (byte) nearest(codebooks[s], null, buf, bounds[s], bounds[s + 1]);
+      }
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+  }
+
+  /**
+   * Compute the residuals of the training objects to their coarse centroids.
+   *
+   * @param trainIds Training objects
+   * @return Residuals
+   */
+  private WritableDataStore<double[]> computeResiduals(DBIDs trainIds) {
+    final int dim = bounds[subspaces];
+    WritableDataStore<double[]> residuals = DataStoreUtil.makeStorage(trainIds, DataStoreFactory.HINT_TEMP, double[].class);
+    for(DBIDIter it = trainIds.iter(); it.valid(); it.advance()) {
+      final V vec = relation.get(it);
+      double[] r = new double[dim];
+      residual(vec, coarse[nearest(coarse, vec, null, 0, dim)], r);
+      residuals.put(it, r);
+    }
+    return residuals;
+  }
+
+  /**
+   * Train a codebook with k-means, on a range of dimensions.
+   *
+   * @param trainIds Training objects
+   * @param residuals Residuals to use instead of the vectors, may be null
+   * @param begin First dimension
+   * @param end End dimension (exclusive)
+   * @param k Number of centroids
+   * @return Centroids
+   */
+  private double[][] train(DBIDs trainIds, WritableDataStore<double[]> residuals, int begin, int end, int k) {
+    WritableDataStore<DoubleVector> vecs = DataStoreUtil.makeStorage(trainIds, DataStoreFactory.HINT_TEMP, DoubleVector.class);
+    for(DBIDIter it = trainIds.iter(); it.valid(); it.advance()) {
+      vecs.put(it, residuals != null ? //
+          DoubleVector.wrap(Arrays.copyOfRange(residuals.get(it), begin, end)) : //
+          DoubleVector.copy(Arrays.copyOfRange(relation.get(it).toArray(), begin, end)));
+    }
+    Relation<DoubleVector> rel = new MaterializedRelation<>("Training vectors", //
+        new VectorFieldTypeInformation<>(DoubleVector.FACTORY, end - begin), trainIds, vecs);
+    kmeans.setK(Math.min(k, trainIds.size()));
+    Clustering<? extends Model> clustering = kmeans.run(rel);
+    double[][] means = new double[clustering.getAllClusters().size()][];
+    int j = 0;
+    for(Cluster<? extends Model> c : clustering.getAllClusters()) {
+      if(c.size() > 0) {
+        means[j++] = ((MeanModel) c.getModel()).getMean();
+      }
+    }
+    vecs.destroy();
+    return j < means.length ? Arrays.copyOf(means, j) : means;
+  }
+
+  /**
+   * Compute the residual of a vector.
+   *
+   * @param vec Vector
+   * @param center Coarse centroid
+   * @param buf Output buffer
+   */
+  private static void residual(NumberVector vec, double[] center, double[] buf) {
+    for(int d = 0; d < buf.length; d++) {
+      buf[d] = vec.doubleValue(d) - center[d];
+    }
+  }
+
+  /**
+   * Find the nearest centroid, by squared Euclidean distance on a range of
+   * dimensions.
+   *
+   * @param means Centroids
+   * @param vec Vector, or null
+   * @param buf Array to use if vec is null
+   * @param begin First dimension
+   * @param end End dimension (exclusive)
+   * @return Index of the nearest centroid
+   */
+  private static int nearest(double[][] means, NumberVector vec, double[] buf, int begin, int end) {
+    int best = 0;
+    double bestd = Double.POSITIVE_INFINITY;
+    for(int j = 0; j < means.length; j++) {
+      final double[] mean = means[j];
+      double d = 0.;
+      for(int i = begin; i < end && d < bestd; i++) {
+        final double v = (vec != null ? vec.doubleValue(i) : buf[i]) - mean[i - begin];
+        d += v * v;
+      }
+      if(d < bestd) {
+        bestd = d;
+        best = j;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    final String prefix = this.getClass().getName();
+    LOG.statistics(new LongStatistic(prefix + ".code-bytes", codes.length));
+    LOG.statistics(new LongStatistic(prefix + ".lists", coarse.length));
+  }
+
+  @Override
+  public KNNSearcher<V> kNNByObject(DistanceQuery<V> distanceQuery, int maxk, int flags) {
+    // Quantized search is approximate, even with refinement.
+    if((flags & QueryBuilder.FLAG_EXACT_ONLY) != 0 || distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    Distance<? super V> df = distanceQuery.getDistance();
+    if(df instanceof EuclideanDistance || df instanceof SquaredEuclideanDistance) {
+      return new ProductQuantizationKNNSearcher(distanceQuery, df instanceof EuclideanDistance);
+    }
+    return null;
+  }
+
+  /**
+   * kNN query using the quantized vectors.
+   *
+   * @author Erich Schubert
+   */
+  public class ProductQuantizationKNNSearcher extends AbstractRefiningIndex<V>.AbstractRefiningQuery implements KNNSearcher<V> {
+    /**
+     * Take the square root of the approximate distances.
+     */
+    private boolean sqrt;
+
+    /**
+     * Distance table, 256 entries per subspace.
+     */
+    private double[] table = new double[subspaces * MAX_CENTROIDS];
+
+    /**
+     * Residual query vector.
+     */
+    private double[] buf = new double[bounds[subspaces]];
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     * @param sqrt Take the square root of the approximate distances
+     */
+    public ProductQuantizationKNNSearcher(DistanceQuery<V> distanceQuery, boolean sqrt) {
+      super(distanceQuery);
+      this.sqrt = sqrt;
+    }
+
+    @Override
+    public KNNList getKNN(V obj, int k) {
+      final int ncand = refine > 0 ? k * refine : k;
+      DoubleDBIDHeap heap = DBIDUtil.newMaxHeap(ncand);
+      DBIDArrayIter iter = ids.iter();
+      for(int l : selectLists(obj)) {
+        residual(obj, coarse[l], buf);
+        fillTable();
+        for(int i = listStart[l], end = listStart[l + 1]; i < end; i++) {
+          double d = 0.;
+          for(int s = 0, off = i * subspaces; s < subspaces; s++) {
+            d += table[(s << 8) + (codes[off + s] & 0xFF)];
+          }
+          if(heap.size() < ncand || d < heap.peekKey()) {
+            heap.insert(d, iter.seek(i), ncand);
+          }
+        }
+      }
+      KNNHeap knns = DBIDUtil.newHeap(k);
+      for(DoubleDBIDIter it = heap.unorderedIterator(); it.valid(); it.advance()) {
+        knns.insert(refine > 0 ? refine(it, obj) : sqrt ? FastMath.sqrt(it.doubleValue()) : it.doubleValue(), it);
+      }
+      return knns.toKNNList();
+    }
+
+    /**
+     * Choose the inverted lists to scan.
+     *
+     * @param obj Query object
+     * @return List numbers
+     */
+    private int[] selectLists(V obj) {
+      if(coarse.length == 1) {
+        return new int[] { 0 };
+      }
+      final int dim = bounds[subspaces];
+      DoubleIntegerMaxHeap best = new DoubleIntegerMaxHeap(probe + 1);
+      for(int l = 0; l < coarse.length; l++) {
+        final double[] c = coarse[l];
+        double d = 0.;
+        for(int i = 0; i < dim; i++) {
+          final double v = obj.doubleValue(i) - c[i];
+          d += v * v;
+        }
+        best.add(d, l, probe);
+      }
+      int[] sel = new int[best.size()];
+      for(int j = sel.length - 1; j >= 0; j--) {
+        sel[j] = best.peekValue();
+        best.poll();
+      }
+      return sel;
+    }
+
+    /**
+     * Fill the distance table for the current residual query vector.
+     */
+    private void fillTable() {
+      for(int s = 0; s < subspaces; s++) {
+        final double[][] codebook = codebooks[s];
+        final int begin = bounds[s], end = bounds[s + 1];
+        for(int j = 0; j < codebook.length; j++) {
+          final double[] mean = codebook[j];
+          double d = 0.;
+          for(int i = begin; i < end; i++) {
+            final double v = buf[i] - mean[i - begin];
+            d += v * v;
+          }
+          table[(s << 8) + j] = d;
+        }
+      }
+    }
+  }
+
+  /**
+   * Index factory for product quantization.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - ProductQuantizationIndex
+   *
+   * @param <V> Vector type
+   */
+  public static class Factory<V extends NumberVector> implements IndexFactory<V> {
+    /**
+     * Number of subspaces.
+     */
+    private int subspaces;
+
+    /**
+     * Number of centroids per subspace.
+     */
+    private int centroids;
+
+    /**
+     * Number of inverted lists, 0 to disable.
+     */
+    private int lists;
+
+    /**
+     * Number of lists to scan per query.
+     */
+    private int probe;
+
+    /**
+     * Candidates to refine per requested neighbor, 0 to disable.
+     */
+    private int refine;
+
+    /**
+     * Number of objects used for training, 0 for all.
+     */
+    private int sample;
+
+    /**
+     * Supplier of new k-means instances for training.
+     */
+    private Supplier<? extends KMeans<DoubleVector, ?>> kmeans;
+
+    /**
+     * Random generator for sampling.
+     */
+    private RandomFactory random;
+
+    /**
+     * Constructor.
+     *
+     * @param subspaces Number of subspaces
+     * @param centroids Number of centroids per subspace
+     * @param lists Number of inverted lists, 0 to disable
+     * @param probe Number of lists to scan per query
+     * @param refine Candidates to refine per requested neighbor, 0 to disable
+     * @param sample Number of objects used for training, 0 for all
+     * @param kmeans Supplier of new k-means instances for training, as the
+     *        number of clusters is modified by each index
+     * @param random Random generator for sampling
+     */
+    public Factory(int subspaces, int centroids, int lists, int probe, int refine, int sample, Supplier<? extends KMeans<DoubleVector, ?>> kmeans, RandomFactory random) {
+      super();
+      this.subspaces = subspaces;
+      this.centroids = centroids;
+      this.lists = lists;
+      this.probe = probe;
+      this.refine = refine;
+      this.sample = sample;
+      this.kmeans = kmeans;
+      this.random = random;
+    }
+
+    @Override
+    public ProductQuantizationIndex<V> instantiate(Relation<V> relation) {
+      return new ProductQuantizationIndex<>(relation, subspaces, centroids, lists, probe, refine, sample, kmeans.get(), random);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return TypeUtil.NUMBER_VECTOR_FIELD;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     */
+    public static class Par implements Parameterizer {
+      /**
+       * Number of subspaces.
+       */
+      public static final OptionID SUBSPACES_ID = new OptionID("pq.subspaces", "Number of subspaces to quantize independently, i.e., the number of code bytes per vector.");
+
+      /**
+       * Number of centroids per subspace.
+       */
+      public static final OptionID CENTROIDS_ID = new OptionID("pq.centroids", "Number of centroids per subspace, at most 256.");
+
+      /**
+       * Number of inverted lists.
+       */
+      public static final OptionID LISTS_ID = new OptionID("pq.lists", "Number of inverted lists (coarse centroids) for IVF-PQ, 0 to disable.");
+
+      /**
+       * Number of lists to scan.
+       */
+      public static final OptionID PROBE_ID = new OptionID("pq.probe", "Number of inverted lists to scan per query.");
+
+      /**
+       * Refinement factor.
+       */
+      public static final OptionID REFINE_ID = new OptionID("pq.refine", "Number of candidates per requested neighbor to refine with exact distances, 0 to return approximate distances.");
+
+      /**
+       * Training sample size.
+       */
+      public static final OptionID SAMPLE_ID = new OptionID("pq.sample", "Number of objects to train the quantizers on, 0 to use all.");
+
+      /**
+       * k-means variant.
+       */
+      public static final OptionID KMEANS_ID = new OptionID("pq.kmeans", "k-means variant used to train the quantizers.");
+
+      /**
+       * Random generator seed.
+       */
+      public static final OptionID SEED_ID = new OptionID("pq.seed", "Random generator seed for sampling the training data.");
+
+      /**
+       * Number of subspaces.
+       */
+      protected int subspaces;
+
+      /**
+       * Number of centroids per subspace.
+       */
+      protected int centroids = MAX_CENTROIDS;
+
+      /**
+       * Number of inverted lists, 0 to disable.
+       */
+      protected int lists = 0;
+
+      /**
+       * Number of lists to scan per query.
+       */
+      protected int probe = 1;
+
+      /**
+       * Candidates to refine per requested neighbor, 0 to disable.
+       */
+      protected int refine = 0;
+
+      /**
+       * Number of objects used for training, 0 for all.
+       */
+      protected int sample = 10000;
+
+      /**
+       * k-means variant for training.
+       */
+      protected KMeans<DoubleVector, ?> kmeans;
+
+      /**
+       * Options of the k-means variant, to instantiate further k-means.
+       */
+      protected List<OptionID> kmeansOptions;
+
+      /**
+       * Values of the k-means options.
+       */
+      protected List<Object> kmeansValues;
+
+      /**
+       * Random generator for sampling.
+       */
+      protected RandomFactory random;
+
+      @Override
+      public void configure(Parameterization config) {
+        new IntParameter(SUBSPACES_ID) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> subspaces = x);
+        new IntParameter(CENTROIDS_ID, MAX_CENTROIDS) //
+            .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+            .addConstraint(new LessEqualConstraint(MAX_CENTROIDS)) //
+            .grab(config, x -> centroids = x);
+        new IntParameter(LISTS_ID, 0) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+            .grab(config, x -> lists = x);
+        if(lists > 0) {
+          new IntParameter(PROBE_ID, 1) //
+              .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+              .grab(config, x -> probe = x);
+        }
+        new IntParameter(REFINE_ID, 0) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+            .grab(config, x -> refine = x);
+        new IntParameter(SAMPLE_ID, 10000) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+            .grab(config, x -> sample = x);
+        ObjectParameter<KMeans<DoubleVector, ?>> kmeansP = new ObjectParameter<>(KMEANS_ID, KMeans.class, LloydKMeans.class);
+        if(config.grab(kmeansP)) {
+          // The number of clusters is chosen by the index.
+          ChainedParameterization combinedConfig = new ChainedParameterization(new ListParameterization() //
+              .addParameter(KMeans.K_ID, centroids), config);
+          combinedConfig.errorsTo(config);
+          // Track the k-means options, to be able to make one per index.
+          TrackParameters track = new TrackParameters(combinedConfig);
+          kmeans = kmeansP.instantiateClass(track);
+          kmeansOptions = new ArrayList<>();
+          kmeansValues = new ArrayList<>();
+          for(TrackedParameter p : track.getAllParameters()) {
+            Object owner = p.getOwner();
+            while(owner != null && owner != kmeansP) {
+              owner = track.getParent(owner);
+            }
+            if(owner != null && p.getParameter().isDefined()) {
+              kmeansOptions.add(p.getParameter().getOptionID());
+              kmeansValues.add(p.getParameter().getValue());
+            }
+          }
+        }
+        new RandomParameter(SEED_ID) //
+            .grab(config, x -> random = x);
+      }
+
+      /**
+       * Make a new k-means instance, with the same options.
+       *
+       * @return k-means
+       */
+      private KMeans<DoubleVector, ?> newKMeans() {
+        ListParameterization params = new ListParameterization();
+        for(int i = 0; i < kmeansOptions.size(); i++) {
+          params.addParameter(kmeansOptions.get(i), kmeansValues.get(i));
+        }
+        return ClassGenericsUtil.parameterizeOrAbort(kmeans.getClass(), params);
+      }
+
+      @Override
+      public Factory<?> make() {
+        // k-means given as an instance cannot be replicated, and is shared.
+        return new Factory<>(subspaces, centroids, lists, probe, refine, sample, //
+            kmeansOptions != null && !kmeansOptions.isEmpty() ? this::newKMeans : () -> kmeans, random);
+      }
+    }
+  }
+}
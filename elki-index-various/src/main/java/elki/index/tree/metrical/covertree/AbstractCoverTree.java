@@ -20,6 +20,8 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import elki.data.type.TypeInformation;
 import elki.database.ids.*;
 import elki.database.query.distance.DistanceQuery;
@@ -30,6 +32,7 @@ import elki.index.IndexFactory;
 import elki.logging.Logging;
 import elki.logging.LoggingUtil;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -49,6 +52,11 @@ import net.jafama.FastMath;
  * @param <O> Object type
  */
 public abstract class AbstractCoverTree<O> implements Index {
+  /**
+   * Minimum size of subtrees to build as separate tasks when bulk loading.
+   */
+  private static final int MIN_TASK_SIZE = 256;
+
   /**
    * The representation we are bound to.
    */
@@ -82,9 +90,9 @@ public abstract class AbstractCoverTree<O> implements Index {
   private DistanceQuery<O> distanceQuery;
 
   /**
-   * Distance computations performed.
+   * Distance computations performed (also by concurrent bulk loading).
    */
-  protected long distComputations = 0L;
+  protected LongAdder distComputations = new LongAdder();
 
   /**
    * Stop refining the tree at this size, but build a leaf.
@@ -130,6 +138,20 @@ public abstract class AbstractCoverTree<O> implements Index {
     return (int) Math.ceil(FastMath.log(d) * invLogExpansion);
   }
 
+  /**
+   * Choose the size of subtrees to build as separate parallel tasks.
+   * 
+   * @param size Number of objects to bulk load
+   * @return Maximum task size, or 0 to build sequentially
+   */
+  protected int parallelTaskSize(int size) {
+    if(ParallelCore.isWorkerThread()) {
+      return 0; // Nested call, build sequentially.
+    }
+    final int taskSize = Math.max(MIN_TASK_SIZE, size / (ParallelCore.getCore().getParallelism() << 4));
+    return size > taskSize ? taskSize : 0;
+  }
+
   /**
    * Find maximum in a list via scanning.
    * 
@@ -153,7 +175,7 @@ public abstract class AbstractCoverTree<O> implements Index {
    * @return Distance
    */
   protected double distance(DBIDRef a, DBIDRef b) {
-    ++distComputations;
+    distComputations.increment();
     return distanceQuery.distance(a, b);
   }
 
@@ -165,7 +187,7 @@ public abstract class AbstractCoverTree<O> implements Index {
    * @return Distance
    */
   protected double distance(O a, DBIDRef b) {
-    ++distComputations;
+    distComputations.increment();
     return distanceQuery.distance(a, b);
   }
 
@@ -214,7 +236,7 @@ public abstract class AbstractCoverTree<O> implements Index {
 
   @Override
   public void logStatistics() {
-    getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations));
+    getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations.sum()));
   }
 
   /**
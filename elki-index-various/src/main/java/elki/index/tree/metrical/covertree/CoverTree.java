@@ -20,10 +20,15 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
+import elki.database.IndexSnapshots;
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.QueryBuilder;
@@ -33,13 +38,18 @@ import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DistancePriorityIndex;
+import elki.index.DynamicIndex;
+import elki.index.SnapshotIndex;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
 import elki.math.MathUtil;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Priority;
 import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
 
 /**
  * Cover tree data structure (in-memory). This is a <i>metrical</i> data
@@ -64,7 +74,10 @@ import elki.utilities.documentation.Reference;
  * parent nodes. It thus needs more than twice the memory of
  * {@link SimplifiedCoverTree}, but computes fewer distances.
  * <p>
- * TODO: allow insertions and removals, as in the original publication.
+ * The bulk load builds independent subtrees in parallel. Insertions descend
+ * into the closest covering child, deletions rebuild the subtree of a removed
+ * routing object; once the number of modifications exceeds the size of the
+ * last bulk load, the tree is rebuilt completely.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -78,7 +91,7 @@ import elki.utilities.documentation.Reference;
     url = "https://doi.org/10.1145/1143844.1143857", //
     bibkey = "DBLP:conf/icml/BeygelzimerKL06")
 @Priority(Priority.RECOMMENDED)
-public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriorityIndex<O> {
+public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriorityIndex<O>, DynamicIndex, SnapshotIndex {
   /**
    * Class logger.
    */
@@ -89,6 +102,26 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    */
   private Node root = null;
 
+  /**
+   * Number of objects in the tree.
+   */
+  private int size = 0;
+
+  /**
+   * Number of objects at the last bulk load.
+   */
+  private int loadedSize = 0;
+
+  /**
+   * Number of insertions and deletions since the last bulk load.
+   */
+  private int modifications = 0;
+
+  /**
+   * Description of the parameters, for snapshots.
+   */
+  private final String parameters;
+
   /**
    * Constructor.
    *
@@ -98,7 +131,21 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    * @param truncate Truncate branches with less than this number of instances
    */
   public CoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate) {
+    this(relation, distance, expansion, truncate, IndexSnapshots.describe(expansion, truncate, distance));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation data relation
+   * @param distance distance function
+   * @param expansion Expansion rate
+   * @param truncate Truncate branches with less than this number of instances
+   * @param parameters Description of the parameters, for snapshots
+   */
+  public CoverTree(Relation<O> relation, Distance<? super O> distance, double expansion, int truncate, String parameters) {
     super(relation, distance, expansion, truncate);
+    this.parameters = parameters;
   }
 
   /**
@@ -172,12 +219,27 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
       this.maxDist = maxDist;
       this.parentDist = parentDist;
     }
+
+    /**
+     * Constructor for restoring a snapshot.
+     *
+     * @param singletons Routing object and singletons
+     * @param maxDist Maximum distance to any descendant
+     * @param parentDist Distance from parent
+     * @param children Child nodes
+     */
+    private Node(ModifiableDoubleDBIDList singletons, double maxDist, double parentDist, List<Node> children) {
+      this.singletons = singletons;
+      this.children = children;
+      this.maxDist = maxDist;
+      this.parentDist = parentDist;
+    }
   }
 
   @Override
   public void initialize() {
     bulkLoad(relation.getDBIDs());
-    if(LOG.isVerbose()) {
+    if(LOG.isVerbose() && root != null) {
       int[] counts = new int[5];
       checkCoverTree(root, counts, 0);
       LOG.statistics(new LongStatistic(this.getClass().getName() + ".nodes", counts[0]));
@@ -188,16 +250,83 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     }
   }
 
+  @Override
+  public void writeSnapshot(DataOutput out) throws IOException {
+    IndexSnapshots.writeParameters(out, parameters);
+    out.writeBoolean(root != null);
+    if(root != null) {
+      writeNode(out, root);
+    }
+  }
+
+  /**
+   * Write a subtree in preorder.
+   *
+   * @param out Output
+   * @param node Current node
+   * @throws IOException on write errors
+   */
+  private static void writeNode(DataOutput out, Node node) throws IOException {
+    IndexSnapshots.writeDoubleDBIDList(out, node.singletons);
+    out.writeDouble(node.maxDist);
+    out.writeDouble(node.parentDist);
+    out.writeInt(node.children.size());
+    for(Node child : node.children) {
+      writeNode(out, child);
+    }
+  }
+
+  @Override
+  public boolean loadSnapshot(ByteBuffer in) throws IOException {
+    if(!IndexSnapshots.matchParameters(in, parameters)) {
+      return false;
+    }
+    root = in.get() != 0 ? readNode(in) : null;
+    size = loadedSize = relation.size();
+    modifications = 0;
+    return true;
+  }
+
+  /**
+   * Read a subtree in preorder.
+   *
+   * @param in Input buffer
+   * @return Node
+   */
+  private static Node readNode(ByteBuffer in) {
+    ModifiableDoubleDBIDList singletons = IndexSnapshots.readDoubleDBIDList(in);
+    double maxDist = in.getDouble(), parentDist = in.getDouble();
+    int numc = in.getInt();
+    List<Node> children = numc == 0 ? Collections.emptyList() : new ArrayList<>(numc);
+    for(int i = 0; i < numc; i++) {
+      children.add(readNode(in));
+    }
+    return new Node(singletons, maxDist, parentDist, children);
+  }
+
   /**
    * Bulk-load the index.
    *
    * @param ids IDs to load
    */
   public void bulkLoad(DBIDs ids) {
+    assert root == null : "Tree already initialized.";
+    root = bulkBuild(ids, null);
+    size = loadedSize = ids.size();
+    modifications = 0;
+  }
+
+  /**
+   * Build a (sub-)tree, in parallel for large sets.
+   *
+   * @param ids IDs to load
+   * @param parent Routing object of the parent node, may be {@code null}
+   * @return Subtree root, {@code null} if empty
+   */
+  private Node bulkBuild(DBIDs ids, DBIDRef parent) {
     if(ids.isEmpty()) {
-      return;
+      return null;
     }
-    assert root == null : "Tree already initialized.";
     DBIDIter it = ids.iter();
     DBID first = DBIDUtil.deref(it);
     // Compute distances to all neighbors:
@@ -205,7 +334,15 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     for(it.advance(); it.valid(); it.advance()) {
       candidates.add(distance(first, it), it);
     }
-    root = bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
+    final double parentDist = parent != null ? distance(parent, first) : 0.;
+    final int taskSize = parallelTaskSize(ids.size());
+    if(taskSize == 0) {
+      return bulkConstruct(first, Integer.MAX_VALUE, parentDist, candidates);
+    }
+    List<Callable<Void>> tasks = new ArrayList<>();
+    Node node = bulkConstruct(first, Integer.MAX_VALUE, parentDist, candidates, tasks, taskSize);
+    ParallelExecutor.runTasks(tasks);
+    return node;
   }
 
   /**
@@ -221,6 +358,22 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    * @return Root node of subtree
    */
   protected Node bulkConstruct(DBIDRef cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
+    return bulkConstruct(cur, maxScale, parentDist, elems, null, 0);
+  }
+
+  /**
+   * Bulk-load the cover tree, deferring the construction of subtrees of at
+   * most the given size to separate tasks.
+   *
+   * @param cur Current routing object
+   * @param maxScale Maximum scale
+   * @param parentDist Distance to parent element
+   * @param elems Candidates
+   * @param tasks Output list of deferred tasks, {@code null} for sequential
+   * @param taskSize Maximum subtree size for deferred tasks
+   * @return Root node of subtree
+   */
+  private Node bulkConstruct(DBIDRef cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems, List<Callable<Void>> tasks, int taskSize) {
     final double max = maxDistance(elems);
     final int scale = Math.min(distToScale(max) - 1, maxScale);
     final int nextScale = scale - 1;
@@ -235,7 +388,7 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     // If no elements were not in the cover, build a compact tree:
     if(candidates.isEmpty()) {
       LOG.warning("Scale not chosen appropriately? " + max + " " + scaleToDist(scale));
-      return bulkConstruct(cur, nextScale, parentDist, elems);
+      return bulkConstruct(cur, nextScale, parentDist, elems, tasks, taskSize);
     }
     // We will have at least one other child, so build the parent:
     Node node = new Node(cur, max, parentDist);
@@ -243,7 +396,7 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     final boolean curSingleton = elems.isEmpty();
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, 0, elems));
+      elems = bulkChild(node, cur, nextScale, 0, elems, tasks, taskSize);
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
@@ -257,19 +410,261 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
       }
       else {
         // Build a full child node:
-        node.children.add(bulkConstruct(it, nextScale, it.doubleValue(), elems));
+        elems = bulkChild(node, it, nextScale, it.doubleValue(), elems, tasks, taskSize);
       }
       candidates.removeSwap(0);
     }
     assert candidates.isEmpty();
     // Routing object is not yet handled:
     if(curSingleton && !node.children.isEmpty()) {
-      node.singletons.add(parentDist, cur); // Add as regular singleton.
+      node.singletons.add(0., cur); // Add as regular singleton.
     }
     // TODO: improve recycling of lists?
     return node;
   }
 
+  /**
+   * Build a child node, or defer it to a separate task.
+   *
+   * @param node Parent node
+   * @param cur Routing object of the child
+   * @param scale Maximum scale of the child
+   * @param parentDist Distance to the parent routing object
+   * @param elems Candidates of the child
+   * @param tasks Output list of deferred tasks, {@code null} for sequential
+   * @param taskSize Maximum subtree size for deferred tasks
+   * @return List to reuse for the next child
+   */
+  private ModifiableDoubleDBIDList bulkChild(Node node, DBIDRef cur, int scale, double parentDist, ModifiableDoubleDBIDList elems, List<Callable<Void>> tasks, int taskSize) {
+    if(tasks == null) {
+      node.children.add(bulkConstruct(cur, scale, parentDist, elems));
+      return elems;
+    }
+    if(elems.size() > taskSize || elems.size() < truncate) {
+      node.children.add(bulkConstruct(cur, scale, parentDist, elems, tasks, taskSize));
+    }
+    else {
+      // The task takes ownership of the candidate list:
+      final int pos = node.children.size();
+      final DBID ref = DBIDUtil.deref(cur);
+      final ModifiableDoubleDBIDList celems = elems;
+      node.children.add(null);
+      tasks.add(() -> {
+        node.children.set(pos, bulkConstruct(ref, scale, parentDist, celems));
+        return null;
+      });
+    }
+    return DBIDUtil.newDistanceDBIDList(); // May be referenced by tasks.
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(root == null) {
+      root = new Node(id, 0., 0., DBIDUtil.newDistanceDBIDList(0));
+    }
+    else {
+      insert(root, id, distance(root.singletons.iter(), id));
+    }
+    ++size;
+    countModification();
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    if(root == null) {
+      bulkLoad(ids);
+      return;
+    }
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      insert(it);
+    }
+  }
+
+  /**
+   * Insert an object into a subtree.
+   *
+   * @param node Subtree root
+   * @param id Object to insert
+   * @param d Distance to the routing object of the subtree
+   */
+  private void insert(Node node, DBIDRef id, double d) {
+    DBIDVar tmp = DBIDUtil.newVar();
+    while(true) {
+      node.maxDist = d > node.maxDist ? d : node.maxDist;
+      if(node.children.isEmpty()) {
+        node.singletons.add(d, id);
+        if(node.singletons.size() > truncate << 1 && node.maxDist > 0) {
+          splitLeaf(node);
+        }
+        return;
+      }
+      // Descend into the closest child, if within the cover of the children:
+      final DoubleDBIDListIter routing = node.singletons.iter();
+      Node best = null;
+      double bestDist = Double.POSITIVE_INFINITY, cover = 0.;
+      for(Node c : node.children) {
+        final double dc = DBIDUtil.equal(c.singletons.assignVar(0, tmp), routing) ? d : distance(tmp, id);
+        if(dc < bestDist) {
+          bestDist = dc;
+          best = c;
+        }
+        cover = c.maxDist > cover ? c.maxDist : cover;
+      }
+      if(bestDist > cover) {
+        node.singletons.add(d, id);
+        return;
+      }
+      node = best;
+      d = bestDist;
+    }
+  }
+
+  /**
+   * Replace an overfull leaf with a subtree.
+   *
+   * @param leaf Leaf node
+   */
+  private void splitLeaf(Node leaf) {
+    ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(leaf.singletons.size() - 1);
+    for(DoubleDBIDListIter it = leaf.singletons.iter().advance(); it.valid(); it.advance()) {
+      elems.add(it.doubleValue(), it);
+    }
+    Node node = bulkConstruct(DBIDUtil.deref(leaf.singletons.iter()), Integer.MAX_VALUE, leaf.parentDist, elems);
+    leaf.singletons = node.singletons;
+    leaf.children = node.children;
+    leaf.maxDist = node.maxDist;
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    if(root == null) {
+      return false;
+    }
+    final DoubleDBIDListIter routing = root.singletons.iter();
+    if(DBIDUtil.equal(routing, id)) {
+      root = rebuild(root, null, id);
+    }
+    else {
+      final double d = distance(routing, id);
+      if(d > root.maxDist || !delete(root, id, d)) {
+        return false;
+      }
+    }
+    --size;
+    countModification();
+    return true;
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      delete(it);
+    }
+  }
+
+  /**
+   * Delete an object from a subtree.
+   *
+   * @param node Subtree root, with a different routing object
+   * @param id Object to delete
+   * @param d Distance to the routing object of the subtree
+   * @return {@code true} if the object was found
+   */
+  private boolean delete(Node node, DBIDRef id, double d) {
+    final DoubleDBIDListIter routing = node.singletons.iter();
+    for(DoubleDBIDListIter it = node.singletons.iter().advance(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, id)) {
+        node.singletons.removeSwap(it.getOffset());
+        return true;
+      }
+    }
+    DBIDVar tmp = DBIDUtil.newVar();
+    for(int i = 0; i < node.children.size(); i++) {
+      final Node c = node.children.get(i);
+      c.singletons.assignVar(0, tmp);
+      if(DBIDUtil.equal(tmp, id)) {
+        // Routing object removed: rebuild the subtree without it.
+        final Node replacement = rebuild(c, routing, id);
+        if(replacement != null) {
+          node.children.set(i, replacement);
+        }
+        else {
+          node.children.remove(i);
+          if(node.children.isEmpty()) {
+            // Now a leaf, which includes the routing object itself.
+            for(DoubleDBIDListIter it = node.singletons.iter().advance(); it.valid();) {
+              if(DBIDUtil.equal(it, routing)) {
+                node.singletons.removeSwap(it.getOffset());
+              }
+              else {
+                it.advance();
+              }
+            }
+          }
+        }
+        return true;
+      }
+      final double dc = DBIDUtil.equal(tmp, routing) ? d : distance(tmp, id);
+      if(dc <= c.maxDist && delete(c, id, dc)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Rebuild a subtree, excluding one object.
+   *
+   * @param node Subtree root
+   * @param parent Routing object of the parent node, may be {@code null}
+   * @param exclude Object to exclude
+   * @return New subtree root, {@code null} if empty
+   */
+  private Node rebuild(Node node, DBIDRef parent, DBIDRef exclude) {
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray();
+    collect(node, ids, exclude);
+    return bulkBuild(ids, parent);
+  }
+
+  /**
+   * Collect all objects in a subtree.
+   *
+   * @param node Subtree root
+   * @param ids Output list
+   * @param exclude Object to exclude, may be {@code null}
+   */
+  private static void collect(Node node, ArrayModifiableDBIDs ids, DBIDRef exclude) {
+    // The routing object of inner nodes is also in a child or a singleton.
+    DoubleDBIDListIter it = node.singletons.iter();
+    if(!node.children.isEmpty()) {
+      it.advance();
+    }
+    for(; it.valid(); it.advance()) {
+      if(exclude == null || !DBIDUtil.equal(it, exclude)) {
+        ids.add(it);
+      }
+    }
+    for(Node c : node.children) {
+      collect(c, ids, exclude);
+    }
+  }
+
+  /**
+   * Count an insertion or deletion, and rebuild the tree if it has changed
+   * too much since the last bulk load.
+   */
+  private void countModification() {
+    if(++modifications <= Math.max(loadedSize, truncate)) {
+      return;
+    }
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray(size);
+    if(root != null) {
+      collect(root, ids, null);
+    }
+    root = null;
+    bulkLoad(ids);
+  }
+
   /**
    * Collect some statistics on the tree.
    *
@@ -370,6 +765,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
      * @return result
      */
     protected ModifiableDoubleDBIDList doSearch(double range, ModifiableDoubleDBIDList result) {
+      if(root == null) {
+        return result;
+      }
       open.clear();
       open.add(root);
       while(!open.isEmpty()) {
@@ -481,6 +879,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
      */
     protected KNNList doSearch(int k) {
       KNNHeap knnList = DBIDUtil.newHeap(k);
+      if(root == null) {
+        return knnList.toKNNList();
+      }
       double d_k = Double.POSITIVE_INFINITY;
       pq.clear();
       pq.add(queryDistance(root.singletons.iter()) - root.maxDist, root);
@@ -649,8 +1050,12 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     protected PrioritySearcher<Q> doSearch() {
       this.threshold = Double.POSITIVE_INFINITY;
       pq.clear();
-      pq.add(queryDistance(root.singletons.iter()) - root.maxDist, root);
+      candidates = DoubleDBIDListIter.EMPTY;
       lb = 0.;
+      if(root == null) {
+        return this;
+      }
+      pq.add(queryDistance(root.singletons.iter()) - root.maxDist, root);
       return advance(); // Find first
     }
 
@@ -821,6 +1226,11 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    * @param <O> Object type
    */
   public static class Factory<O> extends AbstractCoverTree.Factory<O> {
+    /**
+     * Description of the parameters, for snapshots.
+     */
+    private final String parameters;
+
     /**
      * Constructor.
      *
@@ -829,12 +1239,25 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
      * @param truncate Truncate branches with less than this number of instances
      */
     public Factory(Distance<? super O> distance, double expansion, int truncate) {
+      this(distance, expansion, truncate, IndexSnapshots.describe(expansion, truncate, distance));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param expansion Expansion rate
+     * @param truncate Truncate branches with less than this number of instances
+     * @param parameters Description of the parameters, for snapshots
+     */
+    public Factory(Distance<? super O> distance, double expansion, int truncate, String parameters) {
       super(distance, expansion, truncate);
+      this.parameters = parameters;
     }
 
     @Override
     public CoverTree<O> instantiate(Relation<O> relation) {
-      return new CoverTree<>(relation, distance, expansion, truncate);
+      return new CoverTree<>(relation, distance, expansion, truncate, parameters);
     }
 
     /**
@@ -843,9 +1266,21 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
      * @author Erich Schubert
      */
     public static class Par<O> extends AbstractCoverTree.Factory.Par<O> {
+      /**
+       * Description of the parameters, for snapshots.
+       */
+      protected String parameters;
+
+      @Override
+      public void configure(Parameterization config) {
+        TrackParameters track = new TrackParameters(config);
+        super.configure(track);
+        parameters = IndexSnapshots.describe(track);
+      }
+
       @Override
       public CoverTree.Factory<O> make() {
-        return new CoverTree.Factory<>(distance, expansion, truncate);
+        return new CoverTree.Factory<>(distance, expansion, truncate, parameters);
       }
     }
   }
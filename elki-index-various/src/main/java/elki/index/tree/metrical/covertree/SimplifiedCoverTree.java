@@ -23,6 +23,7 @@ package elki.index.tree.metrical.covertree;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
@@ -37,6 +38,7 @@ import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
 import elki.math.MathUtil;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 
 /**
@@ -55,6 +57,8 @@ import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
  * Cover trees for nearest neighbor<br>
  * In Proc. 23rd Int. Conf. Machine Learning (ICML 2006)
  * <p>
+ * The bulk load builds independent subtrees in parallel.
+ * <p>
  * TODO: allow insertions and removals, as in the original publication.
  *
  * @author Erich Schubert
@@ -168,7 +172,14 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     for(it.advance(); it.valid(); it.advance()) {
       candidates.add(distance(first, it), it);
     }
-    root = bulkConstruct(first, Integer.MAX_VALUE, candidates);
+    final int taskSize = parallelTaskSize(ids.size());
+    if(taskSize == 0) {
+      root = bulkConstruct(first, Integer.MAX_VALUE, candidates);
+      return;
+    }
+    List<Callable<Void>> tasks = new ArrayList<>();
+    root = bulkConstruct(first, Integer.MAX_VALUE, candidates, tasks, taskSize);
+    ParallelExecutor.runTasks(tasks);
   }
 
   /**
@@ -183,6 +194,21 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
    * @return Root node of subtree
    */
   protected Node bulkConstruct(DBIDRef cur, int maxScale, ModifiableDoubleDBIDList elems) {
+    return bulkConstruct(cur, maxScale, elems, null, 0);
+  }
+
+  /**
+   * Bulk-load the cover tree, deferring the construction of subtrees of at
+   * most the given size to separate tasks.
+   *
+   * @param cur Current routing object
+   * @param maxScale Maximum scale
+   * @param elems Candidates
+   * @param tasks Output list of deferred tasks, {@code null} for sequential
+   * @param taskSize Maximum subtree size for deferred tasks
+   * @return Root node of subtree
+   */
+  private Node bulkConstruct(DBIDRef cur, int maxScale, ModifiableDoubleDBIDList elems, List<Callable<Void>> tasks, int taskSize) {
     final double max = maxDistance(elems);
     final int scale = Math.min(distToScale(max) - 1, maxScale);
     final int nextScale = scale - 1;
@@ -197,7 +223,7 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     // If no elements were not in the cover, build a compact tree:
     if(candidates.isEmpty()) {
       LOG.warning("Scale not chosen appropriately? " + max + " " + scaleToDist(scale));
-      return bulkConstruct(cur, nextScale, elems);
+      return bulkConstruct(cur, nextScale, elems, tasks, taskSize);
     }
     // We will have at least one other child, so build the parent:
     Node node = new Node(cur, max);
@@ -205,7 +231,7 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     final boolean curSingleton = elems.isEmpty();
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, elems));
+      elems = bulkChild(node, cur, nextScale, elems, tasks, taskSize);
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
@@ -219,7 +245,7 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
       }
       else {
         // Build a full child node:
-        node.children.add(bulkConstruct(it, nextScale, elems));
+        elems = bulkChild(node, it, nextScale, elems, tasks, taskSize);
       }
       candidates.removeSwap(0);
     }
@@ -232,6 +258,39 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O> implements Dist
     return node;
   }
 
+  /**
+   * Build a child node, or defer it to a separate task.
+   *
+   * @param node Parent node
+   * @param cur Routing object of the child
+   * @param scale Maximum scale of the child
+   * @param elems Candidates of the child
+   * @param tasks Output list of deferred tasks, {@code null} for sequential
+   * @param taskSize Maximum subtree size for deferred tasks
+   * @return List to reuse for the next child
+   */
+  private ModifiableDoubleDBIDList bulkChild(Node node, DBIDRef cur, int scale, ModifiableDoubleDBIDList elems, List<Callable<Void>> tasks, int taskSize) {
+    if(tasks == null) {
+      node.children.add(bulkConstruct(cur, scale, elems));
+      return elems;
+    }
+    if(elems.size() > taskSize || elems.size() < truncate) {
+      node.children.add(bulkConstruct(cur, scale, elems, tasks, taskSize));
+    }
+    else {
+      // The task takes ownership of the candidate list:
+      final int pos = node.children.size();
+      final DBID ref = DBIDUtil.deref(cur);
+      final ModifiableDoubleDBIDList celems = elems;
+      node.children.add(null);
+      tasks.add(() -> {
+        node.children.set(pos, bulkConstruct(ref, scale, celems));
+        return null;
+      });
+    }
+    return DBIDUtil.newDistanceDBIDList(); // May be referenced by tasks.
+  }
+
   /**
    * Collect some statistics on the tree.
    *
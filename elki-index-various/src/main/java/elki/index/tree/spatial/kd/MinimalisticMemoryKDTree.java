@@ -20,11 +20,19 @@
  */
 package elki.index.tree.spatial.kd;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import elki.data.NumberVector;
 import elki.data.VectorUtil;
 import elki.data.VectorUtil.SortDBIDsBySingleDimension;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
+import elki.database.IndexSnapshots;
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.distance.DistanceQuery;
@@ -39,8 +47,11 @@ import elki.distance.minkowski.SparseLPNormDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.DistancePriorityIndex;
 import elki.index.IndexFactory;
+import elki.index.SnapshotIndex;
 import elki.logging.Logging;
+import elki.logging.statistics.AtomicLongCounter;
 import elki.logging.statistics.Counter;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Alias;
 import elki.utilities.datastructures.heap.ComparableMinHeap;
 import elki.utilities.documentation.Reference;
@@ -82,7 +93,7 @@ import elki.utilities.optionhandling.parameters.IntParameter;
     booktitle = "Communications of the ACM 18(9)", //
     url = "https://doi.org/10.1145/361002.361007", //
     bibkey = "DBLP:journals/cacm/Bentley75")
-public class MinimalisticMemoryKDTree<O extends NumberVector> implements DistancePriorityIndex<O> {
+public class MinimalisticMemoryKDTree<O extends NumberVector> implements DistancePriorityIndex<O>, SnapshotIndex {
   /**
    * Class logger
    */
@@ -130,8 +141,8 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> implements Distanc
     assert (leafsize >= 1);
     if(LOG.isStatistics()) {
       String prefix = this.getClass().getName();
-      this.objaccess = LOG.newCounter(prefix + ".objaccess");
-      this.distcalc = LOG.newCounter(prefix + ".distancecalcs");
+      this.objaccess = new AtomicLongCounter(prefix + ".objaccess");
+      this.distcalc = new AtomicLongCounter(prefix + ".distancecalcs");
     }
     else {
       this.objaccess = null;
@@ -143,14 +154,24 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> implements Distanc
   public void initialize() {
     sorted = DBIDUtil.newArray(relation.getDBIDs());
     dims = RelationUtil.dimensionality(relation);
-    final VectorUtil.SortDBIDsBySingleDimension comp;
-    if(objaccess != null) {
-      comp = new CountSortAccesses(objaccess, relation);
-    }
-    else {
-      comp = new VectorUtil.SortDBIDsBySingleDimension(relation);
-    }
-    buildTree(0, sorted.size(), 0, comp);
+    final int taskSize = SmallMemoryKDTree.parallelTaskSize(sorted.size());
+    if(taskSize == 0) {
+      buildTree(0, sorted.size(), 0, newComparator(), null, 0);
+      return;
+    }
+    List<Callable<Void>> tasks = new ArrayList<>();
+    buildTree(0, sorted.size(), 0, newComparator(), tasks, taskSize);
+    ParallelExecutor.runTasks(tasks);
+  }
+
+  /**
+   * Make a new comparator; these are not thread safe.
+   *
+   * @return Comparator
+   */
+  private VectorUtil.SortDBIDsBySingleDimension newComparator() {
+    return objaccess != null ? new CountSortAccesses(objaccess, relation) : //
+        new VectorUtil.SortDBIDsBySingleDimension(relation);
   }
 
   /**
@@ -191,19 +212,28 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> implements Distanc
    * @param right Interval maximum
    * @param axis Current splitting axis
    * @param comp Comparator
+   * @param tasks Output list of deferred subtrees, may be {@code null}
+   * @param taskSize Size of subtrees to defer to separate tasks
    */
-  private void buildTree(int left, int right, int axis, SortDBIDsBySingleDimension comp) {
+  private void buildTree(int left, int right, int axis, SortDBIDsBySingleDimension comp, List<Callable<Void>> tasks, int taskSize) {
+    if(tasks != null && right - left <= taskSize) {
+      tasks.add(() -> {
+        buildTree(left, right, axis, newComparator(), null, 0);
+        return null;
+      });
+      return;
+    }
     int middle = (left + right) >>> 1;
     comp.setDimension(axis);
     QuickSelectDBIDs.quickSelect(sorted, comp, left, right, middle);
 
     final int next = next(axis);
     if(left + leafsize < middle) {
-      buildTree(left, middle, next, comp);
+      buildTree(left, middle, next, comp, tasks, taskSize);
     }
     ++middle;
     if(middle + leafsize < right) {
-      buildTree(middle, right, next, comp);
+      buildTree(middle, right, next, comp, tasks, taskSize);
     }
   }
 
@@ -217,6 +247,23 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> implements Distanc
     return ++axis == dims ? 0 : axis;
   }
 
+  @Override
+  public void writeSnapshot(DataOutput out) throws IOException {
+    out.writeInt(leafsize);
+    out.writeInt(dims);
+    IndexSnapshots.writeDBIDs(out, sorted);
+  }
+
+  @Override
+  public boolean loadSnapshot(ByteBuffer in) {
+    if(in.getInt() != leafsize || in.getInt() != RelationUtil.dimensionality(relation)) {
+      return false;
+    }
+    dims = RelationUtil.dimensionality(relation);
+    sorted = IndexSnapshots.readDBIDs(in);
+    return true;
+  }
+
   @Override
   public void logStatistics() {
     if(objaccess != null) {
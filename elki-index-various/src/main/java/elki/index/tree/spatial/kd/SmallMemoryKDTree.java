@@ -20,14 +20,28 @@
  */
 package elki.index.tree.spatial.kd;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import elki.data.NumberVector;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
+import elki.database.IndexSnapshots;
+import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.AllKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.WrappedKNNDBIDByLookup;
+import elki.database.query.range.AllRangeSearcher;
 import elki.database.query.range.RangeSearcher;
+import elki.database.query.range.WrappedRangeDBIDByLookup;
 import elki.database.relation.Relation;
 import elki.database.relation.RelationUtil;
 import elki.distance.Distance;
@@ -36,9 +50,14 @@ import elki.distance.minkowski.LPNormDistance;
 import elki.distance.minkowski.SparseLPNormDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.DistancePriorityIndex;
+import elki.index.DynamicIndex;
 import elki.index.IndexFactory;
+import elki.index.SnapshotIndex;
 import elki.logging.Logging;
+import elki.logging.statistics.AtomicLongCounter;
 import elki.logging.statistics.Counter;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.Alias;
 import elki.utilities.datastructures.heap.ComparableMinHeap;
 import elki.utilities.documentation.Reference;
@@ -49,10 +68,16 @@ import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.IntParameter;
 
 /**
- * Simple implementation of a static in-memory K-D-tree. Does not support
- * dynamic updates or anything, but also is very simple and memory efficient:
- * all it uses is one {@link ModifiableDoubleDBIDList} to sort the data in a
- * serialized tree and store the current attribute value.
+ * Simple implementation of a static in-memory K-D-tree. It is very simple and
+ * memory efficient: all it uses is one {@link ModifiableDoubleDBIDList} to sort
+ * the data in a serialized tree and store the current attribute value.
+ * <p>
+ * Appended objects are indexed with the logarithmic method of Bentley and
+ * Saxe: each batch becomes a small additional tree, and trees of similar size
+ * are merged, so there are at most logarithmically many trees, and each object
+ * is rebuilt only a logarithmic number of times. Only a small, bounded buffer
+ * of single insertions is scanned linearly. Deleted objects are marked with
+ * tombstones, and the trees are rebuilt once there are too many.
  * <p>
  * It needs about 3 times as much memory as {@link MinimalisticMemoryKDTree} but
  * it is also considerably faster because it does not need to lookup this value
@@ -71,6 +96,8 @@ import elki.utilities.optionhandling.parameters.IntParameter;
  *
  * @has - - - KDTreeKNNSearcher
  * @has - - - KDTreeRangeSearcher
+ * @has - - - KDTreeAllKNNSearcher
+ * @has - - - KDTreeAllRangeSearcher
  *
  * @param <O> Vector type
  */
@@ -79,12 +106,22 @@ import elki.utilities.optionhandling.parameters.IntParameter;
     booktitle = "Communications of the ACM 18(9)", //
     url = "https://doi.org/10.1145/361002.361007", //
     bibkey = "DBLP:journals/cacm/Bentley75")
-public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriorityIndex<O> {
+public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriorityIndex<O>, SnapshotIndex, DynamicIndex {
   /**
    * Class logger
    */
   private static final Logging LOG = Logging.getLogger(SmallMemoryKDTree.class);
 
+  /**
+   * Minimum size of subtrees and query blocks to process as separate tasks.
+   */
+  private static final int MIN_TASK_SIZE = 256;
+
+  /**
+   * Maximum number of buffered insertions, before they are indexed as a tree.
+   */
+  private static final int MAX_PENDING = 64;
+
   /**
    * The representation we are bound to.
    */
@@ -95,6 +132,21 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
    */
   protected ModifiableDoubleDBIDList sorted = null;
 
+  /**
+   * Additional trees of appended objects, by decreasing size.
+   */
+  protected final List<ModifiableDoubleDBIDList> appended = new ArrayList<>();
+
+  /**
+   * Objects inserted, but not yet in any tree.
+   */
+  protected final ArrayModifiableDBIDs pending = DBIDUtil.newArray();
+
+  /**
+   * Deleted objects still contained in the trees (tombstones).
+   */
+  protected final HashSetModifiableDBIDs deleted = DBIDUtil.newHashSet();
+
   /**
    * The number of dimensions.
    */
@@ -127,8 +179,8 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     assert (leafsize >= 1);
     if(LOG.isStatistics()) {
       String prefix = this.getClass().getName();
-      this.objaccess = LOG.newCounter(prefix + ".objaccess");
-      this.distcalc = LOG.newCounter(prefix + ".distancecalcs");
+      this.objaccess = new AtomicLongCounter(prefix + ".objaccess");
+      this.distcalc = new AtomicLongCounter(prefix + ".distancecalcs");
     }
     else {
       this.objaccess = null;
@@ -138,12 +190,167 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
 
   @Override
   public void initialize() {
-    sorted = DBIDUtil.newDistanceDBIDList(relation.size());
+    // Reuse the list on rebuilds, so that existing iterators remain valid.
+    if(sorted == null) {
+      sorted = DBIDUtil.newDistanceDBIDList(relation.size());
+    }
+    sorted.clear();
+    appended.clear();
+    pending.clear();
+    deleted.clear();
     dims = RelationUtil.dimensionality(relation);
     for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
       sorted.add(Double.NaN, it);
     }
-    buildTree(0, sorted.size(), 0, sorted.iter());
+    build(sorted);
+  }
+
+  /**
+   * Build a tree, in parallel for large trees.
+   *
+   * @param tree Tree to build
+   */
+  private void build(ModifiableDoubleDBIDList tree) {
+    if(tree.isEmpty()) {
+      return;
+    }
+    final int taskSize = parallelTaskSize(tree.size());
+    if(taskSize == 0) {
+      buildTree(tree, 0, tree.size(), 0, tree.iter(), null, 0);
+      return;
+    }
+    List<Callable<Void>> tasks = new ArrayList<>();
+    buildTree(tree, 0, tree.size(), 0, tree.iter(), tasks, taskSize);
+    ParallelExecutor.runTasks(tasks);
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(sorted == null) {
+      initialize();
+      return;
+    }
+    pending.add(id);
+    if(pending.size() >= MAX_PENDING) {
+      indexPending();
+    }
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    if(sorted == null) {
+      initialize();
+      return;
+    }
+    pending.addDBIDs(ids);
+    if(pending.size() >= MAX_PENDING) {
+      indexPending();
+    }
+  }
+
+  /**
+   * Index the buffered insertions as a new tree, merging it with all trees
+   * that are not larger (logarithmic method). If it becomes as large as the
+   * main tree, everything is rebuilt.
+   */
+  private void indexPending() {
+    ModifiableDoubleDBIDList tree = DBIDUtil.newDistanceDBIDList(pending.size());
+    for(DBIDIter it = pending.iter(); it.valid(); it.advance()) {
+      tree.add(Double.NaN, it);
+    }
+    pending.clear();
+    while(!appended.isEmpty() && appended.get(appended.size() - 1).size() <= tree.size()) {
+      for(DoubleDBIDListIter it = appended.remove(appended.size() - 1).iter(); it.valid(); it.advance()) {
+        // Drop deleted objects, and their tombstones.
+        if(deleted.isEmpty() || !deleted.remove(it)) {
+          tree.add(Double.NaN, it);
+        }
+      }
+    }
+    if(tree.size() >= sorted.size()) {
+      initialize();
+      return;
+    }
+    if(!tree.isEmpty()) {
+      build(tree);
+      appended.add(tree);
+    }
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    for(DBIDArrayMIter it = pending.iter(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, id)) {
+        it.remove();
+        return true;
+      }
+    }
+    // The object is in a tree, but already removed from the relation.
+    deleted.add(id);
+    rebuildIfNeeded();
+    return true;
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    final SetDBIDs del = DBIDUtil.ensureSet(ids);
+    final HashSetModifiableDBIDs intree = DBIDUtil.newHashSet(del);
+    for(DBIDArrayMIter it = pending.iter(); it.valid(); it.advance()) {
+      if(del.contains(it)) {
+        it.remove();
+        intree.remove(it);
+      }
+    }
+    deleted.addDBIDs(intree);
+    rebuildIfNeeded();
+  }
+
+  /**
+   * Rebuild the trees once the number of tombstones becomes too large.
+   */
+  private void rebuildIfNeeded() {
+    if(deleted.size() > Math.max(MAX_PENDING, relation.size() >>> 3)) {
+      initialize();
+    }
+  }
+
+  /**
+   * Test whether an object was deleted, but is still in a tree.
+   *
+   * @param id Object
+   * @return {@code true} if deleted
+   */
+  private boolean isDeleted(DBIDRef id) {
+    return !deleted.isEmpty() && deleted.contains(id);
+  }
+
+  /**
+   * All trees, starting with the main tree.
+   *
+   * @return Trees
+   */
+  private List<ModifiableDoubleDBIDList> trees() {
+    if(appended.isEmpty()) {
+      return Collections.singletonList(sorted);
+    }
+    List<ModifiableDoubleDBIDList> trees = new ArrayList<>(appended.size() + 1);
+    trees.add(sorted);
+    trees.addAll(appended);
+    return trees;
+  }
+
+  /**
+   * Choose the size of subtrees to process as separate parallel tasks.
+   *
+   * @param size Data set size
+   * @return Task size, 0 to process sequentially
+   */
+  protected static int parallelTaskSize(int size) {
+    if(ParallelCore.isWorkerThread()) {
+      return 0; // Nested call, run sequentially.
+    }
+    final int taskSize = Math.max(MIN_TASK_SIZE, size / (ParallelCore.getCore().getParallelism() << 4));
+    return size > taskSize ? taskSize : 0;
   }
 
   /**
@@ -151,13 +358,23 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
    * Apparently there exists a variant in only O(n log log n)? Please
    * contribute!
    *
+   * @param tree Tree to build
    * @param left Interval minimum
    * @param right Interval maximum
    * @param axis Current splitting axis
    * @param iter Iterator
+   * @param tasks Output list of deferred subtrees, may be {@code null}
+   * @param taskSize Size of subtrees to defer to separate tasks
    */
-  private void buildTree(int left, int right, int axis, DoubleDBIDListMIter iter) {
+  private void buildTree(ModifiableDoubleDBIDList tree, int left, int right, int axis, DoubleDBIDListMIter iter, List<Callable<Void>> tasks, int taskSize) {
     assert (left < right);
+    if(tasks != null && right - left <= taskSize) {
+      tasks.add(() -> {
+        buildTree(tree, left, right, axis, tree.iter(), null, 0);
+        return null;
+      });
+      return;
+    }
     for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
       iter.setDouble(relation.get(iter).doubleValue(axis));
       countObjectAccess();
@@ -167,14 +384,14 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     }
 
     int middle = (left + right) >>> 1;
-    QuickSelectDBIDs.quickSelect(sorted, left, right, middle);
+    QuickSelectDBIDs.quickSelect(tree, left, right, middle);
     final int next = next(axis);
     if(left < middle) {
-      buildTree(left, middle, next, iter);
+      buildTree(tree, left, middle, next, iter, tasks, taskSize);
     }
     ++middle;
     if(middle < right) {
-      buildTree(middle, right, next, iter);
+      buildTree(tree, middle, right, next, iter, tasks, taskSize);
     }
   }
 
@@ -188,6 +405,29 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     return ++axis == dims ? 0 : axis;
   }
 
+  @Override
+  public void writeSnapshot(DataOutput out) throws IOException {
+    if(!pending.isEmpty() || !appended.isEmpty() || !deleted.isEmpty()) {
+      initialize();
+    }
+    out.writeInt(leafsize);
+    out.writeInt(dims);
+    IndexSnapshots.writeDoubleDBIDList(out, sorted);
+  }
+
+  @Override
+  public boolean loadSnapshot(ByteBuffer in) {
+    if(in.getInt() != leafsize || in.getInt() != RelationUtil.dimensionality(relation)) {
+      return false;
+    }
+    dims = RelationUtil.dimensionality(relation);
+    sorted = IndexSnapshots.readDoubleDBIDList(in);
+    appended.clear();
+    pending.clear();
+    deleted.clear();
+    return true;
+  }
+
   @Override
   public void logStatistics() {
     if(objaccess != null) {
@@ -249,6 +489,64 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     return null;
   }
 
+  @Override
+  public KNNSearcher<DBIDRef> kNNByDBID(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    KNNSearcher<O> searcher = kNNByObject(distanceQuery, maxk, flags);
+    return searcher == null ? null : distanceQuery.getRelation() == relation ? //
+        new KDTreeAllKNNSearcher((KDTreeKNNSearcher) searcher) : //
+        WrappedKNNDBIDByLookup.wrap(distanceQuery.getRelation(), searcher);
+  }
+
+  @Override
+  public RangeSearcher<DBIDRef> rangeByDBID(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    RangeSearcher<O> searcher = rangeByObject(distanceQuery, maxrange, flags);
+    return searcher == null ? null : distanceQuery.getRelation() == relation ? //
+        new KDTreeAllRangeSearcher((KDTreeRangeSearcher) searcher) : //
+        WrappedRangeDBIDByLookup.wrap(distanceQuery.getRelation(), searcher);
+  }
+
+  /**
+   * Process all objects in the order of the k-d-tree, such that consecutive
+   * queries are close to each other, which improves the memory locality of the
+   * searches. Blocks of the sorted array are processed in parallel.
+   *
+   * @param tree Tree to process
+   * @param processor Processor for a block of the sorted array
+   */
+  private static void processAll(ModifiableDoubleDBIDList tree, BlockProcessor processor) {
+    final int size = tree.size(), taskSize = parallelTaskSize(size);
+    if(taskSize == 0) {
+      processor.process(0, size, tree.iter());
+      return;
+    }
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for(int start = 0; start < size; start += taskSize) {
+      final int begin = start, end = Math.min(start + taskSize, size);
+      tasks.add(() -> {
+        processor.process(begin, end, tree.iter());
+        return null;
+      });
+    }
+    ParallelExecutor.runTasks(tasks);
+  }
+
+  /**
+   * Processor for a block of the sorted array.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  private interface BlockProcessor {
+    /**
+     * Process a block of the sorted array.
+     *
+     * @param begin Block begin
+     * @param end Block end (exclusive)
+     * @param iter Iterator
+     */
+    void process(int begin, int end, DoubleDBIDListIter iter);
+  }
+
   /**
    * kNN query for the k-d-tree.
    *
@@ -273,10 +571,35 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     @Override
     public KNNList getKNN(O obj, int k) {
       final KNNHeap knns = DBIDUtil.newHeap(k);
-      kdKNNSearch(0, sorted.size(), 0, obj, knns, sorted.iter(), Double.POSITIVE_INFINITY);
+      search(obj, knns, sorted.iter());
       return knns.toKNNList();
     }
 
+    /**
+     * Search the tree and the buffered insertions.
+     *
+     * @param query Query object
+     * @param knns kNN heap
+     * @param iter Iterator variable
+     */
+    private void search(O query, KNNHeap knns, DoubleDBIDListIter iter) {
+      double maxdist = Double.POSITIVE_INFINITY;
+      if(!sorted.isEmpty()) {
+        maxdist = kdKNNSearch(0, sorted.size(), 0, query, knns, iter, maxdist);
+      }
+      for(ModifiableDoubleDBIDList tree : appended) {
+        maxdist = kdKNNSearch(0, tree.size(), 0, query, knns, tree.iter(), maxdist);
+      }
+      for(DBIDIter it = pending.iter(); it.valid(); it.advance()) {
+        double dist = distance.distance(query, relation.get(it));
+        countObjectAccess();
+        countDistanceComputation();
+        if(dist <= maxdist) {
+          maxdist = knns.insert(dist, it);
+        }
+      }
+    }
+
     /**
      * Perform a kNN search on the k-d-tree.
      *
@@ -292,6 +615,9 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     private double kdKNNSearch(int left, int right, int axis, O query, KNNHeap knns, DoubleDBIDListIter iter, double maxdist) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+          if(isDeleted(iter)) {
+            continue;
+          }
           double dist = distance.distance(query, relation.get(iter));
           countObjectAccess();
           countDistanceComputation();
@@ -307,9 +633,10 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
 
       // Distance to axis:
       final double delta = iter.seek(middle).doubleValue() - query.doubleValue(axis);
-      assert (iter.doubleValue() == relation.get(iter).doubleValue(axis)) : "Tree inconsistent " + left + " < " + middle + " < " + right + ": " + iter.doubleValue() + " != " + relation.get(iter).doubleValue(axis) + " " + relation.get(iter);
+      assert (isDeleted(iter) || iter.doubleValue() == relation.get(iter).doubleValue(axis)) : "Tree inconsistent " + left + " < " + middle + " < " + right + ": " + iter.doubleValue() + " != " + relation.get(iter).doubleValue(axis) + " " + relation.get(iter);
       final boolean onleft = (delta >= 0);
       final boolean onright = (delta <= 0);
+      final boolean splitDeleted = isDeleted(iter);
 
       // Next axis:
       final int next = next(axis);
@@ -317,14 +644,16 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
       // Exact match chance (delta == 0)!
       // process first, then descend both sides.
       if(onleft && onright) {
-        O split = relation.get(iter.seek(middle));
-        countObjectAccess();
-        double dist = distance.distance(query, split);
-        countDistanceComputation();
-        if(dist <= maxdist) {
-          assert (iter.getOffset() == middle);
-          knns.insert(dist, iter /* .seek(middle) */);
-          maxdist = knns.getKNNDistance();
+        if(!splitDeleted) {
+          O split = relation.get(iter.seek(middle));
+          countObjectAccess();
+          double dist = distance.distance(query, split);
+          countDistanceComputation();
+          if(dist <= maxdist) {
+            assert (iter.getOffset() == middle);
+            knns.insert(dist, iter /* .seek(middle) */);
+            maxdist = knns.getKNNDistance();
+          }
         }
         if(left < middle) {
           maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
@@ -340,7 +669,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
             maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(mindist <= maxdist) {
+          if(mindist <= maxdist && !splitDeleted) {
             O split = relation.get(iter.seek(middle));
             countObjectAccess();
             double dist = distance.distance(query, split);
@@ -359,7 +688,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
             maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(mindist <= maxdist) {
+          if(mindist <= maxdist && !splitDeleted) {
             O split = relation.get(iter.seek(middle));
             countObjectAccess();
             double dist = distance.distance(query, split);
@@ -401,10 +730,35 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
 
     @Override
     public ModifiableDoubleDBIDList getRange(O obj, double range, ModifiableDoubleDBIDList result) {
-      kdRangeSearch(0, sorted.size(), 0, obj, result, sorted.iter(), range);
+      search(obj, result, sorted.iter(), range);
       return result;
     }
 
+    /**
+     * Search the tree and the buffered insertions.
+     *
+     * @param query Query object
+     * @param res Result list
+     * @param iter Iterator variable
+     * @param radius Query radius
+     */
+    private void search(O query, ModifiableDoubleDBIDList res, DoubleDBIDListIter iter, double radius) {
+      if(!sorted.isEmpty()) {
+        kdRangeSearch(0, sorted.size(), 0, query, res, iter, radius);
+      }
+      for(ModifiableDoubleDBIDList tree : appended) {
+        kdRangeSearch(0, tree.size(), 0, query, res, tree.iter(), radius);
+      }
+      for(DBIDIter it = pending.iter(); it.valid(); it.advance()) {
+        double dist = distance.distance(query, relation.get(it));
+        countObjectAccess();
+        countDistanceComputation();
+        if(dist <= radius) {
+          res.add(dist, it);
+        }
+      }
+    }
+
     /**
      * Perform a range search on the k-d-tree.
      *
@@ -419,6 +773,9 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     private void kdRangeSearch(int left, int right, int axis, O query, ModifiableDoubleDBIDList res, DoubleDBIDListIter iter, double radius) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+          if(isDeleted(iter)) {
+            continue;
+          }
           double dist = distance.distance(query, relation.get(iter));
           countObjectAccess();
           countDistanceComputation();
@@ -441,7 +798,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
       final int next = next(axis);
 
       // Current object:
-      if(close) {
+      if(close && !isDeleted(iter)) {
         O split = relation.get(iter.seek(middle));
         countObjectAccess();
         double dist = distance.distance(query, split);
@@ -460,6 +817,118 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     }
   }
 
+  /**
+   * kNN query by DBID for the k-d-tree, which can also compute the kNN of all
+   * objects, processed in the order of the tree.
+   *
+   * @author Erich Schubert
+   */
+  public class KDTreeAllKNNSearcher implements AllKNNSearcher {
+    /**
+     * Searcher for single objects.
+     */
+    private KDTreeKNNSearcher searcher;
+
+    /**
+     * Constructor.
+     *
+     * @param searcher Searcher for single objects
+     */
+    public KDTreeAllKNNSearcher(KDTreeKNNSearcher searcher) {
+      super();
+      this.searcher = searcher;
+    }
+
+    @Override
+    public KNNList getKNN(DBIDRef id, int k) {
+      return searcher.getKNN(relation.get(id), k);
+    }
+
+    @Override
+    public void getAllKNN(int k, WritableDataStore<? super KNNList> result) {
+      for(ModifiableDoubleDBIDList tree : trees()) {
+        // Collect by offset first, data stores need not be thread-safe.
+        final KNNList[] knns = new KNNList[tree.size()];
+        processAll(tree, (begin, end, iter) -> {
+          DoubleDBIDListIter search = sorted.iter();
+          for(iter.seek(begin); iter.getOffset() < end; iter.advance()) {
+            if(isDeleted(iter)) {
+              continue;
+            }
+            final KNNHeap heap = DBIDUtil.newHeap(k);
+            searcher.search(relation.get(iter), heap, search);
+            countObjectAccess();
+            knns[iter.getOffset()] = heap.toKNNList();
+          }
+        });
+        for(DoubleDBIDListIter it = tree.iter(); it.valid(); it.advance()) {
+          if(knns[it.getOffset()] != null) {
+            result.put(it, knns[it.getOffset()]);
+          }
+        }
+      }
+      for(DBIDIter it = pending.iter(); it.valid(); it.advance()) {
+        result.put(it, getKNN(it, k));
+      }
+    }
+  }
+
+  /**
+   * Range query by DBID for the k-d-tree, which can also compute the range
+   * queries of all objects, processed in the order of the tree.
+   *
+   * @author Erich Schubert
+   */
+  public class KDTreeAllRangeSearcher implements AllRangeSearcher {
+    /**
+     * Searcher for single objects.
+     */
+    private KDTreeRangeSearcher searcher;
+
+    /**
+     * Constructor.
+     *
+     * @param searcher Searcher for single objects
+     */
+    public KDTreeAllRangeSearcher(KDTreeRangeSearcher searcher) {
+      super();
+      this.searcher = searcher;
+    }
+
+    @Override
+    public ModifiableDoubleDBIDList getRange(DBIDRef id, double range, ModifiableDoubleDBIDList result) {
+      return searcher.getRange(relation.get(id), range, result);
+    }
+
+    @Override
+    public void getAllRange(double range, WritableDataStore<? super DoubleDBIDList> result) {
+      for(ModifiableDoubleDBIDList tree : trees()) {
+        // Collect by offset first, data stores need not be thread-safe.
+        final DoubleDBIDList[] ranges = new DoubleDBIDList[tree.size()];
+        processAll(tree, (begin, end, iter) -> {
+          DoubleDBIDListIter search = sorted.iter();
+          for(iter.seek(begin); iter.getOffset() < end; iter.advance()) {
+            if(isDeleted(iter)) {
+              continue;
+            }
+            final ModifiableDoubleDBIDList res = DBIDUtil.newDistanceDBIDList();
+            searcher.search(relation.get(iter), res, search, range);
+            countObjectAccess();
+            ranges[iter.getOffset()] = res.sort();
+          }
+        });
+        for(DoubleDBIDListIter it = tree.iter(); it.valid(); it.advance()) {
+          if(ranges[it.getOffset()] != null) {
+            result.put(it, ranges[it.getOffset()]);
+          }
+        }
+      }
+      for(DBIDIter it = pending.iter(); it.valid(); it.advance()) {
+        result.put(it, getRange(it, range, DBIDUtil.newDistanceDBIDList()).sort());
+      }
+    }
+  }
+
   /**
    * Search position for priority search.
    *
@@ -486,6 +955,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     int axis;
 
+    /**
+     * Tree number, 0 is the main tree.
+     */
+    int tree;
+
     /**
      * Constructor.
      *
@@ -493,12 +967,14 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      * @param left Interval begin
      * @param right Interval end (exclusive)
      * @param axis Next axis
+     * @param tree Tree number
      */
-    public PrioritySearchBranch(double mindist, int left, int right, int axis) {
+    public PrioritySearchBranch(double mindist, int left, int right, int axis, int tree) {
       this.mindist = mindist;
       this.left = left;
       this.right = right;
       this.axis = axis;
+      this.tree = tree;
     }
 
     @Override
@@ -524,9 +1000,9 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     private ComparableMinHeap<PrioritySearchBranch> heap = new ComparableMinHeap<>();
 
     /**
-     * Search iterator.
+     * Search iterators, one for each tree.
      */
-    private DoubleDBIDListIter iter = sorted.iter();
+    private DoubleDBIDListIter[] iters = new DoubleDBIDListIter[0];
 
     /**
      * Current query object.
@@ -543,6 +1019,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     private int pos;
 
+    /**
+     * Iterator over the buffered insertions, which are returned first.
+     */
+    private DBIDArrayIter piter;
+
     /**
      * Current search position.
      */
@@ -563,81 +1044,119 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
       this.query = query;
       this.threshold = Double.POSITIVE_INFINITY;
       this.pos = Integer.MIN_VALUE;
+      this.cur = null;
       this.heap.clear();
-      this.heap.add(new PrioritySearchBranch(0, 0, sorted.size(), 0));
-      return advance();
+      List<ModifiableDoubleDBIDList> trees = trees();
+      if(iters.length != trees.size()) {
+        iters = new DoubleDBIDListIter[trees.size()];
+      }
+      for(int i = 0; i < iters.length; i++) {
+        ModifiableDoubleDBIDList tree = trees.get(i);
+        iters[i] = tree.iter();
+        if(!tree.isEmpty()) {
+          this.heap.add(new PrioritySearchBranch(0, 0, tree.size(), 0, i));
+        }
+      }
+      // Buffered insertions have no lower bound, so they come first.
+      this.piter = pending.isEmpty() ? null : pending.iter();
+      return piter != null ? this : skipDeleted();
     }
 
     @Override
     public PrioritySearcher<O> advance() {
+      if(piter != null) {
+        if(piter.advance().valid()) {
+          return this;
+        }
+        piter = null;
+      }
+      return skipDeleted();
+    }
+
+    /**
+     * Advance in the trees, skipping deleted objects.
+     *
+     * @return this
+     */
+    private PrioritySearcher<O> skipDeleted() {
+      advanceTree();
+      while(pos >= 0 && isDeleted(iters[cur.tree].seek(pos))) {
+        advanceTree();
+      }
+      return this;
+    }
+
+    /**
+     * Advance to the next object in the trees.
+     */
+    private void advanceTree() {
       // Iteration within current leaf:
       if(cur != null && cur.right - cur.left <= leafsize) {
         assert pos >= cur.left;
         if(++pos < cur.right) {
-          return this;
+          return;
         }
         assert pos == cur.right;
       }
       if(heap.isEmpty()) {
         cur = null;
         pos = Integer.MIN_VALUE;
-        return this;
+        return;
       }
       // Get next
       cur = heap.poll();
       if(cur.mindist > threshold) {
         cur = null;
         pos = Integer.MIN_VALUE;
-        return this;
+        return;
       }
       // Leaf:
       if(cur.right - cur.left <= leafsize) {
         pos = cur.left;
-        return this;
+        return;
       }
       pos = (cur.left + cur.right) >>> 1; // middle element
       // Distance to axis:
-      final double delta = iter.seek(pos).doubleValue() - query.doubleValue(cur.axis);
+      final double delta = iters[cur.tree].seek(pos).doubleValue() - query.doubleValue(cur.axis);
       final double mindist = distance instanceof SquaredEuclideanDistance ? delta * delta : Math.abs(delta);
 
       // Next axis:
       final int next = next(cur.axis);
       final double ldist = delta < 0 ? Math.max(mindist, cur.mindist) : cur.mindist;
       if(cur.left < pos && ldist <= threshold) {
-        heap.add(new PrioritySearchBranch(ldist, cur.left, pos, next));
+        heap.add(new PrioritySearchBranch(ldist, cur.left, pos, next, cur.tree));
       }
       final double rdist = delta > 0 ? Math.max(mindist, cur.mindist) : cur.mindist;
       if(pos + 1 < cur.right && rdist <= threshold) {
-        heap.add(new PrioritySearchBranch(rdist, pos + 1, cur.right, next));
+        heap.add(new PrioritySearchBranch(rdist, pos + 1, cur.right, next, cur.tree));
       }
-      return this;
     }
 
     @Override
     public boolean valid() {
-      return pos >= 0;
+      return piter != null || pos >= 0;
     }
 
     @Override
     public double getLowerBound() {
-      return cur.mindist;
+      return piter != null ? 0. : cur.mindist;
     }
 
     @Override
     public double allLowerBound() {
-      return cur.mindist;
+      return piter != null ? 0. : cur.mindist;
     }
 
     @Override
     public double computeExactDistance() {
       countDistanceComputation();
       countObjectAccess();
-      return distance.distance(query, relation.get(iter.seek(pos)));
+      return distance.distance(query, relation.get(piter != null ? piter : iters[cur.tree].seek(pos)));
     }
 
     @Override
     public int internalGetIndex() {
-      return iter.seek(pos).internalGetIndex();
+      return piter != null ? piter.internalGetIndex() : iters[cur.tree].seek(pos).internalGetIndex();
     }
 
     @Override
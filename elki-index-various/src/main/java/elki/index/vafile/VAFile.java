@@ -22,7 +22,9 @@ package elki.index.vafile;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import elki.data.NumberVector;
 import elki.data.type.TypeInformation;
@@ -41,13 +43,17 @@ import elki.index.KNNIndex;
 import elki.index.RangeIndex;
 import elki.logging.Logging;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.persistent.AbstractPageFileFactory;
+import elki.utilities.datastructures.heap.DoubleHeap;
 import elki.utilities.datastructures.heap.DoubleMaxHeap;
 import elki.utilities.documentation.Reference;
 import elki.utilities.documentation.Title;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.constraints.LessEqualConstraint;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.IntParameter;
 
@@ -62,7 +68,11 @@ import net.jafama.FastMath;
  * An approximation based data structure for similarity search<br>
  * Report TR1997b, ETH Zentrum, Zurich, Switzerland
  * <p>
- * TODO: this needs to be optimized &amp; more low-level.
+ * The approximations are stored column-wise, with one byte per dimension and
+ * object. Queries compute a lookup table of the per-cell bounds, and then
+ * accumulate the bounds of blocks of objects one dimension at a time, so that
+ * the inner loops read memory sequentially. Large files are scanned by
+ * multiple threads.
  * 
  * @author Thomas Bernecker
  * @author Erich Schubert
@@ -90,9 +100,29 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
   private static final Logging LOG = Logging.getLogger(VAFile.class);
 
   /**
-   * Approximation index.
+   * Maximum number of partitions, for byte-packed approximations.
    */
-  private List<VectorApproximation> vectorApprox;
+  public static final int MAX_PARTITIONS = 256;
+
+  /**
+   * Number of objects whose bounds are computed together.
+   */
+  private static final int BLOCK_SIZE = 1024;
+
+  /**
+   * Minimum number of objects to scan in a parallel task.
+   */
+  private static final int MIN_TASK_SIZE = 16 * BLOCK_SIZE;
+
+  /**
+   * Object ids, in the order of the approximations.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Approximations, by dimension and object.
+   */
+  private byte[][] codes;
 
   /**
    * Number of partitions.
@@ -126,14 +156,22 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
     this.partitions = partitions;
     this.pageSize = pageSize;
     this.scans = 0;
-    this.vectorApprox = new ArrayList<>();
   }
 
   @Override
   public void initialize() {
+    if(partitions > MAX_PARTITIONS) {
+      throw new IllegalArgumentException("At most " + MAX_PARTITIONS + " partitions are supported.");
+    }
     setPartitions(relation);
-    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
-      vectorApprox.add(calculateApproximation(iter, relation.get(iter)));
+    ids = DBIDUtil.newArray(relation.getDBIDs());
+    codes = new byte[splitPositions.length][ids.size()];
+    int i = 0;
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance(), i++) {
+      final V dv = relation.get(iter);
+      for(int d = 0; d < codes.length; d++) {
+        codes[d][i] = (byte) getCell(d, dv.doubleValue(d), true);
+      }
     }
   }
 
@@ -180,31 +218,41 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
   public VectorApproximation calculateApproximation(DBIDRef id, V dv) {
     int[] approximation = new int[dv.getDimensionality()];
     for(int d = 0; d < splitPositions.length; d++) {
-      final double val = dv.doubleValue(d);
-      final int lastBorderIndex = splitPositions[d].length - 1;
-
-      // Value is below data grid
-      if(val < splitPositions[d][0]) {
-        approximation[d] = 0;
-        if(id != null) {
-          LOG.warning("Vector outside of VAFile grid!");
-        }
-      } // Value is above data grid
-      else if(val > splitPositions[d][lastBorderIndex]) {
-        approximation[d] = lastBorderIndex - 1;
-        if(id != null) {
-          LOG.warning("Vector outside of VAFile grid!");
-        }
-      } // normal case
-      else {
-        // Search grid position
-        int pos = Arrays.binarySearch(splitPositions[d], val);
-        approximation[d] = (pos >= 0) ? pos : ((-pos) - 2);
-      }
+      approximation[d] = getCell(d, dv.doubleValue(d), id != null);
     }
     return new VectorApproximation(id, approximation);
   }
 
+  /**
+   * Find the grid cell of a value.
+   * 
+   * @param d Dimension
+   * @param val Value
+   * @param warn Warn if the value is outside of the grid
+   * @return Cell number
+   */
+  private int getCell(int d, double val, boolean warn) {
+    final double[] split = splitPositions[d];
+    final int lastBorderIndex = split.length - 1;
+    // Value is below data grid
+    if(val < split[0]) {
+      if(warn) {
+        LOG.warning("Vector outside of VAFile grid!");
+      }
+      return 0;
+    }
+    // Value is above data grid
+    if(val > split[lastBorderIndex]) {
+      if(warn) {
+        LOG.warning("Vector outside of VAFile grid!");
+      }
+      return lastBorderIndex - 1;
+    }
+    // Search grid position
+    int pos = Arrays.binarySearch(split, val);
+    return (pos >= 0) ? pos : ((-pos) - 2);
+  }
+
   /**
    * Get the number of scanned bytes.
    * 
@@ -212,7 +260,7 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
    */
   public long getScannedPages() {
     int vacapacity = pageSize / VectorApproximation.byteOnDisk(splitPositions.length, partitions);
-    long vasize = (long) Math.ceil((vectorApprox.size()) / (1.0 * vacapacity));
+    long vasize = (long) Math.ceil((ids.size()) / (1.0 * vacapacity));
     return vasize * scans;
   }
 
@@ -230,13 +278,75 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
   @Override
   public KNNSearcher<V> kNNByObject(DistanceQuery<V> distanceQuery, int maxk, int flags) {
     Distance<? super V> df = distanceQuery.getDistance();
-    return df instanceof LPNormDistance ? new VAFileKNNQuery(distanceQuery, ((LPNormDistance) df).getP()) : null;
+    // The bounds are sums of powers, which does not work for the maximum norm.
+    return df instanceof LPNormDistance && ((LPNormDistance) df).getP() < Double.POSITIVE_INFINITY ? //
+        new VAFileKNNQuery(distanceQuery, ((LPNormDistance) df).getP()) : null;
   }
 
   @Override
   public RangeSearcher<V> rangeByObject(DistanceQuery<V> distanceQuery, double maxradius, int flags) {
     Distance<? super V> df = distanceQuery.getDistance();
-    return df instanceof LPNormDistance ? new VAFileRangeQuery(distanceQuery, ((LPNormDistance) df).getP()) : null;
+    return df instanceof LPNormDistance && ((LPNormDistance) df).getP() < Double.POSITIVE_INFINITY ? //
+        new VAFileRangeQuery(distanceQuery, ((LPNormDistance) df).getP()) : null;
+  }
+
+  /**
+   * Accumulate the bounds of a block of objects, one dimension at a time.
+   * 
+   * @param table Lookup table, indexed by dimension * partitions + cell
+   * @param begin First object
+   * @param end End object (exclusive)
+   * @param bounds Output array, in the p-th power of the distance
+   */
+  private void computeBounds(double[] table, int begin, int end, double[] bounds) {
+    final int len = end - begin;
+    Arrays.fill(bounds, 0, len, 0.);
+    for(int d = 0, off = 0; d < codes.length; d++, off += partitions) {
+      final byte[] col = codes[d];
+      for(int j = 0; j < len; j++) {
+        bounds[j] += table[off + (col[begin + j] & 0xFF)];
+      }
+    }
+  }
+
+  /**
+   * Scan the approximations, using multiple threads for large files.
+   * 
+   * @param scan Scan of a range of objects
+   * @return Results of the scans, in order
+   */
+  private <T> List<T> scan(RangeScan<T> scan) {
+    final int size = ids.size();
+    final int taskSize = ParallelCore.isWorkerThread() ? size : //
+        Math.max(MIN_TASK_SIZE, size / (ParallelCore.getCore().getParallelism() << 2));
+    if(size <= taskSize) {
+      return Collections.singletonList(scan.scan(0, size));
+    }
+    List<Callable<T>> tasks = new ArrayList<>();
+    for(int start = 0; start < size; start += taskSize) {
+      final int begin = start, end = Math.min(start + taskSize, size);
+      tasks.add(() -> scan.scan(begin, end));
+    }
+    return ParallelExecutor.runTasks(tasks);
+  }
+
+  /**
+   * Scan of a range of the approximations.
+   * 
+   * @author Erich Schubert
+   *
+   * @param <T> Result type
+   */
+  @FunctionalInterface
+  private interface RangeScan<T> {
+    /**
+     * Scan a range of the approximations.
+     * 
+     * @param begin First object
+     * @param end End object (exclusive)
+     * @return Scan result
+     */
+    T scan(int begin, int end);
   }
 
   /**
@@ -268,25 +378,39 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
       VectorApproximation queryApprox = calculateApproximation(null, query);
 
       // Approximative distance function
-      VALPNormDistance vadist = new VALPNormDistance(p, splitPositions, query, queryApprox);
+      final double[] mintable = new VALPNormDistance(p, splitPositions, query, queryApprox).getMinDistTable();
+      // Allow for rounding errors, the candidates are refined anyway.
+      final double epsp = FastMath.pow(eps, p) * (1 + 1e-12);
 
       // Count a VA file scan
       scans += 1;
 
       // Approximation step
-      for(int i = 0; i < vectorApprox.size(); i++) {
-        VectorApproximation va = vectorApprox.get(i);
-        if(vadist.getMinDist(va) > eps) {
-          continue;
+      List<ModifiableDBIDs> candidates = scan((begin, end) -> {
+        ModifiableDBIDs cands = DBIDUtil.newArray();
+        DBIDArrayIter it = ids.iter();
+        double[] minDists = new double[BLOCK_SIZE];
+        for(int start = begin; start < end; start += BLOCK_SIZE) {
+          final int stop = Math.min(start + BLOCK_SIZE, end);
+          computeBounds(mintable, start, stop, minDists);
+          for(int i = start; i < stop; i++) {
+            if(minDists[i - start] <= epsp) {
+              cands.add(it.seek(i));
+            }
+          }
         }
-
-        // TODO: we don't need to refine always (maxDist < eps), if we are
-        // interested in the DBID only! But this needs an API change.
-
-        // refine the next element
-        final double dist = refine(va, query);
-        if(dist <= eps) {
-          result.add(dist, va);
+        return cands;
+      });
+
+      // TODO: we don't need to refine always (maxDist < eps), if we are
+      // interested in the DBID only! But this needs an API change.
+      for(ModifiableDBIDs cands : candidates) {
+        for(DBIDIter iter = cands.iter(); iter.valid(); iter.advance()) {
+          // refine the next element
+          final double dist = refine(iter, query);
+          if(dist <= eps) {
+            result.add(dist, iter);
+          }
         }
       }
       return result;
@@ -322,29 +446,53 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
 
       // Approximative distance function
       VALPNormDistance vadist = new VALPNormDistance(p, splitPositions, query, queryApprox);
-
-      // Heap for the kth smallest maximum distance (yes, we need a max heap!)
-      DoubleMaxHeap minMaxHeap = new DoubleMaxHeap(k + 1);
-      double minMaxDist = Double.POSITIVE_INFINITY;
-      // Candidates with minDist <= kth maxDist
-      ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(vectorApprox.size());
+      final double[] mintable = vadist.getMinDistTable(), maxtable = vadist.getMaxDistTable();
 
       // Count a VA file scan
       scans += 1;
 
-      // Approximation step
-      for(int i = 0; i < vectorApprox.size(); i++) {
-        VectorApproximation va = vectorApprox.get(i);
-        double minDist = vadist.getMinDist(va);
-        // Skip excess candidate generation:
-        if(minDist > minMaxDist) {
-          continue;
+      // Approximation step, bounds are in the p-th power of the distance.
+      List<KNNCandidates> partial = scan((begin, end) -> {
+        KNNCandidates cands = new KNNCandidates(k);
+        DBIDArrayIter it = ids.iter();
+        double[] minDists = new double[BLOCK_SIZE], maxDists = new double[BLOCK_SIZE];
+        double minMaxDist = Double.POSITIVE_INFINITY;
+        for(int start = begin; start < end; start += BLOCK_SIZE) {
+          final int stop = Math.min(start + BLOCK_SIZE, end);
+          computeBounds(mintable, start, stop, minDists);
+          computeBounds(maxtable, start, stop, maxDists);
+          for(int i = start; i < stop; i++) {
+            final double minDist = minDists[i - start];
+            // Skip excess candidate generation:
+            if(minDist > minMaxDist) {
+              continue;
+            }
+            cands.candidates.add(minDist, it.seek(i));
+            // Update candidate pruning heap
+            cands.minMaxHeap.add(maxDists[i - start], k);
+            minMaxDist = cands.minMaxHeap.size() >= k ? cands.minMaxHeap.peek() : Double.POSITIVE_INFINITY;
+          }
         }
-        candidates.add(minDist, va);
+        return cands;
+      });
 
-        // Update candidate pruning heap
-        minMaxHeap.add(vadist.getMaxDist(va), k);
-        minMaxDist = minMaxHeap.size() >= k ? minMaxHeap.peek() : Double.POSITIVE_INFINITY;
+      // Heap for the kth smallest maximum distance (yes, we need a max heap!)
+      DoubleMaxHeap minMaxHeap = new DoubleMaxHeap(k + 1);
+      for(KNNCandidates cands : partial) {
+        for(DoubleHeap.UnsortedIter it = cands.minMaxHeap.unsortedIter(); it.valid(); it.advance()) {
+          minMaxHeap.add(it.get(), k);
+        }
+      }
+      final double minMaxDist = minMaxHeap.size() >= k ? minMaxHeap.peek() : Double.POSITIVE_INFINITY;
+      // Candidates with minDist <= kth maxDist
+      final double onebyp = 1. / p;
+      ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
+      for(KNNCandidates cands : partial) {
+        for(DoubleDBIDListIter it = cands.candidates.iter(); it.valid(); it.advance()) {
+          if(it.doubleValue() <= minMaxDist) {
+            candidates.add(FastMath.pow(it.doubleValue(), onebyp), it);
+          }
+        }
       }
       // sort candidates by lower bound (minDist)
       candidates.sort();
@@ -368,13 +516,39 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
       }
       if(LOG.isDebuggingFinest()) {
         LOG.finest("query = (" + query + ")");
-        LOG.finest("database: " + vectorApprox.size() + ", candidates: " + candidates.size() + ", results: " + result.size());
+        LOG.finest("database: " + ids.size() + ", candidates: " + candidates.size() + ", results: " + result.size());
       }
 
       return result.toKNNList();
     }
   }
 
+  /**
+   * Candidates of a partial kNN scan.
+   * 
+   * @author Erich Schubert
+   */
+  private static class KNNCandidates {
+    /**
+     * Candidates, with their minimum distance.
+     */
+    ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList();
+
+    /**
+     * Heap of the k smallest maximum distances.
+     */
+    DoubleMaxHeap minMaxHeap;
+
+    /**
+     * Constructor.
+     *
+     * @param k Number of neighbors
+     */
+    KNNCandidates(int k) {
+      minMaxHeap = new DoubleMaxHeap(k + 1);
+    }
+  }
+
   /**
    * Index factory class.
    * 
@@ -427,7 +601,7 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
       /**
        * Number of partitions to use in each dimension.
        */
-      public static final OptionID PARTITIONS_ID = new OptionID("vafile.partitions", "Number of partitions to use in each dimension.");
+      public static final OptionID PARTITIONS_ID = new OptionID("vafile.partitions", "Number of partitions to use in each dimension, at most 256.");
 
       /**
        * Page size.
@@ -446,6 +620,7 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
             .grab(config, x -> pagesize = x);
         new IntParameter(PARTITIONS_ID) //
             .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+            .addConstraint(new LessEqualConstraint(MAX_PARTITIONS)) //
             .grab(config, x -> numpart = x);
       }
 
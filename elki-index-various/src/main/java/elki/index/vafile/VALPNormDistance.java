@@ -132,6 +132,42 @@ public class VALPNormDistance {
     return FastMath.pow(maxDist, onebyp);
   }
 
+  /**
+   * Get a table of the minimum distance contributions, indexed by
+   * <code>dimension * partitions + cell</code>, for scanning packed
+   * approximations. The values are not yet raised to the power 1/p.
+   * 
+   * @return Lookup table
+   */
+  public double[] getMinDistTable() {
+    final int dim = lookup.length, partitions = lookup[0].length - 1;
+    double[] table = new double[dim * partitions];
+    for(int d = 0, off = 0; d < dim; d++, off += partitions) {
+      for(int c = 0; c < partitions; c++) {
+        table[off + c] = getPartialMinDist(d, c);
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Get a table of the maximum distance contributions, indexed by
+   * <code>dimension * partitions + cell</code>, for scanning packed
+   * approximations. The values are not yet raised to the power 1/p.
+   * 
+   * @return Lookup table
+   */
+  public double[] getMaxDistTable() {
+    final int dim = lookup.length, partitions = lookup[0].length - 1;
+    double[] table = new double[dim * partitions];
+    for(int d = 0, off = 0; d < dim; d++, off += partitions) {
+      for(int c = 0; c < partitions; c++) {
+        table[off + c] = getPartialMaxDist(d, c);
+      }
+    }
+    return table;
+  }
+
   /**
    * Get the maximum distance.
    * 
@@ -161,7 +197,7 @@ public class VALPNormDistance {
     for(int d = 0; d < dimensions; d++) {
       final double val = query.doubleValue(d);
       for(int i = 0; i < bordercount; i++) {
-        lookup[d][i] = FastMath.pow(splitPositions[d][i] - val, p);
+        lookup[d][i] = FastMath.pow(Math.abs(splitPositions[d][i] - val), p);
       }
     }
   }
@@ -0,0 +1,132 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.AbstractIndexStructureTest;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the {@link HNSW} graph index.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class HNSWTest extends AbstractIndexStructureTest {
+  @Test
+  public void testHNSW() {
+    HNSW.Factory<?> factory = new ELKIBuilder<>(HNSW.Factory.class) //
+        .with(HNSW.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+        .with(HNSW.Factory.Par.SEED_ID, 0L).build();
+    // On this small data set, the search is expected to be exact.
+    assertExactEuclidean(factory, HNSW.HNSWKNNObjectSearcher.class, HNSW.HNSWRangeObjectSearcher.class);
+    assertSinglePoint(factory, HNSW.HNSWKNNDBIDSearcher.class, HNSW.HNSWRangeDBIDSearcher.class);
+  }
+
+  @Test
+  public void testSnapshot() {
+    assertSnapshotEuclidean(() -> hnsw(0L), HNSW.HNSWKNNObjectSearcher.class, HNSW.HNSWRangeObjectSearcher.class, false);
+    // A different seed gives a different graph.
+    assertStaleSnapshot(() -> hnsw(0L), () -> hnsw(1L));
+  }
+
+  /**
+   * Build a HNSW index factory.
+   *
+   * @param seed Random seed
+   * @return Factory
+   */
+  private static HNSW.Factory<?> hnsw(long seed) {
+    return new ELKIBuilder<>(HNSW.Factory.class) //
+        .with(HNSW.Factory.Par.DISTANCE_FUNCTION_ID, EuclideanDistance.class) //
+        .with(HNSW.Factory.Par.SEED_ID, seed).build();
+  }
+
+  @Test
+  public void testRecallHighDimensional() {
+    final int size = 1000, dim = 40, k = 10;
+    Random rnd = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      for(int j = 0; j < dim; j++) {
+        data[i][j] = rnd.nextDouble();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    KNNSearcher<DBIDRef> exact = new QueryBuilder<>(relation, EuclideanDistance.STATIC).linearOnly().kNNByDBID(k);
+    // The optimizer is expected to add a HNSW index for approximate queries.
+    KNNSearcher<DBIDRef> approx = new QueryBuilder<>(relation, EuclideanDistance.STATIC).noCache().approximate().kNNByDBID(k);
+    assertTrue("Unexpected searcher: " + approx.getClass(), approx instanceof HNSW.HNSWKNNDBIDSearcher);
+    int hits = 0, total = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList ex = exact.getKNN(it, k), ap = approx.getKNN(it, k);
+      assertTrue("Approximate distances cannot be smaller.", ap.getKNNDistance() >= ex.getKNNDistance());
+      hits += DBIDUtil.intersectionSize(ex, ap);
+      total += ex.size();
+    }
+    // The graph construction is parallel, so we only check the recall.
+    assertTrue("Recall too low: " + hits / (double) total, hits >= 0.9 * total);
+  }
+
+  @Test
+  public void testApproximateNotCached() {
+    final int size = 500, dim = 40, k = 10;
+    Random rnd = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      for(int j = 0; j < dim; j++) {
+        data[i][j] = rnd.nextDouble();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    // An approximate query must not leave the graph attached to the relation
+    KNNSearcher<DBIDRef> approx = new QueryBuilder<>(relation, EuclideanDistance.STATIC).approximate().kNNByDBID(k);
+    assertTrue("Unexpected searcher: " + approx.getClass(), approx instanceof HNSW.HNSWKNNDBIDSearcher);
+    KNNSearcher<DBIDRef> exact = new QueryBuilder<>(relation, EuclideanDistance.STATIC).linearOnly().kNNByDBID(k);
+    KNNSearcher<DBIDRef> knnq = new QueryBuilder<>(relation, EuclideanDistance.STATIC).kNNByDBID(k);
+    assertFalse("Default query used the approximate index.", knnq instanceof HNSW.HNSWKNNDBIDSearcher);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList ex = exact.getKNN(it, k), kn = knnq.getKNN(it, k);
+      assertEquals("Default query is not exact.", ex.size(), DBIDUtil.intersectionSize(ex, kn));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.quantization;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.clustering.kmeans.KMeans;
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.WrappedKNNDBIDByLookup;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.AbstractIndexStructureTest;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the {@link ProductQuantizationIndex}.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ProductQuantizationIndexTest extends AbstractIndexStructureTest {
+  @Test
+  public void testProductQuantization() {
+    ProductQuantizationIndex.Factory<?> factory = new ELKIBuilder<>(ProductQuantizationIndex.Factory.class) //
+        .with(ProductQuantizationIndex.Factory.Par.SUBSPACES_ID, 2) //
+        .with(ProductQuantizationIndex.Factory.Par.CENTROIDS_ID, 16) //
+        .with(ProductQuantizationIndex.Factory.Par.REFINE_ID, 10) //
+        .with(KMeans.SEED_ID, 0L).build();
+    // With enough refinement, the result is expected to be exact.
+    assertExactEuclidean(factory, ProductQuantizationIndex.ProductQuantizationKNNSearcher.class, null);
+    assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, null);
+  }
+
+  @Test
+  public void testRecallInvertedLists() {
+    final int size = 2000, dim = 32, k = 10;
+    Random rnd = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      // Clustered data, with a coarse structure for the inverted lists.
+      final double offset = (i % 8) * 0.5;
+      for(int j = 0; j < dim; j++) {
+        data[i][j] = offset + rnd.nextGaussian() * 0.1;
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    ProductQuantizationIndex.Factory<DoubleVector> factory = new ELKIBuilder<ProductQuantizationIndex.Factory<DoubleVector>>(ProductQuantizationIndex.Factory.class) //
+        .with(ProductQuantizationIndex.Factory.Par.SUBSPACES_ID, 8) //
+        .with(ProductQuantizationIndex.Factory.Par.LISTS_ID, 8) //
+        .with(ProductQuantizationIndex.Factory.Par.PROBE_ID, 2) //
+        .with(ProductQuantizationIndex.Factory.Par.REFINE_ID, 5) //
+        .with(ProductQuantizationIndex.Factory.Par.SEED_ID, 0L) //
+        .with(KMeans.SEED_ID, 0L).build();
+    ProductQuantizationIndex<DoubleVector> index = factory.instantiate(relation);
+    index.initialize();
+    QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, EuclideanDistance.STATIC);
+    KNNSearcher<DoubleVector> exact = qb.linearOnly().kNNByObject(k);
+    KNNSearcher<DoubleVector> approx = index.kNNByObject(qb.distanceQuery(), k, 0);
+    assertNull("Exact queries must not use the quantized vectors.", index.kNNByObject(qb.distanceQuery(), k, QueryBuilder.FLAG_EXACT_ONLY));
+    int hits = 0, total = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList ex = exact.getKNN(relation.get(it), k), ap = approx.getKNN(relation.get(it), k);
+      assertTrue("Refined distances cannot be smaller.", ap.getKNNDistance() >= ex.getKNNDistance());
+      hits += DBIDUtil.intersectionSize(ex, ap);
+      total += ex.size();
+    }
+    assertTrue("Recall too low: " + hits / (double) total, hits >= 0.9 * total);
+  }
+}
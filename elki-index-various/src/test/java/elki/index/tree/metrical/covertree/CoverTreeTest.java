@@ -40,5 +40,7 @@ public class CoverTreeTest extends AbstractIndexStructureTest {
     assertExactEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class);
     assertSinglePoint(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+    assertSnapshotEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+    assertDynamicEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
   }
 }
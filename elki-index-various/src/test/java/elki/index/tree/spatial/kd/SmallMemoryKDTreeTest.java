@@ -20,12 +20,42 @@
  */
 package elki.index.tree.spatial.kd;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
-import elki.database.query.knn.WrappedKNNDBIDByLookup;
-import elki.database.query.range.WrappedRangeDBIDByLookup;
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.database.AppendOnlyDatabase;
+import elki.database.Database;
+import elki.database.HashmapDatabase;
+import elki.database.StaticArrayDatabase;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.*;
+import elki.database.query.PrioritySearcher;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.AllKNNSearcher;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.AllRangeSearcher;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
  * Unit test for the {@link SmallMemoryKDTree} index.
@@ -39,6 +69,137 @@ public class SmallMemoryKDTreeTest extends AbstractIndexStructureTest {
     SmallMemoryKDTree.Factory<?> factory = new ELKIBuilder<>(SmallMemoryKDTree.Factory.class).build();
     assertExactEuclidean(factory, SmallMemoryKDTree.KDTreeKNNSearcher.class, SmallMemoryKDTree.KDTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, SmallMemoryKDTree.KDTreePrioritySearcher.class);
-    assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
+    assertSinglePoint(factory, SmallMemoryKDTree.KDTreeAllKNNSearcher.class, SmallMemoryKDTree.KDTreeAllRangeSearcher.class);
+    assertSnapshotEuclidean(factory, SmallMemoryKDTree.KDTreeKNNSearcher.class, SmallMemoryKDTree.KDTreeRangeSearcher.class);
+  }
+
+  @Test
+  public void testAllKNNAndRange() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "hierarchical-3d2d1d.csv", 600, //
+        new ListParameterization().addParameter(StaticArrayDatabase.Par.INDEX_ID, new SmallMemoryKDTree.Factory<>(4)));
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    assertSelfJoin(relation, EuclideanDistance.STATIC, 10, 0.1);
+    assertSelfJoin(relation, SquaredEuclideanDistance.STATIC, 7, 0.01);
+  }
+
+  @Test
+  public void testAppend() {
+    Random rnd = new Random(0L);
+    AppendOnlyDatabase db = new AppendOnlyDatabase(null, Arrays.asList(new SmallMemoryKDTree.Factory<>(4)));
+    db.initialize();
+    // Small batches stay in the insertion buffer, larger ones become subtrees.
+    for(int size : new int[] { 500, 30, 20, 200, 1, 10, 70, 70, 70, 150, 64, 600 }) {
+      db.insert(randomBatch(rnd, size));
+      assertSameAsLinearScan(db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD));
+    }
+  }
+
+  @Test
+  public void testDelete() {
+    Random rnd = new Random(0L);
+    HashmapDatabase db = new HashmapDatabase(null, Arrays.asList(new SmallMemoryKDTree.Factory<>(4)));
+    db.initialize();
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray(db.insert(randomBatch(rnd, 500)));
+    db.insert(randomBatch(rnd, 100)).forEach(ids::add);
+    // Deletions are marked with tombstones, until too many cause a rebuild.
+    for(int size : new int[] { 1, 20, 5, 50, 30 }) {
+      DBIDUtil.randomShuffle(ids, rnd);
+      ArrayModifiableDBIDs del = DBIDUtil.newArray(size);
+      for(int i = 0; i < size; i++) {
+        del.add(ids.iter().seek(ids.size() - 1));
+        ids.remove(ids.size() - 1);
+      }
+      if(size == 1) {
+        db.delete(del.iter());
+      }
+      else {
+        db.delete(del);
+      }
+      db.insert(randomBatch(rnd, 10)).forEach(ids::add);
+      assertSameAsLinearScan(db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD));
+    }
+  }
+
+  /**
+   * Generate a batch of random vectors.
+   *
+   * @param rnd Random generator
+   * @param size Batch size
+   * @return Bundle
+   */
+  private static MultipleObjectsBundle randomBatch(Random rnd, int size) {
+    List<DoubleVector> batch = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      batch.add(DoubleVector.wrap(new double[] { rnd.nextDouble(), rnd.nextDouble(), rnd.nextInt(10) }));
+    }
+    return MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 3), batch);
+  }
+
+  /**
+   * Compare the k-d-tree results to a linear scan.
+   *
+   * @param relation Data relation
+   */
+  private static void assertSameAsLinearScan(Relation<DoubleVector> relation) {
+    QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, EuclideanDistance.STATIC);
+    KNNSearcher<DBIDRef> knnq = qb.cheapOnly().kNNByDBID(10);
+    assertTrue("Expected the k-d-tree to be used.", knnq instanceof SmallMemoryKDTree.KDTreeAllKNNSearcher);
+    RangeSearcher<DBIDRef> rangeq = qb.cheapOnly().rangeByDBID(0.1);
+    PrioritySearcher<DBIDRef> prioq = qb.cheapOnly().priorityByDBID();
+    KNNSearcher<DBIDRef> linknn = qb.linearOnly().kNNByDBID(10);
+    RangeSearcher<DBIDRef> linrange = qb.linearOnly().rangeByDBID(0.1);
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, KNNList.class);
+    ((AllKNNSearcher) knnq).getAllKNN(10, knns);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList expect = linknn.getKNN(it, 10);
+      assertSameDistances(expect, knnq.getKNN(it, 10));
+      assertSameDistances(expect, knns.get(it));
+      assertSameDistances(linrange.getRange(it, 0.1), rangeq.getRange(it, 0.1));
+      int found = 0;
+      for(prioq.search(it); prioq.valid(); prioq.advance()) {
+        found += prioq.computeExactDistance() <= 0.1 ? 1 : 0;
+      }
+      assertEquals("Priority search incomplete.", rangeq.getRange(it, 0.1).size(), found);
+    }
+  }
+
+  /**
+   * Compare the results for all objects to a linear scan.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param k Number of neighbors
+   * @param range Query radius
+   */
+  private static void assertSelfJoin(Relation<DoubleVector> relation, Distance<? super DoubleVector> distance, int k, double range) {
+    QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, distance).cheapOnly();
+    KNNSearcher<DBIDRef> knnq = qb.kNNByDBID(k);
+    assertTrue("Expected an all-kNN searcher", knnq instanceof AllKNNSearcher);
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, KNNList.class);
+    ((AllKNNSearcher) knnq).getAllKNN(k, knns);
+    RangeSearcher<DBIDRef> rangeq = qb.rangeByDBID(range);
+    assertTrue("Expected an all-range searcher", rangeq instanceof AllRangeSearcher);
+    WritableDataStore<DoubleDBIDList> ranges = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, DoubleDBIDList.class);
+    ((AllRangeSearcher) rangeq).getAllRange(range, ranges);
+    QueryBuilder<DoubleVector> lin = new QueryBuilder<>(relation, distance).linearOnly();
+    KNNSearcher<DBIDRef> linknn = lin.kNNByDBID(k);
+    RangeSearcher<DBIDRef> linrange = lin.rangeByDBID(range);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      assertSameDistances(linknn.getKNN(it, k), knns.get(it));
+      assertSameDistances(linrange.getRange(it, range), ranges.get(it));
+    }
+  }
+
+  /**
+   * Compare two result lists by their distances.
+   *
+   * @param expect Expected result
+   * @param actual Actual result
+   */
+  private static void assertSameDistances(DoubleDBIDList expect, DoubleDBIDList actual) {
+    assertEquals("Result size does not match.", expect.size(), actual.size());
+    for(DoubleDBIDListIter e = expect.iter(), a = actual.iter(); e.valid(); e.advance(), a.advance()) {
+      assertEquals("Distance does not match.", e.doubleValue(), a.doubleValue(), 0.);
+    }
   }
 }
@@ -20,10 +20,25 @@
  */
 package elki.index.vafile;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
 import org.junit.Test;
 
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.KNNSearcher;
 import elki.database.query.knn.WrappedKNNDBIDByLookup;
+import elki.database.query.range.RangeSearcher;
 import elki.database.query.range.WrappedRangeDBIDByLookup;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.ManhattanDistance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
 
@@ -44,4 +59,39 @@ public class VAFileTest extends AbstractIndexStructureTest {
     assertExactEuclidean(factory, VAFile.VAFileKNNQuery.class, VAFile.VAFileRangeQuery.class);
     assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
   }
+
+  /**
+   * Test {@link VAFile} on a file large enough to be scanned in multiple
+   * blocks and tasks, using Manhattan distance.
+   */
+  @Test
+  public void testLargeManhattan() {
+    final int size = 40000, dim = 8, k = 10;
+    Random rnd = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      for(int j = 0; j < dim; j++) {
+        data[i][j] = rnd.nextDouble();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    VAFile.Factory<DoubleVector> factory = new ELKIBuilder<VAFile.Factory<DoubleVector>>(VAFile.Factory.class) //
+        .with(VAFile.Factory.Par.PARTITIONS_ID, 16).build();
+    VAFile<DoubleVector> index = factory.instantiate(relation);
+    index.initialize();
+    QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, ManhattanDistance.STATIC);
+    KNNSearcher<DoubleVector> exactKNN = qb.linearOnly().kNNByObject(k);
+    RangeSearcher<DoubleVector> exactRange = qb.linearOnly().rangeByObject();
+    KNNSearcher<DoubleVector> knnq = index.kNNByObject(qb.distanceQuery(), k, 0);
+    RangeSearcher<DoubleVector> rangeq = index.rangeByObject(qb.distanceQuery(), 0.5, 0);
+    DBIDIter it = relation.iterDBIDs();
+    for(int q = 0; q < 20; q++, it.advance()) {
+      DoubleVector query = relation.get(it);
+      KNNList ex = exactKNN.getKNN(query, k), ap = knnq.getKNN(query, k);
+      assertEquals("kNN distance does not agree.", ex.getKNNDistance(), ap.getKNNDistance(), 1e-15);
+      assertEquals("Range query size does not agree.", exactRange.getRange(query, 0.5).size(), rangeq.getRange(query, 0.5).size());
+    }
+  }
 }
@@ -28,14 +28,20 @@ import java.nio.file.StandardOpenOption;
 import elki.datasource.DatabaseConnection;
 import elki.datasource.FileBasedDatabaseConnection;
 import elki.datasource.bundle.BundleWriter;
+import elki.datasource.bundle.ColumnarBundleWriter;
 import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.logging.Logging;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
  * Convert an input file to the more efficient ELKI bundle format.
+ * <p>
+ * Optionally, the columnar format of {@link ColumnarBundleWriter} is written,
+ * which can be memory-mapped with
+ * {@link elki.datasource.ColumnarBundleDatabaseConnection}.
  *
  * @author Erich Schubert
  * @since 0.5.5
@@ -56,6 +62,11 @@ public class ConvertToBundleApplication extends AbstractApplication {
    */
   private Path outfile;
 
+  /**
+   * Write the columnar format.
+   */
+  private boolean columnar;
+
   /**
    * Constructor.
    *
@@ -63,9 +74,21 @@ public class ConvertToBundleApplication extends AbstractApplication {
    * @param outfile Output filename
    */
   public ConvertToBundleApplication(DatabaseConnection input, Path outfile) {
+    this(input, outfile, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param input Data source configuration
+   * @param outfile Output filename
+   * @param columnar Write the columnar format
+   */
+  public ConvertToBundleApplication(DatabaseConnection input, Path outfile, boolean columnar) {
     super();
     this.input = input;
     this.outfile = outfile;
+    this.columnar = columnar;
   }
 
   @Override
@@ -79,8 +102,13 @@ public class ConvertToBundleApplication extends AbstractApplication {
     }
     // TODO: make configurable?
     try (FileChannel channel = FileChannel.open(outfile, //
-        StandardOpenOption.WRITE)) {
-      new BundleWriter().writeBundleStream(bundle.asStream(), channel);
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      if(columnar) {
+        new ColumnarBundleWriter().writeBundle(bundle, channel);
+      }
+      else {
+        new BundleWriter().writeBundleStream(bundle.asStream(), channel);
+      }
     }
     catch(IOException e) {
       LOG.exception("IO Error", e);
@@ -98,6 +126,11 @@ public class ConvertToBundleApplication extends AbstractApplication {
      */
     public static final OptionID DATABASE_CONNECTION_ID = new OptionID("dbc", "Database connection class.");
 
+    /**
+     * Flag to write the columnar format.
+     */
+    public static final OptionID COLUMNAR_ID = new OptionID("bundle.columnar", "Write the columnar bundle format, which can be memory-mapped.");
+
     /**
      * The data input step.
      */
@@ -108,17 +141,23 @@ public class ConvertToBundleApplication extends AbstractApplication {
      */
     private Path outfile;
 
+    /**
+     * Write the columnar format.
+     */
+    private boolean columnar;
+
     @Override
     public void configure(Parameterization config) {
       super.configure(config);
       new ObjectParameter<DatabaseConnection>(DATABASE_CONNECTION_ID, DatabaseConnection.class, FileBasedDatabaseConnection.class) //
           .grab(config, x -> input = x);
       outfile = super.getParameterOutputFile(config, "File name to serialize the bundle to.");
+      new Flag(COLUMNAR_ID).grab(config, x -> columnar = x);
     }
 
     @Override
     public ConvertToBundleApplication make() {
-      return new ConvertToBundleApplication(input, outfile);
+      return new ConvertToBundleApplication(input, outfile, columnar);
     }
   }
 
@@ -21,9 +21,11 @@
 package elki.datasource;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 import elki.datasource.bundle.BundleStreamSource;
 import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.datasource.filter.AbstractConversionFilter;
 import elki.datasource.filter.ObjectFilter;
 import elki.datasource.filter.StreamFilter;
 import elki.datasource.parser.Parser;
@@ -117,6 +119,63 @@ public abstract class AbstractDatabaseConnection implements DatabaseConnection {
     return stream != null ? stream : bundle.asStream();
   }
 
+  /**
+   * Apply the filters in multiple passes over a source that can be read
+   * repeatedly, to avoid materializing intermediate results.
+   * <p>
+   * Every conversion filter that needs statistics (such as a normalization) is
+   * prepared in an additional pass over the data, then converts the objects of
+   * the following passes on the fly. Stream filters are applied on the fly,
+   * other filters still materialize the data in every pass. All filters in
+   * front of a conversion filter are applied in every pass, and hence must be
+   * deterministic (e.g., use a fixed random seed).
+   *
+   * @param source Function to start a new pass over the data
+   * @return Filtered stream of the final pass
+   */
+  protected BundleStreamSource invokeStreamFilters(Supplier<? extends BundleStreamSource> source) {
+    if(filters == null) {
+      return source.get();
+    }
+    for(int i = 0; i < filters.size(); i++) {
+      ObjectFilter filter = filters.get(i);
+      if(filter instanceof AbstractConversionFilter) {
+        if(((AbstractConversionFilter<?, ?>) filter).prepareStream(chainFilters(source.get(), i)) && getLogger().isVerbose()) {
+          getLogger().verbose("Completed statistics pass for " + filter);
+        }
+      }
+    }
+    return chainFilters(source.get(), filters.size());
+  }
+
+  /**
+   * Chain the first filters to a stream, converting the objects on the fly
+   * with prepared conversion filters.
+   *
+   * @param stream Data source
+   * @param end Number of filters to apply
+   * @return Filtered stream
+   */
+  private BundleStreamSource chainFilters(BundleStreamSource stream, int end) {
+    MultipleObjectsBundle bundle = null;
+    for(int i = 0; i < end; i++) {
+      ObjectFilter filter = filters.get(i);
+      if(filter instanceof StreamFilter) {
+        stream = ((StreamFilter) filter).init(bundle != null ? bundle.asStream() : stream);
+        bundle = null;
+      }
+      else if(filter instanceof AbstractConversionFilter) {
+        stream = ((AbstractConversionFilter<?, ?>) filter).convertStream(bundle != null ? bundle.asStream() : stream);
+        bundle = null;
+      }
+      else {
+        bundle = filter.filter(stream != null ? stream.asMultipleObjectsBundle() : bundle);
+        stream = null;
+      }
+    }
+    return stream != null ? stream : bundle.asStream();
+  }
+
   /**
    * Get the logger for this database connection.
    * 
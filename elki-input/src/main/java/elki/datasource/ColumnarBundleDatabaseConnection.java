@@ -0,0 +1,135 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import elki.datasource.bundle.ColumnarBundleReader;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.datasource.filter.ObjectFilter;
+import elki.logging.Logging;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
+
+/**
+ * Class to load a database from a columnar bundle file, as written by
+ * {@link elki.datasource.bundle.ColumnarBundleWriter}.
+ * <p>
+ * The file is memory-mapped, and vector columns are exposed as views into the
+ * mapped file, so loading does not need to parse or copy the vector data.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @composed - - - ColumnarBundleReader
+ */
+public class ColumnarBundleDatabaseConnection extends AbstractDatabaseConnection {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ColumnarBundleDatabaseConnection.class);
+
+  /**
+   * File to load.
+   */
+  private Path infile;
+
+  /**
+   * Copy vectors into their original type.
+   */
+  private boolean copy;
+
+  /**
+   * Constructor.
+   *
+   * @param filters Filters
+   * @param infile Input file
+   * @param copy Copy vectors into their original type
+   */
+  public ColumnarBundleDatabaseConnection(List<? extends ObjectFilter> filters, Path infile, boolean copy) {
+    super(filters);
+    this.infile = infile;
+    this.copy = copy;
+  }
+
+  @Override
+  public MultipleObjectsBundle loadData() {
+    try (FileChannel channel = FileChannel.open(infile)) {
+      return invokeBundleFilters(new ColumnarBundleReader(channel, copy).readBundle());
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error loading columnar bundle", e);
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par extends AbstractDatabaseConnection.Par {
+    /**
+     * Option ID for the bundle parameter.
+     */
+    public static final OptionID BUNDLE_ID = new OptionID("columnar.input", "Columnar bundle file to memory-map the data from.");
+
+    /**
+     * Option ID to copy the vectors.
+     */
+    public static final OptionID COPY_ID = new OptionID("columnar.copy", "Copy the vectors into their original vector type, instead of using views into the mapped file.");
+
+    /**
+     * File to load.
+     */
+    private Path infile;
+
+    /**
+     * Copy vectors into their original type.
+     */
+    private boolean copy;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      configFilters(config);
+      new FileParameter(BUNDLE_ID, FileParameter.FileType.INPUT_FILE) //
+          .grab(config, x -> infile = Paths.get(x));
+      new Flag(COPY_ID).grab(config, x -> copy = x);
+    }
+
+    @Override
+    public ColumnarBundleDatabaseConnection make() {
+      return new ColumnarBundleDatabaseConnection(filters, infile, copy);
+    }
+  }
+}
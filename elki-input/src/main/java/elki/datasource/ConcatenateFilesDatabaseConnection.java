@@ -23,8 +23,9 @@ package elki.datasource;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 import elki.data.type.TypeUtil;
 import elki.datasource.bundle.BundleMeta;
@@ -36,15 +37,30 @@ import elki.datasource.parser.NumberVectorLabelParser;
 import elki.datasource.parser.Parser;
 import elki.datasource.parser.StreamingParser;
 import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.Duration;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.ClassGenericsUtil;
 import elki.utilities.exceptions.AbortException;
 import elki.utilities.io.FileUtil;
 import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
+import elki.utilities.optionhandling.parameterization.TrackedParameter;
 import elki.utilities.optionhandling.parameters.FileListParameter;
 import elki.utilities.optionhandling.parameters.FileListParameter.FilesType;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
  * Database that will loading multiple files, concatenating the results.
+ * <p>
+ * If a supplier for new parser instances is available (as when configured via
+ * parameters), the files are parsed concurrently, with one parser instance per
+ * file, and the results are concatenated in the order of the files.
  * 
  * @author Erich Schubert
  * @since 0.5.0
@@ -65,6 +81,11 @@ public class ConcatenateFilesDatabaseConnection extends AbstractDatabaseConnecti
    */
   private Parser parser;
 
+  /**
+   * Supplier of new parser instances, may be {@code null}.
+   */
+  private Supplier<? extends Parser> parsers;
+
   /**
    * Constructor.
    * 
@@ -73,69 +94,169 @@ public class ConcatenateFilesDatabaseConnection extends AbstractDatabaseConnecti
    * @param filters Filters
    */
   public ConcatenateFilesDatabaseConnection(List<URI> files, Parser parser, List<? extends ObjectFilter> filters) {
+    this(files, parser, null, filters);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param files Input files
+   * @param parser Parser
+   * @param parsers Supplier of new parser instances for parallel loading, may
+   *        be {@code null}
+   * @param filters Filters
+   */
+  public ConcatenateFilesDatabaseConnection(List<URI> files, Parser parser, Supplier<? extends Parser> parsers, List<? extends ObjectFilter> filters) {
     super(filters);
     this.files = files;
     this.parser = parser;
+    this.parsers = parsers;
   }
 
   @Override
   public MultipleObjectsBundle loadData() {
+    Duration duration = LOG.isStatistics() ? LOG.newDuration(getClass().getName() + ".load").begin() : null;
     MultipleObjectsBundle objects = new MultipleObjectsBundle();
     objects.appendColumn(TypeUtil.STRING, new ArrayList<>());
-    for(URI file : files) {
-      String filestr = file.toString();
-      try (InputStream inputStream = FileUtil.open(file)) {
-        final BundleStreamSource source;
-        if(parser instanceof StreamingParser) {
-          final StreamingParser streamParser = (StreamingParser) parser;
-          streamParser.initStream(inputStream);
-          source = streamParser;
-        }
-        else {
-          MultipleObjectsBundle parsingResult = parser.parse(inputStream);
-          // normalize objects and transform labels
-          source = parsingResult.asStream();
-        }
-        BundleMeta meta = null; // NullPointerException on invalid streams
-        loop: for(Event e = source.nextEvent();; e = source.nextEvent()) {
-          switch(e){
-          case END_OF_STREAM:
-            break loop;
-          case META_CHANGED:
-            meta = source.getMeta();
-            for(int i = 0; i < meta.size(); i++) {
-              if(i + 1 >= objects.metaLength()) {
-                objects.appendColumn(meta.get(i), new ArrayList<>());
-              }
-              else {
-                // Ensure compatibility:
-                if(!objects.meta(i + 1).isAssignableFromType(meta.get(i))) {
-                  throw new AbortException("Incompatible files loaded. Cannot concatenate with unaligned columns, please preprocess manually.");
-                }
-              }
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Loading files", files.size(), LOG) : null;
+    if(parsers != null && files.size() > 1) {
+      loadParallel(objects, prog);
+    }
+    else {
+      for(URI file : files) {
+        loadFile(objects, parser, file);
+        LOG.incrementProcessed(prog);
+      }
+      parser.cleanup();
+    }
+    LOG.ensureCompleted(prog);
+    if(duration != null) {
+      LOG.statistics(duration.end());
+      LOG.statistics(new LongStatistic(getClass().getName() + ".files", files.size()));
+      LOG.statistics(new LongStatistic(getClass().getName() + ".objects", objects.dataLength()));
+      LOG.statistics(new DoubleStatistic(getClass().getName() + ".objects-per-second", objects.dataLength() * 1000. / Math.max(1L, duration.getDuration())));
+    }
+    // Invoke filters
+    if(LOG.isDebugging()) {
+      LOG.debugFine("Invoking filters.");
+    }
+    return invokeBundleFilters(objects);
+  }
+
+  /**
+   * Load the files concurrently, with one parser per file.
+   *
+   * @param objects Output bundle
+   * @param prog Progress
+   */
+  private void loadParallel(MultipleObjectsBundle objects, FiniteProgress prog) {
+    Iterator<URI> fileiter = files.iterator();
+    // The iterator is consumed by the main thread, so the parsers are
+    // instantiated sequentially.
+    Iterator<Callable<MultipleObjectsBundle>> tasks = new Iterator<Callable<MultipleObjectsBundle>>() {
+      @Override
+      public boolean hasNext() {
+        return fileiter.hasNext();
+      }
+
+      @Override
+      public Callable<MultipleObjectsBundle> next() {
+        final URI file = fileiter.next();
+        final Parser p = parsers.get();
+        return () -> {
+          MultipleObjectsBundle bundle = new MultipleObjectsBundle();
+          bundle.appendColumn(TypeUtil.STRING, new ArrayList<>());
+          loadFile(bundle, p, file);
+          p.cleanup();
+          return bundle;
+        };
+      }
+    };
+    ParallelExecutor.runTasks(tasks, ParallelCore.ALL_PROCESSORS << 1, bundle -> {
+      appendBundle(objects, bundle);
+      LOG.incrementProcessed(prog);
+    });
+  }
+
+  /**
+   * Load a single file.
+   *
+   * @param objects Output bundle, with a file name column
+   * @param parser Parser to use
+   * @param file File to load
+   */
+  private static void loadFile(MultipleObjectsBundle objects, Parser parser, URI file) {
+    String filestr = file.toString();
+    try (InputStream inputStream = FileUtil.open(file)) {
+      final BundleStreamSource source;
+      if(parser instanceof StreamingParser) {
+        final StreamingParser streamParser = (StreamingParser) parser;
+        streamParser.initStream(inputStream);
+        source = streamParser;
+      }
+      else {
+        MultipleObjectsBundle parsingResult = parser.parse(inputStream);
+        // normalize objects and transform labels
+        source = parsingResult.asStream();
+      }
+      BundleMeta meta = null; // NullPointerException on invalid streams
+      loop: for(Event e = source.nextEvent();; e = source.nextEvent()) {
+        switch(e){
+        case END_OF_STREAM:
+          break loop;
+        case META_CHANGED:
+          meta = source.getMeta();
+          for(int i = 0; i < meta.size(); i++) {
+            if(i + 1 >= objects.metaLength()) {
+              objects.appendColumn(meta.get(i), new ArrayList<>());
             }
-            break; // switch
-          case NEXT_OBJECT:
-            Object[] o = new Object[objects.metaLength()];
-            o[0] = filestr;
-            for(int i = 0; i < meta.size(); i++) {
-              o[i + 1] = source.data(i);
+            else {
+              // Ensure compatibility:
+              if(!objects.meta(i + 1).isAssignableFromType(meta.get(i))) {
+                throw new AbortException("Incompatible files loaded. Cannot concatenate with unaligned columns, please preprocess manually.");
+              }
             }
-            objects.appendSimple(o);
-            break; // switch
           }
+          break; // switch
+        case NEXT_OBJECT:
+          Object[] o = new Object[objects.metaLength()];
+          o[0] = filestr;
+          for(int i = 0; i < meta.size(); i++) {
+            o[i + 1] = source.data(i);
+          }
+          objects.appendSimple(o);
+          break; // switch
         }
       }
-      catch(IOException e) {
-        throw new AbortException("Loading file " + filestr + " failed: " + e.toString(), e);
+    }
+    catch(IOException e) {
+      throw new AbortException("Loading file " + filestr + " failed: " + e.toString(), e);
+    }
+  }
+
+  /**
+   * Append the objects of one file to the output.
+   *
+   * @param objects Output bundle
+   * @param bundle Bundle of a single file
+   */
+  @SuppressWarnings("unchecked")
+  private static void appendBundle(MultipleObjectsBundle objects, MultipleObjectsBundle bundle) {
+    final int before = objects.dataLength(), size = bundle.dataLength();
+    for(int i = 0; i < bundle.metaLength(); i++) {
+      if(i >= objects.metaLength()) {
+        objects.appendColumn(bundle.meta(i), new ArrayList<>(Collections.nCopies(before, null)));
+      }
+      // Ensure compatibility:
+      else if(!objects.meta(i).isAssignableFromType(bundle.meta(i))) {
+        throw new AbortException("Incompatible files loaded. Cannot concatenate with unaligned columns, please preprocess manually.");
       }
+      ((List<Object>) objects.getColumn(i)).addAll(bundle.getColumn(i));
     }
-    parser.cleanup();
-    // Invoke filters
-    if(LOG.isDebugging()) {
-      LOG.debugFine("Invoking filters.");
+    // Columns missing in this file:
+    for(int i = bundle.metaLength(); i < objects.metaLength(); i++) {
+      ((List<Object>) objects.getColumn(i)).addAll(Collections.nCopies(size, null));
     }
-    return invokeBundleFilters(objects);
   }
 
   @Override
@@ -159,18 +280,64 @@ public class ConcatenateFilesDatabaseConnection extends AbstractDatabaseConnecti
      */
     private List<URI> files;
 
+    /**
+     * Options of the parser, to instantiate further parsers.
+     */
+    private List<OptionID> parserOptions;
+
+    /**
+     * Values of the parser options.
+     */
+    private List<Object> parserValues;
+
     @Override
     public void configure(Parameterization config) {
       super.configure(config);
       new FileListParameter(INPUT_ID, FilesType.INPUT_FILES) //
           .grab(config, x -> files = x);
       configFilters(config);
-      configParser(config, Parser.class, NumberVectorLabelParser.class);
+      // Track the parser options, to be able to make one parser per file.
+      TrackParameters track = new TrackParameters(config);
+      ObjectParameter<Parser> parserP = new ObjectParameter<>(PARSER_ID, Parser.class, NumberVectorLabelParser.class);
+      parserP.grab(track, x -> parser = x);
+      if(parser == null) {
+        return;
+      }
+      parserOptions = new ArrayList<>();
+      parserValues = new ArrayList<>();
+      for(TrackedParameter p : track.getAllParameters()) {
+        Object owner = p.getOwner();
+        while(owner != null && owner != parserP) {
+          owner = track.getParent(owner);
+        }
+        if(owner != null && p.getParameter().isDefined()) {
+          parserOptions.add(p.getParameter().getOptionID());
+          parserValues.add(p.getParameter().getValue());
+        }
+      }
+      if(parserOptions.isEmpty()) {
+        // Parser may have been given as an instance, do not replicate.
+        parserOptions = null;
+        parserValues = null;
+      }
+    }
+
+    /**
+     * Make a new parser instance, with the same options.
+     *
+     * @return Parser
+     */
+    private Parser newParser() {
+      ListParameterization params = new ListParameterization();
+      for(int i = 0; i < parserOptions.size(); i++) {
+        params.addParameter(parserOptions.get(i), parserValues.get(i));
+      }
+      return ClassGenericsUtil.parameterizeOrAbort(parser.getClass(), params);
     }
 
     @Override
     public ConcatenateFilesDatabaseConnection make() {
-      return new ConcatenateFilesDatabaseConnection(files, parser, filters);
+      return new ConcatenateFilesDatabaseConnection(files, parser, parserOptions != null ? this::newParser : null, filters);
     }
   }
 }
@@ -36,6 +36,7 @@ import elki.utilities.io.FileUtil;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * File based database connection based on the parser to be set.
@@ -55,6 +56,19 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
    * @param infile File to load the data from
    */
   public FileBasedDatabaseConnection(List<? extends ObjectFilter> filters, Parser parser, URI infile) {
+    this(filters, parser, infile, false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param filters Filters, can be null
+   * @param parser the parser to provide a database
+   * @param infile File to load the data from
+   * @param multipass Read the file repeatedly for filters that need
+   *        statistics, instead of materializing it (streaming parsers only)
+   */
+  public FileBasedDatabaseConnection(List<? extends ObjectFilter> filters, Parser parser, URI infile, boolean multipass) {
     super(() -> {
       try {
         return new BufferedInputStream(FileUtil.open(infile));
@@ -62,7 +76,7 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
       catch(IOException e) {
         throw new UncheckedIOException("Could not load input file: " + infile, e);
       }
-    }, filters, parser);
+    }, filters, parser, multipass);
   }
 
   /**
@@ -98,11 +112,22 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
      */
     public static final OptionID INPUT_ID = new OptionID("dbc.in", "The name of the input file to be parsed.");
 
+    /**
+     * Flag to read the file repeatedly instead of materializing it for
+     * filters.
+     */
+    public static final OptionID MULTIPASS_ID = new OptionID("dbc.multipass", "Read the input file once more for every filter that needs statistics (e.g., normalization), instead of keeping intermediate copies of the data in memory.");
+
     /**
      * Input stream to process.
      */
     protected URI infile;
 
+    /**
+     * Read the file repeatedly.
+     */
+    protected boolean multipass;
+
     @Override
     public void configure(Parameterization config) {
       // Add the input file first, for usability reasons.
@@ -114,11 +139,12 @@ public class FileBasedDatabaseConnection extends InputStreamDatabaseConnection {
       }
       configParser(config, Parser.class, defaultParser);
       configFilters(config);
+      new Flag(MULTIPASS_ID).grab(config, x -> multipass = x);
     }
 
     @Override
     public FileBasedDatabaseConnection make() {
-      return new FileBasedDatabaseConnection(filters, parser, infile);
+      return new FileBasedDatabaseConnection(filters, parser, infile, multipass);
     }
   }
 }
@@ -26,6 +26,7 @@ import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.function.Supplier;
 
+import elki.datasource.bundle.BundleStreamSource;
 import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.datasource.filter.ObjectFilter;
 import elki.datasource.parser.NumberVectorLabelParser;
@@ -70,6 +71,11 @@ public class InputStreamDatabaseConnection extends AbstractDatabaseConnection im
    */
   InputStream ins;
 
+  /**
+   * Read the input repeatedly instead of materializing it for filters.
+   */
+  boolean multipass;
+
   /**
    * Constructor.
    * 
@@ -78,9 +84,23 @@ public class InputStreamDatabaseConnection extends AbstractDatabaseConnection im
    * @param parser the parser to provide a database
    */
   public InputStreamDatabaseConnection(Supplier<InputStream> in, List<? extends ObjectFilter> filters, Parser parser) {
+    this(in, filters, parser, false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param in Input stream opener
+   * @param filters Filters to use
+   * @param parser the parser to provide a database
+   * @param multipass Read the input repeatedly for filters that need
+   *        statistics, instead of materializing it (streaming parsers only)
+   */
+  public InputStreamDatabaseConnection(Supplier<InputStream> in, List<? extends ObjectFilter> filters, Parser parser, boolean multipass) {
     super(filters);
     this.in = in;
     this.parser = parser;
+    this.multipass = multipass;
   }
 
   /**
@@ -105,14 +125,21 @@ public class InputStreamDatabaseConnection extends AbstractDatabaseConnection im
     // Streaming parsers may yield to stream filters immediately.
     if(parser instanceof StreamingParser) {
       final StreamingParser streamParser = (StreamingParser) parser;
-      ins = ins != null ? ins : in.get();
-      streamParser.initStream(ins);
       // normalize objects and transform labels
       if(LOG.isDebugging()) {
         LOG.debugFine("Parsing as stream.");
       }
       Duration duration = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".load").begin() : null;
-      MultipleObjectsBundle objects = invokeStreamFilters(streamParser).asMultipleObjectsBundle();
+      final BundleStreamSource source;
+      if(multipass && ins == null) {
+        source = invokeStreamFilters(() -> reopen(streamParser));
+      }
+      else {
+        ins = ins != null ? ins : in.get();
+        streamParser.initStream(ins);
+        source = invokeStreamFilters(streamParser);
+      }
+      MultipleObjectsBundle objects = source.asMultipleObjectsBundle();
       parser.cleanup();
       try {
         close();
@@ -154,6 +181,27 @@ public class InputStreamDatabaseConnection extends AbstractDatabaseConnection im
     }
   }
 
+  /**
+   * Start a new pass over the input.
+   *
+   * @param streamParser Parser
+   * @return Parser, reading from the beginning of the input
+   */
+  private StreamingParser reopen(StreamingParser streamParser) {
+    if(ins != null) {
+      streamParser.cleanup();
+      try {
+        close();
+      }
+      catch(IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    ins = in.get();
+    streamParser.initStream(ins);
+    return streamParser;
+  }
+
   @Override
   public void close() throws IOException {
     if(ins != null) {
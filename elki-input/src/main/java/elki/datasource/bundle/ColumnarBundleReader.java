@@ -0,0 +1,342 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.bundle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import elki.data.DoubleBufferVector;
+import elki.data.LabelList;
+import elki.data.NumberVector;
+import elki.data.type.SimpleTypeInformation;
+import elki.data.type.TypeInformationSerializer;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
+
+/**
+ * Read a bundle written by {@link ColumnarBundleWriter} by memory-mapping the
+ * file.
+ * <p>
+ * Vector columns are not decoded: the rows are exposed as
+ * {@link DoubleBufferVector} views into the mapped file, created on access.
+ * Label lists are decoded using the dictionary, sharing the instances of
+ * single-label rows. Other columns are deserialized.
+ * <p>
+ * Alternatively, vector columns can be copied into vectors of the type they
+ * were written from, for algorithms that require a particular vector type.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @assoc - reads - FileChannel
+ * @has - - - DoubleBufferVector
+ */
+public class ColumnarBundleReader {
+  /**
+   * Maximum size of a mapped segment (mapped buffers are limited to 2 GiB).
+   */
+  private static final long MAX_SEGMENT = 1L << 30;
+
+  /**
+   * File channel.
+   */
+  private FileChannel channel;
+
+  /**
+   * Copy vectors instead of using views.
+   */
+  private boolean copy;
+
+  /**
+   * Constructor.
+   *
+   * @param channel Input channel; may be closed after reading
+   * @param copy Copy vectors into their original type
+   */
+  public ColumnarBundleReader(FileChannel channel, boolean copy) {
+    super();
+    this.channel = channel;
+    this.copy = copy;
+  }
+
+  /**
+   * Read the bundle.
+   *
+   * @return Bundle
+   * @throws IOException on IO errors
+   */
+  public MultipleObjectsBundle readBundle() throws IOException {
+    final long fsize = channel.size();
+    if(fsize < 2 * ByteArrayUtil.SIZE_INT + ByteArrayUtil.SIZE_LONG) {
+      throw new AbortException("Not a columnar bundle: file too short.");
+    }
+    ByteBuffer pre = map(0, 2 * ByteArrayUtil.SIZE_INT + ByteArrayUtil.SIZE_LONG);
+    if(pre.getInt() != ColumnarBundleWriter.MAGIC) {
+      throw new AbortException("Not a columnar bundle: magic number does not match.");
+    }
+    if(pre.getInt() != ColumnarBundleWriter.VERSION) {
+      throw new AbortException("Unsupported columnar bundle version.");
+    }
+    final long dataStart = pre.getLong();
+    if(dataStart > fsize || dataStart > Integer.MAX_VALUE) {
+      throw new AbortException("Columnar bundle header is corrupt.");
+    }
+    ByteBuffer header = map(0, dataStart);
+    header.position(pre.position());
+    final long rows = header.getLong();
+    final int cols = header.getInt();
+    if(rows > Integer.MAX_VALUE) {
+      throw new AbortException("Too many rows: " + rows);
+    }
+    MultipleObjectsBundle bundle = new MultipleObjectsBundle();
+    for(int c = 0; c < cols; c++) {
+      final byte kind = header.get();
+      final long start = dataStart + header.getLong();
+      final SimpleTypeInformation<?> type = (SimpleTypeInformation<?>) TypeInformationSerializer.STATIC.fromByteBuffer(header);
+      switch(kind){
+      case ColumnarBundleWriter.KIND_VECTOR:
+        readVectors(bundle, (VectorFieldTypeInformation<?>) type, header.getInt(), (int) rows, start);
+        break;
+      case ColumnarBundleWriter.KIND_LABELS: {
+        String[] dict = new String[header.getInt()];
+        for(int i = 0; i < dict.length; i++) {
+          dict[i] = ByteArrayUtil.readString(header);
+        }
+        bundle.appendColumn(type, readLabels(dict, (int) rows, start));
+        break;
+      }
+      case ColumnarBundleWriter.KIND_OBJECT:
+        bundle.appendColumn(type, readObjects(type.getSerializer(), (int) rows, start));
+        break;
+      default:
+        throw new AbortException("Unknown column kind: " + kind);
+      }
+    }
+    return bundle;
+  }
+
+  /**
+   * Map a vector column.
+   *
+   * @param bundle Output bundle
+   * @param type Original type
+   * @param dim Dimensionality
+   * @param rows Number of rows
+   * @param start Start position in the file
+   * @throws IOException on IO errors
+   */
+  private void readVectors(MultipleObjectsBundle bundle, VectorFieldTypeInformation<?> type, int dim, int rows, long start) throws IOException {
+    final long rowsize = dim * (long) ByteArrayUtil.SIZE_DOUBLE;
+    final int perseg = (int) Math.max(1, Math.min(rows, MAX_SEGMENT / Math.max(rowsize, 1)));
+    DoubleBuffer[] segments = new DoubleBuffer[rows > 0 ? (rows - 1) / perseg + 1 : 0];
+    for(int s = 0; s < segments.length; s++) {
+      final int n = Math.min(perseg, rows - s * perseg);
+      segments[s] = map(start + s * (long) perseg * rowsize, n * rowsize).asDoubleBuffer();
+    }
+    MappedVectorList views = new MappedVectorList(segments, perseg, dim, rows);
+    if(!copy) {
+      String[] labels = new String[dim];
+      for(int i = 0; i < dim; i++) {
+        labels[i] = type.getLabel(i);
+      }
+      boolean haslabels = dim > 0 && Arrays.stream(labels).anyMatch(x -> x != null);
+      bundle.appendColumn(new VectorFieldTypeInformation<>(DoubleBufferVector.FACTORY, dim, haslabels ? labels : null), views);
+      return;
+    }
+    @SuppressWarnings("unchecked")
+    NumberVector.Factory<NumberVector> factory = (NumberVector.Factory<NumberVector>) type.getFactory();
+    List<NumberVector> vecs = new ArrayList<>(rows);
+    for(DoubleBufferVector v : views) {
+      vecs.add(factory.newNumberVector(v));
+    }
+    bundle.appendColumn(type, vecs);
+  }
+
+  /**
+   * Decode a label column.
+   *
+   * @param dict Label dictionary
+   * @param rows Number of rows
+   * @param start Start position in the file
+   * @return Label lists
+   * @throws IOException on IO errors
+   */
+  private List<LabelList> readLabels(String[] dict, int rows, long start) throws IOException {
+    LabelList[] single = new LabelList[dict.length];
+    List<LabelList> labels = new ArrayList<>(rows);
+    Cursor cur = new Cursor(start);
+    for(int i = 0; i < rows; i++) {
+      final int n = cur.ensure(ByteArrayUtil.SIZE_INT).getInt();
+      ByteBuffer buf = cur.ensure(n * ByteArrayUtil.SIZE_INT);
+      if(n == 1) {
+        final int l = buf.getInt();
+        labels.add(single[l] != null ? single[l] : (single[l] = LabelList.make(Arrays.asList(dict[l]))));
+        continue;
+      }
+      String[] row = new String[n];
+      for(int j = 0; j < n; j++) {
+        row[j] = dict[buf.getInt()];
+      }
+      labels.add(LabelList.make(Arrays.asList(row)));
+    }
+    return labels;
+  }
+
+  /**
+   * Deserialize an object column.
+   *
+   * @param ser Serializer
+   * @param rows Number of rows
+   * @param start Start position in the file
+   * @return Objects
+   * @throws IOException on IO errors
+   */
+  private List<Object> readObjects(ByteBufferSerializer<?> ser, int rows, long start) throws IOException {
+    if(ser == null) {
+      throw new AbortException("No serializer available.");
+    }
+    List<Object> objs = new ArrayList<>(rows);
+    Cursor cur = new Cursor(start);
+    for(int i = 0; i < rows; i++) {
+      final int size = cur.ensure(ByteArrayUtil.SIZE_INT).getInt();
+      ByteBuffer buf = cur.ensure(size);
+      final int end = buf.position() + size;
+      objs.add(ser.fromByteBuffer(buf));
+      buf.position(end);
+    }
+    return objs;
+  }
+
+  /**
+   * Map a region of the file.
+   *
+   * @param pos Position
+   * @param len Length
+   * @return Little-endian buffer
+   * @throws IOException on IO errors
+   */
+  private ByteBuffer map(long pos, long len) throws IOException {
+    return channel.map(MapMode.READ_ONLY, pos, len).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Sequential reader over a sliding mapped window.
+   *
+   * @author Erich Schubert
+   */
+  private class Cursor {
+    /**
+     * Current window.
+     */
+    private ByteBuffer buf;
+
+    /**
+     * File position of the window.
+     */
+    private long pos;
+
+    /**
+     * Constructor.
+     *
+     * @param pos Start position
+     */
+    Cursor(long pos) {
+      this.pos = pos;
+      this.buf = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Ensure that the given number of bytes can be read from the window.
+     *
+     * @param n Number of bytes
+     * @return Window
+     * @throws IOException on IO errors
+     */
+    ByteBuffer ensure(int n) throws IOException {
+      if(buf.remaining() < n) {
+        pos += buf.position();
+        final long len = Math.min(Math.max(MAX_SEGMENT, n), channel.size() - pos);
+        if(len < n) {
+          throw new AbortException("Unexpected end of columnar bundle.");
+        }
+        buf = map(pos, len);
+      }
+      return buf;
+    }
+  }
+
+  /**
+   * List of vector views into mapped segments.
+   *
+   * @author Erich Schubert
+   */
+  private static class MappedVectorList extends AbstractList<DoubleBufferVector> implements RandomAccess {
+    /**
+     * Mapped segments.
+     */
+    private final DoubleBuffer[] segments;
+
+    /**
+     * Rows per segment, dimensionality, number of rows.
+     */
+    private final int perseg, dim, rows;
+
+    /**
+     * Constructor.
+     *
+     * @param segments Mapped segments
+     * @param perseg Rows per segment
+     * @param dim Dimensionality
+     * @param rows Number of rows
+     */
+    MappedVectorList(DoubleBuffer[] segments, int perseg, int dim, int rows) {
+      this.segments = segments;
+      this.perseg = perseg;
+      this.dim = dim;
+      this.rows = rows;
+    }
+
+    @Override
+    public DoubleBufferVector get(int index) {
+      if(index < 0 || index >= rows) {
+        throw new IndexOutOfBoundsException("Index: " + index + " Size: " + rows);
+      }
+      final int s = index / perseg;
+      return new DoubleBufferVector(segments[s], (index - s * perseg) * dim, dim);
+    }
+
+    @Override
+    public int size() {
+      return rows;
+    }
+  }
+}
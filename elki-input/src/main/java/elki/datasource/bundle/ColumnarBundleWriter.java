@@ -0,0 +1,342 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.bundle;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import elki.data.LabelList;
+import elki.data.NumberVector;
+import elki.data.SparseNumberVector;
+import elki.data.type.SimpleTypeInformation;
+import elki.data.type.TypeInformationSerializer;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.logging.Logging;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+/**
+ * Write an object bundle in a columnar binary format that can be memory-mapped
+ * by {@link ColumnarBundleReader}.
+ * <p>
+ * The file consists of a header with the type information of every column,
+ * followed by the column data, each aligned to 8 bytes:
+ * <ul>
+ * <li>dense numerical vector fields are stored as fixed-width rows of
+ * doubles, so they can be accessed at random without decoding;</li>
+ * <li>label lists are dictionary-encoded: the header contains all distinct
+ * labels, and each row stores the label count followed by the label
+ * indexes;</li>
+ * <li>all other types are stored with their serializer, prefixed with the
+ * length of each object.</li>
+ * </ul>
+ * All values are stored in little-endian byte order. Object ids are not
+ * stored.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @assoc - reads - MultipleObjectsBundle
+ * @assoc - writes - WritableByteChannel
+ */
+public class ColumnarBundleWriter {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ColumnarBundleWriter.class);
+
+  /**
+   * Magic number, distinct from {@link BundleWriter#MAGIC}.
+   */
+  public static final int MAGIC = 0xa8123b13;
+
+  /**
+   * Format version.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Column of fixed-width double vectors.
+   */
+  static final byte KIND_VECTOR = 1;
+
+  /**
+   * Column of dictionary-encoded label lists.
+   */
+  static final byte KIND_LABELS = 2;
+
+  /**
+   * Column of serialized objects.
+   */
+  static final byte KIND_OBJECT = 3;
+
+  /**
+   * Size of the write buffer.
+   */
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Initial size of the header buffer.
+   */
+  private static final int INITIAL_HEADER = 4096;
+
+  /**
+   * Write a bundle to an output channel.
+   *
+   * @param bundle Bundle to write
+   * @param output Output channel
+   * @throws IOException on IO errors
+   */
+  public void writeBundle(MultipleObjectsBundle bundle, WritableByteChannel output) throws IOException {
+    if(bundle.getDBIDs() != null) {
+      LOG.warning("Object ids are not stored in columnar bundles.");
+    }
+    final int rows = bundle.dataLength(), cols = bundle.metaLength();
+    byte[] kinds = new byte[cols];
+    int[] dims = new int[cols];
+    long[] sizes = new long[cols];
+    List<List<String>> dicts = new ArrayList<>(cols);
+    for(int c = 0; c < cols; c++) {
+      final SimpleTypeInformation<?> type = bundle.meta(c);
+      final List<?> column = bundle.getColumn(c);
+      kinds[c] = kindOf(type);
+      List<String> dict = null;
+      switch(kinds[c]){
+      case KIND_VECTOR:
+        dims[c] = ((VectorFieldTypeInformation<?>) type).getDimensionality();
+        sizes[c] = rows * (long) dims[c] * ByteArrayUtil.SIZE_DOUBLE;
+        break;
+      case KIND_LABELS: {
+        dict = new ArrayList<>();
+        Object2IntOpenHashMap<String> map = new Object2IntOpenHashMap<>();
+        map.defaultReturnValue(-1);
+        long total = rows;
+        for(Object o : column) {
+          LabelList ll = (LabelList) o;
+          total += ll.size();
+          for(int i = 0; i < ll.size(); i++) {
+            if(map.putIfAbsent(ll.get(i), dict.size()) == map.defaultReturnValue()) {
+              dict.add(ll.get(i));
+            }
+          }
+        }
+        sizes[c] = total * ByteArrayUtil.SIZE_INT;
+        break;
+      }
+      default: {
+        @SuppressWarnings("unchecked")
+        ByteBufferSerializer<Object> ser = (ByteBufferSerializer<Object>) type.getSerializer();
+        if(ser == null) {
+          throw new AbortException("No serializer available for column " + c + " of type " + type);
+        }
+        long total = rows * (long) ByteArrayUtil.SIZE_INT;
+        for(Object o : column) {
+          total += ser.getByteSize(o);
+        }
+        sizes[c] = total;
+      }
+      }
+      dicts.add(dict);
+    }
+    ByteBuffer header = writeHeader(bundle, rows, kinds, dims, sizes, dicts);
+    final int hsize = header.position();
+    final long dataStart = align(hsize);
+    header.putLong(2 * ByteArrayUtil.SIZE_INT, dataStart).flip();
+    while(header.hasRemaining()) {
+      output.write(header);
+    }
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    pad(dataStart - hsize, buffer, output);
+    // Column data:
+    for(int c = 0; c < cols; c++) {
+      final List<?> column = bundle.getColumn(c);
+      switch(kinds[c]){
+      case KIND_VECTOR:
+        for(Object o : column) {
+          NumberVector v = (NumberVector) o;
+          if(v.getDimensionality() != dims[c]) {
+            throw new AbortException("Vector of dimensionality " + v.getDimensionality() + " in a column of dimensionality " + dims[c]);
+          }
+          buffer = ensureBuffer(dims[c] * ByteArrayUtil.SIZE_DOUBLE, buffer, output);
+          for(int d = 0; d < dims[c]; d++) {
+            buffer.putDouble(v.doubleValue(d));
+          }
+        }
+        break;
+      case KIND_LABELS: {
+        Object2IntOpenHashMap<String> map = new Object2IntOpenHashMap<>();
+        List<String> dict = dicts.get(c);
+        for(int i = 0; i < dict.size(); i++) {
+          map.put(dict.get(i), i);
+        }
+        for(Object o : column) {
+          LabelList ll = (LabelList) o;
+          buffer = ensureBuffer((ll.size() + 1) * ByteArrayUtil.SIZE_INT, buffer, output);
+          buffer.putInt(ll.size());
+          for(int i = 0; i < ll.size(); i++) {
+            buffer.putInt(map.getInt(ll.get(i)));
+          }
+        }
+        break;
+      }
+      default: {
+        @SuppressWarnings("unchecked")
+        ByteBufferSerializer<Object> ser = (ByteBufferSerializer<Object>) bundle.meta(c).getSerializer();
+        for(Object o : column) {
+          final int size = ser.getByteSize(o);
+          buffer = ensureBuffer(size + ByteArrayUtil.SIZE_INT, buffer, output);
+          buffer.putInt(size);
+          ser.toByteBuffer(buffer, o);
+        }
+      }
+      }
+      pad(align(sizes[c]) - sizes[c], buffer, output);
+    }
+    flushBuffer(buffer, output);
+  }
+
+  /**
+   * Serialize the header into a heap buffer.
+   *
+   * @param bundle Bundle
+   * @param rows Number of rows
+   * @param kinds Column kinds
+   * @param dims Vector dimensionalities
+   * @param sizes Column sizes
+   * @param dicts Label dictionaries
+   * @return Header buffer, the data start position is not yet set
+   * @throws IOException on IO errors
+   */
+  private static ByteBuffer writeHeader(MultipleObjectsBundle bundle, int rows, byte[] kinds, int[] dims, long[] sizes, List<List<String>> dicts) throws IOException {
+    for(int capacity = INITIAL_HEADER;; capacity <<= 1) {
+      ByteBuffer buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+      try {
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(0L).putLong(rows).putInt(kinds.length);
+        long offset = 0;
+        for(int c = 0; c < kinds.length; c++) {
+          buffer.put(kinds[c]).putLong(offset);
+          offset += align(sizes[c]);
+          TypeInformationSerializer.STATIC.toByteBuffer(buffer, bundle.meta(c));
+          if(kinds[c] == KIND_VECTOR) {
+            buffer.putInt(dims[c]);
+          }
+          else if(kinds[c] == KIND_LABELS) {
+            buffer.putInt(dicts.get(c).size());
+            for(String s : dicts.get(c)) {
+              ByteArrayUtil.writeString(buffer, s);
+            }
+          }
+        }
+        return buffer;
+      }
+      catch(BufferOverflowException e) {
+        if(capacity > Integer.MAX_VALUE >> 1) {
+          throw new AbortException("Header too large.");
+        }
+      }
+    }
+  }
+
+  /**
+   * Choose the storage layout of a column.
+   *
+   * @param type Column type
+   * @return Column kind
+   */
+  static byte kindOf(SimpleTypeInformation<?> type) {
+    final Class<?> cls = type.getRestrictionClass();
+    if(type instanceof VectorFieldTypeInformation && NumberVector.class.isAssignableFrom(cls) && !SparseNumberVector.class.isAssignableFrom(cls)) {
+      VectorFieldTypeInformation<?> vtype = (VectorFieldTypeInformation<?>) type;
+      if(vtype.mindim() == vtype.maxdim()) {
+        return KIND_VECTOR;
+      }
+    }
+    return LabelList.class.equals(cls) ? KIND_LABELS : KIND_OBJECT;
+  }
+
+  /**
+   * Round up to a multiple of 8 bytes.
+   *
+   * @param size Size
+   * @return Aligned size
+   */
+  static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  /**
+   * Write padding zeros.
+   *
+   * @param n Number of bytes (less than 8)
+   * @param buffer Buffer
+   * @param output Output channel
+   * @throws IOException on IO errors
+   */
+  private static void pad(long n, ByteBuffer buffer, WritableByteChannel output) throws IOException {
+    buffer = ensureBuffer((int) n, buffer, output);
+    for(int i = 0; i < n; i++) {
+      buffer.put((byte) 0);
+    }
+  }
+
+  /**
+   * Flush the current write buffer.
+   *
+   * @param buffer Buffer to write
+   * @param output Output channel
+   * @throws IOException on IO errors
+   */
+  private static void flushBuffer(ByteBuffer buffer, WritableByteChannel output) throws IOException {
+    buffer.flip();
+    while(buffer.hasRemaining()) {
+      output.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Ensure the buffer has enough space remaining.
+   *
+   * @param size Required size to add
+   * @param buffer Existing buffer
+   * @param output Output channel
+   * @return Buffer, eventually resized
+   * @throws IOException on IO errors
+   */
+  private static ByteBuffer ensureBuffer(int size, ByteBuffer buffer, WritableByteChannel output) throws IOException {
+    if(buffer.remaining() >= size) {
+      return buffer;
+    }
+    flushBuffer(buffer, output);
+    if(buffer.remaining() >= size) {
+      return buffer;
+    }
+    return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
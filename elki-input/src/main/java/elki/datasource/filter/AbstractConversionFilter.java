@@ -20,16 +20,37 @@
  */
 package elki.datasource.filter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import elki.data.type.SimpleTypeInformation;
+import elki.database.ids.DBIDVar;
+import elki.datasource.bundle.BundleMeta;
+import elki.datasource.bundle.BundleStreamSource;
 import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
+import elki.logging.progress.IndefiniteProgress;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.exceptions.AbortException;
 
 /**
  * Abstract base class for simple conversion filters such as normalizations and projections.
+ * <p>
+ * Besides filtering a materialized bundle, these filters can also be used in
+ * a two-pass streaming mode over a source that can be read twice: the
+ * statistics are collected by {@link #prepareStream} in a first pass, and
+ * {@link #convertStream} then converts the objects of a second pass on the
+ * fly. In the streaming mode, only one column can be prepared.
+ * <p>
+ * Filters can opt in to parallel processing of large columns: the statistics
+ * pass is parallelized when {@link #preparePartial} provides mergeable
+ * partial statistics, and the conversion when {@link #canConvertParallel}
+ * returns true.
  * 
  * @author Erich Schubert
  * @since 0.4.0
@@ -38,13 +59,25 @@ import elki.utilities.exceptions.AbortException;
  * @param <O> Input object type
  */
 public abstract class AbstractConversionFilter<I, O> implements ObjectFilter {
+  /**
+   * Minimum number of objects per parallel task.
+   */
+  protected static final int MIN_TASK_SIZE = 256;
+
+  /**
+   * Number of objects per partial of the parallel statistics pass. This is
+   * fixed, to make the results independent of the number of processors.
+   */
+  private static final int PREPARE_BLOCK_SIZE = 1 << 12;
+
   /**
    * A standard implementation of the filter process. First of all, all suitable
    * representations are found. Then (if {@link #prepareStart} returns true),
    * the data is processed read-only in a first pass.
    * 
    * In the main pass, each object is then filtered using
-   * {@link #filterSingleObject}.
+   * {@link #filterSingleObject}. Both passes are run in parallel on large
+   * data sets, if the filter supports this.
    * 
    * @param objects Objects to filter
    * @return Filtered bundle
@@ -73,34 +106,201 @@ public abstract class AbstractConversionFilter<I, O> implements ObjectFilter {
       // When necessary, perform an initialization scan
       if(prepareStart(castType)) {
         FiniteProgress pprog = logger.isVerbose() ? new FiniteProgress("Preparing normalization", objects.dataLength(), logger) : null;
-        for(Object o : column) {
-          @SuppressWarnings("unchecked")
-          final I obj = (I) o;
-          prepareProcessInstance(obj);
-          logger.incrementProcessed(pprog);
+        if(!prepareParallel(column, pprog)) {
+          for(Object o : column) {
+            @SuppressWarnings("unchecked")
+            final I obj = (I) o;
+            prepareProcessInstance(obj);
+            logger.incrementProcessed(pprog);
+          }
         }
         logger.ensureCompleted(pprog);
         prepareComplete();
       }
 
-      @SuppressWarnings("unchecked")
-      final List<O> castColumn = (List<O>) column;
-      bundle.appendColumn(convertedType(castType), castColumn);
+      final SimpleTypeInformation<? super O> outType = convertedType(castType);
+      // Overwrite the input column when possible.
+      final List<Object> out = column instanceof ArrayList ? column : new ArrayList<>(Collections.nCopies(column.size(), null));
+      bundle.appendColumn(outType, out);
 
       // Normalization scan
       FiniteProgress nprog = logger.isVerbose() ? new FiniteProgress("Data normalization", objects.dataLength(), logger) : null;
-      for(int i = 0; i < objects.dataLength(); i++) {
-        @SuppressWarnings("unchecked")
-        final I obj = (I) column.get(i);
-        final O normalizedObj = filterSingleObject(obj);
-        castColumn.set(i, normalizedObj);
-        logger.incrementProcessed(nprog);
+      if(!convertParallel(column, out, nprog)) {
+        for(int begin = 0; begin < column.size(); begin += MIN_TASK_SIZE) {
+          final int end = Math.min(begin + MIN_TASK_SIZE, column.size());
+          convertBlock(column, out, begin, end);
+          if(nprog != null) {
+            nprog.setProcessed(end, logger);
+          }
+        }
       }
       logger.ensureCompleted(nprog);
     }
     return bundle;
   }
 
+  /**
+   * Collect the statistics in parallel, if supported by the filter.
+   * <p>
+   * Each block of {@link #PREPARE_BLOCK_SIZE} objects is collected into its
+   * own partial, and the partials are merged in block order. The partitioning
+   * thus only depends on the data size, not on the number of processors, so
+   * the (floating point) results are reproducible across machines. They may
+   * still differ in the last digits from a sequential pass.
+   *
+   * @param column Data column
+   * @param prog Progress
+   * @return {@code false} if the statistics must be collected sequentially
+   */
+  private boolean prepareParallel(List<?> column, FiniteProgress prog) {
+    final int size = column.size();
+    final int numblocks = (int) ((size + (long) PREPARE_BLOCK_SIZE - 1) / PREPARE_BLOCK_SIZE);
+    Partial<I> first = numblocks > 1 ? preparePartial() : null;
+    if(first == null) {
+      return false;
+    }
+    final Logging logger = getLogger();
+    List<Callable<Partial<I>>> tasks = new ArrayList<>(numblocks);
+    for(int t = 0; t < numblocks; t++) {
+      final int begin = t * PREPARE_BLOCK_SIZE;
+      final int end = Math.min(begin + PREPARE_BLOCK_SIZE, size);
+      final Partial<I> partial = t == 0 ? first : preparePartial();
+      tasks.add(() -> {
+        for(int i = begin; i < end; i++) {
+          @SuppressWarnings("unchecked")
+          final I obj = (I) column.get(i);
+          partial.put(obj);
+        }
+        if(prog != null) {
+          prog.incrementProcessed(end - begin, logger);
+        }
+        return partial;
+      });
+    }
+    // Merge in order, for deterministic results.
+    for(Partial<I> partial : ParallelExecutor.runTasks(tasks)) {
+      prepareMerge(partial);
+    }
+    return true;
+  }
+
+  /**
+   * Convert the objects in parallel, if supported by the filter.
+   *
+   * @param column Input column
+   * @param out Output column (may be the same list)
+   * @param prog Progress
+   * @return {@code false} if the objects must be converted sequentially
+   */
+  private boolean convertParallel(List<?> column, List<Object> out, FiniteProgress prog) {
+    final int numtasks = numTasks(column.size());
+    if(numtasks <= 1 || !canConvertParallel()) {
+      return false;
+    }
+    final Logging logger = getLogger();
+    final int size = column.size();
+    List<Callable<Void>> tasks = new ArrayList<>(numtasks);
+    for(int t = 0; t < numtasks; t++) {
+      final int begin = (int) (size * (long) t / numtasks);
+      final int end = (int) (size * (long) (t + 1) / numtasks);
+      tasks.add(() -> {
+        for(int b = begin; b < end; b += MIN_TASK_SIZE) {
+          final int e = Math.min(b + MIN_TASK_SIZE, end);
+          convertBlock(column, out, b, e);
+          if(prog != null) {
+            prog.incrementProcessed(e - b, logger);
+          }
+        }
+        return null;
+      });
+    }
+    ParallelExecutor.runTasks(tasks);
+    return true;
+  }
+
+  /**
+   * Number of parallel tasks to use.
+   *
+   * @param size Data size
+   * @return Number of tasks, 1 for sequential processing
+   */
+  private static int numTasks(int size) {
+    return Math.max(1, Math.min(size / MIN_TASK_SIZE, ParallelCore.ALL_PROCESSORS << 2));
+  }
+
+  /**
+   * Statistics pass of the streaming mode.
+   * <p>
+   * The stream is only read completely if a column needs preparation. The
+   * caller must then start a new pass over the same data for
+   * {@link #convertStream}. The source is closed in either case.
+   *
+   * @param source Data source
+   * @return {@code true} if a column was prepared
+   */
+  public boolean prepareStream(BundleStreamSource source) {
+    final Logging logger = getLogger();
+    IndefiniteProgress prog = null;
+    int column = -1, seen = 0;
+    try {
+      while(true) {
+        switch(source.nextEvent()){
+        case META_CHANGED: {
+          final BundleMeta meta = source.getMeta();
+          for(int i = seen; i < meta.size(); i++) {
+            if(!getInputTypeRestriction().isAssignableFromType(meta.get(i))) {
+              continue;
+            }
+            if(column >= 0) {
+              throw new AbortException("Filter " + this + " can only prepare a single column in streaming mode.");
+            }
+            @SuppressWarnings("unchecked")
+            final SimpleTypeInformation<I> castType = (SimpleTypeInformation<I>) meta.get(i);
+            column = prepareStart(castType) ? i : -1;
+          }
+          seen = meta.size();
+          break;
+        }
+        case NEXT_OBJECT: {
+          if(column < 0) {
+            return false; // Nothing to prepare.
+          }
+          if(prog == null && logger.isVerbose()) {
+            prog = new IndefiniteProgress("Preparing normalization", logger);
+          }
+          @SuppressWarnings("unchecked")
+          final I obj = (I) source.data(column);
+          prepareProcessInstance(obj);
+          logger.incrementProcessed(prog);
+          break;
+        }
+        case END_OF_STREAM:
+          logger.setCompleted(prog);
+          if(column < 0) {
+            return false;
+          }
+          prepareComplete();
+          return true;
+        }
+      }
+    }
+    finally {
+      // Release the source, in particular when it was not read to the end.
+      source.close();
+    }
+  }
+
+  /**
+   * Conversion pass of the streaming mode: convert all matching columns of the
+   * stream on the fly, using the statistics of {@link #prepareStream}.
+   *
+   * @param source Data source
+   * @return Converted stream
+   */
+  public BundleStreamSource convertStream(BundleStreamSource source) {
+    return new ConvertedStream(source);
+  }
+
   /**
    * Class logger.
    * 
@@ -160,8 +360,173 @@ public abstract class AbstractConversionFilter<I, O> implements ObjectFilter {
     // optional - default NOOP.
   }
 
+  /**
+   * Get a partial statistics collector for parallel initialization, which will
+   * be merged using {@link #prepareMerge}. Filters that return {@code null}
+   * (the default) are prepared sequentially using
+   * {@link #prepareProcessInstance}.
+   *
+   * @return New empty partial, or {@code null}
+   */
+  protected Partial<I> preparePartial() {
+    return null;
+  }
+
+  /**
+   * Merge a partial result of the parallel initialization, before
+   * {@link #prepareComplete} is called.
+   *
+   * @param partial Partial statistics
+   */
+  protected void prepareMerge(Partial<I> partial) {
+    throw new AbortException("prepareMerge not implemented, but preparePartial not null?");
+  }
+
+  /**
+   * Return "true" when {@link #filterSingleObject} (and
+   * {@link #convertBlock}) can be used concurrently from multiple threads.
+   *
+   * @return true or false
+   */
+  protected boolean canConvertParallel() {
+    return false;
+  }
+
+  /**
+   * Convert a block of objects.
+   *
+   * @param in Input objects
+   * @param out Output list (may be the same list)
+   * @param begin First index
+   * @param end End index (exclusive)
+   */
+  protected void convertBlock(List<?> in, List<Object> out, int begin, int end) {
+    for(int i = begin; i < end; i++) {
+      @SuppressWarnings("unchecked")
+      final I obj = (I) in.get(i);
+      out.set(i, filterSingleObject(obj));
+    }
+  }
+
   @Override
   public String toString() {
     return getClass().getName();
   }
+
+  /**
+   * Partial statistics for parallel initialization.
+   *
+   * @author Erich Schubert
+   *
+   * @param <I> Input object type
+   */
+  @FunctionalInterface
+  protected interface Partial<I> {
+    /**
+     * Process a single object.
+     *
+     * @param obj Object to process
+     */
+    void put(I obj);
+  }
+
+  /**
+   * Stream converting the matching columns on the fly.
+   *
+   * @author Erich Schubert
+   */
+  private class ConvertedStream implements BundleStreamSource {
+    /**
+     * Data source.
+     */
+    private BundleStreamSource source;
+
+    /**
+     * Converted meta.
+     */
+    private BundleMeta meta = new BundleMeta();
+
+    /**
+     * Columns to convert.
+     */
+    private boolean[] convert = new boolean[0];
+
+    /**
+     * Converted objects of the current row.
+     */
+    private Object[] converted = new Object[0];
+
+    /**
+     * Constructor.
+     *
+     * @param source Data source
+     */
+    ConvertedStream(BundleStreamSource source) {
+      this.source = source;
+    }
+
+    @Override
+    public BundleMeta getMeta() {
+      return meta;
+    }
+
+    @Override
+    public Object data(int rnum) {
+      if(!convert[rnum]) {
+        return source.data(rnum);
+      }
+      if(converted[rnum] == null) {
+        @SuppressWarnings("unchecked")
+        final I obj = (I) source.data(rnum);
+        converted[rnum] = filterSingleObject(obj);
+      }
+      return converted[rnum];
+    }
+
+    @Override
+    public boolean hasDBIDs() {
+      return source.hasDBIDs();
+    }
+
+    @Override
+    public boolean assignDBID(DBIDVar var) {
+      return source.assignDBID(var);
+    }
+
+    @Override
+    public Event nextEvent() {
+      final Event ev = source.nextEvent();
+      if(ev == Event.META_CHANGED) {
+        final BundleMeta origmeta = source.getMeta();
+        convert = Arrays.copyOf(convert, origmeta.size());
+        converted = new Object[origmeta.size()];
+        for(int i = meta.size(); i < origmeta.size(); i++) {
+          @SuppressWarnings("unchecked")
+          final SimpleTypeInformation<Object> type = (SimpleTypeInformation<Object>) origmeta.get(i);
+          if(getInputTypeRestriction().isAssignableFromType(type)) {
+            @SuppressWarnings("unchecked")
+            final SimpleTypeInformation<I> castType = (SimpleTypeInformation<I>) type;
+            meta.add(convertedType(castType));
+            convert[i] = true;
+            continue;
+          }
+          meta.add(type);
+        }
+      }
+      else if(ev == Event.NEXT_OBJECT) {
+        Arrays.fill(converted, null);
+      }
+      return ev;
+    }
+
+    @Override
+    public void close() {
+      source.close();
+    }
+
+    @Override
+    public MultipleObjectsBundle asMultipleObjectsBundle() {
+      return MultipleObjectsBundle.fromStream(this);
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.filter;
+
+import java.nio.DoubleBuffer;
+import java.util.List;
+
+import elki.data.DoubleBufferVector;
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+
+/**
+ * Abstract class for filters that produce number vectors of a fixed
+ * dimensionality, and write their output directly into the final storage: a
+ * {@link DoubleVector} wrapping the output array, or packed blocks of
+ * {@link DoubleBufferVector}s (e.g., for memory-mapped input) without an array
+ * per object.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <I> Input vector type
+ * @param <O> Output vector type
+ */
+public abstract class AbstractPackedVectorConversionFilter<I, O extends NumberVector> extends AbstractVectorConversionFilter<I, O> {
+  /**
+   * Maximum number of values in one packed block.
+   */
+  private static final int MAX_PACKED = 1 << 24;
+
+  /**
+   * Output dimensionality of {@link #transform}.
+   *
+   * @return Output dimensionality, or -1 to convert each object with
+   *         {@link #filterSingleObject} instead
+   */
+  protected abstract int packedDimensionality();
+
+  /**
+   * Transform a single object into an output array.
+   *
+   * @param obj Object to transform
+   * @param out Output array
+   * @param off Offset in the output array
+   */
+  protected abstract void transform(I obj, double[] out, int off);
+
+  @Override
+  protected void convertBlock(List<?> in, List<Object> out, int begin, int end) {
+    final int dim = packedDimensionality();
+    if(dim <= 0) {
+      super.convertBlock(in, out, begin, end);
+      return;
+    }
+    if(factory instanceof DoubleBufferVector.Factory) {
+      final int maxlen = Math.max(1, MAX_PACKED / dim);
+      for(int start = begin; start < end; start += maxlen) {
+        final int len = Math.min(end - start, maxlen);
+        final double[] packed = new double[len * dim];
+        for(int i = 0; i < len; i++) {
+          @SuppressWarnings("unchecked")
+          final I obj = (I) in.get(start + i);
+          transform(obj, packed, i * dim);
+        }
+        final DoubleBuffer buffer = DoubleBuffer.wrap(packed);
+        for(int i = 0; i < len; i++) {
+          out.set(start + i, new DoubleBufferVector(buffer, i * dim, dim));
+        }
+      }
+      return;
+    }
+    final boolean wrap = factory instanceof DoubleVector.Factory;
+    for(int i = begin; i < end; i++) {
+      @SuppressWarnings("unchecked")
+      final I obj = (I) in.get(i);
+      final double[] values = new double[dim];
+      transform(obj, values, 0);
+      out.set(i, wrap ? DoubleVector.wrap(values) : factory.newNumberVector(values));
+    }
+  }
+}
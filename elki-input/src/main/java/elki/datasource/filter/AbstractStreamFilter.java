@@ -57,6 +57,13 @@ public abstract class AbstractStreamFilter implements StreamFilter {
     return source.assignDBID(var);
   }
 
+  @Override
+  public void close() {
+    if(source != null) {
+      source.close();
+    }
+  }
+
   @Override
   public MultipleObjectsBundle asMultipleObjectsBundle() {
     return MultipleObjectsBundle.fromStream(this);
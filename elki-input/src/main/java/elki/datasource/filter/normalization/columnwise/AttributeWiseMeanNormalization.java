@@ -23,7 +23,7 @@ package elki.datasource.filter.normalization.columnwise;
 import elki.data.NumberVector;
 import elki.data.type.SimpleTypeInformation;
 import elki.data.type.TypeUtil;
-import elki.datasource.filter.AbstractVectorConversionFilter;
+import elki.datasource.filter.AbstractPackedVectorConversionFilter;
 import elki.datasource.filter.normalization.NonNumericFeaturesException;
 import elki.datasource.filter.normalization.Normalization;
 import elki.logging.Logging;
@@ -44,7 +44,7 @@ import elki.utilities.io.FormatUtil;
  *
  * @param <V> vector type
  */
-public class AttributeWiseMeanNormalization<V extends NumberVector> extends AbstractVectorConversionFilter<V, V> implements Normalization<V> {
+public class AttributeWiseMeanNormalization<V extends NumberVector> extends AbstractPackedVectorConversionFilter<V, V> implements Normalization<V> {
   /**
    * Class logger.
    */
@@ -89,6 +89,42 @@ public class AttributeWiseMeanNormalization<V extends NumberVector> extends Abst
 
   @Override
   protected void prepareProcessInstance(V featureVector) {
+    sums = put(sums, featureVector);
+    ++c;
+  }
+
+  @Override
+  protected Partial<V> preparePartial() {
+    return new PartialSums<>();
+  }
+
+  @Override
+  protected void prepareMerge(Partial<V> partial) {
+    final PartialSums<V> other = (PartialSums<V>) partial;
+    if(other.sums == null) {
+      return;
+    }
+    c += other.c;
+    if(sums == null || sums.length == 0) {
+      sums = other.sums;
+      return;
+    }
+    if(sums.length != other.sums.length) {
+      throw new IllegalArgumentException("FeatureVectors differ in length.");
+    }
+    for(int d = 0; d < sums.length; d++) {
+      sums[d] += other.sums[d];
+    }
+  }
+
+  /**
+   * Add a vector to the sums.
+   *
+   * @param sums Sums, may be {@code null}
+   * @param featureVector Vector to add
+   * @return Sums
+   */
+  private static double[] put(double[] sums, NumberVector featureVector) {
     // First object? Then init. (We didn't have a dimensionality before!)
     if(sums == null || sums.length == 0) {
       sums = new double[featureVector.getDimensionality()];
@@ -96,7 +132,7 @@ public class AttributeWiseMeanNormalization<V extends NumberVector> extends Abst
     for(int d = 0; d < featureVector.getDimensionality(); d++) {
       sums[d] += featureVector.doubleValue(d);
     }
-    ++c;
+    return sums;
   }
 
   @Override
@@ -128,6 +164,27 @@ public class AttributeWiseMeanNormalization<V extends NumberVector> extends Abst
     return factory.newNumberVector(values);
   }
 
+  @Override
+  protected boolean canConvertParallel() {
+    return true;
+  }
+
+  @Override
+  protected int packedDimensionality() {
+    // A single mean applies to any dimensionality.
+    return mean.length > 1 ? mean.length : -1;
+  }
+
+  @Override
+  protected void transform(V featureVector, double[] out, int off) {
+    if(featureVector.getDimensionality() != mean.length) {
+      throw new IllegalArgumentException("FeatureVectors and given means differ in length.");
+    }
+    for(int d = 0; d < mean.length; d++) {
+      out[off + d] = featureVector.doubleValue(d) / mean[d];
+    }
+  }
+
   @Override
   public V restore(V featureVector) throws NonNumericFeaturesException {
     if(featureVector.getDimensionality() != mean.length) {
@@ -206,4 +263,29 @@ public class AttributeWiseMeanNormalization<V extends NumberVector> extends Abst
   protected SimpleTypeInformation<? super V> getInputTypeRestriction() {
     return TypeUtil.NUMBER_VECTOR_FIELD;
   }
+
+  /**
+   * Partial sums for parallel initialization.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> vector type
+   */
+  private static class PartialSums<V extends NumberVector> implements Partial<V> {
+    /**
+     * Per-dimension sums.
+     */
+    double[] sums = null;
+
+    /**
+     * Number of vectors.
+     */
+    int c = 0;
+
+    @Override
+    public void put(V featureVector) {
+      sums = AttributeWiseMeanNormalization.put(sums, featureVector);
+      ++c;
+    }
+  }
 }
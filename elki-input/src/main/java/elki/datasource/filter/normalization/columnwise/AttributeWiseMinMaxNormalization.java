@@ -20,10 +20,12 @@
  */
 package elki.datasource.filter.normalization.columnwise;
 
+import java.util.Arrays;
+
 import elki.data.NumberVector;
 import elki.data.type.SimpleTypeInformation;
 import elki.data.type.TypeUtil;
-import elki.datasource.filter.AbstractVectorConversionFilter;
+import elki.datasource.filter.AbstractPackedVectorConversionFilter;
 import elki.datasource.filter.normalization.NonNumericFeaturesException;
 import elki.datasource.filter.normalization.Normalization;
 import elki.logging.Logging;
@@ -50,7 +52,7 @@ import elki.utilities.optionhandling.parameters.DoubleListParameter;
  */
 @Priority(Priority.RECOMMENDED)
 @Alias({ "norm", "normalize", "minmax" })
-public class AttributeWiseMinMaxNormalization<V extends NumberVector> extends AbstractVectorConversionFilter<V, V> implements Normalization<V> {
+public class AttributeWiseMinMaxNormalization<V extends NumberVector> extends AbstractPackedVectorConversionFilter<V, V> implements Normalization<V> {
   /**
    * Class logger.
    */
@@ -102,11 +104,45 @@ public class AttributeWiseMinMaxNormalization<V extends NumberVector> extends Ab
       int dimensionality = featureVector.getDimensionality();
       minima = new double[dimensionality];
       maxima = new double[dimensionality];
-      for(int i = 0; i < dimensionality; i++) {
-        maxima[i] = -Double.MAX_VALUE;
-        minima[i] = Double.MAX_VALUE;
-      }
+      Arrays.fill(maxima, -Double.MAX_VALUE);
+      Arrays.fill(minima, Double.MAX_VALUE);
+    }
+    put(minima, maxima, featureVector);
+  }
+
+  @Override
+  protected Partial<V> preparePartial() {
+    return new PartialMinMax<>();
+  }
+
+  @Override
+  protected void prepareMerge(Partial<V> partial) {
+    final PartialMinMax<V> other = (PartialMinMax<V>) partial;
+    if(other.minima == null) {
+      return;
     }
+    if(minima.length == 0 || maxima.length == 0) {
+      minima = other.minima;
+      maxima = other.maxima;
+      return;
+    }
+    if(minima.length != other.minima.length) {
+      throw new IllegalArgumentException("FeatureVectors differ in length.");
+    }
+    for(int d = 0; d < minima.length; d++) {
+      minima[d] = Math.min(minima[d], other.minima[d]);
+      maxima[d] = Math.max(maxima[d], other.maxima[d]);
+    }
+  }
+
+  /**
+   * Update the minima and maxima with a vector.
+   *
+   * @param minima Minima
+   * @param maxima Maxima
+   * @param featureVector Vector to add
+   */
+  private static void put(double[] minima, double[] maxima, NumberVector featureVector) {
     if(minima.length != featureVector.getDimensionality()) {
       throw new IllegalArgumentException("FeatureVectors differ in length.");
     }
@@ -133,6 +169,26 @@ public class AttributeWiseMinMaxNormalization<V extends NumberVector> extends Ab
     return factory.newNumberVector(values);
   }
 
+  @Override
+  protected boolean canConvertParallel() {
+    return true;
+  }
+
+  @Override
+  protected int packedDimensionality() {
+    return minima.length;
+  }
+
+  @Override
+  protected void transform(V featureVector, double[] out, int off) {
+    if(minima.length != featureVector.getDimensionality()) {
+      throw new IllegalArgumentException("FeatureVectors and given Minima/Maxima differ in length.");
+    }
+    for(int d = 0; d < minima.length; d++) {
+      out[off + d] = (featureVector.doubleValue(d) - minima[d]) / factor(d);
+    }
+  }
+
   @Override
   public V restore(V featureVector) throws NonNumericFeaturesException {
     if(featureVector.getDimensionality() != maxima.length || featureVector.getDimensionality() != minima.length) {
@@ -203,6 +259,31 @@ public class AttributeWiseMinMaxNormalization<V extends NumberVector> extends Ab
     return TypeUtil.NUMBER_VECTOR_FIELD;
   }
 
+  /**
+   * Partial minima and maxima for parallel initialization.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> vector type
+   */
+  private static class PartialMinMax<V extends NumberVector> implements Partial<V> {
+    /**
+     * Minimum and maximum in each dimension.
+     */
+    double[] minima = null, maxima = null;
+
+    @Override
+    public void put(V featureVector) {
+      if(minima == null) {
+        minima = new double[featureVector.getDimensionality()];
+        maxima = new double[featureVector.getDimensionality()];
+        Arrays.fill(maxima, -Double.MAX_VALUE);
+        Arrays.fill(minima, Double.MAX_VALUE);
+      }
+      AttributeWiseMinMaxNormalization.put(minima, maxima, featureVector);
+    }
+  }
+
   /**
    * Parameterization class.
    * 
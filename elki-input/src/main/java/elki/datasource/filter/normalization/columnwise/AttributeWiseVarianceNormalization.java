@@ -23,7 +23,7 @@ package elki.datasource.filter.normalization.columnwise;
 import elki.data.NumberVector;
 import elki.data.type.SimpleTypeInformation;
 import elki.data.type.TypeUtil;
-import elki.datasource.filter.AbstractVectorConversionFilter;
+import elki.datasource.filter.AbstractPackedVectorConversionFilter;
 import elki.datasource.filter.normalization.NonNumericFeaturesException;
 import elki.datasource.filter.normalization.Normalization;
 import elki.logging.Logging;
@@ -56,7 +56,7 @@ import elki.utilities.optionhandling.parameters.DoubleListParameter;
  */
 @Alias({ "z", "standard", "standardize", "standardization" })
 @Priority(Priority.RECOMMENDED)
-public class AttributeWiseVarianceNormalization<V extends NumberVector> extends AbstractVectorConversionFilter<V, V> implements Normalization<V> {
+public class AttributeWiseVarianceNormalization<V extends NumberVector> extends AbstractPackedVectorConversionFilter<V, V> implements Normalization<V> {
   /**
    * Class logger.
    */
@@ -103,6 +103,40 @@ public class AttributeWiseVarianceNormalization<V extends NumberVector> extends
 
   @Override
   protected void prepareProcessInstance(V featureVector) {
+    mvs = put(mvs, featureVector);
+  }
+
+  @Override
+  protected Partial<V> preparePartial() {
+    return new PartialMeanVariance<>();
+  }
+
+  @Override
+  protected void prepareMerge(Partial<V> partial) {
+    final MeanVariance[] other = ((PartialMeanVariance<V>) partial).mvs;
+    if(other == null) {
+      return;
+    }
+    if(mvs == null || mvs.length == 0) {
+      mvs = other;
+      return;
+    }
+    if(mvs.length != other.length) {
+      throw new IllegalArgumentException("FeatureVectors differ in length.");
+    }
+    for(int d = 0; d < mvs.length; d++) {
+      mvs[d].put(other[d]);
+    }
+  }
+
+  /**
+   * Add a vector to the per-dimension statistics.
+   *
+   * @param mvs Statistics, may be {@code null}
+   * @param featureVector Vector to add
+   * @return Statistics
+   */
+  private static MeanVariance[] put(MeanVariance[] mvs, NumberVector featureVector) {
     // First object? Then init. (We didn't have a dimensionality before!)
     if(mvs == null || mvs.length == 0) {
       mvs = MeanVariance.newArray(featureVector.getDimensionality());
@@ -113,6 +147,7 @@ public class AttributeWiseVarianceNormalization<V extends NumberVector> extends
         mvs[d].put(v);
       }
     }
+    return mvs;
   }
 
   @Override
@@ -147,6 +182,27 @@ public class AttributeWiseVarianceNormalization<V extends NumberVector> extends
     return factory.newNumberVector(values);
   }
 
+  @Override
+  protected boolean canConvertParallel() {
+    return true;
+  }
+
+  @Override
+  protected int packedDimensionality() {
+    // A single mean and standard deviation apply to any dimensionality.
+    return mean.length > 1 ? mean.length : -1;
+  }
+
+  @Override
+  protected void transform(V featureVector, double[] out, int off) {
+    if(featureVector.getDimensionality() != mean.length) {
+      throw new IllegalArgumentException("FeatureVectors and given mean/stddev differ in length.");
+    }
+    for(int d = 0; d < mean.length; d++) {
+      out[off + d] = (featureVector.doubleValue(d) - mean[d]) / stddev[d];
+    }
+  }
+
   @Override
   public V restore(V featureVector) throws NonNumericFeaturesException {
     if(featureVector.getDimensionality() != mean.length) {
@@ -227,6 +283,25 @@ public class AttributeWiseVarianceNormalization<V extends NumberVector> extends
     return TypeUtil.NUMBER_VECTOR_FIELD;
   }
 
+  /**
+   * Partial statistics for parallel initialization.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> vector type
+   */
+  private static class PartialMeanVariance<V extends NumberVector> implements Partial<V> {
+    /**
+     * Per-dimension statistics.
+     */
+    MeanVariance[] mvs = null;
+
+    @Override
+    public void put(V featureVector) {
+      mvs = AttributeWiseVarianceNormalization.put(mvs, featureVector);
+    }
+  }
+
   /**
    * Parameterization class.
    * 
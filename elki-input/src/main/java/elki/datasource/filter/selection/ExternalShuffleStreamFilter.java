@@ -0,0 +1,428 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.filter.selection;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import elki.database.ids.DBIDVar;
+import elki.datasource.bundle.BundleMeta;
+import elki.datasource.bundle.BundleStreamSource;
+import elki.datasource.filter.AbstractStreamFilter;
+import elki.logging.Logging;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ByteArrayUtil;
+import elki.utilities.io.ByteBufferSerializer;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Shuffle a data stream using external memory.
+ * <p>
+ * Every object is serialized into one of several temporary bucket files,
+ * chosen uniformly at random. The buckets are then read back one at a time,
+ * and shuffled in memory. This yields a uniformly random permutation (as if
+ * the objects were sorted by random keys), while only one bucket needs to be
+ * held in memory in addition to the output. All columns must have a
+ * serializer. Object ids are not preserved, as in
+ * {@link ShuffleObjectsFilter}. The remaining temporary files are deleted
+ * when the stream is closed, re-initialized, or fails.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ExternalShuffleStreamFilter extends AbstractStreamFilter {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ExternalShuffleStreamFilter.class);
+
+  /**
+   * Write buffer size per bucket.
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Number of buckets.
+   */
+  private int numbuckets;
+
+  /**
+   * Random generator.
+   */
+  private RandomFactory rnd;
+
+  /**
+   * Random generator of the current pass.
+   */
+  private Random random;
+
+  /**
+   * Meta data.
+   */
+  private BundleMeta meta;
+
+  /**
+   * Column serializers.
+   */
+  private ByteBufferSerializer<Object>[] serializers;
+
+  /**
+   * Bucket files, {@code null} once read.
+   */
+  private Path[] files;
+
+  /**
+   * Current bucket.
+   */
+  private int bucket;
+
+  /**
+   * Objects of the current bucket.
+   */
+  private Object[][] rows;
+
+  /**
+   * Position in the current bucket.
+   */
+  private int pos;
+
+  /**
+   * Constructor.
+   *
+   * @param numbuckets Number of buckets
+   * @param rnd Random generator
+   */
+  public ExternalShuffleStreamFilter(int numbuckets, RandomFactory rnd) {
+    super();
+    this.numbuckets = numbuckets;
+    this.rnd = rnd;
+  }
+
+  @Override
+  public ExternalShuffleStreamFilter init(BundleStreamSource source) {
+    deleteFiles(); // From an abandoned previous pass
+    super.init(source);
+    this.random = rnd.getSingleThreadedRandom();
+    this.meta = null;
+    this.files = null;
+    this.rows = null;
+    return this;
+  }
+
+  @Override
+  public BundleMeta getMeta() {
+    return meta;
+  }
+
+  @Override
+  public Object data(int rnum) {
+    return rows[pos][rnum];
+  }
+
+  @Override
+  public boolean hasDBIDs() {
+    return false;
+  }
+
+  @Override
+  public boolean assignDBID(DBIDVar var) {
+    var.unset();
+    return false;
+  }
+
+  @Override
+  public Event nextEvent() {
+    try {
+      if(files == null) {
+        spill();
+        bucket = -1;
+        return Event.META_CHANGED;
+      }
+      while(rows == null || ++pos >= rows.length) {
+        rows = null;
+        if(++bucket >= files.length) {
+          return Event.END_OF_STREAM;
+        }
+        rows = readBucket(files[bucket]);
+        pos = -1;
+      }
+      return Event.NEXT_OBJECT;
+    }
+    catch(IOException e) {
+      deleteFiles();
+      throw new UncheckedIOException("IO error in external shuffle", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    deleteFiles();
+    rows = null;
+    super.close();
+  }
+
+  /**
+   * Delete the remaining bucket files.
+   */
+  private void deleteFiles() {
+    if(files == null) {
+      return;
+    }
+    for(Path file : files) {
+      try {
+        if(file != null) {
+          Files.deleteIfExists(file);
+        }
+      }
+      catch(IOException e) {
+        LOG.warning("Could not delete temporary file " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Distribute the input randomly to the bucket files.
+   *
+   * @throws IOException on IO errors
+   */
+  private void spill() throws IOException {
+    files = new Path[numbuckets];
+    FileChannel[] channels = new FileChannel[numbuckets];
+    ByteBuffer[] buffers = new ByteBuffer[numbuckets];
+    long count = 0;
+    boolean success = false;
+    try {
+      for(int i = 0; i < numbuckets; i++) {
+        files[i] = Files.createTempFile("elki-shuffle", ".tmp");
+        files[i].toFile().deleteOnExit();
+        channels[i] = FileChannel.open(files[i], StandardOpenOption.WRITE);
+        buffers[i] = ByteBuffer.allocate(BUFFER_SIZE);
+      }
+      loop: while(true) {
+        switch(source.nextEvent()){
+        case META_CHANGED:
+          if(count > 0) {
+            throw new AbortException("Meta changes are not supported by the external shuffle, once objects have been written.");
+          }
+          initSerializers(source.getMeta());
+          break;
+        case NEXT_OBJECT: {
+          int size = ByteArrayUtil.SIZE_INT;
+          for(int j = 0; j < serializers.length; j++) {
+            size += serializers[j].getByteSize(source.data(j));
+          }
+          final int b = random.nextInt(numbuckets);
+          ByteBuffer buf = buffers[b];
+          if(buf.remaining() < size) {
+            flush(buf, channels[b]);
+            if(buf.capacity() < size) {
+              buf = buffers[b] = ByteBuffer.allocate(size);
+            }
+          }
+          buf.putInt(size - ByteArrayUtil.SIZE_INT);
+          for(int j = 0; j < serializers.length; j++) {
+            serializers[j].toByteBuffer(buf, source.data(j));
+          }
+          ++count;
+          break;
+        }
+        case END_OF_STREAM:
+          break loop;
+        }
+      }
+      for(int i = 0; i < numbuckets; i++) {
+        flush(buffers[i], channels[i]);
+      }
+      success = true;
+    }
+    finally {
+      for(FileChannel channel : channels) {
+        if(channel != null) {
+          channel.close();
+        }
+      }
+      if(!success) {
+        deleteFiles();
+      }
+    }
+    if(meta == null) {
+      meta = new BundleMeta();
+    }
+    if(LOG.isVerbose()) {
+      LOG.verbose("Distributed " + count + " objects to " + numbuckets + " buckets.");
+    }
+  }
+
+  /**
+   * Initialize the serializers.
+   *
+   * @param origmeta Source meta
+   */
+  @SuppressWarnings("unchecked")
+  private void initSerializers(BundleMeta origmeta) {
+    meta = new BundleMeta(origmeta.size());
+    serializers = new ByteBufferSerializer[origmeta.size()];
+    for(int j = 0; j < origmeta.size(); j++) {
+      meta.add(origmeta.get(j));
+      serializers[j] = (ByteBufferSerializer<Object>) origmeta.get(j).getSerializer();
+      if(serializers[j] == null) {
+        throw new AbortException("No serializer available for type " + origmeta.get(j) + ", the external shuffle cannot be used.");
+      }
+    }
+  }
+
+  /**
+   * Read a bucket file, shuffle it, and delete it.
+   *
+   * @param file Bucket file
+   * @return Shuffled rows
+   * @throws IOException on IO errors
+   */
+  private Object[][] readBucket(Path file) throws IOException {
+    Object[][] data = new Object[16][];
+    int size = 0;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+      buf.flip();
+      while(true) {
+        buf = ensure(buf, ByteArrayUtil.SIZE_INT, channel);
+        if(buf == null) {
+          break;
+        }
+        final int len = buf.getInt();
+        buf = ensure(buf, len, channel);
+        if(buf == null) {
+          throw new AbortException("Unexpected end of shuffle bucket.");
+        }
+        final int end = buf.position() + len;
+        Object[] row = new Object[serializers.length];
+        for(int j = 0; j < row.length; j++) {
+          row[j] = serializers[j].fromByteBuffer(buf);
+        }
+        buf.position(end);
+        if(size == data.length) {
+          data = Arrays.copyOf(data, data.length << 1);
+        }
+        data[size++] = row;
+      }
+    }
+    Files.delete(file);
+    // Fisher-Yates shuffle:
+    for(int i = size; i > 1; i--) {
+      final int j = random.nextInt(i);
+      final Object[] tmp = data[j];
+      data[j] = data[i - 1];
+      data[i - 1] = tmp;
+    }
+    return size == data.length ? data : Arrays.copyOf(data, size);
+  }
+
+  /**
+   * Ensure the read buffer contains the given number of bytes.
+   *
+   * @param buf Buffer, in read mode
+   * @param n Number of bytes
+   * @param channel Input channel
+   * @return Buffer, or {@code null} at the end of the file
+   * @throws IOException on IO errors
+   */
+  private static ByteBuffer ensure(ByteBuffer buf, int n, FileChannel channel) throws IOException {
+    if(buf.remaining() >= n) {
+      return buf;
+    }
+    if(buf.capacity() < n) {
+      buf = ByteBuffer.allocate(n).put(buf);
+    }
+    else {
+      buf.compact();
+    }
+    while(buf.position() < n) {
+      if(channel.read(buf) < 0) {
+        return null;
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Write a buffer to its bucket file.
+   *
+   * @param buf Buffer
+   * @param channel Output channel
+   * @throws IOException on IO errors
+   */
+  private static void flush(ByteBuffer buf, FileChannel channel) throws IOException {
+    buf.flip();
+    while(buf.hasRemaining()) {
+      channel.write(buf);
+    }
+    buf.clear();
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par implements Parameterizer {
+    /**
+     * Number of buckets.
+     */
+    public static final OptionID BUCKETS_ID = new OptionID("shuffle.buckets", "Number of temporary files to distribute the data to. Each bucket is loaded into memory separately.");
+
+    /**
+     * Number of buckets.
+     */
+    int numbuckets;
+
+    /**
+     * Random generator.
+     */
+    RandomFactory rnd;
+
+    @Override
+    public void configure(Parameterization config) {
+      new IntParameter(BUCKETS_ID, 16) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> numbuckets = x);
+      new RandomParameter(ShuffleObjectsFilter.Par.SEED_ID).grab(config, x -> rnd = x);
+    }
+
+    @Override
+    public ExternalShuffleStreamFilter make() {
+      return new ExternalShuffleStreamFilter(numbuckets, rnd);
+    }
+  }
+}
@@ -22,12 +22,13 @@ package elki.datasource.filter.transform;
 
 import static elki.math.linearalgebra.VMath.plusTimesEquals;
 import static elki.math.linearalgebra.VMath.times;
+import static elki.math.linearalgebra.VMath.transposeTimes;
 
 import elki.data.NumberVector;
 import elki.data.type.SimpleTypeInformation;
 import elki.data.type.TypeUtil;
 import elki.data.type.VectorFieldTypeInformation;
-import elki.datasource.filter.AbstractVectorConversionFilter;
+import elki.datasource.filter.AbstractPackedVectorConversionFilter;
 import elki.logging.Logging;
 import elki.math.linearalgebra.CovarianceMatrix;
 import elki.math.linearalgebra.pca.EigenPair;
@@ -73,7 +74,7 @@ import net.jafama.FastMath;
  */
 @Alias({ "whiten", "whitening", "pca" })
 @Priority(Priority.RECOMMENDED)
-public class GlobalPrincipalComponentAnalysisTransform<O extends NumberVector> extends AbstractVectorConversionFilter<O, O> {
+public class GlobalPrincipalComponentAnalysisTransform<O extends NumberVector> extends AbstractPackedVectorConversionFilter<O, O> {
   /**
    * Class logger.
    */
@@ -104,11 +105,6 @@ public class GlobalPrincipalComponentAnalysisTransform<O extends NumberVector> e
    */
   double[][] proj = null;
 
-  /**
-   * Projection buffer.
-   */
-  double[] buf = null;
-
   /**
    * Vector for data set centering.
    */
@@ -157,6 +153,16 @@ public class GlobalPrincipalComponentAnalysisTransform<O extends NumberVector> e
     covmat.put(obj);
   }
 
+  @Override
+  protected Partial<O> preparePartial() {
+    return new PartialCovariance<>(covmat.getMeanVector().length);
+  }
+
+  @Override
+  protected void prepareMerge(Partial<O> partial) {
+    covmat.put(((PartialCovariance<O>) partial).covmat);
+  }
+
   @Override
   protected void prepareComplete() {
     mean = covmat.getMeanVector();
@@ -174,18 +180,40 @@ public class GlobalPrincipalComponentAnalysisTransform<O extends NumberVector> e
       EigenPair ep = pcares.getEigenPairs()[d];
       plusTimesEquals(proj[d], ep.getEigenvector(), mode == Mode.FULL ? 1. / FastMath.sqrt(ep.getEigenvalue()) : 1.);
     }
-    buf = new double[dim];
   }
 
   @Override
   protected O filterSingleObject(O obj) {
     // Shift by mean and copy to scratch buffer
+    double[] buf = new double[mean.length];
     for(int i = 0; i < mean.length; i++) {
       buf[i] = obj.doubleValue(i) - mean[i];
     }
     return factory.newNumberVector(times(proj, buf));
   }
 
+  @Override
+  protected boolean canConvertParallel() {
+    return true;
+  }
+
+  @Override
+  protected int packedDimensionality() {
+    return proj.length;
+  }
+
+  @Override
+  protected void transform(O obj, double[] out, int off) {
+    // Shift by mean and copy to scratch buffer
+    double[] buf = new double[mean.length];
+    for(int i = 0; i < mean.length; i++) {
+      buf[i] = obj.doubleValue(i) - mean[i];
+    }
+    for(int d = 0; d < proj.length; d++) {
+      out[off + d] = transposeTimes(proj[d], buf);
+    }
+  }
+
   @Override
   protected SimpleTypeInformation<? super O> getInputTypeRestriction() {
     return TypeUtil.NUMBER_VECTOR_FIELD;
@@ -202,6 +230,34 @@ public class GlobalPrincipalComponentAnalysisTransform<O extends NumberVector> e
     return LOG;
   }
 
+  /**
+   * Partial covariance matrix for parallel initialization.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Vector type
+   */
+  private static class PartialCovariance<O extends NumberVector> implements Partial<O> {
+    /**
+     * Covariance matrix.
+     */
+    CovarianceMatrix covmat;
+
+    /**
+     * Constructor.
+     *
+     * @param dim Dimensionality
+     */
+    PartialCovariance(int dim) {
+      covmat = new CovarianceMatrix(dim);
+    }
+
+    @Override
+    public void put(O obj) {
+      covmat.put(obj);
+    }
+  }
+
   /**
    * Parameterization class.
    * 
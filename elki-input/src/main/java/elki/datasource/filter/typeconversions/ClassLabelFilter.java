@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import elki.data.ClassLabel;
+import elki.data.LabelDictionary;
 import elki.data.LabelList;
 import elki.data.SimpleClassLabel;
 import elki.data.type.SimpleTypeInformation;
@@ -89,6 +90,7 @@ public class ClassLabelFilter implements ObjectFilter {
       List<LabelList> lblcol = new ArrayList<>(objects.dataLength());
 
       ArrayList<String> lbuf = new ArrayList<>();
+      LabelDictionary dictionary = new LabelDictionary();
       // Split the column
       for(Object obj : objects.getColumn(i)) {
         if(obj != null) {
@@ -108,7 +110,7 @@ public class ClassLabelFilter implements ObjectFilter {
             }
             lbuf.add(ll.get(j));
           }
-          lblcol.add(LabelList.make(lbuf));
+          lblcol.add(dictionary.intern(lbuf));
           if(!lbuf.isEmpty()) {
             keeplabelcol = true;
           }
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import elki.data.ExternalID;
+import elki.data.LabelDictionary;
 import elki.data.LabelList;
 import elki.data.type.SimpleTypeInformation;
 import elki.data.type.TypeUtil;
@@ -80,6 +81,7 @@ public class ExternalIDFilter implements ObjectFilter {
 
       // Split the column
       ArrayList<String> lbuf = new ArrayList<>();
+      LabelDictionary dictionary = new LabelDictionary();
       for(Object obj : objects.getColumn(i)) {
         if(obj != null) {
           LabelList ll = (LabelList) obj;
@@ -92,7 +94,7 @@ public class ExternalIDFilter implements ObjectFilter {
             }
             lbuf.add(ll.get(j));
           }
-          lblcol.add(LabelList.make(lbuf));
+          lblcol.add(dictionary.intern(lbuf));
           if(ll.size() > 0) {
             keeplabelcol = true;
           }
@@ -32,6 +32,7 @@ import java.util.regex.Pattern;
 import elki.data.ClassLabel;
 import elki.data.DoubleVector;
 import elki.data.ExternalID;
+import elki.data.LabelDictionary;
 import elki.data.LabelList;
 import elki.data.NumberVector;
 import elki.data.SimpleClassLabel;
@@ -132,6 +133,16 @@ public class ArffParser implements Parser {
    */
   ArrayList<String> labels = new ArrayList<>();
 
+  /**
+   * Dictionary to share label lists among objects.
+   */
+  LabelDictionary dictionary = new LabelDictionary();
+
+  /**
+   * Factory for shared class labels.
+   */
+  SimpleClassLabel.Factory classLabels = new SimpleClassLabel.Factory();
+
   /**
    * Factory for dense vectors.
    *
@@ -166,6 +177,7 @@ public class ArffParser implements Parser {
     try (InputStreamReader ir = new InputStreamReader(instream);
         BufferedReader br = new BufferedReader(ir)) {
       ArrayList<String> names = new ArrayList<>(), types = new ArrayList<>();
+      resetDictionaries();
 
       readHeader(br);
       parseAttributeStatements(br, names, types);
@@ -289,7 +301,7 @@ public class ArffParser implements Parser {
           }
           labels.add((String) entry.getValue());
         }
-        data[out] = LabelList.make(labels);
+        data[out] = dictionary.intern(labels);
       }
       else if(TypeUtil.EXTERNALID.equals(elkitypes[out])) {
         String val = (String) map.get(s);
@@ -304,7 +316,7 @@ public class ArffParser implements Parser {
           throw new AbortException("Class label column not set in sparse instance." + tokenizer.toString());
         }
         // TODO: support other class label types.
-        ClassLabel lbl = new SimpleClassLabel(String.valueOf(val));
+        ClassLabel lbl = classLabels.makeFromString(String.valueOf(val));
         data[out] = lbl;
       }
       else {
@@ -349,7 +361,7 @@ public class ArffParser implements Parser {
           labels.add(tokenizer.sval);
           nextToken(tokenizer);
         }
-        data[out] = LabelList.make(labels);
+        data[out] = dictionary.intern(labels);
       }
       else if(TypeUtil.EXTERNALID.equals(etyp[out])) {
         if(tokenizer.ttype != StreamTokenizer.TT_WORD) {
@@ -363,7 +375,7 @@ public class ArffParser implements Parser {
           throw new AbortException("Expected word token, got: " + tokenizer.toString());
         }
         // TODO: support other class label types.
-        ClassLabel lbl = new SimpleClassLabel(tokenizer.sval);
+        ClassLabel lbl = classLabels.makeFromString(tokenizer.sval);
         data[out] = lbl;
         nextToken(tokenizer);
       }
@@ -401,6 +413,14 @@ public class ArffParser implements Parser {
     return tokenizer;
   }
 
+  /**
+   * Reset the shared label dictionaries.
+   */
+  protected void resetDictionaries() {
+    dictionary.clear();
+    classLabels = new SimpleClassLabel.Factory();
+  }
+
   /**
    * Setup the headers for the object bundle.
    *
@@ -411,7 +431,7 @@ public class ArffParser implements Parser {
    * @param bundle Output bundle
    * @param sparse Flag to create sparse vectors
    */
-  private void setupBundleHeaders(ArrayList<String> names, int[] targ, TypeInformation[] etyp, int[] dimsize, MultipleObjectsBundle bundle, boolean sparse) {
+  protected void setupBundleHeaders(ArrayList<String> names, int[] targ, TypeInformation[] etyp, int[] dimsize, MultipleObjectsBundle bundle, boolean sparse) {
     for(int in = 0, out = 0; in < targ.length; out++) {
       int nin = in + 1;
       for(; nin < targ.length; nin++) {
@@ -506,26 +526,36 @@ public class ArffParser implements Parser {
         break;
       }
       // Expect an attribute specification
-      Matcher matcher = ARFF_HEADER_ATTRIBUTE.reset(line);
-      if(matcher.matches()) {
-        String name = matcher.group(1);
-        if(name.charAt(0) == '\'' && name.charAt(name.length() - 1) == '\'') {
-          name = name.substring(1, name.length() - 1);
-        }
-        else if(name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
-          name = name.substring(1, name.length() - 1);
-        }
-        String type = matcher.group(2);
-        names.add(name);
-        types.add(type);
-        // logger.warning("Attribute name: " + name + " type: " + type);
-        continue;
-      }
-      throw new AbortException("Unrecognized line: " + line);
+      parseAttributeStatement(line, names, types);
     }
     assert (names.size() == types.size());
   }
 
+  /**
+   * Parse a single "@attribute" line of the ARFF file.
+   *
+   * @param line Input line
+   * @param names List (to fill) of attribute names
+   * @param types List (to fill) of attribute types
+   */
+  protected void parseAttributeStatement(String line, ArrayList<String> names, ArrayList<String> types) {
+    Matcher matcher = ARFF_HEADER_ATTRIBUTE.reset(line);
+    if(!matcher.matches()) {
+      throw new AbortException("Unrecognized line: " + line);
+    }
+    String name = matcher.group(1);
+    if(name.charAt(0) == '\'' && name.charAt(name.length() - 1) == '\'') {
+      name = name.substring(1, name.length() - 1);
+    }
+    else if(name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+      name = name.substring(1, name.length() - 1);
+    }
+    String type = matcher.group(2);
+    names.add(name);
+    types.add(type);
+    // logger.warning("Attribute name: " + name + " type: " + type);
+  }
+
   /**
    * Process the column types (and names!) into ELKI relation style. Note that
    * this will for example merge successive numerical columns into a single
@@ -537,7 +567,7 @@ public class ArffParser implements Parser {
    * @param etyp ELKI type information, return value
    * @param dims Number of successive dimensions, return value
    */
-  private void processColumnTypes(ArrayList<String> names, ArrayList<String> types, int[] targ, TypeInformation[] etyp, int[] dims) {
+  protected void processColumnTypes(ArrayList<String> names, ArrayList<String> types, int[] targ, TypeInformation[] etyp, int[] dims) {
     int next = 0;
     for(int i = 0; i < targ.length; i++) {
       if(magic_eid != null && magic_eid.reset(names.get(i)).matches()) {
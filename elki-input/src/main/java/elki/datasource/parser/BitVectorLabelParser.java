@@ -21,7 +21,6 @@
 package elki.datasource.parser;
 
 import elki.data.BitVector;
-import elki.data.LabelList;
 import elki.logging.Logging;
 import elki.utilities.documentation.Description;
 import elki.utilities.documentation.Title;
@@ -90,7 +89,7 @@ public class BitVectorLabelParser extends NumberVectorLabelParser<BitVector> {
     }
 
     curvec = new BitVector(buf.toLongArray(), curdim);
-    curlbl = LabelList.make(labels);
+    curlbl = dictionary.intern(labels);
     buf.clear();
     labels.clear();
     return true;
@@ -23,7 +23,6 @@ package elki.datasource.parser;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import elki.data.LabelList;
 import elki.data.NumberVector;
 import elki.logging.Logging;
 import elki.utilities.documentation.Description;
@@ -132,7 +131,7 @@ public class CategorialDataAsNumberVectorParser<V extends NumberVector> extends
     }
     // Pass outside via class variables
     curvec = createVector();
-    curlbl = LabelList.make(labels);
+    curlbl = dictionary.intern(labels);
     attributes.clear();
     labels.clear();
     return true;
@@ -22,7 +22,6 @@ package elki.datasource.parser;
 
 import java.util.regex.Pattern;
 
-import elki.data.LabelList;
 import elki.data.SparseFloatVector;
 import elki.data.SparseNumberVector;
 import elki.logging.Logging;
@@ -109,7 +108,7 @@ public class LibSVMFormatParser<V extends SparseNumberVector> extends SparseNumb
       }
     }
     curvec = sparsefactory.newNumberVector(values, thismax);
-    curlbl = LabelList.make(labels);
+    curlbl = dictionary.intern(labels);
     values.clear();
     labels.clear();
     return true;
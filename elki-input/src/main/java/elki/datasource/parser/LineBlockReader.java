@@ -0,0 +1,142 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Read an input stream in large blocks of complete lines, for parsing the
+ * blocks concurrently.
+ * <p>
+ * Every block ends with a line break, except for the last block of the input
+ * if the input does not end with a line break. A single line longer than the
+ * block size is returned as one larger block.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+class LineBlockReader {
+  /**
+   * Input stream.
+   */
+  private InputStream input;
+
+  /**
+   * Size of the blocks to read.
+   */
+  private int blocksize;
+
+  /**
+   * Incomplete line left over from the previous block.
+   */
+  private byte[] carry = new byte[0];
+
+  /**
+   * Length of the incomplete line.
+   */
+  private int carryLength;
+
+  /**
+   * End of the input stream reached.
+   */
+  private boolean eof;
+
+  /**
+   * Constructor.
+   *
+   * @param input Input stream
+   * @param blocksize Size of the blocks to read
+   */
+  LineBlockReader(InputStream input, int blocksize) {
+    this.input = input;
+    this.blocksize = blocksize;
+  }
+
+  /**
+   * Test if the end of the input was reached.
+   *
+   * @return {@code true} when no further blocks are available
+   */
+  boolean isEOF() {
+    return eof;
+  }
+
+  /**
+   * Read the next block of complete lines.
+   *
+   * @return Block, or {@code null} at the end of the input
+   * @throws IOException on read errors
+   */
+  byte[] nextBlock() throws IOException {
+    byte[] buf = new byte[Math.max(blocksize, carryLength << 1)];
+    System.arraycopy(carry, 0, buf, 0, carryLength);
+    int len = carryLength, scanned = carryLength;
+    while(true) {
+      // Fill the buffer, as a single read may return only little data, e.g.,
+      // when decompressing.
+      while(!eof && len < buf.length) {
+        int read = input.read(buf, len, buf.length - len);
+        if(read < 0) {
+          eof = true;
+        }
+        else {
+          len += read;
+        }
+      }
+      if(eof) {
+        carryLength = 0;
+        return len > 0 ? Arrays.copyOf(buf, len) : null;
+      }
+      // Find the last line break:
+      int last = len - 1;
+      while(last >= scanned && buf[last] != '\n') {
+        --last;
+      }
+      scanned = len;
+      if(last >= 0 && buf[last] == '\n') {
+        carryLength = len - last - 1;
+        if(carry.length < carryLength) {
+          carry = new byte[carryLength << 1];
+        }
+        System.arraycopy(buf, last + 1, carry, 0, carryLength);
+        return last + 1 < buf.length ? Arrays.copyOf(buf, last + 1) : buf;
+      }
+      // Very long line, grow buffer
+      buf = Arrays.copyOf(buf, buf.length << 1);
+    }
+  }
+
+  /**
+   * Close the input stream.
+   *
+   * @throws IOException on errors
+   */
+  void close() throws IOException {
+    carry = new byte[0];
+    carryLength = 0;
+    if(input != null) {
+      input.close();
+      input = null;
+    }
+  }
+}
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.regex.Pattern;
 
 import elki.data.DoubleVector;
+import elki.data.LabelDictionary;
 import elki.data.LabelList;
 import elki.data.NumberVector;
 import elki.data.NumberVector.Factory;
@@ -122,6 +123,11 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
    */
   final ArrayList<String> labels = new ArrayList<>();
 
+  /**
+   * Dictionary to share label lists among objects.
+   */
+  protected LabelDictionary dictionary = new LabelDictionary();
+
   /**
    * For String unification.
    */
@@ -190,6 +196,7 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
     columnnames = null;
     haslabels = false;
     nextevent = null;
+    dictionary.clear();
   }
 
   @Override
@@ -309,7 +316,7 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
     }
     // Pass outside via class variables
     curvec = createVector();
-    curlbl = LabelList.make(labels);
+    curlbl = dictionary.intern(labels);
     attributes.clear();
     labels.clear();
     return true;
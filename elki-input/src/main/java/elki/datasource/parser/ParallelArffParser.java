@@ -0,0 +1,782 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+
+import elki.data.DoubleVector;
+import elki.data.ExternalID;
+import elki.data.LabelList;
+import elki.data.SimpleClassLabel;
+import elki.data.SparseDoubleVector;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.logging.Logging;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ParseUtil;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Multi-threaded variant of the {@link ArffParser}.
+ * <p>
+ * The header is parsed as in {@link ArffParser}, the data section is read in
+ * large blocks of lines, which are tokenized and parsed concurrently on the
+ * bytes. Sparse instances are collected into index and value arrays instead
+ * of a map with boxed values. The rows are added to the bundle in file order,
+ * so the result is the same as with the sequential parser.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+@Title("Parallel ARFF File Format Parser")
+public class ParallelArffParser extends ArffParser {
+  /**
+   * Logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelArffParser.class);
+
+  /**
+   * Token type: end of line.
+   */
+  private static final int TT_EOL = -1;
+
+  /**
+   * Token type: word or quoted string.
+   */
+  private static final int TT_WORD = -2;
+
+  /**
+   * Token type: missing value.
+   */
+  private static final int TT_MISSING = '?';
+
+  /**
+   * Size of the blocks to parse in parallel.
+   */
+  private int blocksize;
+
+  /**
+   * Constructor.
+   *
+   * @param magic_eid Magic to recognize external IDs
+   * @param magic_class Magic to recognize class labels
+   * @param blocksize Size of the blocks to parse in parallel
+   */
+  public ParallelArffParser(Pattern magic_eid, Pattern magic_class, int blocksize) {
+    super(magic_eid, magic_class);
+    this.blocksize = blocksize;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param magic_eid Magic to recognize external IDs
+   * @param magic_class Magic to recognize class labels
+   */
+  public ParallelArffParser(String magic_eid, String magic_class) {
+    this(Pattern.compile(magic_eid, Pattern.CASE_INSENSITIVE), Pattern.compile(magic_class, Pattern.CASE_INSENSITIVE), ParallelNumberVectorLabelParser.DEFAULT_BLOCKSIZE);
+  }
+
+  @Override
+  public MultipleObjectsBundle parse(InputStream instream) {
+    LineBlockReader blocks = new LineBlockReader(instream, blocksize);
+    try {
+      ArrayList<String> names = new ArrayList<>(), types = new ArrayList<>();
+      resetDictionaries();
+      // Parse the header, up to the data statement:
+      byte[] first = null;
+      int pos = 0, state = 0;
+      while(state < 2) {
+        first = blocks.nextBlock();
+        if(first == null) {
+          throw new AbortException((state == 0 ? ARFF_HEADER_RELATION : ARFF_HEADER_DATA) + " not found in file.");
+        }
+        for(pos = 0; pos < first.length && state < 2;) {
+          int next = pos;
+          while(next < first.length && first[next] != '\n') {
+            ++next;
+          }
+          String line = new String(first, pos, (next > pos && first[next - 1] == '\r' ? next - 1 : next) - pos);
+          pos = next + 1;
+          // Skip comments and empty lines
+          if(ARFF_COMMENT.reset(line).matches() || EMPTY.reset(line).matches()) {
+            continue;
+          }
+          if(state == 0) {
+            if(!ARFF_HEADER_RELATION.reset(line).matches()) {
+              throw new AbortException("Expected relation declaration: " + line);
+            }
+            state = 1;
+          }
+          else if(ARFF_HEADER_DATA.reset(line).matches()) {
+            state = 2;
+          }
+          else {
+            parseAttributeStatement(line, names, types);
+          }
+        }
+      }
+
+      // Convert into column mapping. Prepare arrays to fill
+      final int[] targ = new int[names.size()];
+      final TypeInformation[] elkitypes = new TypeInformation[names.size()];
+      final int[] dimsize = new int[names.size()];
+      processColumnTypes(names, types, targ, elkitypes, dimsize);
+      final boolean[] numeric = new boolean[targ.length];
+      for(int i = 0; i < targ.length; i++) {
+        numeric[i] = TypeUtil.NUMBER_VECTOR_FIELD.equals(elkitypes[targ[i]]);
+      }
+
+      MultipleObjectsBundle bundle = new MultipleObjectsBundle();
+      BlockIterator tasks = new BlockIterator(blocks, first, Math.min(pos, first.length), targ, elkitypes, dimsize, numeric);
+      int[] mode = { 0 }; // 1: dense, 2: sparse
+      ParallelExecutor.runTasks(tasks, ParallelCore.ALL_PROCESSORS << 1, block -> {
+        for(int i = 0; i < block.rows.size(); i++) {
+          final int rmode = block.sparse.get(i) ? 2 : 1;
+          if(mode[0] == 0) {
+            setupBundleHeaders(names, targ, elkitypes, dimsize, bundle, rmode == 2);
+            mode[0] = rmode;
+          }
+          else if(mode[0] != rmode) {
+            throw new AbortException("Mixing dense and sparse vectors is currently not allowed.");
+          }
+          bundle.appendSimple(share(block.rows.get(i)));
+        }
+      });
+      return bundle;
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error in parser", e);
+    }
+    finally {
+      try {
+        blocks.close();
+      }
+      catch(IOException e) {
+        LOG.exception(e);
+      }
+    }
+  }
+
+  /**
+   * Replace labels and class labels with shared instances.
+   *
+   * @param row Parsed row
+   * @return Same row
+   */
+  private Object[] share(Object[] row) {
+    for(int i = 0; i < row.length; i++) {
+      if(row[i] instanceof LabelList) {
+        row[i] = dictionary.intern((LabelList) row[i]);
+      }
+      else if(row[i] instanceof SimpleClassLabel) {
+        row[i] = classLabels.makeFromString(row[i].toString());
+      }
+    }
+    return row;
+  }
+
+  /**
+   * Iterator producing the parsing tasks, reading the blocks sequentially.
+   *
+   * @author Erich Schubert
+   */
+  private class BlockIterator implements Iterator<Callable<Block>> {
+    /**
+     * Block reader.
+     */
+    private LineBlockReader blocks;
+
+    /**
+     * Next block, if already read.
+     */
+    private byte[] next;
+
+    /**
+     * Start of the data in the next block.
+     */
+    private int start;
+
+    /**
+     * Target columns.
+     */
+    private int[] targ;
+
+    /**
+     * ELKI types of the output columns.
+     */
+    private TypeInformation[] elkitypes;
+
+    /**
+     * Dimensionality of the output columns.
+     */
+    private int[] dimsize;
+
+    /**
+     * Numeric input columns.
+     */
+    private boolean[] numeric;
+
+    /**
+     * Constructor.
+     *
+     * @param blocks Block reader
+     * @param first Remainder of the header block
+     * @param start Start of the data in the header block
+     * @param targ Target columns
+     * @param elkitypes ELKI types of the output columns
+     * @param dimsize Dimensionality of the output columns
+     * @param numeric Numeric input columns
+     */
+    BlockIterator(LineBlockReader blocks, byte[] first, int start, int[] targ, TypeInformation[] elkitypes, int[] dimsize, boolean[] numeric) {
+      this.blocks = blocks;
+      this.next = first;
+      this.start = start;
+      this.targ = targ;
+      this.elkitypes = elkitypes;
+      this.dimsize = dimsize;
+      this.numeric = numeric;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if(next == null) {
+        try {
+          next = blocks.nextBlock();
+          start = 0;
+        }
+        catch(IOException e) {
+          throw new AbortException("IO error in parser", e);
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Callable<Block> next() {
+      if(!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final byte[] buf = next;
+      final int bstart = start;
+      next = null;
+      return () -> new BlockParser(targ, elkitypes, dimsize, numeric).parseBlock(buf, bstart, buf.length);
+    }
+  }
+
+  /**
+   * Parsed rows of a block.
+   *
+   * @author Erich Schubert
+   */
+  private static class Block {
+    /**
+     * Parsed rows.
+     */
+    ArrayList<Object[]> rows = new ArrayList<>();
+
+    /**
+     * Rows that were sparse instances.
+     */
+    BitSet sparse = new BitSet();
+  }
+
+  /**
+   * Parser for the lines of a block, working on bytes.
+   *
+   * @author Erich Schubert
+   */
+  private class BlockParser {
+    /**
+     * Target columns.
+     */
+    private int[] targ;
+
+    /**
+     * ELKI types of the output columns.
+     */
+    private TypeInformation[] elkitypes;
+
+    /**
+     * Dimensionality of the output columns.
+     */
+    private int[] dimsize;
+
+    /**
+     * Numeric input columns.
+     */
+    private boolean[] numeric;
+
+    /**
+     * Current buffer.
+     */
+    private byte[] buf;
+
+    /**
+     * Current position and line end.
+     */
+    private int pos, end;
+
+    /**
+     * Current token type, start and end.
+     */
+    private int ttype, tstart, tend;
+
+    /**
+     * Current token needs unescaping.
+     */
+    private boolean escaped;
+
+    /**
+     * Sparse instance: indexes.
+     */
+    private int[] indexes = new int[16];
+
+    /**
+     * Sparse instance: numeric values.
+     */
+    private double[] values = new double[16];
+
+    /**
+     * Sparse instance: string values.
+     */
+    private String[] strings = new String[16];
+
+    /**
+     * (Reused) buffer for building label lists.
+     */
+    private ArrayList<String> lbls = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param targ Target columns
+     * @param elkitypes ELKI types of the output columns
+     * @param dimsize Dimensionality of the output columns
+     * @param numeric Numeric input columns
+     */
+    BlockParser(int[] targ, TypeInformation[] elkitypes, int[] dimsize, boolean[] numeric) {
+      this.targ = targ;
+      this.elkitypes = elkitypes;
+      this.dimsize = dimsize;
+      this.numeric = numeric;
+    }
+
+    /**
+     * Parse a block of lines.
+     *
+     * @param buf Buffer
+     * @param start Start position
+     * @param bend End position
+     * @return Parsed rows
+     */
+    Block parseBlock(byte[] buf, int start, int bend) {
+      this.buf = buf;
+      Block block = new Block();
+      while(start < bend) {
+        int next = start;
+        while(next < bend && buf[next] != '\n') {
+          ++next;
+        }
+        pos = start;
+        end = next;
+        nextToken();
+        if(ttype != TT_EOL) {
+          if(ttype == '{') {
+            block.sparse.set(block.rows.size());
+            block.rows.add(loadSparseInstance());
+          }
+          else {
+            block.rows.add(loadDenseInstance());
+          }
+        }
+        start = next + 1;
+      }
+      return block;
+    }
+
+    /**
+     * Parse a dense instance.
+     *
+     * @return Row
+     */
+    private Object[] loadDenseInstance() {
+      final int outdim = dimsize.length > 0 ? targ[targ.length - 1] + 1 : 0;
+      Object[] data = new Object[outdim];
+      for(int out = 0; out < outdim; out++) {
+        if(TypeUtil.NUMBER_VECTOR_FIELD.equals(elkitypes[out])) {
+          // For multi-column vectors, read successive columns
+          double[] cur = new double[dimsize[out]];
+          for(int k = 0; k < dimsize[out]; k++) {
+            if(ttype == TT_MISSING) {
+              cur[k] = Double.NaN;
+            }
+            else if(ttype == TT_WORD && !escaped) {
+              try {
+                cur[k] = ParseUtil.parseDouble(buf, tstart, tend);
+              }
+              catch(NumberFormatException e) {
+                throw new AbortException("Expected number value, got: " + tokenString());
+              }
+            }
+            else {
+              throw new AbortException("Expected word token, got: " + tokenDescription());
+            }
+            nextToken();
+          }
+          data[out] = DoubleVector.wrap(cur);
+        }
+        else if(TypeUtil.LABELLIST.equals(elkitypes[out])) {
+          // Build a label list out of successive labels
+          lbls.clear();
+          for(int k = 0; k < dimsize[out]; k++) {
+            lbls.add(wordToken());
+            nextToken();
+          }
+          data[out] = LabelList.make(lbls);
+        }
+        else if(TypeUtil.EXTERNALID.equals(elkitypes[out])) {
+          data[out] = new ExternalID(wordToken());
+          nextToken();
+        }
+        else if(TypeUtil.CLASSLABEL.equals(elkitypes[out])) {
+          data[out] = new SimpleClassLabel(wordToken());
+          nextToken();
+        }
+        else {
+          throw new AbortException("Unsupported type for column " + "->" + out + ": " + ((elkitypes[out] != null) ? elkitypes[out].toString() : "null"));
+        }
+      }
+      return data;
+    }
+
+    /**
+     * Parse a sparse instance.
+     *
+     * @return Row
+     */
+    private Object[] loadSparseInstance() {
+      int size = 0;
+      boolean sorted = true;
+      while(true) {
+        nextToken();
+        if(ttype == '}') {
+          break;
+        }
+        if(ttype != TT_WORD) {
+          throw new AbortException("Unexpected token type encountered: " + tokenDescription());
+        }
+        final int dim = ParseUtil.parseIntBase10(buf, tstart, tend);
+        if(dim < 0 || dim >= targ.length) {
+          throw new AbortException("Invalid index in sparse vector: " + dim);
+        }
+        nextToken();
+        if(ttype != TT_WORD) {
+          throw new AbortException("Unexpected token type encountered: " + tokenDescription());
+        }
+        if(size == indexes.length) {
+          indexes = Arrays.copyOf(indexes, size << 1);
+          values = Arrays.copyOf(values, size << 1);
+          strings = Arrays.copyOf(strings, size << 1);
+        }
+        sorted &= size == 0 || indexes[size - 1] < dim;
+        indexes[size] = dim;
+        if(numeric[dim]) {
+          values[size] = ParseUtil.parseDouble(buf, tstart, tend);
+          strings[size] = null;
+        }
+        else {
+          strings[size] = tokenString();
+        }
+        ++size;
+      }
+      if(!sorted) {
+        sortEntries(size);
+      }
+      final int metaLength = targ[targ.length - 1] + 1;
+      Object[] data = new Object[metaLength];
+      for(int out = 0, s = 0, e = 0; out < metaLength; out++) {
+        // Find the first input column, and the range of entries
+        while(targ[s] != out) {
+          ++s;
+        }
+        final int b = e;
+        while(e < size && indexes[e] < s + dimsize[out]) {
+          ++e;
+        }
+        if(TypeUtil.NUMBER_VECTOR_FIELD.equals(elkitypes[out])) {
+          int[] idx = new int[e - b];
+          for(int i = b; i < e; i++) {
+            idx[i - b] = indexes[i] - s;
+          }
+          data[out] = new SparseDoubleVector(idx, Arrays.copyOfRange(values, b, e), dimsize[out]);
+        }
+        else if(TypeUtil.LABELLIST.equals(elkitypes[out])) {
+          // Build a label list out of successive labels
+          lbls.clear();
+          for(int i = b; i < e; i++) {
+            if(lbls.size() < indexes[i] - s) {
+              LOG.warning("Sparse consecutive labels are currently not correctly supported.");
+            }
+            lbls.add(strings[i]);
+          }
+          data[out] = LabelList.make(lbls);
+        }
+        else if(TypeUtil.EXTERNALID.equals(elkitypes[out])) {
+          if(b == e) {
+            throw new AbortException("External ID column not set in sparse instance.");
+          }
+          data[out] = new ExternalID(strings[b]);
+        }
+        else if(TypeUtil.CLASSLABEL.equals(elkitypes[out])) {
+          if(b == e) {
+            throw new AbortException("Class label column not set in sparse instance.");
+          }
+          // TODO: support other class label types.
+          data[out] = new SimpleClassLabel(strings[b]);
+        }
+        else {
+          throw new AbortException("Unsupported type for column " + "->" + out + ": " + ((elkitypes[out] != null) ? elkitypes[out].toString() : "null"));
+        }
+      }
+      return data;
+    }
+
+    /**
+     * Sort the sparse entries by index, and check for duplicates.
+     *
+     * @param size Number of entries
+     */
+    private void sortEntries(int size) {
+      // Insertion sort, as entries are usually almost sorted.
+      for(int i = 1; i < size; i++) {
+        final int idx = indexes[i];
+        final double v = values[i];
+        final String str = strings[i];
+        int j = i - 1;
+        while(j >= 0 && indexes[j] > idx) {
+          indexes[j + 1] = indexes[j];
+          values[j + 1] = values[j];
+          strings[j + 1] = strings[j];
+          --j;
+        }
+        indexes[j + 1] = idx;
+        values[j + 1] = v;
+        strings[j + 1] = str;
+      }
+      for(int i = 1; i < size; i++) {
+        if(indexes[i - 1] == indexes[i]) {
+          throw new AbortException("Duplicate key in sparse vector: " + indexes[i]);
+        }
+      }
+    }
+
+    /**
+     * Get the current token as word.
+     *
+     * @return Token
+     */
+    private String wordToken() {
+      if(ttype != TT_WORD) {
+        throw new AbortException("Expected word token, got: " + tokenDescription());
+      }
+      return tokenString();
+    }
+
+    /**
+     * Get the string of the current token.
+     *
+     * @return Token string
+     */
+    private String tokenString() {
+      final String str = new String(buf, tstart, tend - tstart);
+      return escaped ? unescape(str) : str;
+    }
+
+    /**
+     * Resolve the escape sequences of a quoted string, as the
+     * {@link java.io.StreamTokenizer} used by {@link ArffParser} does.
+     *
+     * @param str Quoted string, without quotes
+     * @return Unescaped string
+     */
+    private String unescape(String str) {
+      StringBuilder buf = new StringBuilder(str.length());
+      for(int i = 0; i < str.length(); i++) {
+        char c = str.charAt(i);
+        if(c != '\\' || i + 1 == str.length()) {
+          buf.append(c);
+          continue;
+        }
+        c = str.charAt(++i);
+        switch(c){
+        case 'a':
+          c = 0x7;
+          break;
+        case 'b':
+          c = '\b';
+          break;
+        case 'f':
+          c = 0xC;
+          break;
+        case 'n':
+          c = '\n';
+          break;
+        case 'r':
+          c = '\r';
+          break;
+        case 't':
+          c = '\t';
+          break;
+        case 'v':
+          c = 0xB;
+          break;
+        default:
+          if(c >= '0' && c <= '7') {
+            // Octal escape, up to three digits if the first is at most 3.
+            int v = c - '0';
+            for(int n = c <= '3' ? 2 : 1; n > 0 && i + 1 < str.length(); n--) {
+              final char d = str.charAt(i + 1);
+              if(d < '0' || d > '7') {
+                break;
+              }
+              v = (v << 3) + (d - '0');
+              ++i;
+            }
+            c = (char) v;
+          }
+        }
+        buf.append(c);
+      }
+      return buf.toString();
+    }
+
+    /**
+     * Describe the current token, for error messages.
+     *
+     * @return Description
+     */
+    private String tokenDescription() {
+      return ttype == TT_EOL ? "end of line" : ttype == TT_WORD ? tokenString() : String.valueOf((char) ttype);
+    }
+
+    /**
+     * Advance to the next token of the current line.
+     * <p>
+     * As in the tokenizer of {@link ArffParser}, commas and control characters
+     * separate tokens, <tt>%</tt> starts a comment, <tt>{</tt> and <tt>}</tt>
+     * are tokens on their own, and single or double quotes delimit strings.
+     */
+    private void nextToken() {
+      while(pos < end && (buf[pos] <= ' ' && buf[pos] >= 0 || buf[pos] == ',')) {
+        ++pos;
+      }
+      escaped = false;
+      if(pos >= end || buf[pos] == '%') {
+        ttype = TT_EOL;
+        pos = end;
+        return;
+      }
+      final byte c = buf[pos];
+      if(c == '{' || c == '}') {
+        ttype = c;
+        ++pos;
+        return;
+      }
+      ttype = TT_WORD;
+      if(c == '\'' || c == '"') {
+        tstart = ++pos;
+        while(pos < end && buf[pos] != c) {
+          if(buf[pos] == '\\') {
+            escaped = true;
+            ++pos;
+          }
+          ++pos;
+        }
+        tend = Math.min(pos++, end);
+        return;
+      }
+      tstart = pos;
+      while(pos < end && !isDelimiter(buf[pos])) {
+        ++pos;
+      }
+      tend = pos;
+      if(tend - tstart == 1 && c == '?') {
+        ttype = TT_MISSING;
+      }
+    }
+
+    /**
+     * Test for token delimiters.
+     *
+     * @param b Byte
+     * @return {@code true} if the byte ends a word
+     */
+    private boolean isDelimiter(byte b) {
+      return b <= ' ' && b >= 0 || b == ',' || b == '%' || b == '\'' || b == '"' || b == '{' || b == '}';
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par extends ArffParser.Par {
+    /**
+     * Size of the blocks to parse in parallel.
+     */
+    public static final OptionID BLOCKSIZE_ID = ParallelNumberVectorLabelParser.Par.BLOCKSIZE_ID;
+
+    /**
+     * Size of the blocks to parse in parallel.
+     */
+    int blocksize = ParallelNumberVectorLabelParser.DEFAULT_BLOCKSIZE;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new IntParameter(BLOCKSIZE_ID, ParallelNumberVectorLabelParser.DEFAULT_BLOCKSIZE) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> blocksize = x);
+    }
+
+    @Override
+    public ParallelArffParser make() {
+      return new ParallelArffParser(magic_eid, magic_class, blocksize);
+    }
+  }
+}
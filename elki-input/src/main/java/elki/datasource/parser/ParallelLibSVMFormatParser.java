@@ -0,0 +1,167 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import elki.data.SparseNumberVector;
+import elki.logging.Logging;
+import elki.utilities.documentation.Title;
+import elki.utilities.io.ParseUtil;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Multi-threaded variant of the {@link LibSVMFormatParser}.
+ * <p>
+ * The input is parsed in blocks as in {@link ParallelNumberVectorLabelParser}.
+ * Each line is scanned once: the <tt>index:value</tt> pairs are parsed
+ * directly from the bytes into index and value arrays, which are then used to
+ * build the sparse vectors without an intermediate map.
+ * <p>
+ * As in {@link LibSVMFormatParser}, a line is only parsed until a <tt>#</tt>
+ * is encountered, and lines starting with a <tt>#</tt> are ignored.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <V> Vector type
+ */
+@Title("Parallel libSVM Format Parser")
+public class ParallelLibSVMFormatParser<V extends SparseNumberVector> extends ParallelSparseNumberVectorLabelParser<V> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelLibSVMFormatParser.class);
+
+  /**
+   * Constructor.
+   *
+   * @param factory Vector factory
+   * @param blocksize Size of the blocks to parse in parallel
+   */
+  public ParallelLibSVMFormatParser(SparseNumberVector.Factory<V> factory, int blocksize) {
+    super(new CSVReaderFormat(LibSVMFormatParser.WHITESPACE_PATTERN, null, null), null, factory, blocksize);
+  }
+
+  /**
+   * Constructor with defaults.
+   *
+   * @param factory Vector factory
+   */
+  public ParallelLibSVMFormatParser(SparseNumberVector.Factory<V> factory) {
+    this(factory, DEFAULT_BLOCKSIZE);
+  }
+
+  @Override
+  LineParser newLineParser() {
+    return new LibSVMLineParser();
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Line parser for the libSVM format.
+   *
+   * @author Erich Schubert
+   */
+  class LibSVMLineParser extends SparseLineParser {
+    @Override
+    void parseLine(byte[] buf, int start, int end, Block block, int line) {
+      int pos = skipWhitespace(buf, start, end);
+      if(pos == end || buf[pos] == '#') {
+        return; // Comment line
+      }
+      // The label is mandatory in libSVM.
+      int tend = tokenEnd(buf, pos, end);
+      addLabel(new String(buf, pos, tend - pos));
+      pos = skipWhitespace(buf, tend, end);
+      while(pos < end && buf[pos] != '#') {
+        tend = tokenEnd(buf, pos, end);
+        int colon = pos;
+        while(colon < tend && buf[colon] != ':') {
+          ++colon;
+        }
+        try {
+          addEntry(ParseUtil.parseIntBase10(buf, pos, colon), ParseUtil.parseDouble(buf, colon + 1, tend));
+        }
+        catch(NumberFormatException e) {
+          throw new IllegalArgumentException("Parsing error in libSVM input: expected data, got " + new String(buf, pos, tend - pos), e);
+        }
+        pos = skipWhitespace(buf, tend, end);
+      }
+      finishRow(block, line);
+    }
+
+    /**
+     * Skip whitespace.
+     *
+     * @param buf Buffer
+     * @param pos Start position
+     * @param end Line end
+     * @return First position that is not whitespace, or end
+     */
+    private int skipWhitespace(byte[] buf, int pos, int end) {
+      while(pos < end && isWhitespace(buf[pos])) {
+        ++pos;
+      }
+      return pos;
+    }
+
+    /**
+     * Find the end of a token.
+     *
+     * @param buf Buffer
+     * @param pos Token start
+     * @param end Line end
+     * @return Token end
+     */
+    private int tokenEnd(byte[] buf, int pos, int end) {
+      while(pos < end && !isWhitespace(buf[pos])) {
+        ++pos;
+      }
+      return pos;
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends SparseNumberVector> extends ParallelSparseNumberVectorLabelParser.Par<V> {
+    @Override
+    public void configure(Parameterization config) {
+      // Avoid additional options, as in LibSVMFormatParser.
+      getFactory(config);
+      new IntParameter(BLOCKSIZE_ID, DEFAULT_BLOCKSIZE) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> blocksize = x);
+    }
+
+    @Override
+    public ParallelLibSVMFormatParser<V> make() {
+      return new ParallelLibSVMFormatParser<>((SparseNumberVector.Factory<V>) factory, blocksize);
+    }
+  }
+}
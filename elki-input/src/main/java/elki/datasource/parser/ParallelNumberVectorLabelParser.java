@@ -0,0 +1,727 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+
+import elki.data.LabelList;
+import elki.data.NumberVector;
+import elki.logging.Logging;
+import elki.parallel.ParallelCore;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ParseUtil;
+import elki.utilities.io.Tokenizer;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+
+/**
+ * Multi-threaded variant of the {@link NumberVectorLabelParser}.
+ * <p>
+ * The input is read in large blocks, which are cut at line boundaries, and
+ * the blocks are parsed concurrently. For the default column separator, the
+ * lines are tokenized and the numbers are parsed directly from the bytes,
+ * other separator patterns use a regular expression tokenizer per block. The
+ * parsed rows are then reported in file order, so the result is the same as
+ * with the sequential parser.
+ * <p>
+ * Reading (and decompressing) the input remains sequential, but overlaps with
+ * parsing. At most a few blocks are kept in memory at any time, so this parser
+ * can still be used with stream filters on large files.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <V> the type of NumberVector used
+ */
+public class ParallelNumberVectorLabelParser<V extends NumberVector> extends NumberVectorLabelParser<V> {
+  /**
+   * Logging class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelNumberVectorLabelParser.class);
+
+  /**
+   * Default block size.
+   */
+  public static final int DEFAULT_BLOCKSIZE = 1 << 22;
+
+  /**
+   * Input format.
+   */
+  private CSVReaderFormat format;
+
+  /**
+   * Use the byte-level tokenizer for the default separator.
+   */
+  private boolean defaultSeparator;
+
+  /**
+   * Use the fast check for the default comment pattern.
+   */
+  private boolean defaultComment;
+
+  /**
+   * Quote characters, as bytes.
+   */
+  private byte[] quoteChars;
+
+  /**
+   * Size of the blocks to read.
+   */
+  private int blocksize;
+
+  /**
+   * Input, in blocks of lines.
+   */
+  private LineBlockReader blocks;
+
+  /**
+   * Parallel core, if running in parallel.
+   */
+  private ParallelCore core;
+
+  /**
+   * Blocks submitted for parsing.
+   */
+  private ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+
+  /**
+   * Current block.
+   */
+  private Block current;
+
+  /**
+   * Position in the current block.
+   */
+  private int pos;
+
+  /**
+   * Line number of the first line of the current block.
+   */
+  private int lineBase;
+
+  /**
+   * Number of lines in all previous blocks.
+   */
+  private int linesRead;
+
+  /**
+   * Constructor.
+   *
+   * @param format Input format
+   * @param labelIndices Column indexes that are not numeric.
+   * @param factory Vector factory
+   * @param blocksize Size of the blocks to parse in parallel
+   */
+  public ParallelNumberVectorLabelParser(CSVReaderFormat format, long[] labelIndices, NumberVector.Factory<V> factory, int blocksize) {
+    super(format, labelIndices, factory);
+    this.format = format;
+    this.defaultSeparator = format.colSep != null && CSVReaderFormat.DEFAULT_SEPARATOR.equals(format.colSep.pattern());
+    this.defaultComment = format.comment != null && CSVReaderFormat.COMMENT_PATTERN.equals(format.comment.pattern());
+    this.quoteChars = format.quoteChars != null ? format.quoteChars.getBytes() : new byte[0];
+    this.blocksize = blocksize;
+  }
+
+  /**
+   * Constructor with defaults.
+   *
+   * @param factory Vector factory
+   */
+  public ParallelNumberVectorLabelParser(NumberVector.Factory<V> factory) {
+    this(CSVReaderFormat.DEFAULT_FORMAT, null, factory, DEFAULT_BLOCKSIZE);
+  }
+
+  @Override
+  public void initStream(InputStream in) {
+    mindim = Integer.MAX_VALUE;
+    maxdim = 0;
+    columnnames = null;
+    haslabels = false;
+    nextevent = null;
+    curvec = null;
+    curlbl = null;
+    dictionary.clear();
+    blocks = new LineBlockReader(in, blocksize);
+    current = null;
+    pos = 0;
+    lineBase = linesRead = 0;
+    if(!ParallelCore.isWorkerThread()) {
+      core = ParallelCore.getCore();
+      core.connect();
+    }
+  }
+
+  @Override
+  public Event nextEvent() {
+    if(nextevent != null) {
+      Event ret = nextevent;
+      nextevent = null;
+      return ret;
+    }
+    while(true) {
+      while(current == null || pos >= current.size) {
+        current = nextBlock();
+        pos = 0;
+        if(current == null) {
+          finish();
+          if(maxdim == 0) {
+            throw new AbortException("No numeric data was read in line " + linesRead + ". Verify the column separator; for textual data use other parsers.");
+          }
+          return Event.END_OF_STREAM;
+        }
+      }
+      final int row = pos++;
+      final V vec = current.vectors.get(row);
+      final LabelList lbl = current.labels.get(row);
+      // Maybe a label row?
+      if(curvec == null && vec == null) {
+        columnnames = new ArrayList<>(lbl != null ? lbl.size() : 0);
+        for(int i = 0; lbl != null && i < lbl.size(); i++) {
+          columnnames.add(lbl.get(i));
+        }
+        continue;
+      }
+      curvec = vec != null ? vec : factory.newNumberVector(new double[0]);
+      curlbl = unify(lbl);
+      haslabels |= lbl != null;
+      final int curdim = curvec.getDimensionality();
+      if(curdim > maxdim || mindim > curdim) {
+        mindim = (curdim < mindim) ? curdim : mindim;
+        maxdim = (curdim > maxdim) ? curdim : maxdim;
+        if(mindim != maxdim && LOG.isVerbose()) {
+          LOG.verbose("Non-uniform column width detected in input line " + (lineBase + current.lines[row]) + ", widening data type to " + mindim + "-" + maxdim + " dimensions.");
+        }
+        buildMeta();
+        nextevent = Event.NEXT_OBJECT;
+        return Event.META_CHANGED;
+      }
+      else if(curlbl != null && meta != null && haslabels && meta.size() == 1) {
+        buildMeta();
+        nextevent = Event.NEXT_OBJECT;
+        return Event.META_CHANGED;
+      }
+      return Event.NEXT_OBJECT;
+    }
+  }
+
+  /**
+   * Unify the label lists across blocks.
+   *
+   * @param lbl Label list, may be null
+   * @return Shared label list
+   */
+  private LabelList unify(LabelList lbl) {
+    return lbl == null ? LabelList.EMPTY_LABELS : dictionary.intern(lbl);
+  }
+
+  /**
+   * Get the next parsed block, submitting further blocks for parsing.
+   *
+   * @return Next block, or {@code null} at the end of the input
+   */
+  private Block nextBlock() {
+    if(current != null) {
+      lineBase += current.numLines;
+    }
+    try {
+      if(core == null) {
+        byte[] buf = blocks.nextBlock();
+        return buf != null ? parseBlock(buf, buf.length) : null;
+      }
+      final int maxpending = core.getParallelism() << 1;
+      while(!blocks.isEOF() && pending.size() < maxpending) {
+        final byte[] buf = blocks.nextBlock();
+        if(buf != null) {
+          pending.add(core.submit(() -> parseBlock(buf, buf.length)));
+        }
+      }
+      return pending.isEmpty() ? null : pending.poll().get();
+    }
+    catch(IOException e) {
+      finish();
+      throw new IllegalArgumentException("Error while reading input after line " + linesRead + ".", e);
+    }
+    catch(ExecutionException e) {
+      finish();
+      if(e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalArgumentException("Error while parsing input after line " + linesRead + ".", e.getCause());
+    }
+    catch(InterruptedException e) {
+      finish();
+      throw new AbortException("Parsing was interrupted.");
+    }
+  }
+
+  /**
+   * Parse a block of complete lines.
+   *
+   * @param buf Buffer
+   * @param end End of the data in the buffer
+   * @return Parsed rows
+   */
+  private Block parseBlock(byte[] buf, int end) {
+    Block block = new Block();
+    LineParser parser = newLineParser();
+    int line = 0;
+    for(int start = 0; start < end; line++) {
+      int next = start;
+      while(next < end && buf[next] != '\n') {
+        ++next;
+      }
+      int lend = next;
+      while(lend > start && buf[lend - 1] == '\r') {
+        --lend;
+      }
+      if(lend > start && !isComment(buf, start, lend)) {
+        parser.parseLine(buf, start, lend, block, line);
+      }
+      start = next + 1;
+    }
+    block.numLines = line;
+    return block;
+  }
+
+  /**
+   * Make a new parser for the lines of a block.
+   *
+   * @return Line parser
+   */
+  LineParser newLineParser() {
+    return defaultSeparator ? new ByteLineParser() : new TokenizerLineParser();
+  }
+
+  /**
+   * Test if a line is a comment.
+   *
+   * @param buf Buffer
+   * @param start Line start
+   * @param end Line end
+   * @return {@code true} if the line is a comment
+   */
+  private boolean isComment(byte[] buf, int start, int end) {
+    if(format.comment == null) {
+      return false;
+    }
+    if(!defaultComment) {
+      return format.comment.matcher(new String(buf, start, end - start)).matches();
+    }
+    while(start < end && isWhitespace(buf[start])) {
+      ++start;
+    }
+    return start < end && (buf[start] == '#' || buf[start] == ';' || //
+        (buf[start] == '/' && start + 1 < end && buf[start + 1] == '/'));
+  }
+
+  /**
+   * Whitespace characters, as in regular expressions.
+   *
+   * @param b Byte
+   * @return {@code true} if whitespace
+   */
+  static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+  }
+
+  /**
+   * Default column separators.
+   *
+   * @param b Byte
+   * @return {@code true} if a separator
+   */
+  private static boolean isSeparator(byte b) {
+    return b == ',' || b == ';' || isWhitespace(b);
+  }
+
+  /**
+   * Disconnect from the parallel core and discard pending blocks.
+   */
+  private void finish() {
+    for(Future<Block> fut : pending) {
+      fut.cancel(true);
+    }
+    pending.clear();
+    if(core != null) {
+      core.disconnect();
+      core = null;
+    }
+    linesRead = lineBase;
+  }
+
+  @Override
+  public void cleanup() {
+    finish();
+    current = null;
+    if(blocks != null) {
+      try {
+        blocks.close();
+      }
+      catch(IOException e) {
+        LOG.exception(e);
+      }
+      blocks = null;
+    }
+    super.cleanup();
+  }
+
+  /**
+   * Add a row to the block.
+   *
+   * @param block Output block
+   * @param vec Vector, {@code null} for rows without numbers
+   * @param labels Labels
+   * @param line Line number in the block
+   */
+  void addRow(Block block, V vec, ArrayList<String> labels, int line) {
+    block.vectors.add(vec);
+    block.labels.add(labels.isEmpty() ? null : LabelList.make(labels));
+    if(block.size == block.lines.length) {
+      block.lines = Arrays.copyOf(block.lines, block.lines.length << 1);
+    }
+    block.lines[block.size++] = line;
+    labels.clear();
+  }
+
+  /**
+   * Warn once about numbers that could not be parsed due to precision limits.
+   *
+   * @param e Exception
+   * @param str Token
+   */
+  void checkPrecision(NumberFormatException e, String str) {
+    if(!warnedPrecision && (e == ParseUtil.PRECISION_OVERFLOW || e == ParseUtil.EXPONENT_OVERFLOW)) {
+      warnedPrecision = true;
+      LOG.warning("Too many digits in what looked like a double number - treating as string: " + str);
+    }
+  }
+
+  /**
+   * Parser for a single line.
+   *
+   * @author Erich Schubert
+   */
+  abstract class LineParser {
+    /**
+     * Numerical values of the current line.
+     */
+    double[] values = new double[11];
+
+    /**
+     * Number of values.
+     */
+    int size;
+
+    /**
+     * Labels of the current line.
+     */
+    ArrayList<String> labels = new ArrayList<>();
+
+    /**
+     * Unique strings within the block.
+     */
+    ObjectOpenHashSet<String> unique = new ObjectOpenHashSet<>();
+
+    /**
+     * Parse a line.
+     *
+     * @param buf Buffer
+     * @param start Line start
+     * @param end Line end
+     * @param block Output block
+     * @param line Line number in the block
+     */
+    abstract void parseLine(byte[] buf, int start, int end, Block block, int line);
+
+    /**
+     * Add a numerical value.
+     *
+     * @param v Value
+     */
+    void addValue(double v) {
+      if(size == values.length) {
+        values = Arrays.copyOf(values, size << 1);
+      }
+      values[size++] = v;
+    }
+
+    /**
+     * Add a label.
+     *
+     * @param lbl Label
+     */
+    void addLabel(String lbl) {
+      if(lbl.length() > 0) {
+        labels.add(unique.addOrGet(lbl));
+      }
+    }
+
+    /**
+     * Finish the current row.
+     *
+     * @param block Output block
+     * @param line Line number in the block
+     */
+    void finishRow(Block block, int line) {
+      addRow(block, size > 0 ? factory.newNumberVector(Arrays.copyOf(values, size)) : null, labels, line);
+      size = 0;
+    }
+
+    /**
+     * Process a single token.
+     *
+     * @param buf Buffer
+     * @param start Token start
+     * @param end Token end
+     * @param quoted Quoted token
+     * @param col Column number
+     */
+    void addToken(byte[] buf, int start, int end, boolean quoted, int col) {
+      if(!isLabelColumn(col) && !quoted) {
+        try {
+          addValue(ParseUtil.parseDouble(buf, start, end));
+          return;
+        }
+        catch(NumberFormatException e) {
+          checkPrecision(e, new String(buf, start, end - start));
+          // Ignore attempt, add to labels below.
+        }
+      }
+      addLabel(start < end ? new String(buf, start, end - start) : "");
+    }
+  }
+
+  /**
+   * Line parser for the default separator, working on bytes.
+   * <p>
+   * The tokens are processed by {@link LineParser#addToken}, which subclasses
+   * can override for other line formats.
+   *
+   * @author Erich Schubert
+   */
+  class ByteLineParser extends LineParser {
+    @Override
+    void parseLine(byte[] buf, int start, int end, Block block, int line) {
+      int index = start, col = 0;
+      while(index < end) {
+        int tstart = index, tend, next = -1;
+        boolean quoted = false;
+        final byte inquote = isQuote(buf[index]) ? buf[index] : 0;
+        int sep = nextSeparator(buf, index, end);
+        while(sep < end) {
+          final int send = separatorEnd(buf, sep, end);
+          if(inquote == 0 || (sep > index + 1 && buf[sep - 1] == inquote)) {
+            next = send;
+            break;
+          }
+          sep = nextSeparator(buf, send, end);
+        }
+        if(next >= 0) {
+          tend = sep;
+          if(inquote != 0) {
+            ++tstart;
+            --tend;
+            quoted = true;
+          }
+        }
+        else { // Tail after the last separator.
+          tend = end;
+          next = end;
+          if(inquote != 0) {
+            if(buf[end - 1] == inquote) {
+              ++tstart;
+              --tend;
+              quoted = true;
+            }
+            else {
+              LOG.warning("Invalid quoted line in input: no closing quote found in: " + new String(buf, start, end - start));
+            }
+          }
+        }
+        addToken(buf, tstart, tend, quoted, col++);
+        index = next;
+      }
+      finishRow(block, line);
+    }
+
+    /**
+     * Find the next position where a separator begins.
+     *
+     * @param buf Buffer
+     * @param pos Search start
+     * @param end Line end
+     * @return Separator position, or end
+     */
+    private int nextSeparator(byte[] buf, int pos, int end) {
+      while(pos < end && !isSeparator(buf[pos])) {
+        ++pos;
+      }
+      return pos;
+    }
+
+    /**
+     * Find the end of a separator: optional whitespace, an optional comma or
+     * semicolon, and optional whitespace.
+     *
+     * @param buf Buffer
+     * @param pos Separator start
+     * @param end Line end
+     * @return Separator end
+     */
+    private int separatorEnd(byte[] buf, int pos, int end) {
+      while(pos < end && isWhitespace(buf[pos])) {
+        ++pos;
+      }
+      if(pos < end && (buf[pos] == ',' || buf[pos] == ';')) {
+        ++pos;
+        while(pos < end && isWhitespace(buf[pos])) {
+          ++pos;
+        }
+      }
+      return pos;
+    }
+
+    /**
+     * Test for quote characters.
+     *
+     * @param b Byte
+     * @return {@code true} if a quote character
+     */
+    private boolean isQuote(byte b) {
+      for(byte q : quoteChars) {
+        if(b == q) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Line parser for arbitrary separator patterns, using a tokenizer.
+   *
+   * @author Erich Schubert
+   */
+  private class TokenizerLineParser extends LineParser {
+    /**
+     * Tokenizer.
+     */
+    Tokenizer tokenizer = new Tokenizer(format.colSep, format.quoteChars);
+
+    @Override
+    void parseLine(byte[] buf, int start, int end, Block block, int line) {
+      String str = new String(buf, start, end - start);
+      int i = 0;
+      for(tokenizer.initialize(str, 0, str.length()); tokenizer.valid(); tokenizer.advance(), i++) {
+        if(!isLabelColumn(i) && !tokenizer.isQuoted()) {
+          try {
+            addValue(tokenizer.getDouble());
+            continue;
+          }
+          catch(NumberFormatException e) {
+            checkPrecision(e, tokenizer.getSubstring());
+            // Ignore attempt, add to labels below.
+          }
+        }
+        addLabel(tokenizer.getStrippedSubstring());
+      }
+      finishRow(block, line);
+    }
+  }
+
+  /**
+   * Parsed rows of a block.
+   *
+   * @author Erich Schubert
+   */
+  class Block {
+    /**
+     * Vectors, {@code null} for rows without numbers.
+     */
+    ArrayList<V> vectors = new ArrayList<>();
+
+    /**
+     * Labels, {@code null} for rows without labels.
+     */
+    ArrayList<LabelList> labels = new ArrayList<>();
+
+    /**
+     * Line numbers within the block, 0-based.
+     */
+    int[] lines = new int[16];
+
+    /**
+     * Number of rows.
+     */
+    int size;
+
+    /**
+     * Number of lines, including comments.
+     */
+    int numLines;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends NumberVectorLabelParser.Par<V> {
+    /**
+     * Size of the blocks to parse in parallel.
+     */
+    public static final OptionID BLOCKSIZE_ID = new OptionID("parser.blocksize", "Size of the input blocks to parse in parallel, in bytes.");
+
+    /**
+     * Size of the blocks to parse in parallel.
+     */
+    protected int blocksize = DEFAULT_BLOCKSIZE;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new IntParameter(BLOCKSIZE_ID, DEFAULT_BLOCKSIZE) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> blocksize = x);
+    }
+
+    @Override
+    public ParallelNumberVectorLabelParser<V> make() {
+      return new ParallelNumberVectorLabelParser<>(format, labelIndices, factory, blocksize);
+    }
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import java.util.Arrays;
+
+import elki.data.SparseFloatVector;
+import elki.data.SparseNumberVector;
+import elki.data.type.SimpleTypeInformation;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.data.type.VectorTypeInformation;
+import elki.logging.Logging;
+import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.ParseUtil;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Multi-threaded variant of the {@link SparseNumberVectorLabelParser}.
+ * <p>
+ * The input is parsed in blocks as in {@link ParallelNumberVectorLabelParser},
+ * with the default column separators. Indexes and values are parsed directly
+ * from the bytes into index and value arrays, which are then used to build
+ * the sparse vectors without an intermediate map.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <V> vector type
+ */
+@Title("Parallel Sparse Vector Label Parser")
+public class ParallelSparseNumberVectorLabelParser<V extends SparseNumberVector> extends ParallelNumberVectorLabelParser<V> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelSparseNumberVectorLabelParser.class);
+
+  /**
+   * Same as {@link #factory}, but subtype.
+   */
+  protected SparseNumberVector.Factory<V> sparsefactory;
+
+  /**
+   * Constructor.
+   *
+   * @param format Input format
+   * @param labelIndices Indices to use as labels
+   * @param factory Vector factory
+   * @param blocksize Size of the blocks to parse in parallel
+   */
+  protected ParallelSparseNumberVectorLabelParser(CSVReaderFormat format, long[] labelIndices, SparseNumberVector.Factory<V> factory, int blocksize) {
+    super(format, labelIndices, factory, blocksize);
+    this.sparsefactory = factory;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param labelIndices Indices to use as labels
+   * @param factory Vector factory
+   * @param blocksize Size of the blocks to parse in parallel
+   */
+  public ParallelSparseNumberVectorLabelParser(long[] labelIndices, SparseNumberVector.Factory<V> factory, int blocksize) {
+    this(CSVReaderFormat.DEFAULT_FORMAT, labelIndices, factory, blocksize);
+  }
+
+  @Override
+  LineParser newLineParser() {
+    return new SparseLineParser();
+  }
+
+  @Override
+  protected SimpleTypeInformation<V> getTypeInformation(int mindim, int maxdim) {
+    if(mindim == maxdim) {
+      return new VectorFieldTypeInformation<>(factory, mindim);
+    }
+    else if(mindim < maxdim) {
+      return new VectorTypeInformation<>(factory, factory.getDefaultSerializer(), mindim, maxdim);
+    }
+    throw new AbortException("No vectors were read from the input file - cannot determine vector data type.");
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Line parser for sparse vectors, collecting the index and value arrays.
+   *
+   * @author Erich Schubert
+   */
+  class SparseLineParser extends ByteLineParser {
+    /**
+     * Indexes of the current line.
+     */
+    int[] indexes = new int[11];
+
+    /**
+     * Number of values announced at the beginning of the line.
+     */
+    int cardinality;
+
+    /**
+     * Pending index, or -1.
+     */
+    int index = -1;
+
+    /**
+     * Dimensionality of the current line.
+     */
+    int thismax;
+
+    @Override
+    void addToken(byte[] buf, int start, int end, boolean quoted, int col) {
+      if(col == 0) {
+        try {
+          cardinality = ParseUtil.parseIntBase10(buf, start, end);
+          return;
+        }
+        catch(NumberFormatException e) {
+          throw new NumberFormatException("Expected the number of values at the beginning of the line, read '" + new String(buf, start, end - start) + "'");
+        }
+      }
+      if(size < cardinality && !quoted) {
+        try {
+          // Try reading the next index:
+          if(index < 0) {
+            index = ParseUtil.parseIntBase10(buf, start, end);
+            return;
+          }
+          // Read the next value, but respect labelIndices.
+          if(!isLabelColumn(index)) {
+            addEntry(index, ParseUtil.parseDouble(buf, start, end));
+            index = -1;
+            return;
+          }
+        }
+        catch(NumberFormatException e) {
+          checkPrecision(e, new String(buf, start, end - start));
+          // continue with fallback below.
+        }
+      }
+      // Fallback: treat as label
+      addLabel(new String(buf, start, end - start));
+    }
+
+    /**
+     * Add a vector entry.
+     *
+     * @param idx Index
+     * @param v Value
+     */
+    void addEntry(int idx, double v) {
+      if(size == indexes.length) {
+        indexes = Arrays.copyOf(indexes, size << 1);
+      }
+      indexes[size] = idx;
+      addValue(v);
+      thismax = idx >= thismax ? idx + 1 : thismax;
+    }
+
+    @Override
+    void finishRow(Block block, int line) {
+      if(index >= 0) {
+        throw new IllegalArgumentException("Parser expected double value, but line ended too early.");
+      }
+      size = sortUnique(indexes, values, size);
+      addRow(block, sparsefactory.newNumberVector(indexes, values, size, thismax), labels, line);
+      size = thismax = cardinality = 0;
+    }
+  }
+
+  /**
+   * Sort the entries by index, keeping the last value of duplicate indexes.
+   *
+   * @param indexes Indexes
+   * @param values Values
+   * @param size Number of entries
+   * @return Number of entries after removing duplicates
+   */
+  static int sortUnique(int[] indexes, double[] values, int size) {
+    int i = 1;
+    while(i < size && indexes[i - 1] < indexes[i]) {
+      ++i;
+    }
+    if(i >= size) {
+      return size; // Already sorted, the common case.
+    }
+    // Insertion sort, stable, as entries are usually almost sorted.
+    for(; i < size; i++) {
+      final int idx = indexes[i];
+      final double v = values[i];
+      int j = i - 1;
+      while(j >= 0 && indexes[j] > idx) {
+        indexes[j + 1] = indexes[j];
+        values[j + 1] = values[j];
+        --j;
+      }
+      indexes[j + 1] = idx;
+      values[j + 1] = v;
+    }
+    // Remove duplicates, keeping the last value.
+    int n = 0;
+    for(i = 0; i < size; i++) {
+      if(n > 0 && indexes[n - 1] == indexes[i]) {
+        values[n - 1] = values[i];
+        continue;
+      }
+      indexes[n] = indexes[i];
+      values[n++] = values[i];
+    }
+    return n;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends SparseNumberVector> extends ParallelNumberVectorLabelParser.Par<V> {
+    @Override
+    public void configure(Parameterization config) {
+      // Only the default separators are supported, no format options:
+      getLabelIndices(config);
+      getFactory(config);
+      new IntParameter(BLOCKSIZE_ID, DEFAULT_BLOCKSIZE) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> blocksize = x);
+    }
+
+    @Override
+    protected void getFactory(Parameterization config) {
+      new ObjectParameter<SparseNumberVector.Factory<V>>(VECTOR_TYPE_ID, SparseNumberVector.Factory.class, SparseFloatVector.Factory.class) //
+          .grab(config, x -> factory = x);
+    }
+
+    @Override
+    public ParallelSparseNumberVectorLabelParser<V> make() {
+      return new ParallelSparseNumberVectorLabelParser<>(labelIndices, (SparseNumberVector.Factory<V>) factory, blocksize);
+    }
+  }
+}
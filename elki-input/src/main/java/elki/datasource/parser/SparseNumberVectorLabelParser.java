@@ -23,7 +23,6 @@ package elki.datasource.parser;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
 
-import elki.data.LabelList;
 import elki.data.SparseFloatVector;
 import elki.data.SparseNumberVector;
 import elki.data.type.SimpleTypeInformation;
@@ -179,7 +178,7 @@ public class SparseNumberVectorLabelParser<V extends SparseNumberVector> extends
       throw new IllegalArgumentException("Parser expected double value, but line ended too early: " + reader.getLineNumber());
     }
     curvec = sparsefactory.newNumberVector(values, thismax);
-    curlbl = LabelList.make(labels);
+    curlbl = dictionary.intern(labels);
     values.clear();
     labels.clear();
     return true;
@@ -22,7 +22,6 @@ package elki.datasource.parser;
 
 import java.util.ArrayList;
 
-import elki.data.LabelList;
 import elki.data.SparseFloatVector;
 import elki.data.SparseNumberVector;
 import elki.data.type.SimpleTypeInformation;
@@ -172,7 +171,7 @@ public class TermFrequencyParser<V extends SparseNumberVector> extends NumberVec
     }
 
     curvec = sparsefactory.newNumberVector(values, numterms);
-    curlbl = LabelList.make(labels);
+    curlbl = dictionary.intern(labels);
     values.clear();
     labels.clear();
     return true;
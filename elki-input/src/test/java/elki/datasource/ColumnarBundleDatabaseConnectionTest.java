@@ -0,0 +1,133 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import elki.data.DoubleBufferVector;
+import elki.data.DoubleVector;
+import elki.data.LabelList;
+import elki.data.NumberVector;
+import elki.data.SimpleClassLabel;
+import elki.data.type.TypeUtil;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.datasource.bundle.ColumnarBundleWriter;
+import elki.datasource.bundle.MultipleObjectsBundle;
+
+/**
+ * Round-trip test for the columnar bundle format.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ColumnarBundleDatabaseConnectionTest extends AbstractDataSourceTest {
+  @Test
+  public void testLabels() throws IOException {
+    MultipleObjectsBundle expect = readBundle(UNITTEST + "label-selection-test-1.csv");
+    File file = write(expect);
+    MultipleObjectsBundle mapped = new ColumnarBundleDatabaseConnection(null, file.toPath(), false).loadData();
+    assertSameBundle(expect, mapped);
+    assertTrue("Not memory-mapped", mapped.data(0, 0) instanceof DoubleBufferVector);
+    // Single labels are shared:
+    for(int i = 1; i < mapped.dataLength(); i++) {
+      if(mapped.data(i, 1).toString().equals(mapped.data(0, 1).toString())) {
+        assertSame("Labels not shared", mapped.data(0, 1), mapped.data(i, 1));
+      }
+    }
+    MultipleObjectsBundle copied = new ColumnarBundleDatabaseConnection(null, file.toPath(), true).loadData();
+    assertSameBundle(expect, copied);
+    assertTrue("Not copied", copied.data(0, 0) instanceof DoubleVector);
+    assertTrue("Not a double vector field", TypeUtil.DOUBLE_VECTOR_FIELD.isAssignableFromType(copied.meta(0)));
+  }
+
+  @Test
+  public void testMixedColumns() throws IOException {
+    MultipleObjectsBundle expect = new MultipleObjectsBundle();
+    expect.appendColumn(new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2, new String[] { "x", "y" }), //
+        Arrays.asList(DoubleVector.wrap(new double[] { 1, 2 }), DoubleVector.wrap(new double[] { Double.NaN, -0. })));
+    expect.appendColumn(TypeUtil.LABELLIST, Arrays.asList(LabelList.make(Collections.emptyList()), //
+        LabelList.make(Arrays.asList("a", "b", "a"))));
+    expect.appendColumn(TypeUtil.SIMPLE_CLASSLABEL, Arrays.asList(new SimpleClassLabel("x"), new SimpleClassLabel("")));
+    File file = write(expect);
+    MultipleObjectsBundle mapped = new ColumnarBundleDatabaseConnection(null, file.toPath(), false).loadData();
+    assertSameBundle(expect, mapped);
+    assertEquals("Column name", "y", ((VectorFieldTypeInformation<?>) mapped.meta(0)).getLabel(1));
+  }
+
+  /**
+   * Write a bundle to a temporary file.
+   *
+   * @param bundle Bundle
+   * @return File
+   * @throws IOException on errors
+   */
+  private static File write(MultipleObjectsBundle bundle) throws IOException {
+    File file = File.createTempFile("elki-columnar-test", ".bin");
+    file.deleteOnExit();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      new ColumnarBundleWriter().writeBundle(bundle, channel);
+    }
+    return file;
+  }
+
+  /**
+   * Compare two bundles.
+   *
+   * @param expect Expected bundle
+   * @param actual Actual bundle
+   */
+  private static void assertSameBundle(MultipleObjectsBundle expect, MultipleObjectsBundle actual) {
+    assertEquals("Number of columns", expect.metaLength(), actual.metaLength());
+    assertEquals("Number of rows", expect.dataLength(), actual.dataLength());
+    for(int c = 0; c < expect.metaLength(); c++) {
+      if(actual.data(0, c) instanceof DoubleBufferVector) {
+        assertTrue("Not a vector field", TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(actual.meta(c)));
+      }
+      else {
+        assertEquals("Column type", expect.meta(c).getRestrictionClass(), actual.meta(c).getRestrictionClass());
+      }
+      for(int r = 0; r < expect.dataLength(); r++) {
+        Object e = expect.data(r, c), a = actual.data(r, c);
+        if(e instanceof NumberVector) {
+          NumberVector ev = (NumberVector) e, av = (NumberVector) a;
+          assertEquals("Dimensionality", ev.getDimensionality(), av.getDimensionality());
+          for(int d = 0; d < ev.getDimensionality(); d++) {
+            assertEquals("Value", ev.doubleValue(d), av.doubleValue(d), 0.);
+          }
+        }
+        else {
+          assertEquals("Object in row " + r, e.toString(), a.toString());
+        }
+      }
+    }
+  }
+}
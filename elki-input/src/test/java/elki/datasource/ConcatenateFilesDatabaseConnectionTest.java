@@ -0,0 +1,101 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.datasource.parser.CSVReaderFormat;
+import elki.datasource.parser.NumberVectorLabelParser;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test the concatenation of files, comparing the parallel and the sequential
+ * loading.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ConcatenateFilesDatabaseConnectionTest extends AbstractDataSourceTest {
+  @Test
+  public void testParallel() throws URISyntaxException {
+    List<URI> files = resources("normalization-test-1.csv", "nan-test-1.csv", "normalization-test-1.csv", "nan-test-1.csv");
+    MultipleObjectsBundle expect = new ConcatenateFilesDatabaseConnection(files, new NumberVectorLabelParser<>(DoubleVector.FACTORY), null).loadData();
+    MultipleObjectsBundle actual = new ELKIBuilder<>(ConcatenateFilesDatabaseConnection.class) //
+        .with(ConcatenateFilesDatabaseConnection.Par.INPUT_ID, files) //
+        .build().loadData();
+    assertEquals("Wrong number of objects", 2020, actual.dataLength());
+    assertSameBundle(expect, actual);
+  }
+
+  @Test
+  public void testParserOptions() throws URISyntaxException {
+    List<URI> files = resources("label-selection-test-1.csv", "label-selection-test-1.csv", "label-selection-test-1.csv");
+    long[] labels = new long[] { 1L };
+    MultipleObjectsBundle expect = new ConcatenateFilesDatabaseConnection(files, new NumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, labels, DoubleVector.FACTORY), null).loadData();
+    MultipleObjectsBundle actual = new ELKIBuilder<>(ConcatenateFilesDatabaseConnection.class) //
+        .with(ConcatenateFilesDatabaseConnection.Par.INPUT_ID, files) //
+        .with(NumberVectorLabelParser.Par.LABEL_INDICES_ID, "0") //
+        .build().loadData();
+    assertEquals("Wrong number of objects", 60, actual.dataLength());
+    assertSameBundle(expect, actual);
+  }
+
+  /**
+   * Get the URIs of test resources.
+   *
+   * @param names Resource names
+   * @return URIs
+   * @throws URISyntaxException on errors
+   */
+  private static List<URI> resources(String... names) throws URISyntaxException {
+    List<URI> files = new ArrayList<>(names.length);
+    for(String name : names) {
+      files.add(AbstractDataSourceTest.class.getClassLoader().getResource(UNITTEST + name).toURI());
+    }
+    return files;
+  }
+
+  /**
+   * Compare two bundles, via the string representation of all values.
+   *
+   * @param expect Expected bundle
+   * @param actual Actual bundle
+   */
+  private static void assertSameBundle(MultipleObjectsBundle expect, MultipleObjectsBundle actual) {
+    assertEquals("Number of columns", expect.metaLength(), actual.metaLength());
+    assertEquals("Number of rows", expect.dataLength(), actual.dataLength());
+    for(int c = 0; c < expect.metaLength(); c++) {
+      assertEquals("Column type", expect.meta(c).toString(), actual.meta(c).toString());
+      for(int r = 0; r < expect.dataLength(); r++) {
+        assertEquals("Row " + r, String.valueOf(expect.data(r, c)), String.valueOf(actual.data(r, c)));
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.datasource.filter.ObjectFilter;
+import elki.datasource.filter.normalization.columnwise.AttributeWiseMinMaxNormalization;
+import elki.datasource.filter.normalization.columnwise.AttributeWiseVarianceNormalization;
+import elki.datasource.filter.selection.ExternalShuffleStreamFilter;
+import elki.datasource.parser.NumberVectorLabelParser;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Test the multi-pass streaming mode of the input stream database connection.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class InputStreamDatabaseConnectionTest extends AbstractDataSourceTest {
+  /**
+   * Number of times the input was opened.
+   */
+  private int opened;
+
+  @Test
+  public void testMultipass() {
+    final String filename = UNITTEST + "normalization-test-1.csv";
+    MultipleObjectsBundle expect = load(filename, false, new AttributeWiseMinMaxNormalization<>(), new AttributeWiseVarianceNormalization<>());
+    assertEquals("Input opened", 1, opened);
+    MultipleObjectsBundle actual = load(filename, true, new AttributeWiseMinMaxNormalization<>(), new AttributeWiseVarianceNormalization<>());
+    // One statistics pass per normalization, and the final pass.
+    assertEquals("Input opened", 3, opened);
+    assertEquals("Length changed", expect.dataLength(), actual.dataLength());
+    for(int row = 0; row < expect.dataLength(); row++) {
+      NumberVector e = get(expect, row, 0, DoubleVector.class), a = get(actual, row, 0, DoubleVector.class);
+      for(int d = 0; d < e.getDimensionality(); d++) {
+        assertEquals("Value differs", e.doubleValue(d), a.doubleValue(d), 1e-15);
+      }
+    }
+  }
+
+  @Test
+  public void testMultipassShuffled() {
+    final String filename = UNITTEST + "normalization-test-1.csv";
+    MultipleObjectsBundle expect = load(filename, false, new AttributeWiseVarianceNormalization<>());
+    MultipleObjectsBundle actual = load(filename, true, new ExternalShuffleStreamFilter(3, new RandomFactory(0L)), new AttributeWiseVarianceNormalization<>());
+    assertEquals("Input opened", 2, opened);
+    assertEquals("Length changed", expect.dataLength(), actual.dataLength());
+    // Standardized data has the same sums of squares, in any order.
+    double[] esum = new double[3], asum = new double[3];
+    for(int row = 0; row < expect.dataLength(); row++) {
+      NumberVector e = get(expect, row, 0, DoubleVector.class), a = get(actual, row, 0, DoubleVector.class);
+      for(int d = 0; d < 3; d++) {
+        esum[d] += e.doubleValue(d) * e.doubleValue(d);
+        asum[d] += a.doubleValue(d) * a.doubleValue(d);
+      }
+    }
+    for(int d = 0; d < 3; d++) {
+      assertEquals("Sum of squares differs", esum[d], asum[d], 1e-9);
+    }
+  }
+
+  /**
+   * Load a resource file, counting how often it is opened.
+   *
+   * @param filename Resource name
+   * @param multipass Multipass mode
+   * @param filters Filters
+   * @return Bundle
+   */
+  private MultipleObjectsBundle load(String filename, boolean multipass, ObjectFilter... filters) {
+    opened = 0;
+    List<ObjectFilter> filterlist = Arrays.asList(filters);
+    try (InputStreamDatabaseConnection dbc = new InputStreamDatabaseConnection(() -> {
+      try {
+        ++opened;
+        return open(filename);
+      }
+      catch(IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, filterlist, new NumberVectorLabelParser<>(DoubleVector.FACTORY), multipass)) {
+      return dbc.loadData();
+    }
+    catch(IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
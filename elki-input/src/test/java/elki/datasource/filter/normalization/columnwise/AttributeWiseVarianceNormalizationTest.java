@@ -23,11 +23,18 @@ package elki.datasource.filter.normalization.columnwise;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
+import elki.data.DoubleBufferVector;
 import elki.data.DoubleVector;
 import elki.data.type.FieldTypeInformation;
 import elki.data.type.TypeUtil;
+import elki.data.type.VectorFieldTypeInformation;
 import elki.datasource.AbstractDataSourceTest;
 import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.math.MeanVariance;
@@ -97,4 +104,36 @@ public class AttributeWiseVarianceNormalizationTest extends AbstractDataSourceTe
       assertEquals("Variance not as expected", 1., mvs[col].getPopulationVariance(), 1e-15);
     }
   }
+
+  /**
+   * Test the packed output for buffer-backed vectors.
+   */
+  @Test
+  public void testPacked() {
+    final int dim = 3, size = 2000;
+    Random r = new Random(0L);
+    double[] data = new double[dim * size];
+    for(int i = 0; i < data.length; i++) {
+      data[i] = r.nextGaussian() * (i % dim + 1) + i % dim;
+    }
+    DoubleBuffer buffer = DoubleBuffer.wrap(data);
+    List<DoubleBufferVector> vecs = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      vecs.add(new DoubleBufferVector(buffer, i * dim, dim));
+    }
+    MultipleObjectsBundle bundle = MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(DoubleBufferVector.FACTORY, dim), vecs);
+    bundle = new AttributeWiseVarianceNormalization<DoubleBufferVector>().filter(bundle);
+
+    MeanVariance[] mvs = MeanVariance.newArray(dim);
+    for(int row = 0; row < bundle.dataLength(); row++) {
+      DoubleBufferVector d = get(bundle, row, 0, DoubleBufferVector.class);
+      for(int col = 0; col < dim; col++) {
+        mvs[col].put(d.doubleValue(col));
+      }
+    }
+    for(int col = 0; col < dim; col++) {
+      assertEquals("Mean not as expected", 0., mvs[col].getMean(), 1e-14);
+      assertEquals("Variance not as expected", 1., mvs[col].getPopulationVariance(), 1e-14);
+    }
+  }
 }
@@ -0,0 +1,103 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.filter.selection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.type.TypeUtil;
+import elki.datasource.AbstractDataSourceTest;
+import elki.datasource.bundle.BundleStreamSource;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test the external memory shuffle filter.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ExternalShuffleStreamFilterTest extends AbstractDataSourceTest {
+  @Test
+  public void testShuffle() {
+    String filename = UNITTEST + "sorted-data-1.csv";
+    MultipleObjectsBundle unfilteredBundle = readBundle(filename);
+    for(int buckets : new int[] { 1, 4, 1000 }) {
+      ExternalShuffleStreamFilter filter = new ELKIBuilder<>(ExternalShuffleStreamFilter.class) //
+          .with(ExternalShuffleStreamFilter.Par.BUCKETS_ID, buckets) //
+          .with(ShuffleObjectsFilter.Par.SEED_ID, 0) //
+          .build();
+      MultipleObjectsBundle filteredBundle = readBundle(filename, filter);
+      assertEquals("Dimensionality", getFieldDimensionality(unfilteredBundle, 0, TypeUtil.NUMBER_VECTOR_FIELD), getFieldDimensionality(filteredBundle, 0, TypeUtil.NUMBER_VECTOR_FIELD));
+      assertEquals("Length changed", unfilteredBundle.dataLength(), filteredBundle.dataLength());
+      final int size = filteredBundle.dataLength();
+      double[] expect = new double[size], actual = new double[size];
+      boolean shuffled = false;
+      for(int row = 0; row < size; row++) {
+        expect[row] = get(unfilteredBundle, row, 0, DoubleVector.class).doubleValue(0);
+        actual[row] = get(filteredBundle, row, 0, DoubleVector.class).doubleValue(0);
+        shuffled |= row > 0 && actual[row - 1] > actual[row];
+      }
+      assertTrue("Elements are not shuffled.", shuffled);
+      Arrays.sort(actual);
+      assertArrayEquals("Not a permutation", expect, actual, 0.);
+    }
+  }
+
+  @Test
+  public void testAbandoned() throws IOException {
+    MultipleObjectsBundle bundle = readBundle(UNITTEST + "sorted-data-1.csv");
+    final long before = countTempFiles();
+    ExternalShuffleStreamFilter filter = new ELKIBuilder<>(ExternalShuffleStreamFilter.class) //
+        .with(ExternalShuffleStreamFilter.Par.BUCKETS_ID, 4) //
+        .with(ShuffleObjectsFilter.Par.SEED_ID, 0) //
+        .build();
+    BundleStreamSource stream = filter.init(bundle.asStream());
+    assertEquals(BundleStreamSource.Event.META_CHANGED, stream.nextEvent());
+    assertEquals(BundleStreamSource.Event.NEXT_OBJECT, stream.nextEvent());
+    assertTrue("No temporary files written.", countTempFiles() > before);
+    stream.close();
+    assertEquals("Temporary files not deleted.", before, countTempFiles());
+  }
+
+  /**
+   * Count the temporary files of the shuffle.
+   *
+   * @return Number of files
+   * @throws IOException on IO errors
+   */
+  private static long countTempFiles() throws IOException {
+    try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+      return files.filter(p -> p.getFileName().toString().startsWith("elki-shuffle")).count();
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import static elki.datasource.parser.ParallelNumberVectorLabelParserTest.bytes;
+import static elki.datasource.parser.ParallelNumberVectorLabelParserTest.parse;
+import static elki.datasource.parser.ParallelSparseNumberVectorLabelParserTest.assertSameBundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import elki.datasource.AbstractDataSourceTest;
+import elki.datasource.bundle.MultipleObjectsBundle;
+
+/**
+ * Test the parallel ARFF parser against the sequential parser.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ParallelArffParserTest extends AbstractDataSourceTest {
+  @Test
+  public void testFiles() throws IOException {
+    for(String file : new String[] { "parsertest.arff", "parsertest.sparse.arff" }) {
+      for(int blocksize : new int[] { 1, 100, ParallelNumberVectorLabelParser.DEFAULT_BLOCKSIZE }) {
+        MultipleObjectsBundle expect, actual;
+        try (InputStream is = open(UNITTEST + file)) {
+          expect = parse(is, new ArffParser(ArffParser.DEFAULT_ARFF_MAGIC_EID, ArffParser.DEFAULT_ARFF_MAGIC_CLASS));
+        }
+        try (InputStream is = open(UNITTEST + file)) {
+          actual = parse(is, new ParallelArffParser(pattern(ArffParser.DEFAULT_ARFF_MAGIC_EID), pattern(ArffParser.DEFAULT_ARFF_MAGIC_CLASS), blocksize));
+        }
+        assertSameBundle(file + " blocksize " + blocksize, expect, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testQuotes() {
+    String input = "@relation test\n@attribute 'a b' numeric\n@attribute x numeric\n@attribute s string\n" //
+        + "@attribute class {p,q}\n@data\n" //
+        + "1, 2, 'it\\'s, quoted', p % comment\n" //
+        + "% comment line\n\n" //
+        + "?,3.5e1,\"x\",q\r\n";
+    MultipleObjectsBundle expect = parse(bytes(input), new ArffParser(ArffParser.DEFAULT_ARFF_MAGIC_EID, ArffParser.DEFAULT_ARFF_MAGIC_CLASS));
+    MultipleObjectsBundle actual = parse(bytes(input), new ParallelArffParser(pattern(ArffParser.DEFAULT_ARFF_MAGIC_EID), pattern(ArffParser.DEFAULT_ARFF_MAGIC_CLASS), 16));
+    assertSameBundle("quotes", expect, actual);
+  }
+
+  @Test
+  public void testEscapes() {
+    String input = "@relation test\n@attribute x numeric\n@attribute s string\n@data\n" //
+        + "1, 'tab\\there\\nnewline'\n" //
+        + "2, \"octal \\101\\0617 \\477 \\9\\\\ \\\"q\\\"\"\n";
+    MultipleObjectsBundle expect = parse(bytes(input), new ArffParser(ArffParser.DEFAULT_ARFF_MAGIC_EID, ArffParser.DEFAULT_ARFF_MAGIC_CLASS));
+    MultipleObjectsBundle actual = parse(bytes(input), new ParallelArffParser(pattern(ArffParser.DEFAULT_ARFF_MAGIC_EID), pattern(ArffParser.DEFAULT_ARFF_MAGIC_CLASS), 16));
+    assertSameBundle("escapes", expect, actual);
+  }
+
+  /**
+   * Compile a case insensitive pattern.
+   *
+   * @param p Pattern string
+   * @return Pattern
+   */
+  private static Pattern pattern(String p) {
+    return Pattern.compile(p, Pattern.CASE_INSENSITIVE);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import static elki.datasource.parser.ParallelNumberVectorLabelParserTest.bytes;
+import static elki.datasource.parser.ParallelNumberVectorLabelParserTest.parse;
+import static elki.datasource.parser.ParallelSparseNumberVectorLabelParserTest.assertSameBundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import elki.data.SparseFloatVector;
+import elki.datasource.AbstractDataSourceTest;
+import elki.datasource.bundle.MultipleObjectsBundle;
+
+/**
+ * Test the parallel libSVM format parser against the sequential parser.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ParallelLibSVMFormatParserTest extends AbstractDataSourceTest {
+  @Test
+  public void testFile() throws IOException {
+    for(int blocksize : new int[] { 1, 9, ParallelNumberVectorLabelParser.DEFAULT_BLOCKSIZE }) {
+      MultipleObjectsBundle expect, actual;
+      try (InputStream is = open(UNITTEST + "parsertest.libsvm")) {
+        expect = parse(is, new LibSVMFormatParser<>(SparseFloatVector.FACTORY));
+      }
+      try (InputStream is = open(UNITTEST + "parsertest.libsvm")) {
+        actual = parse(is, new ParallelLibSVMFormatParser<>(SparseFloatVector.FACTORY, blocksize));
+      }
+      assertSameBundle("blocksize " + blocksize, expect, actual);
+    }
+  }
+
+  @Test
+  public void testWhitespace() {
+    String input = "+1 1:0.5\t3:-2e1  \r\n\n-1\n2 4:1 2:3\n";
+    MultipleObjectsBundle expect = parse(bytes(input), new LibSVMFormatParser<>(SparseFloatVector.FACTORY));
+    MultipleObjectsBundle actual = parse(bytes(input), new ParallelLibSVMFormatParser<>(SparseFloatVector.FACTORY, 5));
+    assertSameBundle("whitespace", expect, actual);
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.datasource.AbstractDataSourceTest;
+import elki.datasource.InputStreamDatabaseConnection;
+import elki.datasource.bundle.MultipleObjectsBundle;
+
+/**
+ * Test the parallel number vector parser against the sequential parser.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ParallelNumberVectorLabelParserTest extends AbstractDataSourceTest {
+  /**
+   * Input with a header row, labels, quotes, comments and line endings.
+   */
+  private static final String INPUT = "x y \"z\" name\n" //
+      + "# comment line\n" //
+      + "1.0 2.0 3.0 a\r\n" //
+      + "  4,5 ; 6 \"b c\"\n" //
+      + "\n" //
+      + "7e-1\t8\t9\t'd'\n" //
+      + "// another comment\n" //
+      + "10 11 12 a,,\n" //
+      + "13 14 15 \"unterminated\n" //
+      + "16 17 18";
+
+  @Test
+  public void testFiles() throws IOException {
+    for(String file : new String[] { "label-selection-test-1.csv", "external-id-test-1.csv", //
+        "dimensionality-test-2.csv", "nan-test-1.csv", "normally-distributed-data-1.csv" }) {
+      for(int blocksize : new int[] { 13, ParallelNumberVectorLabelParser.DEFAULT_BLOCKSIZE }) {
+        MultipleObjectsBundle expect, actual;
+        try (InputStream is = open(UNITTEST + file)) {
+          expect = parse(is, new NumberVectorLabelParser<>(DoubleVector.FACTORY));
+        }
+        try (InputStream is = open(UNITTEST + file)) {
+          actual = parse(is, new ParallelNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, DoubleVector.FACTORY, blocksize));
+        }
+        assertSameBundle(file, expect, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testSpecialLines() {
+    for(int blocksize : new int[] { 1, 5, 64, ParallelNumberVectorLabelParser.DEFAULT_BLOCKSIZE }) {
+      MultipleObjectsBundle expect = parse(bytes(INPUT), new NumberVectorLabelParser<>(DoubleVector.FACTORY));
+      MultipleObjectsBundle actual = parse(bytes(INPUT), new ParallelNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, DoubleVector.FACTORY, blocksize));
+      assertSameBundle("blocksize " + blocksize, expect, actual);
+      assertEquals("Column names not detected.", "z", ((VectorFieldTypeInformation<?>) actual.meta(0)).getLabel(2));
+    }
+  }
+
+  @Test
+  public void testCustomSeparator() {
+    CSVReaderFormat format = new CSVReaderFormat(Pattern.compile(","), CSVReaderFormat.QUOTE_CHARS, Pattern.compile("^%.*$"));
+    String input = "1,2,x\n%comment\n3,4,y\n5,,6\n";
+    long[] labels = new long[] { 1L << 1 };
+    MultipleObjectsBundle expect = parse(bytes(input), new NumberVectorLabelParser<>(format, labels, DoubleVector.FACTORY));
+    MultipleObjectsBundle actual = parse(bytes(input), new ParallelNumberVectorLabelParser<>(format, labels, DoubleVector.FACTORY, 4));
+    assertSameBundle("custom", expect, actual);
+  }
+
+  @Test
+  public void testSharedLabels() {
+    String input = "1 2 x\n3 4 y\n5 6 x\n";
+    for(NumberVectorLabelParser<DoubleVector> parser : Arrays.asList(new NumberVectorLabelParser<>(DoubleVector.FACTORY), //
+        new ParallelNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, DoubleVector.FACTORY, 4))) {
+      MultipleObjectsBundle bundle = parse(bytes(input), parser);
+      assertSame("Labels not shared.", bundle.data(0, 1), bundle.data(2, 1));
+      assertNotSame("Different labels shared.", bundle.data(0, 1), bundle.data(1, 1));
+    }
+  }
+
+  @Test
+  public void testShortReads() throws IOException {
+    StringBuilder buf = new StringBuilder();
+    for(int i = 0; i < 1000; i++) {
+      buf.append(i).append(' ').append(i * .5).append('\n');
+    }
+    final String input = buf.toString();
+    // Simulate a decompressing stream, which returns only a few bytes per read
+    InputStream is = new FilterInputStream(bytes(input)) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+    LineBlockReader reader = new LineBlockReader(is, 1000);
+    StringBuilder out = new StringBuilder();
+    for(byte[] block = reader.nextBlock(); block != null; block = reader.nextBlock()) {
+      out.append(new String(block, StandardCharsets.UTF_8));
+      // Blocks must be filled up to the last complete line.
+      assertTrue("Block too small: " + block.length, block.length > 1000 - 20 || reader.isEOF());
+      assertEquals("Block does not end with a line break.", '\n', block[block.length - 1]);
+    }
+    reader.close();
+    assertEquals("Input not reproduced.", input, out.toString());
+  }
+
+  /**
+   * Get an input stream for a string.
+   *
+   * @param input Input string
+   * @return Stream
+   */
+  static InputStream bytes(String input) {
+    return new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Parse an input stream.
+   *
+   * @param is Input stream
+   * @param parser Parser
+   * @return Bundle
+   */
+  static MultipleObjectsBundle parse(InputStream is, Parser parser) {
+    try (InputStreamDatabaseConnection dbc = new InputStreamDatabaseConnection(is, null, parser)) {
+      return dbc.loadData();
+    }
+    catch(IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Compare two bundles.
+   *
+   * @param msg Message prefix
+   * @param expect Expected bundle
+   * @param actual Actual bundle
+   */
+  private static void assertSameBundle(String msg, MultipleObjectsBundle expect, MultipleObjectsBundle actual) {
+    assertEquals(msg + ": number of columns", expect.metaLength(), actual.metaLength());
+    assertEquals(msg + ": number of rows", expect.dataLength(), actual.dataLength());
+    for(int c = 0; c < expect.metaLength(); c++) {
+      assertEquals(msg + ": column type", expect.meta(c).toString(), actual.meta(c).toString());
+    }
+    for(int r = 0; r < expect.dataLength(); r++) {
+      NumberVector ev = (NumberVector) expect.data(r, 0), av = (NumberVector) actual.data(r, 0);
+      assertEquals(msg + ": dimensionality in row " + r, ev.getDimensionality(), av.getDimensionality());
+      for(int d = 0; d < ev.getDimensionality(); d++) {
+        assertEquals(msg + ": value in row " + r, ev.doubleValue(d), av.doubleValue(d), 0.);
+      }
+      for(int c = 1; c < expect.metaLength(); c++) {
+        assertEquals(msg + ": labels in row " + r, String.valueOf(expect.data(r, c)), String.valueOf(actual.data(r, c)));
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.datasource.parser;
+
+import static elki.datasource.parser.ParallelNumberVectorLabelParserTest.bytes;
+import static elki.datasource.parser.ParallelNumberVectorLabelParserTest.parse;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import elki.data.SparseDoubleVector;
+import elki.data.SparseFloatVector;
+import elki.datasource.AbstractDataSourceTest;
+import elki.datasource.bundle.MultipleObjectsBundle;
+
+/**
+ * Test the parallel sparse vector parser against the sequential parser.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ParallelSparseNumberVectorLabelParserTest extends AbstractDataSourceTest {
+  @Test
+  public void testFile() throws IOException {
+    for(int blocksize : new int[] { 1, 7, ParallelNumberVectorLabelParser.DEFAULT_BLOCKSIZE }) {
+      MultipleObjectsBundle expect, actual;
+      try (InputStream is = open(UNITTEST + "parsertest.sparse")) {
+        expect = parse(is, new SparseNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, SparseDoubleVector.FACTORY));
+      }
+      try (InputStream is = open(UNITTEST + "parsertest.sparse")) {
+        actual = parse(is, new ParallelSparseNumberVectorLabelParser<>(null, SparseDoubleVector.FACTORY, blocksize));
+      }
+      assertSameBundle("blocksize " + blocksize, expect, actual);
+    }
+  }
+
+  @Test
+  public void testUnsorted() {
+    String input = "3 7 1.5 2 2.5 7 3.5 a\n0 b\n2 1 1 0 0\n";
+    MultipleObjectsBundle expect = parse(bytes(input), new SparseNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, SparseFloatVector.FACTORY));
+    MultipleObjectsBundle actual = parse(bytes(input), new ParallelSparseNumberVectorLabelParser<>(null, SparseFloatVector.FACTORY, 8));
+    assertSameBundle("unsorted", expect, actual);
+    SparseFloatVector v = (SparseFloatVector) actual.data(0, 0);
+    int iter = v.iter();
+    while(v.iterValid(iter) && v.iterDim(iter) != 7) {
+      iter = v.iterAdvance(iter);
+    }
+    assertTrue("Missing index", v.iterValid(iter));
+    assertEquals("Duplicate index", 3.5, v.iterDoubleValue(iter), 0.);
+  }
+
+  /**
+   * Compare two bundles, via the string representation of all values.
+   *
+   * @param msg Message prefix
+   * @param expect Expected bundle
+   * @param actual Actual bundle
+   */
+  static void assertSameBundle(String msg, MultipleObjectsBundle expect, MultipleObjectsBundle actual) {
+    assertEquals(msg + ": number of columns", expect.metaLength(), actual.metaLength());
+    assertEquals(msg + ": number of rows", expect.dataLength(), actual.dataLength());
+    for(int c = 0; c < expect.metaLength(); c++) {
+      assertEquals(msg + ": column type", expect.meta(c).toString(), actual.meta(c).toString());
+      for(int r = 0; r < expect.dataLength(); r++) {
+        assertEquals(msg + ": row " + r, String.valueOf(expect.data(r, c)), String.valueOf(actual.data(r, c)));
+      }
+    }
+  }
+}
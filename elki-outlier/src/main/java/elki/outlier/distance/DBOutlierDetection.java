@@ -24,8 +24,10 @@ import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.DoubleDataStore;
 import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.ArrayModifiableDBIDs;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
 import elki.database.ids.DoubleDBIDList;
 import elki.database.ids.KNNList;
 import elki.database.query.QueryBuilder;
@@ -43,6 +45,8 @@ import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
 
 /**
  * Simple distanced based outlier detection algorithm. User has to specify two
@@ -84,6 +88,11 @@ public class DBOutlierDetection<O> extends AbstractDBOutlier<O> {
    */
   private double p;
 
+  /**
+   * Random generator for the scan order of the linear scan.
+   */
+  private RandomFactory rnd;
+
   /**
    * Constructor with actual parameters.
    *
@@ -92,8 +101,21 @@ public class DBOutlierDetection<O> extends AbstractDBOutlier<O> {
    * @param p percentage parameter
    */
   public DBOutlierDetection(Distance<? super O> distance, double d, double p) {
+    this(distance, d, p, RandomFactory.DEFAULT);
+  }
+
+  /**
+   * Constructor with actual parameters.
+   *
+   * @param distance distance function parameter
+   * @param d distance query radius
+   * @param p percentage parameter
+   * @param rnd Random generator for the scan order of the linear scan
+   */
+  public DBOutlierDetection(Distance<? super O> distance, double d, double p, RandomFactory rnd) {
     super(distance, d);
     this.p = p;
+    this.rnd = rnd;
   }
 
   @Override
@@ -134,9 +156,13 @@ public class DBOutlierDetection<O> extends AbstractDBOutlier<O> {
     }
     else {
       // Linear scan neighbors for each object, but stop early.
+      // Scanning in random order makes early stopping more effective if the
+      // data is sorted, c.f. the randomized nested loop of ORCA.
+      ArrayModifiableDBIDs order = DBIDUtil.newArray(relation.getDBIDs());
+      DBIDUtil.randomShuffle(order, rnd);
       for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
         int count = 0;
-        for(DBIDIter iterator = relation.iterDBIDs(); iterator.valid(); iterator.advance()) {
+        for(DBIDIter iterator = order.iter(); iterator.valid(); iterator.advance()) {
           double currentDistance = distFunc.distance(iditer, iterator);
           if(currentDistance <= d) {
             if(++count >= m) {
@@ -164,11 +190,21 @@ public class DBOutlierDetection<O> extends AbstractDBOutlier<O> {
      */
     public static final OptionID P_ID = new OptionID("dbod.p", "minimum fraction of objects that must be outside the D-neighborhood of an outlier");
 
+    /**
+     * Random seed for the scan order of the linear scan.
+     */
+    public static final OptionID SEED_ID = new OptionID("dbod.seed", "Random seed for the scan order, if no index is used.");
+
     /**
      * Density threshold p.
      */
     protected double p = 0.0;
 
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
     @Override
     public void configure(Parameterization config) {
       super.configure(config);
@@ -176,11 +212,12 @@ public class DBOutlierDetection<O> extends AbstractDBOutlier<O> {
           .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
           .addConstraint(CommonConstraints.LESS_THAN_ONE_DOUBLE) //
           .grab(config, x -> p = x);
+      new RandomParameter(SEED_ID).grab(config, x -> rnd = x);
     }
 
     @Override
     public DBOutlierDetection<O> make() {
-      return new DBOutlierDetection<>(distance, d, p);
+      return new DBOutlierDetection<>(distance, d, p, rnd);
     }
   }
 }
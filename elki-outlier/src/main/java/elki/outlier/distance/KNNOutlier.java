@@ -53,6 +53,8 @@ import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
 
 /**
  * Outlier Detection based on the distance of an object to its k nearest
@@ -66,6 +68,9 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * 0 for every point in the database. If you for any reason want to use the
  * original algorithm, subtract 1 from the k parameter.
  * <p>
+ * If only the top n outliers are needed, the scores of the other objects can
+ * be pruned early, see {@link TopNOutlierSearch}.
+ * <p>
  * Reference:
  * <p>
  * S. Ramaswamy, R. Rastogi, K. Shim<br>
@@ -76,6 +81,7 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * @since 0.3
  *
  * @has - - - KNNSearcher
+ * @has - - - TopNOutlierSearch
  *
  * @param <O> the type of objects handled by this algorithm
  */
@@ -104,6 +110,16 @@ public class KNNOutlier<O> implements OutlierAlgorithm {
    */
   protected int kplus;
 
+  /**
+   * Number of top outliers to compute, 0 for all objects.
+   */
+  protected int topn;
+
+  /**
+   * Random generator for the processing order of the top n search.
+   */
+  protected RandomFactory rnd;
+
   /**
    * Constructor for a single kNN query.
    *
@@ -111,9 +127,34 @@ public class KNNOutlier<O> implements OutlierAlgorithm {
    * @param k Value of k (excluding query point!)
    */
   public KNNOutlier(Distance<? super O> distance, int k) {
+    this(distance, k, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function to use
+   * @param k Value of k (excluding query point!)
+   * @param topn Number of top outliers to compute, 0 for all objects
+   */
+  public KNNOutlier(Distance<? super O> distance, int k, int topn) {
+    this(distance, k, topn, RandomFactory.DEFAULT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function to use
+   * @param k Value of k (excluding query point!)
+   * @param topn Number of top outliers to compute, 0 for all objects
+   * @param rnd Random generator for the processing order of the top n search
+   */
+  public KNNOutlier(Distance<? super O> distance, int k, int topn, RandomFactory rnd) {
     super();
     this.distance = distance;
     this.kplus = k + 1; // INCLUDE the query point now
+    this.topn = topn;
+    this.rnd = rnd;
   }
 
   @Override
@@ -127,6 +168,13 @@ public class KNNOutlier<O> implements OutlierAlgorithm {
    * @param relation Data relation
    */
   public OutlierResult run(Relation<O> relation) {
+    if(topn > 0) {
+      DoubleMinMax minmax = new DoubleMinMax();
+      WritableDoubleDataStore knno_score = new TopNOutlierSearch<>(new QueryBuilder<>(relation, distance), kplus, false, topn).run(rnd, minmax);
+      DoubleRelation scoreres = new MaterializedDoubleRelation("kNN Outlier Score", relation.getDBIDs(), knno_score);
+      OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0., Double.POSITIVE_INFINITY, 0.);
+      return new OutlierResult(meta, scoreres);
+    }
     KNNSearcher<DBIDRef> knnQuery = new QueryBuilder<>(relation, distance).kNNByDBID(kplus);
 
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("kNN distance for objects", relation.size(), LOG) : null;
@@ -159,6 +207,17 @@ public class KNNOutlier<O> implements OutlierAlgorithm {
     public static final OptionID K_ID = new OptionID("knno.k", //
         "The k nearest neighbor, excluding the query point (i.e. query point is the 0-nearest-neighbor)");
 
+    /**
+     * Parameter to compute only the top n outliers.
+     */
+    public static final OptionID TOPN_ID = new OptionID("knno.topn", //
+        "Only compute the scores of the top n outliers, using early pruning. All other objects are scored 0.");
+
+    /**
+     * Random seed for the processing order of the top n search.
+     */
+    public static final OptionID SEED_ID = new OptionID("knno.seed", "Random seed for the processing order of the top n outlier search.");
+
     /**
      * The distance function to use.
      */
@@ -169,6 +228,16 @@ public class KNNOutlier<O> implements OutlierAlgorithm {
      */
     protected int k = 0;
 
+    /**
+     * Number of top outliers, 0 for all
+     */
+    protected int topn = 0;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
@@ -176,11 +245,16 @@ public class KNNOutlier<O> implements OutlierAlgorithm {
       new IntParameter(K_ID)//
           .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
           .grab(config, x -> k = x);
+      new IntParameter(TOPN_ID) //
+          .setOptional(true) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> topn = x);
+      new RandomParameter(SEED_ID).grab(config, x -> rnd = x);
     }
 
     @Override
     public KNNOutlier<O> make() {
-      return new KNNOutlier<>(distance, k);
+      return new KNNOutlier<>(distance, k, topn, rnd);
     }
   }
 }
@@ -51,6 +51,8 @@ import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
 
 /**
  * Outlier Detection based on the accumulated distances of a point to its k
@@ -68,6 +70,9 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * original publication). Other implementations may return the average distance
  * instead, and therefore yield different results.
  * <p>
+ * If only the top n outliers are needed, the scores of the other objects can
+ * be pruned early, see {@link TopNOutlierSearch}.
+ * <p>
  * Reference:
  * <p>
  * F. Angiulli, C. Pizzuti<br>
@@ -79,6 +84,7 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * @since 0.3
  *
  * @has - - - KNNSearcher
+ * @has - - - TopNOutlierSearch
  *
  * @param <O> the type of objects handled by this algorithm
  */
@@ -106,6 +112,16 @@ public class KNNWeightOutlier<O> implements OutlierAlgorithm {
    */
   protected int kplus;
 
+  /**
+   * Number of top outliers to compute, 0 for all objects.
+   */
+  protected int topn;
+
+  /**
+   * Random generator for the processing order of the top n search.
+   */
+  protected RandomFactory rnd;
+
   /**
    * Constructor with parameters.
    *
@@ -113,9 +129,34 @@ public class KNNWeightOutlier<O> implements OutlierAlgorithm {
    * @param k k parameter (not including query point!)
    */
   public KNNWeightOutlier(Distance<? super O> distance, int k) {
+    this(distance, k, 0);
+  }
+
+  /**
+   * Constructor with parameters.
+   *
+   * @param distance Distance function
+   * @param k k parameter (not including query point!)
+   * @param topn Number of top outliers to compute, 0 for all objects
+   */
+  public KNNWeightOutlier(Distance<? super O> distance, int k, int topn) {
+    this(distance, k, topn, RandomFactory.DEFAULT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function to use
+   * @param k Value of k (excluding query point!)
+   * @param topn Number of top outliers to compute, 0 for all objects
+   * @param rnd Random generator for the processing order of the top n search
+   */
+  public KNNWeightOutlier(Distance<? super O> distance, int k, int topn, RandomFactory rnd) {
     super();
     this.distance = distance;
     this.kplus = k + 1; // Plus query point
+    this.topn = topn;
+    this.rnd = rnd;
   }
 
   @Override
@@ -129,6 +170,13 @@ public class KNNWeightOutlier<O> implements OutlierAlgorithm {
    * @param relation Data relation
    */
   public OutlierResult run(Relation<O> relation) {
+    if(topn > 0) {
+      DoubleMinMax minmax = new DoubleMinMax();
+      WritableDoubleDataStore knnw_score = new TopNOutlierSearch<>(new QueryBuilder<>(relation, distance), kplus, true, topn).run(rnd, minmax);
+      DoubleRelation res = new MaterializedDoubleRelation("kNN weight Outlier Score", relation.getDBIDs(), knnw_score);
+      OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0., Double.POSITIVE_INFINITY, 0.);
+      return new OutlierResult(meta, res);
+    }
     KNNSearcher<DBIDRef> knnQuery = new QueryBuilder<>(relation, distance).kNNByDBID(kplus);
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Compute kNN weights", relation.size(), LOG) : null;
 
@@ -175,6 +223,17 @@ public class KNNWeightOutlier<O> implements OutlierAlgorithm {
         "The k nearest neighbor, excluding the query point "//
             + "(i.e. query point is the 0-nearest-neighbor)");
 
+    /**
+     * Parameter to compute only the top n outliers.
+     */
+    public static final OptionID TOPN_ID = new OptionID("knnwod.topn", //
+        "Only compute the scores of the top n outliers, using early pruning. All other objects are scored 0.");
+
+    /**
+     * Random seed for the processing order of the top n search.
+     */
+    public static final OptionID SEED_ID = new OptionID("knnwod.seed", "Random seed for the processing order of the top n outlier search.");
+
     /**
      * The distance function to use.
      */
@@ -185,6 +244,16 @@ public class KNNWeightOutlier<O> implements OutlierAlgorithm {
      */
     protected int k;
 
+    /**
+     * Number of top outliers, 0 for all
+     */
+    protected int topn = 0;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
@@ -192,11 +261,16 @@ public class KNNWeightOutlier<O> implements OutlierAlgorithm {
       new IntParameter(K_ID) //
           .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
           .grab(config, x -> k = x);
+      new IntParameter(TOPN_ID) //
+          .setOptional(true) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> topn = x);
+      new RandomParameter(SEED_ID).grab(config, x -> rnd = x);
     }
 
     @Override
     public KNNWeightOutlier<O> make() {
-      return new KNNWeightOutlier<>(distance, k);
+      return new KNNWeightOutlier<>(distance, k, topn, rnd);
     }
   }
 }
@@ -0,0 +1,296 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.distance;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.*;
+import elki.database.query.PrioritySearcher;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.Relation;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.LongStatistic;
+import elki.math.DoubleMinMax;
+import elki.utilities.datastructures.heap.DoubleMaxHeap;
+import elki.utilities.documentation.Reference;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Find only the top-n outliers of kNN-based outlier scores (kNN distance or
+ * the sum of the kNN distances, see {@link KNNOutlier} and
+ * {@link KNNWeightOutlier}).
+ * <p>
+ * This uses the simple pruning rule of ORCA: candidates are processed in a
+ * random order, and each candidate's neighbor search is stopped as soon as its
+ * (decreasing) score falls below the score of the n-th best outlier found so
+ * far. If an index with priority search is available, the neighbors of each
+ * candidate are searched with the index, nearest first. Otherwise, the
+ * randomized nested loop of ORCA processes the candidates in blocks.
+ * <p>
+ * Only the top-n objects obtain a score, all other objects are scored 0 (as
+ * in {@link HilOut} in top-n mode).
+ * <p>
+ * Reference:
+ * <p>
+ * S. D. Bay, M. Schwabacher<br>
+ * Mining distance-based outliers in near linear time with randomization and a
+ * simple pruning rule<br>
+ * Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "S. D. Bay, M. Schwabacher", //
+    title = "Mining distance-based outliers in near linear time with randomization and a simple pruning rule", //
+    booktitle = "Proc. 9th ACM SIGKDD Int. Conf. on Knowledge Discovery and Data Mining", //
+    url = "https://doi.org/10.1145/956750.956758", //
+    bibkey = "DBLP:conf/kdd/BayS03")
+public class TopNOutlierSearch<O> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(TopNOutlierSearch.class);
+
+  /**
+   * Block size of the nested loop.
+   */
+  private static final int BLOCKSIZE = 500;
+
+  /**
+   * Distance query
+   */
+  private DistanceQuery<O> distq;
+
+  /**
+   * Priority search, if an optimized index is available
+   */
+  private PrioritySearcher<DBIDRef> prioq;
+
+  /**
+   * Number of neighbors (including the query point)
+   */
+  private int kplus;
+
+  /**
+   * Score by the sum of distances instead of the kNN distance
+   */
+  private boolean weight;
+
+  /**
+   * Number of outliers to find
+   */
+  private int topn;
+
+  /**
+   * Constructor.
+   *
+   * @param qb Query builder
+   * @param kplus Number of neighbors, including the query point
+   * @param weight Use the sum of distances (kNN weight), not the kNN distance
+   * @param topn Number of outliers to find
+   */
+  public TopNOutlierSearch(QueryBuilder<O> qb, int kplus, boolean weight, int topn) {
+    super();
+    this.distq = qb.distanceQuery();
+    this.prioq = qb.optimizedOnly().priorityByDBID();
+    this.kplus = kplus;
+    this.weight = weight;
+    this.topn = topn;
+  }
+
+  /**
+   * Find the top-n outliers.
+   *
+   * @param rnd Random generator for the processing order
+   * @param minmax Minimum and maximum of the scores (output)
+   * @return Scores, zero for all objects except the top-n
+   */
+  public WritableDoubleDataStore run(RandomFactory rnd, DoubleMinMax minmax) {
+    Relation<? extends O> relation = distq.getRelation();
+    DoubleDBIDHeap best = DBIDUtil.newMinHeap(topn);
+    ArrayModifiableDBIDs order = DBIDUtil.newArray(relation.getDBIDs());
+    DBIDUtil.randomShuffle(order, rnd.getSingleThreadedRandom());
+    if(prioq != null) {
+      runIndex(order, best);
+    }
+    else {
+      runNestedLoop(order, best);
+    }
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC, 0.);
+    minmax.put(0.);
+    for(DoubleDBIDIter it = best.unorderedIterator(); it.valid(); it.advance()) {
+      scores.putDouble(it, it.doubleValue());
+      minmax.put(it.doubleValue());
+    }
+    return scores;
+  }
+
+  /**
+   * Use the priority search of the index, with pruning.
+   *
+   * @param order Object ids, in processing order
+   * @param best Heap of the best outliers
+   */
+  private void runIndex(DBIDs order, DoubleDBIDHeap best) {
+    if(LOG.isVeryVerbose()) {
+      LOG.veryverbose("Using priority search: " + prioq.toString());
+    }
+    // With kNN weight, the query point itself is not counted.
+    final int k = weight ? kplus - 1 : kplus;
+    DoubleMaxHeap heap = new DoubleMaxHeap(k + 1);
+    long distcomp = 0, pruned = 0;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Top-n candidates processed", order.size(), LOG) : null;
+    candidates: for(DBIDIter it = order.iter(); it.valid(); it.advance()) {
+      heap.clear();
+      double sum = 0.;
+      final double cutoff = best.size() < topn ? Double.NEGATIVE_INFINITY : best.peekKey();
+      for(prioq.search(it); prioq.valid(); prioq.advance()) {
+        if(weight && DBIDUtil.equal(it, prioq)) {
+          continue;
+        }
+        if(heap.size() >= k && prioq.getLowerBound() > heap.peek()) {
+          continue;
+        }
+        final double d = prioq.computeExactDistance();
+        ++distcomp;
+        if(heap.size() < k) {
+          heap.add(d);
+          sum += d;
+          if(heap.size() < k) {
+            continue; // No bound yet.
+          }
+        }
+        else if(d < heap.peek()) {
+          sum += d - heap.replaceTopElement(d);
+        }
+        else {
+          continue; // Score unchanged.
+        }
+        // Scores can only decrease: stop if below the cutoff.
+        if((weight ? sum : heap.peek()) < cutoff) {
+          ++pruned;
+          LOG.incrementProcessed(prog);
+          continue candidates;
+        }
+        prioq.decreaseCutoff(heap.peek());
+      }
+      best.insert(weight ? (heap.size() < k ? Double.POSITIVE_INFINITY : sum) : heap.peek(), it, topn);
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+    logStatistics(distcomp, pruned);
+  }
+
+  /**
+   * Randomized nested loop with pruning.
+   *
+   * @param order Object ids, in processing order
+   * @param best Heap of the best outliers
+   */
+  private void runNestedLoop(ArrayDBIDs order, DoubleDBIDHeap best) {
+    final int size = order.size();
+    // With kNN weight, the query point itself is not counted.
+    final int k = weight ? kplus - 1 : kplus;
+    final int bsize = Math.min(BLOCKSIZE, size);
+    DoubleMaxHeap[] heaps = new DoubleMaxHeap[bsize];
+    for(int i = 0; i < bsize; i++) {
+      heaps[i] = new DoubleMaxHeap(k + 1);
+    }
+    double[] sums = new double[bsize];
+    boolean[] active = new boolean[bsize];
+    DBIDArrayIter cand = order.iter(), other = order.iter();
+    long distcomp = 0, pruned = 0;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Top-n candidates processed", size, LOG) : null;
+    for(int start = 0; start < size; start += bsize) {
+      final int end = Math.min(start + bsize, size);
+      for(int b = 0; b < end - start; b++) {
+        heaps[b].clear();
+        sums[b] = 0.;
+        active[b] = true;
+      }
+      int remaining = end - start;
+      double cutoff = best.size() < topn ? Double.NEGATIVE_INFINITY : best.peekKey();
+      for(other.seek(0); other.valid() && remaining > 0; other.advance()) {
+        for(int b = 0; b < end - start; b++) {
+          if(!active[b]) {
+            continue;
+          }
+          cand.seek(start + b);
+          if(weight && DBIDUtil.equal(cand, other)) {
+            continue;
+          }
+          final double d = distq.distance(cand, other);
+          ++distcomp;
+          final DoubleMaxHeap heap = heaps[b];
+          if(heap.size() < k) {
+            heap.add(d);
+            sums[b] += d;
+            if(heap.size() < k) {
+              continue; // No bound yet.
+            }
+          }
+          else if(d < heap.peek()) {
+            sums[b] += d - heap.replaceTopElement(d);
+          }
+          else {
+            continue; // Score unchanged.
+          }
+          // Scores can only decrease: prune if below the cutoff.
+          if((weight ? sums[b] : heap.peek()) < cutoff) {
+            active[b] = false;
+            --remaining;
+            ++pruned;
+          }
+        }
+      }
+      for(int b = 0; b < end - start; b++) {
+        if(active[b]) {
+          final DoubleMaxHeap heap = heaps[b];
+          final double score = weight ? (heap.size() < k ? Double.POSITIVE_INFINITY : sums[b]) : heap.peek();
+          best.insert(score, cand.seek(start + b), topn);
+        }
+      }
+      if(prog != null) {
+        prog.setProcessed(end, LOG);
+      }
+    }
+    LOG.ensureCompleted(prog);
+    logStatistics(distcomp, pruned);
+  }
+
+  /**
+   * Log the search statistics.
+   *
+   * @param distcomp Number of distance computations
+   * @param pruned Number of pruned candidates
+   */
+  private static void logStatistics(long distcomp, long pruned) {
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(TopNOutlierSearch.class.getName() + ".distance-computations", distcomp));
+      LOG.statistics(new LongStatistic(TopNOutlierSearch.class.getName() + ".pruned-candidates", pruned));
+    }
+  }
+}
@@ -146,46 +146,17 @@ public class ALOCI<V extends NumberVector> implements OutlierAlgorithm {
    * @return Outlier detection result
    */
   public OutlierResult run(Relation<V> relation) {
-    final int dim = RelationUtil.dimensionality(relation);
     final Random random = rnd.getSingleThreadedRandom();
     FiniteProgress progressPreproc = LOG.isVerbose() ? new FiniteProgress("Build aLOCI quadtress", g, LOG) : null;
 
     // Compute extend of dataset.
-    double[] min, max;
-    {
-      double[][] hbbs = RelationUtil.computeMinMax(relation);
-      min = hbbs[0];
-      max = hbbs[1];
-      double maxd = 0;
-      for(int i = 0; i < dim; i++) {
-        maxd = MathUtil.max(maxd, max[i] - min[i]);
-      }
-      // Enlarge bounding box to have equal lengths.
-      for(int i = 0; i < dim; i++) {
-        double diff = (maxd - (max[i] - min[i])) * .5;
-        min[i] -= diff;
-        max[i] += diff;
-      }
-    }
+    double[][] hbbs = boundingCube(relation);
+    double[] min = hbbs[0], max = hbbs[1];
+    double[][] shifts = computeShifts(min, max, g, random);
 
     List<ALOCIQuadTree> qts = new ArrayList<>(g);
-
-    double[] nshift = new double[dim];
-    ALOCIQuadTree qt = new ALOCIQuadTree(min, max, nshift, nmin, relation);
-    qts.add(qt);
-    LOG.incrementProcessed(progressPreproc);
-    /*
-     * create the remaining g-1 shifted QuadTrees. This not clearly described in
-     * the paper and therefore implemented in a way that achieves good results
-     * with the test data.
-     */
-    for(int shift = 1; shift < g; shift++) {
-      double[] svec = new double[dim];
-      for(int i = 0; i < dim; i++) {
-        svec[i] = random.nextDouble() * (max[i] - min[i]);
-      }
-      qt = new ALOCIQuadTree(min, max, svec, nmin, relation);
-      qts.add(qt);
+    for(int shift = 0; shift < g; shift++) {
+      qts.add(new ALOCIQuadTree(min, max, shifts[shift], nmin, relation));
       LOG.incrementProcessed(progressPreproc);
     }
     LOG.ensureCompleted(progressPreproc);
@@ -194,53 +165,9 @@ public class ALOCI<V extends NumberVector> implements OutlierAlgorithm {
     FiniteProgress progressLOCI = LOG.isVerbose() ? new FiniteProgress("Compute aLOCI scores", relation.size(), LOG) : null;
     WritableDoubleDataStore mdef_norm = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
     DoubleMinMax minmax = new DoubleMinMax();
-    NumberVectorDistance<? super V> distFunc = distance; // local variable
 
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      final V obj = relation.get(iditer);
-
-      double maxmdefnorm = 0;
-      // For each level
-      for(int l = 0;; l++) {
-        // Find the closest C_i
-        Node ci = null;
-        for(int i = 0; i < g; i++) {
-          Node ci2 = qts.get(i).findClosestNode(obj, l);
-          if(ci2.getLevel() != l) {
-            continue;
-          }
-          // TODO: always use manhattan?
-          if(ci == null || distFunc.distance(ci, obj) > distFunc.distance(ci2, obj)) {
-            ci = ci2;
-          }
-        }
-        // LOG.debug("level:" + (ci != null ? ci.getLevel() : -1) +" l:"+l);
-        if(ci == null) {
-          break; // no matching tree for this level.
-        }
-
-        // Find the closest C_j
-        Node cj = null;
-        for(int i = 0; i < g; i++) {
-          Node cj2 = qts.get(i).findClosestNode(ci, l - alpha);
-          // TODO: allow higher levels or not?
-          if(cj != null && cj2.getLevel() < cj.getLevel()) {
-            continue;
-          }
-          // TODO: always use manhattan?
-          if(cj == null || distFunc.distance(cj, ci) > distFunc.distance(cj2, ci)) {
-            cj = cj2;
-          }
-        }
-        // LOG.debug("level:" + (cj != null ? cj.getLevel() : -1) +" l:"+l);
-        if(cj == null) {
-          continue; // no matching tree for this level.
-        }
-        double mdefnorm = calculate_MDEF_norm(cj, ci);
-        // LOG.warning("level:" + ci.getLevel() + "/" + cj.getLevel() +
-        // " mdef: " + mdefnorm);
-        maxmdefnorm = MathUtil.max(maxmdefnorm, mdefnorm);
-      }
+      final double maxmdefnorm = maxMDEFNorm(relation.get(iditer), qts, alpha, distance);
       // Store results
       mdef_norm.putDouble(iditer, maxmdefnorm);
       minmax.put(maxmdefnorm);
@@ -253,6 +180,113 @@ public class ALOCI<V extends NumberVector> implements OutlierAlgorithm {
     return result;
   }
 
+  /**
+   * Compute the bounding cube of the data set, i.e., the bounding box enlarged
+   * to have equal lengths in all dimensions.
+   *
+   * @param relation Relation to process
+   * @return Minimum and maximum coordinates
+   */
+  static double[][] boundingCube(Relation<? extends NumberVector> relation) {
+    final int dim = RelationUtil.dimensionality(relation);
+    double[][] hbbs = RelationUtil.computeMinMax(relation);
+    double[] min = hbbs[0], max = hbbs[1];
+    double maxd = 0;
+    for(int i = 0; i < dim; i++) {
+      maxd = MathUtil.max(maxd, max[i] - min[i]);
+    }
+    // Enlarge bounding box to have equal lengths.
+    for(int i = 0; i < dim; i++) {
+      double diff = (maxd - (max[i] - min[i])) * .5;
+      min[i] -= diff;
+      max[i] += diff;
+    }
+    return hbbs;
+  }
+
+  /**
+   * Generate the shift vectors of the quadtrees. The first tree is not
+   * shifted.
+   * <p>
+   * The shifted trees are not clearly described in the paper and therefore
+   * implemented in a way that achieves good results with the test data.
+   *
+   * @param min Minimum coordinates
+   * @param max Maximum coordinates
+   * @param g Number of trees
+   * @param random Random generator
+   * @return Shift vectors
+   */
+  static double[][] computeShifts(double[] min, double[] max, int g, Random random) {
+    final int dim = min.length;
+    double[][] shifts = new double[g][];
+    shifts[0] = new double[dim];
+    for(int shift = 1; shift < g; shift++) {
+      double[] svec = shifts[shift] = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        svec[i] = random.nextDouble() * (max[i] - min[i]);
+      }
+    }
+    return shifts;
+  }
+
+  /**
+   * Compute the aLOCI score of a single object, the maximum normalized MDEF
+   * over all levels.
+   *
+   * @param obj Object to score
+   * @param qts Quadtrees
+   * @param alpha Level difference of sampling and counting neighborhoods
+   * @param distFunc Distance function
+   * @return Maximum normalized MDEF
+   */
+  static double maxMDEFNorm(NumberVector obj, List<ALOCIQuadTree> qts, int alpha, NumberVectorDistance<?> distFunc) {
+    final int g = qts.size();
+    double maxmdefnorm = 0;
+    // For each level
+    for(int l = 0;; l++) {
+      // Find the closest C_i
+      Node ci = null;
+      for(int i = 0; i < g; i++) {
+        Node ci2 = qts.get(i).findClosestNode(obj, l);
+        if(ci2.getLevel() != l) {
+          continue;
+        }
+        // TODO: always use manhattan?
+        if(ci == null || distFunc.distance(ci, obj) > distFunc.distance(ci2, obj)) {
+          ci = ci2;
+        }
+      }
+      // LOG.debug("level:" + (ci != null ? ci.getLevel() : -1) +" l:"+l);
+      if(ci == null) {
+        break; // no matching tree for this level.
+      }
+
+      // Find the closest C_j
+      Node cj = null;
+      for(int i = 0; i < g; i++) {
+        Node cj2 = qts.get(i).findClosestNode(ci, l - alpha);
+        // TODO: allow higher levels or not?
+        if(cj != null && cj2.getLevel() < cj.getLevel()) {
+          continue;
+        }
+        // TODO: always use manhattan?
+        if(cj == null || distFunc.distance(cj, ci) > distFunc.distance(cj2, ci)) {
+          cj = cj2;
+        }
+      }
+      // LOG.debug("level:" + (cj != null ? cj.getLevel() : -1) +" l:"+l);
+      if(cj == null) {
+        continue; // no matching tree for this level.
+      }
+      double mdefnorm = calculate_MDEF_norm(cj, ci);
+      // LOG.warning("level:" + ci.getLevel() + "/" + cj.getLevel() +
+      // " mdef: " + mdefnorm);
+      maxmdefnorm = MathUtil.max(maxmdefnorm, mdefnorm);
+    }
+    return maxmdefnorm;
+  }
+
   /**
    * Method for the MDEF calculation
    *
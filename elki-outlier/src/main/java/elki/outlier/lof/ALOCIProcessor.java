@@ -0,0 +1,104 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof;
+
+import java.util.List;
+
+import elki.data.NumberVector;
+import elki.database.ids.DBIDRef;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.outlier.lof.ALOCI.ALOCIQuadTree;
+import elki.parallel.Executor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.variables.SharedDouble;
+
+/**
+ * Processor for the normalized MDEF score of aLOCI.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - Instance
+ */
+class ALOCIProcessor extends AbstractDoubleProcessor {
+  /**
+   * Data relation
+   */
+  private Relation<? extends NumberVector> relation;
+
+  /**
+   * Shifted quadtrees
+   */
+  private List<ALOCIQuadTree> qts;
+
+  /**
+   * Level difference of sampling and counting neighborhoods
+   */
+  private int alpha;
+
+  /**
+   * Distance function
+   */
+  private NumberVectorDistance<?> distance;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param qts Shifted quadtrees
+   * @param alpha Level difference of sampling and counting neighborhoods
+   * @param distance Distance function
+   */
+  ALOCIProcessor(Relation<? extends NumberVector> relation, List<ALOCIQuadTree> qts, int alpha, NumberVectorDistance<?> distance) {
+    super();
+    this.relation = relation;
+    this.qts = qts;
+    this.alpha = alpha;
+    this.distance = distance;
+  }
+
+  @Override
+  public Instance instantiate(Executor master) {
+    return new Instance(master.getInstance(output));
+  }
+
+  /**
+   * Instance for a single thread.
+   *
+   * @author Erich Schubert
+   */
+  private class Instance extends AbstractDoubleProcessor.Instance {
+    /**
+     * Constructor.
+     *
+     * @param output Output variable
+     */
+    protected Instance(SharedDouble.Instance output) {
+      super(output);
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      output.set(ALOCI.maxMDEFNorm(relation.get(id), qts, alpha, distance));
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof;
+
+import java.util.function.Supplier;
+
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DoubleDBIDList;
+import elki.database.query.range.RangeSearcher;
+import elki.outlier.lof.LOCI.DoubleIntArrayList;
+import elki.parallel.Executor;
+import elki.parallel.processor.Processor;
+import elki.parallel.variables.SharedObject;
+
+/**
+ * Processor for the LOCI preprocessing step: run a single range query with the
+ * maximum radius, and derive all critical distances from this sorted neighbor
+ * list.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - Instance
+ */
+class CriticalDistancesProcessor implements Processor {
+  /**
+   * Range query factory
+   */
+  private Supplier<RangeSearcher<DBIDRef>> rangeq;
+
+  /**
+   * Maximum radius
+   */
+  private double rmax;
+
+  /**
+   * Scaling of averaging neighborhood
+   */
+  private double alpha;
+
+  /**
+   * Output channel for the neighbor lists
+   */
+  private SharedObject<DoubleDBIDList> neighbors;
+
+  /**
+   * Output channel for the critical distances
+   */
+  private SharedObject<DoubleIntArrayList> cdists;
+
+  /**
+   * Constructor.
+   *
+   * @param rangeq Range query factory
+   * @param rmax Maximum radius
+   * @param alpha Scaling of averaging neighborhood
+   */
+  CriticalDistancesProcessor(Supplier<RangeSearcher<DBIDRef>> rangeq, double rmax, double alpha) {
+    super();
+    this.rangeq = rangeq;
+    this.rmax = rmax;
+    this.alpha = alpha;
+  }
+
+  /**
+   * Connect the output channel for the neighbor lists.
+   *
+   * @param output Output channel
+   */
+  public void connectNeighborsOutput(SharedObject<DoubleDBIDList> output) {
+    this.neighbors = output;
+  }
+
+  /**
+   * Connect the output channel for the critical distances.
+   *
+   * @param output Output channel
+   */
+  public void connectCriticalDistancesOutput(SharedObject<DoubleIntArrayList> output) {
+    this.cdists = output;
+  }
+
+  @Override
+  public Instance instantiate(Executor executor) {
+    return new Instance(rangeq.get(), //
+        neighbors != null ? executor.getInstance(neighbors) : null, //
+        executor.getInstance(cdists));
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    // Nothing to do.
+  }
+
+  /**
+   * Instance for a single thread.
+   *
+   * @author Erich Schubert
+   */
+  private class Instance implements Processor.Instance {
+    /**
+     * Range query
+     */
+    private RangeSearcher<DBIDRef> rangeq;
+
+    /**
+     * Output channel for the neighbor lists, may be {@code null}
+     */
+    private SharedObject.Instance<DoubleDBIDList> neighbors;
+
+    /**
+     * Output channel for the critical distances
+     */
+    private SharedObject.Instance<DoubleIntArrayList> cdists;
+
+    /**
+     * Constructor.
+     *
+     * @param rangeq Range query
+     * @param neighbors Output channel for neighbors
+     * @param cdists Output channel for critical distances
+     */
+    protected Instance(RangeSearcher<DBIDRef> rangeq, SharedObject.Instance<DoubleDBIDList> neighbors, SharedObject.Instance<DoubleIntArrayList> cdists) {
+      super();
+      this.rangeq = rangeq;
+      this.neighbors = neighbors;
+      this.cdists = cdists;
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      DoubleDBIDList list = rangeq.getRange(id, rmax);
+      cdists.set(LOCI.criticalDistances(list, rmax, alpha));
+      if(neighbors != null) {
+        neighbors.set(list);
+      }
+    }
+  }
+}
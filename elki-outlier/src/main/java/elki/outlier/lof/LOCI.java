@@ -231,50 +231,66 @@ public class LOCI<O> implements OutlierAlgorithm {
   protected void precomputeInterestingRadii(DBIDs ids, RangeSearcher<DBIDRef> rangeQuery, WritableDataStore<DoubleIntArrayList> interestingDistances) {
     FiniteProgress progressPreproc = LOG.isVerbose() ? new FiniteProgress("LOCI preprocessing", ids.size(), LOG) : null;
     for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      DoubleDBIDList neighbors = rangeQuery.getRange(iditer, rmax);
-      // build list of critical distances
-      DoubleIntArrayList cdist = new DoubleIntArrayList(neighbors.size() << 1);
-      {
-        int i = 0;
-        DoubleDBIDListIter ni = neighbors.iter();
-        while(ni.valid()) {
-          final double curdist = ni.doubleValue();
-          ++i;
-          ni.advance();
-          // Skip, if tied to the next object:
-          if(ni.valid() && curdist == ni.doubleValue()) {
-            continue;
-          }
-          cdist.append(curdist, i);
-          // Scale radius, and reinsert
-          if(alpha != 1.) {
-            final double ri = curdist / alpha;
-            if(ri <= rmax) {
-              cdist.append(ri, Integer.MIN_VALUE);
-            }
+      DoubleIntArrayList cdist = criticalDistances(rangeQuery.getRange(iditer, rmax), rmax, alpha);
+      interestingDistances.put(iditer, cdist);
+      LOG.incrementProcessed(progressPreproc);
+    }
+    LOG.ensureCompleted(progressPreproc);
+  }
+
+  /**
+   * Build the list of critical distances for a single point, given its sorted
+   * neighbors within the maximum radius.
+   * <p>
+   * The result maps each critical radius to the number of neighbors within
+   * this radius, and contains the scaled radii r/alpha, too, such that the
+   * counting neighborhood size can be found by a binary search.
+   *
+   * @param neighbors Sorted neighbors within rmax
+   * @param rmax Maximum radius
+   * @param alpha Scaling of averaging neighborhood
+   * @return Critical distances and neighbor counts
+   */
+  static DoubleIntArrayList criticalDistances(DoubleDBIDList neighbors, double rmax, double alpha) {
+    // build list of critical distances
+    DoubleIntArrayList cdist = new DoubleIntArrayList(neighbors.size() << 1);
+    {
+      int i = 0;
+      DoubleDBIDListIter ni = neighbors.iter();
+      while(ni.valid()) {
+        final double curdist = ni.doubleValue();
+        ++i;
+        ni.advance();
+        // Skip, if tied to the next object:
+        if(ni.valid() && curdist == ni.doubleValue()) {
+          continue;
+        }
+        cdist.append(curdist, i);
+        // Scale radius, and reinsert
+        if(alpha != 1.) {
+          final double ri = curdist / alpha;
+          if(ri <= rmax) {
+            cdist.append(ri, Integer.MIN_VALUE);
           }
         }
       }
-      cdist.sort();
-
-      // fill the gaps to have fast lookups of number of neighbors at a given
-      // distance.
-      int lastk = 0;
-      for(int i = 0, size = cdist.size(); i < size; i++) {
-        final int k = cdist.getInt(i);
-        if(k == Integer.MIN_VALUE) {
-          cdist.setValue(i, lastk);
-        }
-        else {
-          lastk = k;
-        }
+    }
+    cdist.sort();
+
+    // fill the gaps to have fast lookups of number of neighbors at a given
+    // distance.
+    int lastk = 0;
+    for(int i = 0, size = cdist.size(); i < size; i++) {
+      final int k = cdist.getInt(i);
+      if(k == Integer.MIN_VALUE) {
+        cdist.setValue(i, lastk);
+      }
+      else {
+        lastk = k;
       }
-      // TODO: shrink the list, removing duplicate radii?
-
-      interestingDistances.put(iditer, cdist);
-      LOG.incrementProcessed(progressPreproc);
     }
-    LOG.ensureCompleted(progressPreproc);
+    // TODO: shrink the list, removing duplicate radii?
+    return cdist;
   }
 
   /**
@@ -282,7 +298,7 @@ public class LOCI<O> implements OutlierAlgorithm {
    *
    * @author Erich Schubert
    */
-  private static class DoubleIntArrayList {
+  static class DoubleIntArrayList {
     /**
      * Double keys
      */
@@ -0,0 +1,207 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof;
+
+import elki.database.datastore.DataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DoubleDBIDList;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.outlier.lof.LOCI.DoubleIntArrayList;
+import elki.parallel.Executor;
+import elki.parallel.processor.AbstractDoubleProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+
+/**
+ * Processor for the maximum normalized MDEF score of LOCI.
+ * <p>
+ * Rather than scanning the neighbors once per critical radius, and performing
+ * a binary search for each neighbor, this processor sweeps over the critical
+ * radii in increasing order, and incrementally maintains the sum and sum of
+ * squares of the counting neighborhood sizes. Each neighbor keeps a cursor
+ * into its own list of critical distances, and a heap is used to find the
+ * neighbors whose counting neighborhood grows next.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - Instance
+ */
+class MDEFProcessor extends AbstractDoubleProcessor {
+  /**
+   * Sorted neighbors within the maximum radius
+   */
+  private DataStore<? extends DoubleDBIDList> neighbors;
+
+  /**
+   * Critical distances
+   */
+  private DataStore<DoubleIntArrayList> cdists;
+
+  /**
+   * Output storage for the radius of the maximum score, may be {@code null}
+   */
+  private WritableDoubleDataStore radii;
+
+  /**
+   * Minimum neighborhood size
+   */
+  private int nmin;
+
+  /**
+   * Scaling of averaging neighborhood
+   */
+  private double alpha;
+
+  /**
+   * Constructor.
+   *
+   * @param neighbors Sorted neighbors within the maximum radius
+   * @param cdists Critical distances
+   * @param radii Output storage for the radius of the maximum score
+   * @param nmin Minimum neighborhood size
+   * @param alpha Scaling of averaging neighborhood
+   */
+  MDEFProcessor(DataStore<? extends DoubleDBIDList> neighbors, DataStore<DoubleIntArrayList> cdists, WritableDoubleDataStore radii, int nmin, double alpha) {
+    super();
+    this.neighbors = neighbors;
+    this.cdists = cdists;
+    this.radii = radii;
+    this.nmin = nmin;
+    this.alpha = alpha;
+  }
+
+  @Override
+  public Instance instantiate(Executor master) {
+    return new Instance(master.getInstance(output));
+  }
+
+  /**
+   * Instance for a single thread.
+   *
+   * @author Erich Schubert
+   */
+  private class Instance extends AbstractDoubleProcessor.Instance {
+    /**
+     * Critical distances of the currently active neighbors
+     */
+    private DoubleIntArrayList[] lists = new DoubleIntArrayList[16];
+
+    /**
+     * Cursor positions of the currently active neighbors
+     */
+    private int[] cursors = new int[16];
+
+    /**
+     * Heap of the next critical distances of the active neighbors
+     */
+    private DoubleIntegerMinHeap heap = new DoubleIntegerMinHeap();
+
+    /**
+     * Constructor.
+     *
+     * @param output Output variable
+     */
+    protected Instance(SharedDouble.Instance output) {
+      super(output);
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      final DoubleIntArrayList cdist = cdists.get(id);
+      final int size = cdist.size();
+      if(cdist.getInt(size - 1) < nmin) {
+        // FIXME: when nmin was not fulfilled - what is the proper value then?
+        output.set(Double.POSITIVE_INFINITY);
+        if(radii != null) {
+          radii.putDouble(id, cdist.getDouble(size - 1));
+        }
+        return;
+      }
+      final DoubleDBIDList nlist = neighbors.get(id);
+      if(lists.length < nlist.size()) {
+        lists = new DoubleIntArrayList[nlist.size()];
+        cursors = new int[nlist.size()];
+      }
+      heap.clear();
+      DoubleDBIDListIter neighbor = nlist.iter();
+      int active = 0;
+      long sum = 0, sqsum = 0;
+      double maxmdefnorm = 0., maxnormr = 0.;
+      for(int i = 0; i < size; i++) {
+        // Only start when minimum size is fulfilled
+        if(cdist.getInt(i) < nmin) {
+          continue;
+        }
+        final double r = cdist.getDouble(i);
+        final double alpha_r = alpha * r;
+        // compute n(p_i, \alpha * r) from list (note: alpha_r is not cdist!)
+        final int n_alphar = cdist.getInt(cdist.find(alpha_r));
+        // Advance the neighbors whose counting neighborhood has grown:
+        while(!heap.isEmpty() && heap.peekKey() <= alpha_r) {
+          final int j = heap.peekValue();
+          final DoubleIntArrayList cdist2 = lists[j];
+          final long prev = cdist2.getInt(cursors[j]);
+          int c = cursors[j] + 1;
+          while(c + 1 < cdist2.size() && cdist2.getDouble(c + 1) <= alpha_r) {
+            ++c;
+          }
+          final long cur = cdist2.getInt(cursors[j] = c);
+          sum += cur - prev;
+          sqsum += cur * cur - prev * prev;
+          if(c + 1 < cdist2.size()) {
+            heap.replaceTopElement(cdist2.getDouble(c + 1), j);
+          }
+          else {
+            heap.poll();
+          }
+        }
+        // Activate the neighbors within radius r:
+        for(; neighbor.valid() && neighbor.doubleValue() <= r; neighbor.advance(), active++) {
+          final DoubleIntArrayList cdist2 = lists[active] = cdists.get(neighbor);
+          final int c = cursors[active] = cdist2.find(alpha_r);
+          final long cur = cdist2.getInt(c);
+          sum += cur;
+          sqsum += cur * cur;
+          if(c + 1 < cdist2.size()) {
+            heap.add(cdist2.getDouble(c + 1), active);
+          }
+        }
+        // compute \hat{n}(p_i, r, \alpha) and the corresponding \simga_{MDEF}
+        final double nhat_r_alpha = sum / (double) active;
+        final double var = sqsum / (double) active - nhat_r_alpha * nhat_r_alpha;
+        final double sigma_nhat_r_alpha = var > 0 ? Math.sqrt(var) : 0.;
+
+        // Redundant divisions by nhat_r_alpha removed.
+        final double mdefnorm = (nhat_r_alpha - n_alphar) / sigma_nhat_r_alpha;
+        if(mdefnorm > maxmdefnorm) {
+          maxmdefnorm = mdefnorm;
+          maxnormr = r;
+        }
+      }
+      output.set(maxmdefnorm);
+      if(radii != null) {
+        radii.putDouble(id, maxnormr);
+      }
+    }
+  }
+}
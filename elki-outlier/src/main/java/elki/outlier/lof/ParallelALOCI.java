@@ -0,0 +1,232 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import elki.Algorithm;
+import elki.data.NumberVector;
+import elki.data.type.CombinedTypeInformation;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDs;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.math.DoubleMinMax;
+import elki.outlier.OutlierAlgorithm;
+import elki.outlier.lof.ALOCI.ALOCIQuadTree;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.QuotientOutlierScoreMeta;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Parallel implementation of approximate LOCI using processors.
+ * <p>
+ * The shifted quadtrees are built concurrently, and the scores are then
+ * computed in parallel. The shift vectors are drawn from a single random
+ * generator beforehand, so the results are the same as with {@link ALOCI}.
+ * <p>
+ * Reference:
+ * <p>
+ * S. Papadimitriou, H. Kitagawa, P. B. Gibbons, C. Faloutsos:<br>
+ * LOCI: Fast Outlier Detection Using the Local Correlation Integral.<br>
+ * In: Proc. 19th IEEE Int. Conf. on Data Engineering (ICDE '03)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - ALOCIProcessor
+ *
+ * @param <V> Vector type
+ */
+@Reference(authors = "S. Papadimitriou, H. Kitagawa, P. B. Gibbons, C. Faloutsos", //
+    title = "LOCI: Fast Outlier Detection Using the Local Correlation Integral", //
+    booktitle = "Proc. 19th IEEE Int. Conf. on Data Engineering (ICDE '03)", //
+    url = "https://doi.org/10.1109/ICDE.2003.1260802", //
+    bibkey = "DBLP:conf/icde/PapadimitriouKGF03")
+public class ParallelALOCI<V extends NumberVector> implements OutlierAlgorithm {
+  /**
+   * Distance function used.
+   */
+  protected NumberVectorDistance<? super V> distance;
+
+  /**
+   * Minimum size for a leaf.
+   */
+  protected int nmin;
+
+  /**
+   * Alpha (level difference of sampling and counting neighborhoods)
+   */
+  protected int alpha;
+
+  /**
+   * Number of trees to generate (forest size)
+   */
+  protected int g;
+
+  /**
+   * Random generator
+   */
+  protected RandomFactory rnd;
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param nmin Minimum neighborhood size
+   * @param alpha Alpha value
+   * @param g Number of grids to use
+   * @param rnd Random generator.
+   */
+  public ParallelALOCI(NumberVectorDistance<? super V> distance, int nmin, int alpha, int g, RandomFactory rnd) {
+    super();
+    this.distance = distance;
+    this.nmin = nmin;
+    this.alpha = alpha;
+    this.g = g;
+    this.rnd = rnd;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(new CombinedTypeInformation(TypeUtil.NUMBER_VECTOR_FIELD, distance.getInputTypeRestriction()));
+  }
+
+  /**
+   * Run the aLOCI algorithm in parallel.
+   *
+   * @param relation Data relation
+   * @return aLOCI result
+   */
+  public OutlierResult run(Relation<V> relation) {
+    DBIDs ids = relation.getDBIDs();
+
+    // Phase one: build the shifted quadtrees
+    double[][] hbbs = ALOCI.boundingCube(relation);
+    final double[] min = hbbs[0], max = hbbs[1];
+    final double[][] shifts = ALOCI.computeShifts(min, max, g, rnd.getSingleThreadedRandom());
+    List<Callable<ALOCIQuadTree>> tasks = new ArrayList<>(g);
+    for(int shift = 0; shift < g; shift++) {
+      final double[] svec = shifts[shift];
+      tasks.add(() -> new ALOCIQuadTree(min, max, svec, nmin, relation));
+    }
+    List<ALOCIQuadTree> qts = ParallelExecutor.runTasks(tasks);
+
+    // Phase two: compute scores
+    WritableDoubleDataStore mdef_norm = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    DoubleMinMax minmax;
+    {
+      ALOCIProcessor alocim = new ALOCIProcessor(relation, qts, alpha, distance);
+      SharedDouble mdefv = new SharedDouble();
+      DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+      WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(mdef_norm);
+
+      alocim.connectOutput(mdefv);
+      mmm.connectInput(mdefv);
+      storem.connectInput(mdefv);
+      ParallelExecutor.run(ids, alocim, storem, mmm);
+
+      minmax = mmm.getMinMax();
+    }
+
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("aLOCI normalized MDEF", ids, mdef_norm);
+    OutlierScoreMeta scoreMeta = new QuotientOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0.0, Double.POSITIVE_INFINITY);
+    return new OutlierResult(scoreMeta, scoreResult);
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O extends NumberVector> implements Parameterizer {
+    /**
+     * Neighborhood minimum size
+     */
+    protected int nmin = 0;
+
+    /**
+     * Alpha: number of levels difference to use in comparison
+     */
+    protected int alpha = 4;
+
+    /**
+     * G: number of shifted trees to create.
+     */
+    protected int g = 1;
+
+    /**
+     * Random generator
+     */
+    protected RandomFactory rnd;
+
+    /**
+     * The distance function to use.
+     */
+    protected NumberVectorDistance<? super O> distance;
+
+    @Override
+    public void configure(Parameterization config) {
+      new ObjectParameter<NumberVectorDistance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, NumberVectorDistance.class, EuclideanDistance.class) //
+          .grab(config, x -> distance = x);
+      new IntParameter(ALOCI.Par.NMIN_ID, 20) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> this.nmin = x);
+      new IntParameter(ALOCI.Par.GRIDS_ID, 1) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> this.g = x);
+      new IntParameter(ALOCI.Par.ALPHA_ID, 4) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_DOUBLE) //
+          .grab(config, x -> this.alpha = x);
+      new RandomParameter(ALOCI.Par.SEED_ID).grab(config, x -> this.rnd = x);
+    }
+
+    @Override
+    public ParallelALOCI<O> make() {
+      return new ParallelALOCI<>(distance, nmin, alpha, g, rnd);
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof;
+
+import elki.Algorithm;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDs;
+import elki.database.ids.DoubleDBIDList;
+import elki.database.query.QueryBuilder;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.MaterializedDoubleRelation;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.math.DoubleMinMax;
+import elki.outlier.OutlierAlgorithm;
+import elki.outlier.lof.LOCI.DoubleIntArrayList;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.DoubleMinMaxProcessor;
+import elki.parallel.processor.WriteDataStoreProcessor;
+import elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import elki.parallel.variables.SharedDouble;
+import elki.parallel.variables.SharedObject;
+import elki.result.Metadata;
+import elki.result.outlier.OutlierResult;
+import elki.result.outlier.OutlierScoreMeta;
+import elki.result.outlier.QuotientOutlierScoreMeta;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Parallel implementation of the exact LOCI algorithm using processors.
+ * <p>
+ * In contrast to {@link LOCI}, only a single range query with the maximum
+ * radius is performed for each point. The sorted neighbor list is kept, and
+ * all critical radii as well as the sampling neighborhoods are derived from
+ * it. The MDEF scores for all radii are computed in a single sweep over the
+ * sorted critical distances, see {@link MDEFProcessor}.
+ * <p>
+ * The scores are the same as with {@link LOCI}, but this implementation needs
+ * memory for storing the neighborhoods of radius rmax.
+ * <p>
+ * Reference:
+ * <p>
+ * S. Papadimitriou, H. Kitagawa, P. B. Gibbons, C. Faloutsos:<br>
+ * LOCI: Fast Outlier Detection Using the Local Correlation Integral.<br>
+ * In: Proc. 19th IEEE Int. Conf. on Data Engineering (ICDE '03)
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ *
+ * @has - - - CriticalDistancesProcessor
+ * @has - - - MDEFProcessor
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "S. Papadimitriou, H. Kitagawa, P. B. Gibbons, C. Faloutsos", //
+    title = "LOCI: Fast Outlier Detection Using the Local Correlation Integral", //
+    booktitle = "Proc. 19th IEEE Int. Conf. on Data Engineering (ICDE '03)", //
+    url = "https://doi.org/10.1109/ICDE.2003.1260802", //
+    bibkey = "DBLP:conf/icde/PapadimitriouKGF03")
+public class ParallelLOCI<O> implements OutlierAlgorithm {
+  /**
+   * Distance function used.
+   */
+  protected Distance<? super O> distance;
+
+  /**
+   * Maximum radius.
+   */
+  protected double rmax;
+
+  /**
+   * Minimum neighborhood size.
+   */
+  protected int nmin;
+
+  /**
+   * Scaling of averaging neighborhood.
+   */
+  protected double alpha;
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param rmax Maximum radius
+   * @param nmin Minimum neighborhood size
+   * @param alpha Alpha value
+   */
+  public ParallelLOCI(Distance<? super O> distance, double rmax, int nmin, double alpha) {
+    super();
+    this.distance = distance;
+    this.rmax = rmax;
+    this.nmin = nmin;
+    this.alpha = alpha;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(distance.getInputTypeRestriction());
+  }
+
+  /**
+   * Run the LOCI algorithm in parallel.
+   *
+   * @param relation Data relation
+   * @return LOCI result
+   */
+  public OutlierResult run(Relation<O> relation) {
+    DBIDs ids = relation.getDBIDs();
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, distance);
+
+    // Phase one: range queries and critical distances
+    WritableDataStore<DoubleDBIDList> neighbors = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, DoubleDBIDList.class);
+    WritableDataStore<DoubleIntArrayList> cdists = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, DoubleIntArrayList.class);
+    {
+      CriticalDistancesProcessor cdm = new CriticalDistancesProcessor(() -> qb.rangeByDBID(rmax), rmax, alpha);
+      SharedObject<DoubleDBIDList> neighborv = new SharedObject<>();
+      SharedObject<DoubleIntArrayList> cdistv = new SharedObject<>();
+      WriteDataStoreProcessor<DoubleDBIDList> storen = new WriteDataStoreProcessor<>(neighbors);
+      WriteDataStoreProcessor<DoubleIntArrayList> storec = new WriteDataStoreProcessor<>(cdists);
+      cdm.connectNeighborsOutput(neighborv);
+      cdm.connectCriticalDistancesOutput(cdistv);
+      storen.connectInput(neighborv);
+      storec.connectInput(cdistv);
+      ParallelExecutor.run(ids, cdm, storen, storec);
+    }
+
+    // Phase two: MDEF scores
+    WritableDoubleDataStore mdef_norm = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    WritableDoubleDataStore mdef_radius = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    DoubleMinMax minmax;
+    {
+      MDEFProcessor mdefm = new MDEFProcessor(neighbors, cdists, mdef_radius, nmin, alpha);
+      SharedDouble mdefv = new SharedDouble();
+      DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+      WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(mdef_norm);
+
+      mdefm.connectOutput(mdefv);
+      mmm.connectInput(mdefv);
+      storem.connectInput(mdefv);
+      ParallelExecutor.run(ids, mdefm, storem, mmm);
+
+      minmax = mmm.getMinMax();
+    }
+    neighbors.destroy();
+    cdists.destroy();
+
+    DoubleRelation scoreResult = new MaterializedDoubleRelation("LOCI normalized MDEF", ids, mdef_norm);
+    OutlierScoreMeta scoreMeta = new QuotientOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0.0, Double.POSITIVE_INFINITY, 0.0);
+    OutlierResult result = new OutlierResult(scoreMeta, scoreResult);
+    Metadata.hierarchyOf(result).addChild(new MaterializedDoubleRelation("LOCI MDEF Radius", ids, mdef_radius));
+    return result;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Object type
+   */
+  public static class Par<O> implements Parameterizer {
+    /**
+     * The distance function to use.
+     */
+    protected Distance<? super O> distance;
+
+    /**
+     * Maximum radius.
+     */
+    protected double rmax;
+
+    /**
+     * Minimum neighborhood size.
+     */
+    protected int nmin = 0;
+
+    /**
+     * Scaling of averaging neighborhood.
+     */
+    protected double alpha = 0.5;
+
+    @Override
+    public void configure(Parameterization config) {
+      new ObjectParameter<Distance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
+          .grab(config, x -> distance = x);
+      new DoubleParameter(LOCI.Par.RMAX_ID) //
+          .grab(config, x -> rmax = x);
+      new IntParameter(LOCI.Par.NMIN_ID, 20) //
+          .grab(config, x -> nmin = x);
+      new DoubleParameter(LOCI.Par.ALPHA_ID, 0.5) //
+          .grab(config, x -> alpha = x);
+    }
+
+    @Override
+    public ParallelLOCI<O> make() {
+      return new ParallelLOCI<>(distance, rmax, nmin, alpha);
+    }
+  }
+}
@@ -21,6 +21,7 @@
 package elki.outlier.meta;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import elki.data.NumberVector;
 import elki.data.VectorUtil;
@@ -42,6 +43,7 @@ import elki.math.statistics.tests.GoodnessOfFitTest;
 import elki.math.statistics.tests.KolmogorovSmirnovTest;
 import elki.outlier.OutlierAlgorithm;
 import elki.outlier.lof.LOF;
+import elki.parallel.ParallelExecutor;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
 import elki.result.outlier.OutlierScoreMeta;
@@ -59,6 +61,7 @@ import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 import elki.utilities.optionhandling.parameters.RandomParameter;
 import elki.utilities.random.RandomFactory;
+import elki.utilities.random.Xoroshiro128NonThreadsafeRandom;
 
 import net.jafama.FastMath;
 
@@ -164,30 +167,34 @@ public class HiCS implements OutlierAlgorithm {
     final DBIDs ids = relation.getDBIDs();
 
     ArrayList<ArrayDBIDs> subspaceIndex = buildOneDimIndexes(relation);
-    Set<HiCSSubspace> subspaces = calculateSubspaces(relation, subspaceIndex, rnd.getSingleThreadedRandom());
+    double[][] sortedValues = projectOneDimIndexes(relation, subspaceIndex);
+    Set<HiCSSubspace> subspaces = calculateSubspaces(relation, subspaceIndex, sortedValues, rnd.getSingleThreadedRandom());
 
     if(LOG.isVerbose()) {
       LOG.verbose("Number of high-contrast subspaces: " + subspaces.size());
     }
-    List<DoubleRelation> results = new ArrayList<>();
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Calculating Outlier scores for high Contrast subspaces", subspaces.size(), LOG) : null;
 
     // run outlier detection and collect the result
     // TODO extend so that any outlierAlgorithm can be used (use materialized
     // relation instead of SubspaceEuclideanDistance?)
+    List<Callable<DoubleRelation>> tasks = new ArrayList<>(subspaces.size());
     for(HiCSSubspace dimset : subspaces) {
-      if(LOG.isVerbose()) {
-        LOG.verbose("Performing outlier detection in subspace " + dimset);
-      }
+      tasks.add(() -> {
+        if(LOG.isVerbose()) {
+          LOG.verbose("Performing outlier detection in subspace " + dimset);
+        }
 
-      ProxyDatabase pdb = new ProxyDatabase(ids);
-      pdb.addRelation(new ProjectedView<>(relation, new NumericalFeatureSelection<>(dimset.bits)));
+        ProxyDatabase pdb = new ProxyDatabase(ids);
+        pdb.addRelation(new ProjectedView<>(relation, new NumericalFeatureSelection<>(dimset.bits)));
 
-      // run LOF and collect the result
-      OutlierResult result = outlierAlgorithm.autorun(pdb);
-      results.add(result.getScores());
-      LOG.incrementProcessed(prog);
+        // run LOF and collect the result
+        OutlierResult result = outlierAlgorithm.autorun(pdb);
+        LOG.incrementProcessed(prog);
+        return result.getScores();
+      });
     }
+    List<DoubleRelation> results = ParallelExecutor.runTasks(tasks);
     LOG.ensureCompleted(prog);
 
     WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
@@ -233,14 +240,36 @@ public class HiCS implements OutlierAlgorithm {
     return subspaceIndex;
   }
 
+  /**
+   * Project the data onto the sorted one-dimensional indexes, such that the
+   * full samples need not be projected again in every Monte-Carlo iteration.
+   *
+   * @param relation Relation to index
+   * @param subspaceIndex Sorted objects per dimension
+   * @return Sorted values per dimension
+   */
+  private double[][] projectOneDimIndexes(Relation<? extends NumberVector> relation, ArrayList<ArrayDBIDs> subspaceIndex) {
+    double[][] sortedValues = new double[subspaceIndex.size()][];
+    for(int d = 0; d < sortedValues.length; d++) {
+      double[] values = sortedValues[d] = new double[relation.size()];
+      int l = 0;
+      for(DBIDIter iter = subspaceIndex.get(d).iter(); iter.valid(); iter.advance()) {
+        values[l++] = relation.get(iter).doubleValue(d);
+      }
+    }
+    return sortedValues;
+  }
+
   /**
    * Identifies high contrast subspaces in a given full-dimensional database.
    * 
    * @param relation the relation the HiCS should be evaluated for
    * @param subspaceIndex Subspace indexes
+   * @param sortedValues Sorted values per dimension
+   * @param random Random generator
    * @return a set of high contrast subspaces
    */
-  private Set<HiCSSubspace> calculateSubspaces(Relation<? extends NumberVector> relation, ArrayList<ArrayDBIDs> subspaceIndex, Random random) {
+  private Set<HiCSSubspace> calculateSubspaces(Relation<? extends NumberVector> relation, ArrayList<ArrayDBIDs> subspaceIndex, double[][] sortedValues, Random random) {
     final int dbdim = RelationUtil.dimensionality(relation);
 
     FiniteProgress dprog = LOG.isVerbose() ? new FiniteProgress("Subspace dimensionality", dbdim, LOG) : null;
@@ -252,14 +281,17 @@ public class HiCS implements OutlierAlgorithm {
     Heap<HiCSSubspace> dDimensionalList = new Heap<>(cutoff, HiCSSubspace.SORT_BY_CONTRAST_ASC);
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Generating two-element subsets", (dbdim * (dbdim - 1)) >> 1, LOG) : null;
     // compute two-element sets of subspaces
+    ArrayList<HiCSSubspace> twoElementSets = new ArrayList<>((dbdim * (dbdim - 1)) >> 1);
     for(int i = 0; i < dbdim; i++) {
       for(int j = i + 1; j < dbdim; j++) {
-        HiCSSubspace ts = new HiCSSubspace(dbdim).set(i).set(j);
-        calculateContrast(relation, ts, subspaceIndex, random);
-        dDimensionalList.add(ts, cutoff);
-        LOG.incrementProcessed(prog);
+        twoElementSets.add(new HiCSSubspace(dbdim).set(i).set(j));
       }
     }
+    calculateContrasts(relation, twoElementSets, subspaceIndex, sortedValues, random);
+    for(HiCSSubspace ts : twoElementSets) {
+      dDimensionalList.add(ts, cutoff);
+      LOG.incrementProcessed(prog);
+    }
     LOG.ensureCompleted(prog);
 
     IndefiniteProgress qprog = LOG.isVerbose() ? new IndefiniteProgress("Testing subspace candidates", LOG) : null;
@@ -279,19 +311,21 @@ public class HiCS implements OutlierAlgorithm {
       Collections.sort(candidateList, HiCSSubspace.SORT_BY_SUBSPACE);
 
       // TODO: optimize APRIORI style, by not even computing the bit set or?
+      ArrayList<HiCSSubspace> joinedSets = new ArrayList<>();
       for(int i = 0; i < candidateList.size() - 1; i++) {
         for(int j = i + 1; j < candidateList.size(); j++) {
           HiCSSubspace joinedSet = new HiCSSubspace(candidateList.get(i)) //
               .or(candidateList.get(j));
-          if(joinedSet.dimensionality() != d) {
-            continue;
+          if(joinedSet.dimensionality() == d) {
+            joinedSets.add(joinedSet);
           }
-
-          calculateContrast(relation, joinedSet, subspaceIndex, random);
-          dDimensionalList.add(joinedSet, cutoff);
-          LOG.incrementProcessed(qprog);
         }
       }
+      calculateContrasts(relation, joinedSets, subspaceIndex, sortedValues, random);
+      for(HiCSSubspace joinedSet : joinedSets) {
+        dDimensionalList.add(joinedSet, cutoff);
+        LOG.incrementProcessed(qprog);
+      }
       // Prune
       for(HiCSSubspace cand : candidateList) {
         for(Heap<HiCSSubspace>.UnorderedIter it = dDimensionalList.unorderedIter(); it.valid(); it.advance()) {
@@ -310,14 +344,41 @@ public class HiCS implements OutlierAlgorithm {
     return subspaceList;
   }
 
+  /**
+   * Calculates the contrast of multiple subspaces in parallel.
+   * <p>
+   * Each subspace uses its own random generator, seeded from the given random
+   * generator in the order of the list, so the results do not depend on the
+   * scheduling of the threads.
+   *
+   * @param relation Relation to process
+   * @param subspaces Subspaces
+   * @param subspaceIndex Subspace indexes
+   * @param sortedValues Sorted values per dimension
+   * @param random Random generator
+   */
+  private void calculateContrasts(Relation<? extends NumberVector> relation, List<HiCSSubspace> subspaces, ArrayList<ArrayDBIDs> subspaceIndex, double[][] sortedValues, Random random) {
+    List<Callable<HiCSSubspace>> tasks = new ArrayList<>(subspaces.size());
+    for(HiCSSubspace subspace : subspaces) {
+      final long seed = random.nextLong();
+      tasks.add(() -> {
+        calculateContrast(relation, subspace, subspaceIndex, sortedValues, new Xoroshiro128NonThreadsafeRandom(seed));
+        return subspace;
+      });
+    }
+    ParallelExecutor.runTasks(tasks);
+  }
+
   /**
    * Calculates the actual contrast of a given subspace.
    * 
    * @param relation Relation to process
    * @param subspace Subspace
    * @param subspaceIndex Subspace indexes
+   * @param sortedValues Sorted values per dimension
+   * @param random Random generator
    */
-  private void calculateContrast(Relation<? extends NumberVector> relation, HiCSSubspace subspace, ArrayList<ArrayDBIDs> subspaceIndex, Random random) {
+  private void calculateContrast(Relation<? extends NumberVector> relation, HiCSSubspace subspace, ArrayList<ArrayDBIDs> subspaceIndex, double[][] sortedValues, Random random) {
     final int card = subspace.dimensionality();
     final double alpha1 = FastMath.pow(alpha, (1.0 / card));
     final int windowsize = (int) (relation.size() * alpha1);
@@ -370,14 +431,8 @@ public class HiCS implements OutlierAlgorithm {
           sampleValues[l++] = relation.get(iter).doubleValue(chosen);
         }
       }
-      // Project full set
-      double[] fullValues = new double[relation.size()];
-      {
-        int l = 0;
-        for(DBIDIter iter = subspaceIndex.get(chosen).iter(); iter.valid(); iter.advance()) {
-          fullValues[l++] = relation.get(iter).doubleValue(chosen);
-        }
-      }
+      // Full set (copy, as the test may modify the array)
+      double[] fullValues = sortedValues[chosen].clone();
       double contrast = statTest.deviation(fullValues, sampleValues);
       if(Double.isNaN(contrast)) {
         i--;
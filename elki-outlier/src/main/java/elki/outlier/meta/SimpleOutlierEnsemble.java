@@ -21,8 +21,8 @@
 package elki.outlier.meta;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import elki.Algorithm;
 import elki.data.type.CombinedTypeInformation;
@@ -32,7 +32,8 @@ import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
-import elki.database.ids.DBIDIter;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.ModifiableDBIDs;
 import elki.database.relation.DoubleRelation;
@@ -41,6 +42,8 @@ import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.math.DoubleMinMax;
 import elki.outlier.OutlierAlgorithm;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
 import elki.result.outlier.OutlierScoreMeta;
@@ -100,57 +103,85 @@ public class SimpleOutlierEnsemble implements OutlierAlgorithm {
 
   @Override
   public OutlierResult autorun(Database database) throws IllegalStateException {
-    int num = algorithms.size();
-    // Run inner outlier algorithms
-    ModifiableDBIDs ids = DBIDUtil.newHashSet();
-    ArrayList<OutlierResult> results = new ArrayList<>(num);
+    final int num = algorithms.size();
+    // Run inner outlier algorithms concurrently; QueryBuilder serializes the
+    // automatic creation of indexes, so the members share these.
+    List<OutlierResult> results;
     {
       FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Inner outlier algorithms", num, LOG) : null;
+      List<Callable<OutlierResult>> tasks = new ArrayList<>(num);
       for(OutlierAlgorithm alg : algorithms) {
-        OutlierResult or = alg.autorun(database);
-        results.add(or);
-        ids.addDBIDs(or.getScores().getDBIDs());
-        LOG.incrementProcessed(prog);
+        tasks.add(() -> {
+          OutlierResult or = alg.autorun(database);
+          LOG.incrementProcessed(prog);
+          return or;
+        });
       }
+      results = ParallelExecutor.runTasks(tasks);
       LOG.ensureCompleted(prog);
     }
-    // Combine
-    WritableDoubleDataStore sumscore = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
-    DoubleMinMax minmax = new DoubleMinMax();
+    ModifiableDBIDs mids = DBIDUtil.newHashSet();
+    for(OutlierResult or : results) {
+      mids.addDBIDs(or.getScores().getDBIDs());
+    }
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(mids);
+    // Extract the scores into primitive arrays, and release the results.
+    final double[][] scores = new double[num][];
     {
-      FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Combining results", ids.size(), LOG) : null;
-      for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
-        double[] scores = new double[num];
-        int i = 0;
-        for(OutlierResult r : results) {
-          double score = r.getScores().doubleValue(id);
-          if(!Double.isNaN(score)) {
-            scores[i] = score;
-            i++;
+      List<Callable<double[]>> tasks = new ArrayList<>(num);
+      for(OutlierResult r : results) {
+        tasks.add(() -> {
+          final DoubleRelation rscores = r.getScores();
+          double[] s = new double[ids.size()];
+          for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+            s[it.getOffset()] = rscores.doubleValue(it);
           }
-          else {
-            LOG.warning("DBID " + id + " was not given a score by result " + r);
+          return s;
+        });
+      }
+      ParallelExecutor.runTasks(tasks).toArray(scores);
+      results = null;
+    }
+    // Combine, in parallel blocks
+    WritableDoubleDataStore sumscore = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    final int size = ids.size(), numblocks = Math.max(1, Math.min(size, ParallelCore.getCore().getParallelism()));
+    final int blocksize = (size + numblocks - 1) / numblocks;
+    List<Callable<DoubleMinMax>> tasks = new ArrayList<>(numblocks);
+    for(int b = 0; b < size; b += blocksize) {
+      final int start = b, end = Math.min(b + blocksize, size);
+      tasks.add(() -> {
+        DoubleMinMax minmax = new DoubleMinMax();
+        double[] buf = new double[num];
+        for(DBIDArrayIter id = ids.iter().seek(start); id.valid() && id.getOffset() < end; id.advance()) {
+          int i = 0;
+          for(int j = 0; j < num; j++) {
+            double score = scores[j][id.getOffset()];
+            if(!Double.isNaN(score)) {
+              buf[i++] = score;
+            }
+            else {
+              LOG.warning("DBID " + id + " was not given a score by result " + j);
+            }
           }
-        }
-        if(i > 0) {
-          // Shrink array if necessary.
-          if(i < scores.length) {
-            scores = Arrays.copyOf(scores, i);
+          if(i > 0) {
+            double combined = voting.combine(buf, i);
+            sumscore.putDouble(id, combined);
+            minmax.put(combined);
+          }
+          else {
+            LOG.warning("DBID " + id + " was not given any score at all.");
           }
-          double combined = voting.combine(scores);
-          sumscore.putDouble(id, combined);
-          minmax.put(combined);
-        }
-        else {
-          LOG.warning("DBID " + id + " was not given any score at all.");
         }
-        LOG.incrementProcessed(cprog);
-      }
-      LOG.ensureCompleted(cprog);
+        return minmax;
+      });
+    }
+    DoubleMinMax minmax = new DoubleMinMax();
+    for(DoubleMinMax part : ParallelExecutor.runTasks(tasks)) {
+      minmax.put(part);
     }
     OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax());
-    DoubleRelation scores = new MaterializedDoubleRelation("Simple Outlier Ensemble", ids, sumscore);
-    return new OutlierResult(meta, scores);
+    DoubleRelation scoreres = new MaterializedDoubleRelation("Simple Outlier Ensemble", ids, sumscore);
+    return new OutlierResult(meta, scoreres);
   }
 
   /**
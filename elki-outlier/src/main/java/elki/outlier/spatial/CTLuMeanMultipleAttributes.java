@@ -28,19 +28,17 @@ import elki.data.type.TypeUtil;
 import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
-import elki.database.datastore.WritableDataStore;
 import elki.database.datastore.WritableDoubleDataStore;
-import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
 import elki.database.relation.Relation;
 import elki.database.relation.RelationUtil;
 import elki.logging.Logging;
 import elki.math.DoubleMinMax;
-import elki.math.linearalgebra.Centroid;
 import elki.math.linearalgebra.CovarianceMatrix;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.result.Metadata;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
@@ -102,35 +100,44 @@ public class CTLuMeanMultipleAttributes<N, O extends NumberVector> extends Abstr
    * @return Outlier detection result
    */
   public OutlierResult run(Database database, Relation<N> spatial, Relation<O> attributes) {
+    final int dim = RelationUtil.dimensionality(attributes);
     if(LOG.isDebugging()) {
-      LOG.debug("Dimensionality: " + RelationUtil.dimensionality(attributes));
+      LOG.debug("Dimensionality: " + dim);
     }
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, spatial);
 
-    CovarianceMatrix covmaker = new CovarianceMatrix(RelationUtil.dimensionality(attributes));
-    WritableDataStore<double[]> deltas = DataStoreUtil.makeStorage(attributes.getDBIDs(), DataStoreFactory.HINT_TEMP, double[].class);
-    for(DBIDIter iditer = attributes.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      final O obj = attributes.get(iditer);
-      final DBIDs neighbors = npred.getNeighborDBIDs(iditer);
-      // TODO: remove object itself from neighbors?
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, attributes.getDBIDs());
+    // Mean vector "g" of the neighborhood, one dimension at a time
+    final double[][] means = new double[dim][];
+    for(int d = 0; d < dim; d++) {
+      means[d] = graph.mean(graph.project(attributes, d), false);
+    }
 
-      // Mean vector "g"
-      double[] mean = Centroid.make(attributes, neighbors).getArrayRef();
+    CovarianceMatrix covmaker = new CovarianceMatrix(dim);
+    final double[][] deltas = new double[graph.size()][];
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      final int i = iditer.getOffset();
       // Delta vector "h"
-      double[] delta = minusEquals(obj.toArray(), mean);
-      deltas.put(iditer, delta);
+      final double[] delta = attributes.get(iditer).toArray();
+      for(int d = 0; d < dim; d++) {
+        delta[d] -= means[d][i];
+      }
+      deltas[i] = delta;
       covmaker.put(delta);
     }
     // Finalize covariance matrix:
-    double[] mean = covmaker.getMeanVector();
-    double[][] cmati = inverse(covmaker.destroyToSampleMatrix());
+    final double[] mean = covmaker.getMeanVector();
+    final double[][] cmati = inverse(covmaker.destroyToSampleMatrix());
 
+    final double[] values = graph.evaluate((i, start, end) -> {
+      // Note: we modify deltas here
+      double[] v = minusEquals(deltas[i], mean);
+      return transposeTimesTimes(v, cmati, v);
+    });
     DoubleMinMax minmax = new DoubleMinMax();
     WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(attributes.getDBIDs(), DataStoreFactory.HINT_STATIC);
-    for(DBIDIter iditer = attributes.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      // Note: we modify deltas here
-      double[] v = minusEquals(deltas.get(iditer), mean);
-      final double score = transposeTimesTimes(v, cmati, v);
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      final double score = values[iditer.getOffset()];
       minmax.put(score);
       scores.putDouble(iditer, score);
     }
@@ -27,20 +27,19 @@ import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDUtil;
-import elki.database.ids.DBIDs;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
 import elki.database.relation.Relation;
 import elki.math.DoubleMinMax;
 import elki.math.MeanVariance;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.result.Metadata;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
 import elki.result.outlier.OutlierScoreMeta;
-import elki.utilities.datastructures.QuickSelect;
 import elki.utilities.documentation.Reference;
 import elki.utilities.documentation.Title;
 
@@ -97,32 +96,16 @@ public class CTLuMedianAlgorithm<N> extends AbstractNeighborhoodOutlier<N> {
    */
   public OutlierResult run(Database database, Relation<N> nrel, Relation<? extends NumberVector> relation) {
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, nrel);
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, relation.getDBIDs());
     WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
 
+    // calculate Median of neighborhood (own value, if there are no neighbors)
+    final double[] values = graph.project(relation, 0);
+    final double[] medians = graph.median(values, true);
     MeanVariance mv = new MeanVariance();
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      DBIDs neighbors = npred.getNeighborDBIDs(iditer);
-      final double median;
-      {
-        double[] fi = new double[neighbors.size()];
-        // calculate and store Median of neighborhood
-        int c = 0;
-        for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-          if(DBIDUtil.equal(iditer, iter)) {
-            continue;
-          }
-          fi[c] = relation.get(iter).doubleValue(0);
-          c++;
-        }
-
-        if(c > 0) {
-          median = QuickSelect.median(fi, 0, c);
-        }
-        else {
-          median = relation.get(iditer).doubleValue(0);
-        }
-      }
-      double h = relation.get(iditer).doubleValue(0) - median;
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      final int i = iditer.getOffset();
+      double h = values[i] - medians[i];
       scores.putDouble(iditer, h);
       mv.put(h);
     }
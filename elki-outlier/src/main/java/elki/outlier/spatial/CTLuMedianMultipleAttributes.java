@@ -28,10 +28,8 @@ import elki.data.type.TypeUtil;
 import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
-import elki.database.datastore.WritableDataStore;
 import elki.database.datastore.WritableDoubleDataStore;
-import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
 import elki.database.relation.Relation;
@@ -40,11 +38,11 @@ import elki.logging.Logging;
 import elki.math.DoubleMinMax;
 import elki.math.linearalgebra.CovarianceMatrix;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.result.Metadata;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
 import elki.result.outlier.OutlierScoreMeta;
-import elki.utilities.datastructures.QuickSelect;
 import elki.utilities.documentation.Reference;
 
 /**
@@ -109,45 +107,38 @@ public class CTLuMedianMultipleAttributes<N, O extends NumberVector> extends Abs
     }
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, spatial);
 
-    CovarianceMatrix covmaker = new CovarianceMatrix(dim);
-    WritableDataStore<double[]> deltas = DataStoreUtil.makeStorage(attributes.getDBIDs(), DataStoreFactory.HINT_TEMP, double[].class);
-    for(DBIDIter iditer = attributes.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      final O obj = attributes.get(iditer);
-      final DBIDs neighbors = npred.getNeighborDBIDs(iditer);
-      // Compute the median vector
-      final double[] median = new double[dim];
-      {
-        double[][] data = new double[dim][neighbors.size()];
-        int i = 0;
-        // Load data
-        for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-          // TODO: skip object itself within neighbors?
-          O nobj = attributes.get(iter);
-          for(int d = 0; d < dim; d++) {
-            data[d][i] = nobj.doubleValue(d);
-          }
-          i++;
-        }
-        for(int d = 0; d < dim; d++) {
-          median[d] = QuickSelect.median(data[d]);
-        }
-      }
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, attributes.getDBIDs());
+    // Median vector of the neighborhood, one dimension at a time
+    final double[][] medians = new double[dim][];
+    for(int d = 0; d < dim; d++) {
+      medians[d] = graph.median(graph.project(attributes, d), false);
+    }
 
+    CovarianceMatrix covmaker = new CovarianceMatrix(dim);
+    final double[][] deltas = new double[graph.size()][];
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      final int i = iditer.getOffset();
       // Delta vector "h"
-      double[] delta = minusEquals(obj.toArray(), median);
-      deltas.put(iditer, delta);
+      final double[] delta = attributes.get(iditer).toArray();
+      for(int d = 0; d < dim; d++) {
+        delta[d] -= medians[d][i];
+      }
+      deltas[i] = delta;
       covmaker.put(delta);
     }
     // Finalize covariance matrix:
-    double[] mean = covmaker.getMeanVector();
-    double[][] cmati = inverse(covmaker.destroyToSampleMatrix());
+    final double[] mean = covmaker.getMeanVector();
+    final double[][] cmati = inverse(covmaker.destroyToSampleMatrix());
 
+    final double[] values = graph.evaluate((i, start, end) -> {
+      // Note: we modify deltas here
+      double[] v = minusEquals(deltas[i], mean);
+      return transposeTimesTimes(v, cmati, v);
+    });
     DoubleMinMax minmax = new DoubleMinMax();
     WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(attributes.getDBIDs(), DataStoreFactory.HINT_STATIC);
-    for(DBIDIter iditer = attributes.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      // Note: we modify deltas here
-      double[] v = minusEquals(deltas.get(iditer), mean);
-      final double score = transposeTimesTimes(v, cmati, v);
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      final double score = values[iditer.getOffset()];
       minmax.put(score);
       scores.putDouble(iditer, score);
     }
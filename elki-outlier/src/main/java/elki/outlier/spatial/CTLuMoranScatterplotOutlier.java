@@ -27,15 +27,14 @@ import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
-import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
 import elki.database.relation.Relation;
 import elki.math.DoubleMinMax;
-import elki.math.Mean;
 import elki.math.MeanVariance;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate.Factory;
 import elki.result.Metadata;
 import elki.result.outlier.BasicOutlierScoreMeta;
@@ -102,38 +101,30 @@ public class CTLuMoranScatterplotOutlier<N> extends AbstractNeighborhoodOutlier<
    */
   public OutlierResult run(Database database, Relation<N> nrel, Relation<? extends NumberVector> relation) {
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, nrel);
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, relation.getDBIDs());
 
     // Compute the global mean and variance
+    final double[] values = graph.project(relation, 0);
     MeanVariance globalmv = new MeanVariance();
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      globalmv.put(relation.get(iditer).doubleValue(0));
+    for(double v : values) {
+      globalmv.put(v);
     }
 
-    DoubleMinMax minmax = new DoubleMinMax();
-    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
-
     // calculate normalized attribute values
+    final double mean = globalmv.getMean(), stddev = globalmv.getPopulationStddev();
+    for(int i = 0; i < values.length; i++) {
+      values[i] = (values[i] - mean) / stddev;
+    }
     // calculate neighborhood average of normalized attribute values.
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      // Compute global z score
-      final double globalZ = (relation.get(iditer).doubleValue(0) - globalmv.getMean()) / globalmv.getPopulationStddev();
-      // Compute local average z score
-      Mean localm = new Mean();
-      for(DBIDIter iter = npred.getNeighborDBIDs(iditer).iter(); iter.valid(); iter.advance()) {
-        if(DBIDUtil.equal(iditer, iter)) {
-          continue;
-        }
-        localm.put((relation.get(iter).doubleValue(0) - globalmv.getMean()) / globalmv.getPopulationStddev());
-      }
-      // if neighors.size == 0
-      final double localZ;
-      if(localm.getCount() > 0) {
-        localZ = localm.getMean();
-      }
-      else {
-        // if s has no neighbors => Wzi = zi
-        localZ = globalZ;
-      }
+    // if s has no neighbors => Wzi = zi
+    final double[] localZs = graph.mean(values, true);
+
+    DoubleMinMax minmax = new DoubleMinMax();
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      // Global and local average z score
+      final double globalZ = values[iditer.getOffset()];
+      final double localZ = localZs[iditer.getOffset()];
 
       // compute score
       // Note: in the original moran scatterplot, any object with a score < 0
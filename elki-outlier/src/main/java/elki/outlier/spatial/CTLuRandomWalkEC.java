@@ -28,8 +28,8 @@ import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
-import elki.database.datastore.WritableDataStore;
 import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.datastore.WritableIntegerDataStore;
 import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
@@ -41,6 +41,7 @@ import elki.distance.minkowski.EuclideanDistance;
 import elki.logging.Logging;
 import elki.math.DoubleMinMax;
 import elki.outlier.OutlierAlgorithm;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
 import elki.result.outlier.OutlierScoreMeta;
@@ -138,42 +139,44 @@ public class CTLuRandomWalkEC<O> implements OutlierAlgorithm {
    * @return Outlier result
    */
   public OutlierResult run(Relation<O> spatial, Relation<? extends NumberVector> relation) {
-    DistanceQuery<O> distFunc = new QueryBuilder<>(spatial, distance).distanceQuery();
-    WritableDataStore<double[]> similarityVectors = DataStoreUtil.makeStorage(spatial.getDBIDs(), DataStoreFactory.HINT_TEMP, double[].class);
-    WritableDataStore<DBIDs> neighbors = DataStoreUtil.makeStorage(spatial.getDBIDs(), DataStoreFactory.HINT_TEMP, DBIDs.class);
+    final DistanceQuery<O> distFunc = new QueryBuilder<>(spatial, distance).distanceQuery();
 
     // Make a static IDs array for matrix column indexing
-    ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    final double[] values = new double[size];
+    final WritableIntegerDataStore offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT);
+    for(DBIDArrayIter id = ids.iter(); id.valid(); id.advance()) {
+      values[id.getOffset()] = relation.get(id).doubleValue(0);
+      offsets.putInt(id, id.getOffset());
+    }
 
-    // construct the relation Matrix of the ec-graph
-    double[][] E = new double[ids.size()][ids.size()];
-    KNNHeap heap = DBIDUtil.newHeap(k);
-    {
-      int i = 0;
-      for(DBIDIter id = ids.iter(); id.valid(); id.advance(), i++) {
-        final double val = relation.get(id).doubleValue(0);
-        assert (heap.size() == 0);
-        int j = 0;
-        for(DBIDIter n = ids.iter(); n.valid(); n.advance(), j++) {
-          if(i == j) {
-            continue;
-          }
-          final double distance = distFunc.distance(id, n);
-          heap.insert(distance, n);
-          if(distance == 0) {
-            LOG.warning("Zero distances are not supported - skipping: " + DBIDUtil.toString(id) + " " + DBIDUtil.toString(n));
-            continue;
-          }
-          double diff = Math.abs(val - relation.get(n).doubleValue(0));
-          double exp = FastMath.exp(FastMath.pow(diff, alpha));
-          // Implementation note: not inverting exp worked a lot better.
-          // Therefore we diverge from the article here.
-          E[j][i] = exp / distance;
+    // construct the relation Matrix of the ec-graph, in parallel with the kNN
+    final double[][] E = new double[size][size];
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(id -> {
+      final int i = offsets.intValue(id);
+      final double val = values[i];
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DBIDArrayIter n = ids.iter(); n.valid(); n.advance()) {
+        final int j = n.getOffset();
+        if(i == j) {
+          continue;
+        }
+        final double distance = distFunc.distance(id, n);
+        heap.insert(distance, n);
+        if(distance == 0) {
+          LOG.warning("Zero distances are not supported - skipping: " + DBIDUtil.toString(id) + " " + DBIDUtil.toString(n));
+          continue;
         }
-        // Convert kNN Heap into DBID array (unordered)
-        neighbors.put(id, heap.unorderedIterator().addTo(DBIDUtil.newArray(heap.size())));
+        double diff = Math.abs(val - values[j]);
+        double exp = FastMath.exp(FastMath.pow(diff, alpha));
+        // Implementation note: not inverting exp worked a lot better.
+        // Therefore we diverge from the article here.
+        E[j][i] = exp / distance;
       }
-    }
+      // Convert kNN Heap into DBID array (unordered)
+      return heap.unorderedIterator().addTo(DBIDUtil.newArray(heap.size()));
+    }, ids);
     // normalize the adjacent Matrix
     // Sum based normalization - don't use E.normalizeColumns()
     // Which normalized to Euclidean length 1.0!
@@ -194,31 +197,29 @@ public class CTLuRandomWalkEC<O> implements OutlierAlgorithm {
       assert (E[col][col] == 0.0);
       E[col][col] = 1.0;
     }
-    E = timesEquals(inverse(E), 1 - c);
+    // Note: matrix times ith unit vector = ith column, so we transpose to get
+    // the similarity vectors as rows.
+    final double[][] similarityVectors = transpose(timesEquals(inverse(E), 1 - c));
 
-    // Split the matrix into columns
-    {
-      int i = 0;
-      for(DBIDIter id = ids.iter(); id.valid(); id.advance(), i++) {
-        // Note: matrix times ith unit vector = ith column
-        similarityVectors.put(id, getCol(E, i));
-      }
-    }
-    E = null;
     // compute the relevance scores between specified Object and its neighbors
-    DoubleMinMax minmax = new DoubleMinMax();
-    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(spatial.getDBIDs(), DataStoreFactory.HINT_STATIC);
-    for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
+    final int[] neighbors = graph.neighbors();
+    final double[] relevance = graph.evaluate((i, start, end) -> {
       double gmean = 1.0;
       int cnt = 0;
-      for(DBIDIter iter = neighbors.get(id).iter(); iter.valid(); iter.advance()) {
-        if(DBIDUtil.equal(id, iter)) {
+      for(int j = start; j < end; j++) {
+        final int n = neighbors[j];
+        if(n == i) {
           continue;
         }
-        gmean *= angle(similarityVectors.get(id), similarityVectors.get(iter));
+        gmean *= angle(similarityVectors[i], similarityVectors[n]);
         cnt++;
       }
-      final double score = cnt > 0 ? FastMath.pow(gmean, 1.0 / cnt) : 1;
+      return cnt > 0 ? FastMath.pow(gmean, 1.0 / cnt) : 1;
+    });
+    DoubleMinMax minmax = new DoubleMinMax();
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(spatial.getDBIDs(), DataStoreFactory.HINT_STATIC);
+    for(DBIDArrayIter id = ids.iter(); id.valid(); id.advance()) {
+      final double score = relevance[id.getOffset()];
       minmax.put(score);
       scores.putDouble(id, score);
     }
@@ -27,17 +27,16 @@ import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDUtil;
-import elki.database.ids.DBIDs;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
 import elki.database.relation.Relation;
 import elki.math.DoubleMinMax;
-import elki.math.Mean;
 import elki.math.MeanVariance;
 import elki.math.linearalgebra.CovarianceMatrix;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.result.Metadata;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
@@ -99,33 +98,16 @@ public class CTLuScatterplotOutlier<N> extends AbstractNeighborhoodOutlier<N> {
    */
   public OutlierResult run(Database database, Relation<N> nrel, Relation<? extends NumberVector> relation) {
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, nrel);
-    WritableDoubleDataStore means = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP);
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, relation.getDBIDs());
 
-    // Calculate average of neighborhood for each object and perform a linear
-    // regression using the covariance matrix
+    // Calculate average of neighborhood for each object
+    // if object id has no neighbors ==> avg = non-spatial attribute of id
+    final double[] values = graph.project(relation, 0);
+    final double[] means = graph.mean(values, true);
+    // Perform a linear regression using the covariance matrix
     CovarianceMatrix covm = new CovarianceMatrix(2);
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      final double local = relation.get(iditer).doubleValue(0);
-      // Compute mean of neighbors
-      Mean mean = new Mean();
-      DBIDs neighbors = npred.getNeighborDBIDs(iditer);
-      for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-        if(DBIDUtil.equal(iditer, iter)) {
-          continue;
-        }
-        mean.put(relation.get(iter).doubleValue(0));
-      }
-      final double m;
-      if(mean.getCount() > 0) {
-        m = mean.getMean();
-      }
-      else {
-        // if object id has no neighbors ==> avg = non-spatial attribute of id
-        m = local;
-      }
-      // Store the mean for the score calculation
-      means.putDouble(iditer, m);
-      covm.put(new double[] { local, m });
+    for(int i = 0; i < values.length; i++) {
+      covm.put(new double[] { values[i], means[i] });
     }
     // Finalize covariance matrix, compute linear regression
     final double slope, inter;
@@ -140,10 +122,10 @@ public class CTLuScatterplotOutlier<N> extends AbstractNeighborhoodOutlier<N> {
     // calculate mean and variance for error
     WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
     MeanVariance mv = new MeanVariance();
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
       // Compute the error from the linear regression
-      double y_i = relation.get(iditer).doubleValue(0);
-      double e = means.doubleValue(iditer) - (slope * y_i + inter);
+      final int i = iditer.getOffset();
+      double e = means[i] - (slope * values[i] + inter);
       scores.putDouble(iditer, e);
       mv.put(e);
     }
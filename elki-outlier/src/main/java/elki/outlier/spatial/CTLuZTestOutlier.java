@@ -27,16 +27,15 @@ import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDUtil;
-import elki.database.ids.DBIDs;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
 import elki.database.relation.Relation;
 import elki.math.DoubleMinMax;
-import elki.math.Mean;
 import elki.math.MeanVariance;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.result.Metadata;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
@@ -102,26 +101,16 @@ public class CTLuZTestOutlier<N> extends AbstractNeighborhoodOutlier<N> {
    */
   public OutlierResult run(Database database, Relation<N> nrel, Relation<? extends NumberVector> relation) {
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, nrel);
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, relation.getDBIDs());
     WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
 
+    // Compute Mean of neighborhood (own value, if there are no neighbors)
+    final double[] values = graph.project(relation, 0);
+    final double[] localmeans = graph.mean(values, true);
     MeanVariance zmv = new MeanVariance();
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      DBIDs neighbors = npred.getNeighborDBIDs(iditer);
-      // Compute Mean of neighborhood
-      Mean localmean = new Mean();
-      for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-        if(DBIDUtil.equal(iditer, iter)) {
-          continue;
-        }
-        localmean.put(relation.get(iter).doubleValue(0));
-      }
-      final double localdiff;
-      if(localmean.getCount() > 0) {
-        localdiff = relation.get(iditer).doubleValue(0) - localmean.getMean();
-      }
-      else {
-        localdiff = 0.0;
-      }
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      final int i = iditer.getOffset();
+      final double localdiff = values[i] - localmeans[i];
       scores.putDouble(iditer, localdiff);
       zmv.put(localdiff);
     }
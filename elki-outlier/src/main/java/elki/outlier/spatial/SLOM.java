@@ -20,15 +20,17 @@
  */
 package elki.outlier.spatial;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
 import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDUtil;
-import elki.database.ids.DBIDs;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
@@ -36,6 +38,7 @@ import elki.database.relation.Relation;
 import elki.distance.PrimitiveDistance;
 import elki.math.DoubleMinMax;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.result.Metadata;
 import elki.result.outlier.BasicOutlierScoreMeta;
 import elki.result.outlier.OutlierResult;
@@ -96,94 +99,82 @@ public class SLOM<N, O> extends AbstractDistanceBasedSpatialOutlier<N, O> {
    */
   public OutlierResult run(Database database, Relation<N> spatial, Relation<O> relation) {
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, spatial);
-    DistanceQuery<O> distFunc = getNonSpatialDistance().instantiate(relation);
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, relation.getDBIDs());
+    final DistanceQuery<O> distFunc = getNonSpatialDistance().instantiate(relation);
+    final int[] neighbors = graph.neighbors();
+    final List<O> objs = new ArrayList<>(graph.size());
+    for(DBIDIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      objs.add(relation.get(iditer));
+    }
 
-    WritableDoubleDataStore modifiedDistance = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
     // calculate D-Tilde
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+    final double[] modifiedDistance = graph.evaluate((i, start, end) -> {
+      final O obj = objs.get(i);
       double sum = 0;
       double maxDist = 0;
       int cnt = 0;
-
-      final DBIDs neighbors = npred.getNeighborDBIDs(iditer);
-      for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-        if(DBIDUtil.equal(iditer, iter)) {
+      for(int j = start; j < end; j++) {
+        final int n = neighbors[j];
+        if(n == i) {
           continue;
         }
-        double dist = distFunc.distance(iditer, iter);
+        double dist = distFunc.distance(obj, objs.get(n));
         sum += dist;
         cnt++;
         maxDist = Math.max(maxDist, dist);
       }
-      if(cnt > 1) {
-        modifiedDistance.putDouble(iditer, ((sum - maxDist) / (cnt - 1)));
-      }
-      else {
-        // Use regular distance when the d-tilde trick is undefined.
-        // Note: this can be 0 when there were no neighbors.
-        modifiedDistance.putDouble(iditer, maxDist);
-      }
-    }
+      // Use regular distance when the d-tilde trick is undefined.
+      // Note: this can be 0 when there were no neighbors.
+      return cnt > 1 ? (sum - maxDist) / (cnt - 1) : maxDist;
+    });
 
     // Second step - compute actual SLOM values
-    DoubleMinMax slomminmax = new DoubleMinMax();
-    WritableDoubleDataStore sloms = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
-
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+    final double[] slomvals = graph.evaluate((i, start, end) -> {
       double sum = 0;
       int cnt = 0;
-
-      final DBIDs neighbors = npred.getNeighborDBIDs(iditer);
-      for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-        if(DBIDUtil.equal(iditer, iter)) {
+      boolean self = false;
+      for(int j = start; j < end; j++) {
+        final int n = neighbors[j];
+        if(n == i) {
+          self = true;
           continue;
         }
-        sum += modifiedDistance.doubleValue(iter);
+        sum += modifiedDistance[n];
         cnt++;
       }
-      double slom;
-      if(cnt > 0) {
-        // With and without the object itself:
-        double avgPlus = (sum + modifiedDistance.doubleValue(iditer)) / (cnt + 1);
-        double avg = sum / cnt;
-
-        double beta = 0;
-        for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-          final double dist = modifiedDistance.doubleValue(iter);
-          if(dist > avgPlus) {
-            beta += 1;
-          }
-          else if(dist < avgPlus) {
-            beta -= 1;
-          }
-        }
-        // Include object itself
-        if(!neighbors.contains(iditer)) {
-          final double dist = modifiedDistance.doubleValue(iditer);
-          if(dist > avgPlus) {
-            beta += 1;
-          }
-          else if(dist < avgPlus) {
-            beta -= 1;
-          }
-        }
-        beta = Math.abs(beta);
-        // note: cnt == size of N(x), not N+(x)
-        if(cnt > 1) {
-          beta = Math.max(beta, 1.0) / (cnt - 1);
-        }
-        else {
-          // Workaround insufficiency in SLOM paper - div by zero
-          beta = 1.0;
-        }
-        beta = beta / (1 + avg);
+      if(cnt == 0) {
+        // No neighbors to compare to - no score.
+        return 0.0;
+      }
+      // With and without the object itself:
+      double avgPlus = (sum + modifiedDistance[i]) / (cnt + 1);
+      double avg = sum / cnt;
 
-        slom = beta * modifiedDistance.doubleValue(iditer);
+      double beta = 0;
+      for(int j = start; j < end; j++) {
+        beta += sign(modifiedDistance[neighbors[j]], avgPlus);
+      }
+      // Include object itself
+      if(!self) {
+        beta += sign(modifiedDistance[i], avgPlus);
+      }
+      beta = Math.abs(beta);
+      // note: cnt == size of N(x), not N+(x)
+      if(cnt > 1) {
+        beta = Math.max(beta, 1.0) / (cnt - 1);
       }
       else {
-        // No neighbors to compare to - no score.
-        slom = 0.0;
+        // Workaround insufficiency in SLOM paper - div by zero
+        beta = 1.0;
       }
+      beta = beta / (1 + avg);
+      return beta * modifiedDistance[i];
+    });
+
+    DoubleMinMax slomminmax = new DoubleMinMax();
+    WritableDoubleDataStore sloms = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      final double slom = slomvals[iditer.getOffset()];
       sloms.putDouble(iditer, slom);
       slomminmax.put(slom);
     }
@@ -195,6 +186,17 @@ public class SLOM<N, O> extends AbstractDistanceBasedSpatialOutlier<N, O> {
     return or;
   }
 
+  /**
+   * Compare a distance to the average.
+   *
+   * @param dist Distance
+   * @param avg Average
+   * @return +1 if larger, -1 if smaller, 0 if equal
+   */
+  private static int sign(double dist, double avg) {
+    return dist > avg ? 1 : dist < avg ? -1 : 0;
+  }
+
   /**
    * Parameterization class.
    * 
@@ -20,14 +20,17 @@
  */
 package elki.outlier.spatial;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
 import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDs;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
@@ -35,6 +38,7 @@ import elki.database.relation.Relation;
 import elki.distance.PrimitiveDistance;
 import elki.math.DoubleMinMax;
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.result.Metadata;
 import elki.result.outlier.OutlierResult;
 import elki.result.outlier.OutlierScoreMeta;
@@ -98,34 +102,37 @@ public class SOF<N, O> extends AbstractDistanceBasedSpatialOutlier<N, O> {
    */
   public OutlierResult run(Database database, Relation<N> spatial, Relation<O> relation) {
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, spatial);
-    DistanceQuery<O> distFunc = getNonSpatialDistance().instantiate(relation);
-
-    WritableDoubleDataStore lrds = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT);
-    WritableDoubleDataStore lofs = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
-    DoubleMinMax lofminmax = new DoubleMinMax();
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, relation.getDBIDs());
+    final DistanceQuery<O> distFunc = getNonSpatialDistance().instantiate(relation);
+    final int[] neighbors = graph.neighbors();
+    final List<O> objs = new ArrayList<>(graph.size());
+    for(DBIDIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      objs.add(relation.get(iditer));
+    }
 
     // Compute densities
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      DBIDs neighbors = npred.getNeighborDBIDs(iditer);
+    final double[] lrds = graph.evaluate((i, start, end) -> {
+      final O obj = objs.get(i);
       double avg = 0;
-      for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-        avg += distFunc.distance(iditer, iter);
+      for(int j = start; j < end; j++) {
+        avg += distFunc.distance(obj, objs.get(neighbors[j]));
       }
-      double lrd = 1 / (avg / neighbors.size());
-      if(Double.isNaN(lrd)) {
-        lrd = 0;
-      }
-      lrds.putDouble(iditer, lrd);
-    }
+      double lrd = 1 / (avg / (end - start));
+      return Double.isNaN(lrd) ? 0 : lrd;
+    });
 
     // Compute density quotients
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      DBIDs neighbors = npred.getNeighborDBIDs(iditer);
+    final double[] quotients = graph.evaluate((i, start, end) -> {
       double avg = 0;
-      for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-        avg += lrds.doubleValue(iter);
+      for(int j = start; j < end; j++) {
+        avg += lrds[neighbors[j]];
       }
-      final double lrd = (avg / neighbors.size()) / lrds.doubleValue(iditer);
+      return (avg / (end - start)) / lrds[i];
+    });
+    WritableDoubleDataStore lofs = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
+    DoubleMinMax lofminmax = new DoubleMinMax();
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      final double lrd = quotients[iditer.getOffset()];
       if(!Double.isNaN(lrd)) {
         lofs.putDouble(iditer, lrd);
         lofminmax.put(lrd);
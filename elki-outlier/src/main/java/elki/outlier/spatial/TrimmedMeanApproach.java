@@ -23,6 +23,7 @@ package elki.outlier.spatial;
 import java.util.Arrays;
 
 import elki.outlier.spatial.neighborhood.NeighborSetPredicate;
+import elki.outlier.spatial.neighborhood.NeighborhoodGraph;
 import elki.data.NumberVector;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
@@ -30,14 +31,12 @@ import elki.database.Database;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDoubleDataStore;
-import elki.database.ids.DBIDIter;
-import elki.database.ids.DBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.relation.DoubleRelation;
 import elki.database.relation.MaterializedDoubleRelation;
 import elki.database.relation.Relation;
 import elki.database.relation.RelationUtil;
 import elki.logging.Logging;
-import elki.logging.progress.FiniteProgress;
 import elki.math.DoubleMinMax;
 import elki.math.Mean;
 import elki.result.Metadata;
@@ -119,41 +118,28 @@ public class TrimmedMeanApproach<N> extends AbstractNeighborhoodOutlier<N> {
     assert (RelationUtil.dimensionality(relation) == 1) : "TrimmedMean can only process one-dimensional data sets.";
     final NeighborSetPredicate npred = getNeighborSetPredicateFactory().instantiate(database, nrel);
 
-    WritableDoubleDataStore errors = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP);
+    final NeighborhoodGraph graph = NeighborhoodGraph.of(npred, relation.getDBIDs());
     WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
 
-    FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Computing trimmed means", relation.size(), LOG) : null;
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      DBIDs neighbors = npred.getNeighborDBIDs(iditer);
-      int num = 0;
-      double[] values = new double[neighbors.size()];
-      // calculate trimmedMean
-      for(DBIDIter iter = neighbors.iter(); iter.valid(); iter.advance()) {
-        values[num] = relation.get(iter).doubleValue(0);
-        num++;
-      }
-
-      // calculate local trimmed Mean and error term
-      final double tm;
-      if(num > 0) {
-        int left = (int) Math.floor(p * (num - 1));
-        int right = (int) Math.floor((1 - p) * (num - 1));
-        Arrays.sort(values, 0, num);
-        Mean mean = new Mean();
-        for(int i = left; i <= right; i++) {
-          mean.put(values[i]);
-        }
-        tm = mean.getMean();
-      }
-      else {
-        tm = relation.get(iditer).doubleValue(0);
+    if(LOG.isVerbose()) {
+      LOG.verbose("Computing trimmed means.");
+    }
+    // calculate local trimmed Mean (own value, if there are no neighbors)
+    final double[] values = graph.project(relation, 0);
+    final double[] errors = graph.aggregate(values, false, (buf, num) -> {
+      int left = (int) Math.floor(p * (num - 1));
+      int right = (int) Math.floor((1 - p) * (num - 1));
+      Arrays.sort(buf, 0, num);
+      Mean mean = new Mean();
+      for(int i = left; i <= right; i++) {
+        mean.put(buf[i]);
       }
-      // Error: deviation from trimmed mean
-      errors.putDouble(iditer, relation.get(iditer).doubleValue(0) - tm);
-
-      LOG.incrementProcessed(progress);
+      return mean.getMean();
+    });
+    // Error: deviation from trimmed mean
+    for(int i = 0; i < values.length; i++) {
+      errors[i] = values[i] - errors[i];
     }
-    LOG.ensureCompleted(progress);
 
     if(LOG.isVerbose()) {
       LOG.verbose("Computing median error.");
@@ -161,14 +147,7 @@ public class TrimmedMeanApproach<N> extends AbstractNeighborhoodOutlier<N> {
     double median_dev_from_median;
     {
       // calculate the median error
-      double[] ei = new double[relation.size()];
-      {
-        int i = 0;
-        for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-          ei[i] = errors.doubleValue(iditer);
-          i++;
-        }
-      }
+      double[] ei = errors.clone();
       double median_i = QuickSelect.median(ei);
       // Update to deviation from median
       for(int i = 0; i < ei.length; i++) {
@@ -183,8 +162,8 @@ public class TrimmedMeanApproach<N> extends AbstractNeighborhoodOutlier<N> {
     }
     // calculate score
     DoubleMinMax minmax = new DoubleMinMax();
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      double score = Math.abs(errors.doubleValue(iditer)) * 0.6745 / median_dev_from_median;
+    for(DBIDArrayIter iditer = graph.getDBIDs().iter(); iditer.valid(); iditer.advance()) {
+      double score = Math.abs(errors[iditer.getOffset()]) * 0.6745 / median_dev_from_median;
       scores.putDouble(iditer, score);
       minmax.put(score);
     }
@@ -0,0 +1,506 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.spatial.neighborhood;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import elki.data.NumberVector;
+import elki.data.type.TypeInformation;
+import elki.database.Database;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.*;
+import elki.database.relation.Relation;
+import elki.logging.Logging;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
+import elki.utilities.datastructures.QuickSelect;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Neighborhood graph stored in compressed sparse row (CSR) format: the
+ * neighbors of the i-th object are the object offsets
+ * {@code neighbors[offsets[i]]} to {@code neighbors[offsets[i+1]-1]}.
+ * <p>
+ * This needs much less memory than storing a {@link DBIDs} object per object,
+ * and allows computing neighborhood aggregates on plain arrays (in parallel),
+ * as used by the spatial outlier detection methods.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class NeighborhoodGraph implements NeighborSetPredicate {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(NeighborhoodGraph.class);
+
+  /**
+   * Objects of the graph, in offset order.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Start offsets of each object's neighbors, of length {@code n+1}.
+   */
+  private int[] offsets;
+
+  /**
+   * Neighbors, as offsets into {@link #ids}.
+   */
+  private int[] neighbors;
+
+  /**
+   * Offset of each object.
+   */
+  private WritableIntegerDataStore index;
+
+  /**
+   * Constructor.
+   *
+   * @param ids Objects, in offset order
+   * @param offsets Start offsets of each object's neighbors (length n+1)
+   * @param neighbors Neighbors, as offsets into ids
+   */
+  public NeighborhoodGraph(ArrayDBIDs ids, int[] offsets, int[] neighbors) {
+    super();
+    assert offsets.length == ids.size() + 1;
+    this.ids = ids;
+    this.offsets = offsets;
+    this.neighbors = neighbors;
+    this.index = makeIndex(ids);
+  }
+
+  /**
+   * Build a neighborhood graph from a neighbor set predicate.
+   * <p>
+   * Neighbors that are not in the given set of objects are ignored.
+   *
+   * @param npred Neighbor set predicate
+   * @param ids Objects to include
+   * @return Neighborhood graph
+   */
+  public static NeighborhoodGraph of(NeighborSetPredicate npred, DBIDs ids) {
+    if(npred instanceof NeighborhoodGraph && ((NeighborhoodGraph) npred).ids.size() == ids.size()) {
+      NeighborhoodGraph graph = (NeighborhoodGraph) npred;
+      if(graph.ids == ids || DBIDUtil.intersectionSize(graph.ids, ids) == ids.size()) {
+        return graph;
+      }
+    }
+    final ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    final WritableIntegerDataStore index = makeIndex(aids);
+    List<Callable<int[][]>> tasks = new ArrayList<>();
+    for(int[] block : blocks(aids.size())) {
+      final int start = block[0], end = block[1];
+      tasks.add(() -> {
+        IntArrayList buf = new IntArrayList();
+        int[] counts = new int[end - start];
+        DBIDArrayIter it = aids.iter();
+        for(int i = start; i < end; i++) {
+          DBIDs n = npred.getNeighborDBIDs(it.seek(i));
+          if(n == null) {
+            continue;
+          }
+          for(DBIDIter nit = n.iter(); nit.valid(); nit.advance()) {
+            final int j = index.intValue(nit);
+            if(j >= 0) {
+              buf.add(j);
+              ++counts[i - start];
+            }
+          }
+        }
+        return new int[][] { counts, buf.toIntArray() };
+      });
+    }
+    List<int[][]> parts = ParallelExecutor.runTasks(tasks);
+    int[] offsets = new int[aids.size() + 1];
+    int total = 0;
+    for(int[][] part : parts) {
+      total += part[1].length;
+    }
+    int[] neighbors = new int[total];
+    int i = 0, pos = 0;
+    for(int[][] part : parts) {
+      for(int c : part[0]) {
+        offsets[i++] = pos;
+        pos += c;
+      }
+      System.arraycopy(part[1], 0, neighbors, offsets[i - part[0].length], part[1].length);
+    }
+    offsets[i] = pos;
+    if(LOG.isVerbose()) {
+      LOG.verbose("Neighborhood graph with " + aids.size() + " objects and " + total + " edges.");
+    }
+    return new NeighborhoodGraph(aids, offsets, neighbors, index);
+  }
+
+  /**
+   * Constructor with a precomputed index.
+   *
+   * @param ids Objects, in offset order
+   * @param offsets Start offsets of each object's neighbors (length n+1)
+   * @param neighbors Neighbors, as offsets into ids
+   * @param index Offset of each object
+   */
+  private NeighborhoodGraph(ArrayDBIDs ids, int[] offsets, int[] neighbors, WritableIntegerDataStore index) {
+    super();
+    this.ids = ids;
+    this.offsets = offsets;
+    this.neighbors = neighbors;
+    this.index = index;
+  }
+
+  /**
+   * Map each object to its offset.
+   *
+   * @param ids Objects
+   * @return Offset store, -1 for unknown objects
+   */
+  private static WritableIntegerDataStore makeIndex(ArrayDBIDs ids) {
+    WritableIntegerDataStore index = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      index.putInt(it, it.getOffset());
+    }
+    return index;
+  }
+
+  /**
+   * Split a range into blocks for parallel processing.
+   *
+   * @param size Size
+   * @return Start and end of each block
+   */
+  private static List<int[]> blocks(int size) {
+    final int p = ParallelCore.getCore().getParallelism();
+    final int numparts = Math.max(1, Math.min(size, size > p * p * 16 ? p * Math.max(1, p - 1) : p));
+    final int blocksize = (size + numparts - 1) / numparts;
+    List<int[]> blocks = new ArrayList<>(numparts);
+    for(int start = 0; start < size; start += blocksize) {
+      blocks.add(new int[] { start, Math.min(start + blocksize, size) });
+    }
+    return blocks;
+  }
+
+  @Override
+  public DBIDs getNeighborDBIDs(DBIDRef reference) {
+    final int i = index.intValue(reference);
+    if(i < 0) {
+      return DBIDUtil.deref(reference);
+    }
+    final int start = offsets[i], end = offsets[i + 1];
+    ArrayModifiableDBIDs res = DBIDUtil.newArray(end - start);
+    DBIDVar var = DBIDUtil.newVar();
+    for(int j = start; j < end; j++) {
+      res.add(ids.assignVar(neighbors[j], var));
+    }
+    return res;
+  }
+
+  /**
+   * Get the objects of the graph, in offset order.
+   *
+   * @return Objects
+   */
+  public ArrayDBIDs getDBIDs() {
+    return ids;
+  }
+
+  /**
+   * Number of objects.
+   *
+   * @return Number of objects
+   */
+  public int size() {
+    return ids.size();
+  }
+
+  /**
+   * Number of edges.
+   *
+   * @return Number of edges
+   */
+  public int numEdges() {
+    return neighbors.length;
+  }
+
+  /**
+   * Get the offset of an object.
+   *
+   * @param id Object
+   * @return Offset, or -1
+   */
+  public int offset(DBIDRef id) {
+    return index.intValue(id);
+  }
+
+  /**
+   * Start of the neighbors of the i-th object in {@link #neighbors()}.
+   *
+   * @param i Object offset
+   * @return Start position (inclusive)
+   */
+  public int start(int i) {
+    return offsets[i];
+  }
+
+  /**
+   * End of the neighbors of the i-th object in {@link #neighbors()}.
+   *
+   * @param i Object offset
+   * @return End position (exclusive)
+   */
+  public int end(int i) {
+    return offsets[i + 1];
+  }
+
+  /**
+   * Neighbor array, containing object offsets. Do not modify.
+   *
+   * @return Neighbors
+   */
+  public int[] neighbors() {
+    return neighbors;
+  }
+
+  /**
+   * Project one attribute of a relation to an array, in offset order.
+   *
+   * @param relation Data relation
+   * @param d Dimension
+   * @return Values
+   */
+  public double[] project(Relation<? extends NumberVector> relation, int d) {
+    double[] values = new double[ids.size()];
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      values[it.getOffset()] = relation.get(it).doubleValue(d);
+    }
+    return values;
+  }
+
+  /**
+   * Aggregate the values of each object's neighbors, in parallel.
+   * <p>
+   * If an object has no neighbors, its own value is used.
+   *
+   * @param values Values, in offset order
+   * @param excludeSelf Exclude the object itself from its neighbors
+   * @param aggregator Aggregation function
+   * @return Aggregated values, in offset order
+   */
+  public double[] aggregate(double[] values, boolean excludeSelf, Aggregator aggregator) {
+    final double[] result = new double[ids.size()];
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for(int[] block : blocks(ids.size())) {
+      final int start = block[0], end = block[1];
+      tasks.add(() -> {
+        double[] buf = new double[16];
+        for(int i = start; i < end; i++) {
+          final int s = offsets[i], e = offsets[i + 1];
+          if(buf.length < e - s) {
+            buf = new double[e - s];
+          }
+          int c = 0;
+          for(int j = s; j < e; j++) {
+            final int n = neighbors[j];
+            if(!excludeSelf || n != i) {
+              buf[c++] = values[n];
+            }
+          }
+          result[i] = c > 0 ? aggregator.aggregate(buf, c) : values[i];
+        }
+        return null;
+      });
+    }
+    ParallelExecutor.runTasks(tasks);
+    return result;
+  }
+
+  /**
+   * Compute a value for each object from its neighborhood, in parallel.
+   *
+   * @param evaluator Function to compute the value of one object
+   * @return Values, in offset order
+   */
+  public double[] evaluate(Evaluator evaluator) {
+    final double[] result = new double[ids.size()];
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for(int[] block : blocks(ids.size())) {
+      final int start = block[0], end = block[1];
+      tasks.add(() -> {
+        for(int i = start; i < end; i++) {
+          result[i] = evaluator.evaluate(i, offsets[i], offsets[i + 1]);
+        }
+        return null;
+      });
+    }
+    ParallelExecutor.runTasks(tasks);
+    return result;
+  }
+
+  /**
+   * Mean of the neighbors' values, in parallel.
+   *
+   * @param values Values, in offset order
+   * @param excludeSelf Exclude the object itself from its neighbors
+   * @return Neighborhood means, in offset order
+   */
+  public double[] mean(double[] values, boolean excludeSelf) {
+    return aggregate(values, excludeSelf, NeighborhoodGraph::mean);
+  }
+
+  /**
+   * Median of the neighbors' values, in parallel.
+   *
+   * @param values Values, in offset order
+   * @param excludeSelf Exclude the object itself from its neighbors
+   * @return Neighborhood medians, in offset order
+   */
+  public double[] median(double[] values, boolean excludeSelf) {
+    return aggregate(values, excludeSelf, (buf, c) -> QuickSelect.median(buf, 0, c));
+  }
+
+  /**
+   * Mean of the first values of an array.
+   *
+   * @param buf Buffer
+   * @param c Number of values
+   * @return Mean
+   */
+  private static double mean(double[] buf, int c) {
+    double sum = 0.;
+    for(int i = 0; i < c; i++) {
+      sum += buf[i];
+    }
+    return sum / c;
+  }
+
+  /**
+   * Aggregation function for neighbor values.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface Aggregator {
+    /**
+     * Aggregate the values of a neighborhood.
+     *
+     * @param buf Buffer with the values; may be modified
+     * @param c Number of values in the buffer (at least 1)
+     * @return Aggregated value
+     */
+    double aggregate(double[] buf, int c);
+  }
+
+  /**
+   * Function to compute a value of an object from its neighborhood.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface Evaluator {
+    /**
+     * Compute the value of one object.
+     *
+     * @param i Object offset
+     * @param start Start of its neighbors in {@link NeighborhoodGraph#neighbors()}
+     * @param end End of its neighbors (exclusive)
+     * @return Value
+     */
+    double evaluate(int i, int start, int end);
+  }
+
+  /**
+   * Factory class, to store another neighborhood as compact graph.
+   *
+   * @author Erich Schubert
+   *
+   * @stereotype factory
+   * @navhas - produces - NeighborhoodGraph
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements NeighborSetPredicate.Factory<O> {
+    /**
+     * Inner neighbor set predicate
+     */
+    private NeighborSetPredicate.Factory<O> inner;
+
+    /**
+     * Constructor.
+     *
+     * @param inner Inner neighbor set predicate
+     */
+    public Factory(NeighborSetPredicate.Factory<O> inner) {
+      super();
+      this.inner = inner;
+    }
+
+    @Override
+    public NeighborhoodGraph instantiate(Database database, Relation<? extends O> relation) {
+      return NeighborhoodGraph.of(inner.instantiate(database, relation), relation.getDBIDs());
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return inner.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @hidden
+     *
+     * @param <O> Object type
+     */
+    public static class Par<O> implements Parameterizer {
+      /**
+       * Parameter to specify the neighborhood predicate to use.
+       */
+      public static final OptionID NEIGHBORHOOD_ID = new OptionID("neighborhoodgraph.neighborhood", "The neighborhood predicate to store as graph.");
+
+      /**
+       * Inner neighbor set predicate
+       */
+      private NeighborSetPredicate.Factory<O> inner;
+
+      @Override
+      public void configure(Parameterization config) {
+        new ObjectParameter<NeighborSetPredicate.Factory<O>>(NEIGHBORHOOD_ID, NeighborSetPredicate.Factory.class) //
+            .grab(config, x -> inner = x);
+      }
+
+      @Override
+      public NeighborhoodGraph.Factory<O> make() {
+        return new NeighborhoodGraph.Factory<>(inner);
+      }
+    }
+  }
+}
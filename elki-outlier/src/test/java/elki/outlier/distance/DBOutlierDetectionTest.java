@@ -51,6 +51,7 @@ public class DBOutlierDetectionTest extends AbstractOutlierAlgorithmTest {
     OutlierResult result = new ELKIBuilder<DBOutlierDetection<DoubleVector>>(DBOutlierDetection.class) //
         .with(DBOutlierDetection.Par.D_ID, 0.175) //
         .with(DBOutlierDetection.Par.P_ID, 0.98) //
+        .with(DBOutlierDetection.Par.SEED_ID, 0) //
         .build().autorun(db);
     assertSingleScore(result, 1025, 0.0);
     assertAUC(db, "Noise", result, 0.97487179);
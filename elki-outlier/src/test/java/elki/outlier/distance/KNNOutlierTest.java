@@ -20,13 +20,21 @@
  */
 package elki.outlier.distance;
 
+import static org.junit.Assert.assertNotNull;
+
 import org.junit.Test;
 
 import elki.outlier.AbstractOutlierAlgorithmTest;
 import elki.data.DoubleVector;
+import elki.database.AbstractDatabase;
 import elki.database.Database;
+import elki.database.query.QueryBuilder;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.distancematrix.PrecomputedDistanceMatrix;
 import elki.result.outlier.OutlierResult;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
  * Tests the KNNOutlier algorithm.
@@ -43,4 +51,31 @@ public class KNNOutlierTest extends AbstractOutlierAlgorithmTest {
     assertSingleScore(result, 945, 0.4793554700168577);
     assertAUC(db, "Noise", result, 0.991462962962963);
   }
+
+  @Test
+  public void testKNNOutlierTopN() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<KNNOutlier<DoubleVector>>(KNNOutlier.class) //
+        .with(KNNOutlier.Par.K_ID, 1) //
+        .with(KNNOutlier.Par.TOPN_ID, 20) //
+        .with(KNNOutlier.Par.SEED_ID, 0).build().autorun(db);
+    assertSingleScore(result, 940, 3.9899079206158907);
+    assertAUC(db, "Noise", result, 0.6666666666666666);
+  }
+
+  @Test
+  public void testKNNOutlierTopNIndex() {
+    ListParameterization pars = new ListParameterization() //
+        .addParameter(AbstractDatabase.Par.INDEX_ID, PrecomputedDistanceMatrix.Factory.class) //
+        .addParameter(PrecomputedDistanceMatrix.Factory.Par.DISTANCE_ID, EuclideanDistance.class);
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960, pars);
+    Relation<DoubleVector> relation = db.getRelation(DoubleVector.FIELD);
+    assertNotNull("Expected a priority search.", new QueryBuilder<>(relation, EuclideanDistance.STATIC).optimizedOnly().priorityByDBID());
+    OutlierResult result = new ELKIBuilder<KNNOutlier<DoubleVector>>(KNNOutlier.class) //
+        .with(KNNOutlier.Par.K_ID, 1) //
+        .with(KNNOutlier.Par.TOPN_ID, 20) //
+        .with(KNNOutlier.Par.SEED_ID, 0).build().autorun(db);
+    assertSingleScore(result, 940, 3.9899079206158907);
+    assertAUC(db, "Noise", result, 0.6666666666666666);
+  }
 }
@@ -0,0 +1,48 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.lof;
+
+import org.junit.Test;
+
+import elki.outlier.AbstractOutlierAlgorithmTest;
+import elki.data.DoubleVector;
+import elki.database.Database;
+import elki.result.outlier.OutlierResult;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Regression tests the parallel aLOCI algorithm.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ParallelALOCITest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testParallelALOCI() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    OutlierResult result = new ELKIBuilder<ParallelALOCI<DoubleVector>>(ParallelALOCI.class) //
+        .with(ALOCI.Par.SEED_ID, 2) //
+        .with(ALOCI.Par.GRIDS_ID, 3) //
+        .build().autorun(db);
+    assertAUC(db, "Noise", result, 0.7622222);
+    assertSingleScore(result, 146, 1.1305337);
+  }
+}
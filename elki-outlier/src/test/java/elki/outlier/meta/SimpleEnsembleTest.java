@@ -20,15 +20,29 @@
  */
 package elki.outlier.meta;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.Test;
 
 import elki.outlier.AbstractOutlierAlgorithmTest;
 import elki.outlier.distance.KNNOutlier;
+import elki.outlier.distance.KNNWeightOutlier;
 import elki.outlier.lof.LOF;
 import elki.Algorithm;
+import elki.data.type.TypeUtil;
 import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.relation.DoubleRelation;
+import elki.index.Index;
+import elki.result.Metadata;
 import elki.result.outlier.OutlierResult;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.datastructures.iterator.It;
 import elki.utilities.ensemble.*;
 
 /**
@@ -97,4 +111,38 @@ public class SimpleEnsembleTest extends AbstractOutlierAlgorithmTest {
         .with(KNNOutlier.Par.K_ID, 1).with(LOF.Par.K_ID, 10).build().autorun(db);
     assertAUC(db, "Noise", result, 0.1182);
   }
+
+  @Test
+  public void testParallelEqualsSerial() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<>(SimpleOutlierEnsemble.class) //
+        .with(Algorithm.Utils.ALGORITHM_ID, LOF.class.getName() + "," + KNNOutlier.class.getName()) //
+        .with(SimpleOutlierEnsemble.Par.VOTING_ID, EnsembleVotingMean.class) //
+        .with(KNNOutlier.Par.K_ID, 1).with(LOF.Par.K_ID, 10).build().autorun(db);
+    // Run the members one after another, and combine the scores.
+    DoubleRelation lof = new ELKIBuilder<>(LOF.class).with(LOF.Par.K_ID, 10).build().autorun(db).getScores();
+    DoubleRelation knn = new ELKIBuilder<>(KNNOutlier.class).with(KNNOutlier.Par.K_ID, 1).build().autorun(db).getScores();
+    EnsembleVoting voting = new EnsembleVotingMean();
+    DoubleRelation scores = result.getScores();
+    assertEquals("Number of scores", lof.size(), scores.size());
+    for(DBIDIter it = lof.iterDBIDs(); it.valid(); it.advance()) {
+      double expect = voting.combine(new double[] { lof.doubleValue(it), knn.doubleValue(it) });
+      assertEquals("Score differs from serial run.", expect, scores.doubleValue(it), 0.);
+    }
+  }
+
+  @Test
+  public void testSharedIndex() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    new ELKIBuilder<>(SimpleOutlierEnsemble.class) //
+        .with(Algorithm.Utils.ALGORITHM_ID, LOF.class.getName() + "," + KNNOutlier.class.getName() + "," + KNNWeightOutlier.class.getName()) //
+        .with(SimpleOutlierEnsemble.Par.VOTING_ID, EnsembleVotingMean.class) //
+        .with(KNNOutlier.Par.K_ID, 5).with(LOF.Par.K_ID, 10).with(KNNWeightOutlier.Par.K_ID, 5).build().autorun(db);
+    // Concurrent members must share the automatically added indexes.
+    Set<Class<?>> seen = new HashSet<>();
+    for(It<Index> it = Metadata.hierarchyOf(db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD)).iterChildren().filter(Index.class); it.valid(); it.advance()) {
+      assertTrue("Index was added twice: " + it.get().getClass(), seen.add(it.get().getClass()));
+    }
+    assertFalse("No index was added.", seen.isEmpty());
+  }
 }
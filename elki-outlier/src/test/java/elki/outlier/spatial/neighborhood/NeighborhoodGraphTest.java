@@ -0,0 +1,74 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.outlier.spatial.neighborhood;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.ids.*;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.outlier.AbstractOutlierAlgorithmTest;
+import elki.utilities.datastructures.QuickSelect;
+
+/**
+ * Test the CSR neighborhood graph against the neighbor set predicate.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class NeighborhoodGraphTest extends AbstractOutlierAlgorithmTest {
+  @Test
+  public void testAggregates() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    NeighborSetPredicate npred = new PrecomputedKNearestNeighborNeighborhood.Factory<>(5, EuclideanDistance.STATIC).instantiate(db, rel);
+    NeighborhoodGraph graph = NeighborhoodGraph.of(npred, rel.getDBIDs());
+    assertEquals("Number of objects", rel.size(), graph.size());
+    assertEquals("Number of edges", rel.size() * 5, graph.numEdges());
+
+    double[] values = graph.project(rel, 1);
+    double[] means = graph.mean(values, true), medians = graph.median(values, true);
+    double[] degrees = graph.evaluate((i, start, end) -> end - start);
+    for(DBIDArrayIter it = graph.getDBIDs().iter(); it.valid(); it.advance()) {
+      DBIDs neighbors = npred.getNeighborDBIDs(it);
+      assertEquals("Neighbors", neighbors.size(), graph.getNeighborDBIDs(it).size());
+      assertEquals("Degree", neighbors.size(), degrees[it.getOffset()], 0.);
+      assertEquals("Neighbors", neighbors.size(), DBIDUtil.intersectionSize(neighbors, graph.getNeighborDBIDs(it)));
+      double[] buf = new double[neighbors.size()];
+      int c = 0;
+      double sum = 0;
+      for(DBIDIter n = neighbors.iter(); n.valid(); n.advance()) {
+        if(!DBIDUtil.equal(it, n)) {
+          sum += buf[c++] = rel.get(n).doubleValue(1);
+        }
+      }
+      assertEquals("Mean", sum / c, means[it.getOffset()], 1e-15);
+      assertEquals("Median", QuickSelect.median(buf, 0, c), medians[it.getOffset()], 0.);
+    }
+    // Reusing an existing graph:
+    assertEquals("Graph not reused", graph, NeighborhoodGraph.of(graph, rel.getDBIDs()));
+  }
+}
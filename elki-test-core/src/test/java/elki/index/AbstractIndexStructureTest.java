@@ -22,12 +22,21 @@ package elki.index;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
 
 import elki.algorithm.AbstractSimpleAlgorithmTest;
 import elki.data.DoubleVector;
 import elki.data.type.TypeUtil;
 import elki.database.Database;
+import elki.database.HashmapDatabase;
 import elki.database.StaticArrayDatabase;
 import elki.database.ids.*;
 import elki.database.query.ExactPrioritySearcher;
@@ -36,12 +45,16 @@ import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.query.knn.KNNSearcher;
 import elki.database.query.range.RangeSearcher;
+import elki.database.query.rknn.RKNNSearcher;
 import elki.database.relation.Relation;
 import elki.datasource.AbstractDatabaseConnection;
 import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.datasource.FileBasedDatabaseConnection;
+import elki.datasource.bundle.MultipleObjectsBundle;
 import elki.datasource.filter.FixedDBIDsFilter;
 import elki.distance.CosineDistance;
 import elki.distance.minkowski.EuclideanDistance;
+import elki.utilities.ClassGenericsUtil;
 import elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -215,10 +228,34 @@ public abstract class AbstractIndexStructureTest {
       inputparams.addParameter(StaticArrayDatabase.Par.INDEX_ID, factory);
     }
     Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds, inputparams);
+    assertExactEuclidean(db, expectKNNQuery, expectRangeQuery, dbidonly);
+  }
+
+  /**
+   * Verify the Euclidean queries on a database.
+   *
+   * @param db Database
+   * @param expectKNNQuery expected knn query class
+   * @param expectRangeQuery expected range query class
+   * @param dbidonly test DBID queries only
+   */
+  private static void assertExactEuclidean(Database db, Class<?> expectKNNQuery, Class<?> expectRangeQuery, boolean dbidonly) {
     Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    assertExactEuclidean(relation, relation.iterDBIDs().advance(), expectKNNQuery, expectRangeQuery, dbidonly);
+  }
+
+  /**
+   * Verify the Euclidean queries on a relation.
+   *
+   * @param relation Data relation
+   * @param second Second object, used as query
+   * @param expectKNNQuery expected knn query class
+   * @param expectRangeQuery expected range query class
+   * @param dbidonly test DBID queries only
+   */
+  private static void assertExactEuclidean(Relation<DoubleVector> relation, DBIDRef second, Class<?> expectKNNQuery, Class<?> expectRangeQuery, boolean dbidonly) {
     QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, EuclideanDistance.STATIC).cheapOnly();
     DistanceQuery<DoubleVector> dist = qb.distanceQuery();
-    DBIDRef second = relation.iterDBIDs().advance();
 
     if(expectKNNQuery != null) {
       KNNSearcher<DoubleVector> knnq = qb.kNNByObject(k);
@@ -240,6 +277,245 @@ public abstract class AbstractIndexStructureTest {
     }
   }
 
+  /**
+   * Test helper: build the database twice with an index snapshot directory,
+   * and verify that the second database loads the index snapshot.
+   *
+   * @param factory Index factory
+   * @param expectKNNQuery expected knn query class
+   * @param expectRangeQuery expected range query class
+   */
+  protected static void assertSnapshotEuclidean(IndexFactory<?> factory, Class<?> expectKNNQuery, Class<?> expectRangeQuery) {
+    assertSnapshotEuclidean(() -> factory, expectKNNQuery, expectRangeQuery, false);
+  }
+
+  /**
+   * Test helper: build the database twice with an index snapshot directory,
+   * and verify that the second database loads the index snapshot.
+   * <p>
+   * Random generators change their state when used, hence indexes using them
+   * need a new factory for each run.
+   *
+   * @param factory Index factory supplier
+   * @param expectKNNQuery expected knn query class
+   * @param expectRangeQuery expected range query class
+   * @param dbidonly test DBID queries only
+   */
+  protected static void assertSnapshotEuclidean(Supplier<? extends IndexFactory<?>> factory, Class<?> expectKNNQuery, Class<?> expectRangeQuery, boolean dbidonly) {
+    Path dir = null;
+    try {
+      dir = Files.createTempDirectory("elki-snapshot");
+      for(int run = 0; run < 2; run++) {
+        Database db = makeSnapshotDatabase(factory.get(), dir, run > 0);
+        assertExactEuclidean(db, expectKNNQuery, expectRangeQuery, dbidonly);
+      }
+    }
+    catch(IOException e) {
+      fail(e.getMessage());
+    }
+    finally {
+      deleteSnapshots(dir);
+    }
+  }
+
+  /**
+   * Test helper: verify that an index snapshot is rebuilt, not loaded, when a
+   * parameter of the index changed.
+   *
+   * @param factory Index factory supplier
+   * @param changed Supplier of an index factory with different parameters
+   */
+  protected static void assertStaleSnapshot(Supplier<? extends IndexFactory<?>> factory, Supplier<? extends IndexFactory<?>> changed) {
+    Path dir = null;
+    try {
+      dir = Files.createTempDirectory("elki-snapshot");
+      makeSnapshotDatabase(factory.get(), dir, false);
+      makeSnapshotDatabase(changed.get(), dir, false);
+      makeSnapshotDatabase(changed.get(), dir, true);
+    }
+    catch(IOException e) {
+      fail(e.getMessage());
+    }
+    finally {
+      deleteSnapshots(dir);
+    }
+  }
+
+  /**
+   * Build the test database with an index snapshot directory.
+   *
+   * @param factory Index factory
+   * @param dir Snapshot directory
+   * @param expectLoaded {@code true} if an existing snapshot must be loaded,
+   *        {@code false} if it must be rebuilt
+   * @return Database
+   * @throws IOException on errors accessing the snapshot
+   */
+  protected static Database makeSnapshotDatabase(IndexFactory<?> factory, Path dir, boolean expectLoaded) throws IOException {
+    // Mark existing snapshots, to detect if they are rebuilt.
+    for(File f : dir.toFile().listFiles()) {
+      Files.setLastModifiedTime(f.toPath(), FileTime.fromMillis(1000000L));
+    }
+    ListParameterization inputparams = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0)) //
+        .addParameter(StaticArrayDatabase.Par.INDEX_ID, factory) //
+        .addParameter(StaticArrayDatabase.Par.SNAPSHOT_ID, dir.toString());
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds, inputparams);
+    File[] files = dir.toFile().listFiles();
+    assertEquals("Expected exactly one snapshot.", 1, files.length);
+    assertEquals(expectLoaded ? "Snapshot was rebuilt, not loaded." : "Stale snapshot was loaded.", //
+        expectLoaded, files[0].lastModified() == 1000000L);
+    return db;
+  }
+
+  /**
+   * Remove a snapshot directory.
+   *
+   * @param dir Directory, may be {@code null}
+   */
+  protected static void deleteSnapshots(Path dir) {
+    if(dir != null) {
+      for(File f : dir.toFile().listFiles()) {
+        f.delete();
+      }
+      dir.toFile().delete();
+    }
+  }
+
+  /**
+   * Test helper: load a dynamic database one object at a time, delete every
+   * third object and compare to a linear scan, then insert them again.
+   *
+   * @param factory Index factory
+   * @param expectKNNQuery expected knn query class
+   * @param expectRangeQuery expected range query class
+   */
+  protected static void assertDynamicEuclidean(IndexFactory<?> factory, Class<?> expectKNNQuery, Class<?> expectRangeQuery) {
+    ListParameterization params = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0)) //
+        .addParameter(HashmapDatabase.Par.INDEX_ID, factory) //
+        .addParameter(FileBasedDatabaseConnection.Par.INPUT_ID, //
+            AbstractSimpleAlgorithmTest.class.getClassLoader().getResource(dataset));
+    HashmapDatabase db = ClassGenericsUtil.parameterizeOrAbort(HashmapDatabase.class, params);
+    db.initialize();
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    assertEquals("Database size does not match.", shoulds, relation.size());
+    // Hash-based database, with the DBIDs assigned by the fixed DBIDs filter:
+    DBIDRef second = DBIDUtil.importInteger(1);
+    assertExactEuclidean(relation, second, expectKNNQuery, expectRangeQuery, false);
+
+    ArrayModifiableDBIDs remove = DBIDUtil.newArray();
+    List<DoubleVector> vectors = new ArrayList<>();
+    int i = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance(), i++) {
+      if(i % 3 == 2) {
+        remove.add(it);
+        vectors.add(relation.get(it));
+      }
+    }
+    db.delete(remove);
+    MultipleObjectsBundle removed = new MultipleObjectsBundle();
+    removed.appendColumn(relation.getDataTypeInformation(), vectors);
+    removed.setDBIDs(remove);
+    assertEquals("Database size does not match.", shoulds - remove.size(), relation.size());
+    QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, EuclideanDistance.STATIC).cheapOnly();
+    KNNSearcher<DBIDRef> knnq = qb.kNNByDBID(k);
+    RangeSearcher<DBIDRef> rangeq = qb.rangeByDBID(eps2);
+    assertClass(expectKNNQuery, knnq, knnq);
+    assertClass(expectRangeQuery, rangeq, rangeq);
+    QueryBuilder<DoubleVector> lqb = new QueryBuilder<>(relation, EuclideanDistance.STATIC).linearOnly();
+    KNNSearcher<DBIDRef> lknnq = lqb.kNNByDBID(k);
+    RangeSearcher<DBIDRef> lrangeq = lqb.rangeByDBID(eps2);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      assertSameDistances(lknnq.getKNN(it, k), knnq.getKNN(it, k));
+      assertSameDistances(lrangeq.getRange(it, eps2), rangeq.getRange(it, eps2));
+    }
+
+    db.insert(removed);
+    assertEquals("Database size does not match.", shoulds, relation.size());
+    assertExactEuclidean(relation, second, expectKNNQuery, expectRangeQuery, false);
+  }
+
+  /**
+   * Test helper: compare an index built with bulk loading to the same index
+   * built by inserting one object at a time, and to a linear scan, using kNN
+   * and reverse kNN queries.
+   *
+   * @param bulk Index factory with bulk loading
+   * @param sequential Index factory without bulk loading
+   * @param kmax Maximum k supported by the index
+   * @param expectRKNNQuery expected reverse kNN query class
+   * @param recall Minimum recall of approximate reverse kNN queries, 1 if the
+   *        results must be exact
+   */
+  protected static void assertBulkLoadEuclidean(IndexFactory<?> bulk, IndexFactory<?> sequential, int kmax, Class<?> expectRKNNQuery, double recall) {
+    Relation<DoubleVector> brel = makeIndexedRelation(bulk), srel = makeIndexedRelation(sequential);
+    assertEquals("Database size does not match.", srel.size(), brel.size());
+    QueryBuilder<DoubleVector> bqb = new QueryBuilder<>(brel, EuclideanDistance.STATIC).cheapOnly();
+    QueryBuilder<DoubleVector> sqb = new QueryBuilder<>(srel, EuclideanDistance.STATIC).cheapOnly();
+    KNNSearcher<DBIDRef> bknnq = bqb.kNNByDBID(kmax), sknnq = sqb.kNNByDBID(kmax);
+    RKNNSearcher<DBIDRef> brknnq = bqb.rKNNByDBID(kmax), srknnq = sqb.rKNNByDBID(kmax);
+    assertClass(expectRKNNQuery, brknnq, brknnq);
+    assertClass(expectRKNNQuery, srknnq, srknnq);
+    QueryBuilder<DoubleVector> lqb = new QueryBuilder<>(brel, EuclideanDistance.STATIC).linearOnly();
+    KNNSearcher<DBIDRef> lknnq = lqb.kNNByDBID(kmax);
+    RKNNSearcher<DBIDRef> lrknnq = lqb.rKNNByDBID(kmax);
+    int total = 0, bfound = 0, sfound = 0;
+    // The fixed DBIDs filter assigns the same DBIDs in both databases.
+    for(DBIDIter it = brel.iterDBIDs(); it.valid(); it.advance()) {
+      assertSameDistances(lknnq.getKNN(it, kmax), bknnq.getKNN(it, kmax));
+      assertSameDistances(lknnq.getKNN(it, kmax), sknnq.getKNN(it, kmax));
+      for(int k : new int[] { 1, kmax }) {
+        DoubleDBIDList expect = lrknnq.getRKNN(it, k);
+        DoubleDBIDList bres = brknnq.getRKNN(it, k), sres = srknnq.getRKNN(it, k);
+        if(recall >= 1) {
+          assertSameDistances(expect, bres);
+          assertSameDistances(expect, sres);
+          continue;
+        }
+        HashSetDBIDs eset = DBIDUtil.newHashSet(expect);
+        total += expect.size();
+        bfound += DBIDUtil.intersectionSize(eset, DBIDUtil.newHashSet(bres));
+        sfound += DBIDUtil.intersectionSize(eset, DBIDUtil.newHashSet(sres));
+      }
+    }
+    if(recall < 1) {
+      assertTrue("Recall of bulk loaded index too low: " + bfound / (double) total, bfound >= recall * total);
+      assertTrue("Recall of sequential index too low: " + sfound / (double) total, sfound >= recall * total);
+    }
+  }
+
+  /**
+   * Build a static database with an index, and fixed DBIDs.
+   *
+   * @param factory Index factory
+   * @return Data relation
+   */
+  private static Relation<DoubleVector> makeIndexedRelation(IndexFactory<?> factory) {
+    ListParameterization inputparams = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Par.FILTERS_ID, new FixedDBIDsFilter(0)) //
+        .addParameter(StaticArrayDatabase.Par.INDEX_ID, factory);
+    return AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds, inputparams).getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+  }
+
+  /**
+   * Compare the distances of two result lists.
+   *
+   * @param expect Expected result
+   * @param actual Actual result
+   */
+  private static void assertSameDistances(DoubleDBIDList expect, DoubleDBIDList actual) {
+    assertEquals("Result size does not match.", expect.size(), actual.size());
+    double[] e = new double[expect.size()], a = new double[actual.size()];
+    for(DoubleDBIDListIter it = expect.iter(), it2 = actual.iter(); it.valid(); it.advance(), it2.advance()) {
+      e[it.getOffset()] = it.doubleValue();
+      a[it2.getOffset()] = it2.doubleValue();
+    }
+    Arrays.sort(e);
+    Arrays.sort(a);
+    assertArrayEquals("Distances do not match.", e, a, 1e-15);
+  }
+
   /**
    * Test helper
    * 
@@ -24,8 +24,11 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
-import java.util.function.BiConsumer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.IntFunction;
 import java.util.regex.Pattern;
 
@@ -57,6 +60,8 @@ import elki.outlier.intrinsic.ISOS;
 import elki.outlier.intrinsic.LID;
 import elki.outlier.lof.*;
 import elki.outlier.trivial.ByLabelOutlier;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.result.ResultUtil;
 import elki.result.outlier.OutlierResult;
 import elki.similarity.kernel.LinearKernel;
@@ -67,6 +72,7 @@ import elki.utilities.io.FormatUtil;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.*;
+import elki.utilities.pairs.Pair;
 import elki.utilities.scaling.IdentityScaling;
 import elki.utilities.scaling.ScalingFunction;
 import elki.utilities.scaling.outlier.OutlierScaling;
@@ -88,6 +94,10 @@ import net.jafama.FastMath;
  * For methods where k=1 does not make sense, this value will be skipped, and
  * the procedure will commence at 1+stepsize.
  * <p>
+ * The methods are run concurrently, sharing the precomputed kNN, and the
+ * results are written in the same order as with sequential processing. Only
+ * a bounded number of finished results is kept in memory.
+ * <p>
  * Reference:
  * <p>
  * Erich Schubert, Remigius Wojdanowski, Arthur Zimek, Hans-Peter Kriegel<br>
@@ -208,8 +218,8 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractDis
       // Label outlier result (reference)
       writeResult(fout, ids, bylabel.autorun(database), new IdentityScaling(), "bylabel");
 
-      // Output function:
-      BiConsumer<String, OutlierResult> out = (kstr, result) -> writeResult(fout, ids, result, scaling, kstr);
+      // Collect the ensemble members, to be run concurrently:
+      List<Callable<Pair<String, double[]>>> out = new ArrayList<>();
 
       // KNN
       runForEachK("KNN", 0, maxk, //
@@ -304,6 +314,15 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractDis
             k -> new FastABOD<O>(LinearKernel.STATIC, k) //
                 .run(relation), out);
       }
+
+      // Run the members concurrently, but write the results in order.
+      // Bound the number of pending results to limit memory usage.
+      final int maxpending = 2 * ParallelCore.getCore().getParallelism();
+      ParallelExecutor.runTasks(out.iterator(), maxpending, row -> {
+        if(row != null) {
+          writeScores(fout, row.first, row.second);
+        }
+      });
     }
     catch(IOException e) {
       throw new AbortException("IO error writing output file.", e);
@@ -324,15 +343,52 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractDis
    * @param label Identification label
    */
   void writeResult(Appendable out, DBIDs ids, OutlierResult result, ScalingFunction scaling, String label) {
-    try {
+    writeScores(out, label, scaledScores(ids, result, scaling));
+  }
+
+  /**
+   * Get the scaled scores of a result.
+   * <p>
+   * Outlier scaling functions are stateful, so concurrent members are scaled
+   * one at a time.
+   *
+   * @param ids DBIDs
+   * @param result Outlier result
+   * @param scaling Scaling function
+   * @return Scaled scores, in the order of the ids
+   */
+  static double[] scaledScores(DBIDs ids, OutlierResult result, ScalingFunction scaling) {
+    double[] values = new double[ids.size()];
+    DoubleRelation scores = result.getScores();
+    int i = 0;
+    if(scaling == null) {
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        values[i++] = scores.doubleValue(iter);
+      }
+      return values;
+    }
+    synchronized(scaling) {
       if(scaling instanceof OutlierScaling) {
         ((OutlierScaling) scaling).prepare(result);
       }
-      out.append(label);
-      DoubleRelation scores = result.getScores();
       for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-        double value = scores.doubleValue(iter);
-        value = scaling != null ? scaling.getScaled(value) : value;
+        values[i++] = scaling.getScaled(scores.doubleValue(iter));
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Write a single output line.
+   *
+   * @param out Output stream
+   * @param label Identification label
+   * @param values Score values
+   */
+  void writeScores(Appendable out, String label, double[] values) {
+    try {
+      out.append(label);
+      for(double value : values) {
         out.append(' ').append(Double.toString(value));
       }
       out.append(FormatUtil.NEWLINE);
@@ -345,63 +401,49 @@ public class ComputeKNNOutlierScores<O extends NumberVector> extends AbstractDis
   }
 
   /**
-   * Iterate over the k range.
+   * Iterate over the k range, and add a task for each k.
+   * <p>
+   * Each task runs the method, and produces the label and the scaled scores.
+   * Once one k exceeds the time limit, the remaining tasks of this method are
+   * skipped (and produce {@code null}).
    *
    * @param prefix Prefix string
    * @param mink Minimum value of k for this method
    * @param maxk Maximum value of k for this method
    * @param runner Runner to run
-   * @param out Output function
+   * @param out Output task list
    */
-  private void runForEachK(String prefix, int mink, int maxk, IntFunction<OutlierResult> runner, BiConsumer<String, OutlierResult> out) {
+  private void runForEachK(String prefix, int mink, int maxk, IntFunction<OutlierResult> runner, List<Callable<Pair<String, double[]>>> out) {
     if(isDisabled(prefix)) {
       LOG.verbose("Skipping (disabled): " + prefix);
       return; // Disabled
     }
-    LOG.verbose("Running " + prefix);
+    final DBIDs ids = inputstep.getDatabase().getRelation(distance.getInputTypeRestriction()).getDBIDs();
     final int digits = (int) FastMath.ceil(FastMath.log10(krange.getMax() + 1));
     final String format = "%s-%0" + digits + "d";
-    try {
-      krange.forEach(k -> {
-        if(k >= mink && k <= maxk) {
+    final AtomicBoolean timeout = new AtomicBoolean(false);
+    krange.forEach(k -> {
+      if(k >= mink && k <= maxk) {
+        out.add(() -> {
+          if(timeout.get()) {
+            return null;
+          }
+          LOG.verbose("Running " + prefix + " k=" + k);
           Duration time = LOG.newDuration(this.getClass().getCanonicalName() + "." + prefix + ".k" + k + ".runtime").begin();
           OutlierResult result = runner.apply(k);
           LOG.statistics(time.end());
-          if(result != null) {
-            out.accept(String.format(Locale.ROOT, format, prefix, k), result);
-            ResultUtil.removeRecursive(result);
+          if(timelimit > 0 && time.getDuration() > timelimit && timeout.compareAndSet(false, true)) {
+            LOG.error("Timeout in " + prefix + " at k=" + k + ": " + time.getDuration());
           }
-          if(timelimit > 0 && time.getDuration() > timelimit) {
-            throw new TimeoutException("Timeout in " + prefix + " at k=" + k + ": " + time.getDuration());
+          if(result == null) {
+            return null;
           }
-        }
-      });
-    }
-    catch(TimeoutException e) {
-      LOG.error(e.getMessage()); // The stack trace is not helpful.
-    }
-  }
-
-  /**
-   * Exception used in timeout logic.
-   *
-   * @author Erich Schubert
-   */
-  private static class TimeoutException extends RuntimeException {
-    /**
-     * Serialization version
-     */
-    private static final long serialVersionUID = 1L;
-
-    /**
-     * Constructor.
-     *
-     * @param msg Message
-     */
-    public TimeoutException(String msg) {
-      super(msg);
-    }
-
+          double[] scores = scaledScores(ids, result, scaling);
+          ResultUtil.removeRecursive(result);
+          return new Pair<>(String.format(Locale.ROOT, format, prefix, k), scores);
+        });
+      }
+    });
   }
 
   /**
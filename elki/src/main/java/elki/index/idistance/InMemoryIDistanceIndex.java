@@ -20,13 +20,23 @@
  */
 package elki.index.idistance;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import elki.clustering.kmedoids.initialization.KMedoidsInitialization;
 import elki.data.type.TypeInformation;
+import elki.database.IndexSnapshots;
+import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.AllKNNSearcher;
 import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.AllRangeSearcher;
 import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
@@ -34,15 +44,19 @@ import elki.index.AbstractRefiningIndex;
 import elki.index.IndexFactory;
 import elki.index.KNNIndex;
 import elki.index.RangeIndex;
+import elki.index.SnapshotIndex;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
 import elki.math.MeanVarianceMinMax;
+import elki.parallel.ParallelCore;
+import elki.parallel.ParallelExecutor;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameterization.TrackParameters;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 import elki.utilities.pairs.DoubleIntPair;
@@ -62,6 +76,10 @@ import elki.utilities.pairs.DoubleIntPair;
  * essentially here, you only need to query every reference point list, not just
  * the best.
  * <p>
+ * The assignment to reference points and the sorting of the lists is done in
+ * parallel. The kNN and range queries of all indexed objects can be computed
+ * in a batch, grouped by their reference point, in parallel.
+ * <p>
  * Reference:
  * <p>
  * C. Yu, B. C. Ooi, K. L. Tan, H. V. Jagadish<br>
@@ -78,6 +96,8 @@ import elki.utilities.pairs.DoubleIntPair;
  *
  * @has - - - IDistanceKNNSearcher
  * @has - - - IDistanceRangeSearcher
+ * @has - - - IDistanceAllKNNSearcher
+ * @has - - - IDistanceAllRangeSearcher
  *
  * @param <O> Object type
  */
@@ -91,12 +111,17 @@ import elki.utilities.pairs.DoubleIntPair;
     booktitle = "ACM Transactions on Database Systems (TODS), 30(2)", //
     url = "https://doi.org/10.1145/1071610.1071612", //
     bibkey = "DBLP:journals/tods/JagadishOTYZ05")
-public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implements RangeIndex<O>, KNNIndex<O> {
+public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implements RangeIndex<O>, KNNIndex<O>, SnapshotIndex {
   /**
    * Class logger.
    */
   private static final Logging LOG = Logging.getLogger(InMemoryIDistanceIndex.class);
 
+  /**
+   * Minimum number of objects to process in a parallel task.
+   */
+  private static final int MIN_TASK_SIZE = 256;
+
   /**
    * Distance query.
    */
@@ -122,6 +147,12 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
    */
   private ModifiableDoubleDBIDList[] index;
 
+  /**
+   * Description of the parameters, for snapshots (before the initialization
+   * is used).
+   */
+  private final String parameters;
+
   /**
    * Constructor.
    * 
@@ -131,10 +162,24 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
    * @param numref Number of reference points
    */
   public InMemoryIDistanceIndex(Relation<O> relation, DistanceQuery<O> distance, KMedoidsInitialization<O> initialization, int numref) {
+    this(relation, distance, initialization, numref, IndexSnapshots.describe(numref, distance.getDistance(), initialization));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Data relation
+   * @param distance Distance
+   * @param initialization Initialization method
+   * @param numref Number of reference points
+   * @param parameters Description of the parameters, for snapshots
+   */
+  public InMemoryIDistanceIndex(Relation<O> relation, DistanceQuery<O> distance, KMedoidsInitialization<O> initialization, int numref, String parameters) {
     super(relation);
     this.distanceQuery = distance;
     this.initialization = initialization;
     this.numref = numref;
+    this.parameters = parameters;
     if(!distance.getDistance().isMetric()) {
       LOG.warning("iDistance assumes metric distance functions.\n" //
           + distance.getDistance().getClass() + " does not report itself as metric.\n" //
@@ -146,30 +191,89 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
   public void initialize() {
     referencepoints = DBIDUtil.ensureArray(initialization.chooseInitialMedoids(numref, relation.getDBIDs(), distanceQuery));
     final int k = referencepoints.size(); // should be the same k anyway.
+    // Assign objects to the nearest reference point, in parallel.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size(), taskSize = parallelTaskSize(size);
+    final int[] assignment = new int[size];
+    final double[] dists = new double[size];
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for(int start = 0; start < size; start += taskSize) {
+      final int begin = start, end = Math.min(start + taskSize, size);
+      tasks.add(() -> {
+        // TODO: add optimized codepath for primitive distances.
+        DBIDArrayIter riter = referencepoints.iter(), oiter = ids.iter();
+        for(oiter.seek(begin); oiter.getOffset() < end; oiter.advance()) {
+          double bestd = Double.POSITIVE_INFINITY;
+          int besti = -1;
+          for(riter.seek(0); riter.valid(); riter.advance()) {
+            double dist = distanceQuery.distance(oiter, riter);
+            if(dist < bestd) {
+              bestd = dist;
+              besti = riter.getOffset();
+            }
+          }
+          assert (besti >= 0 && besti < k);
+          assignment[oiter.getOffset()] = besti;
+          dists[oiter.getOffset()] = bestd;
+        }
+        return null;
+      });
+    }
+    ParallelExecutor.runTasks(tasks);
+    int[] counts = new int[k];
+    for(int i = 0; i < size; i++) {
+      ++counts[assignment[i]];
+    }
     index = new ModifiableDoubleDBIDList[k];
     for(int i = 0; i < k; i++) {
-      index[i] = DBIDUtil.newDistanceDBIDList(relation.size() / (2 * k));
-    }
-    // TODO: add optimized codepath for primitive distances.
-    DBIDArrayIter riter = referencepoints.iter();
-    for(DBIDIter oiter = relation.iterDBIDs(); oiter.valid(); oiter.advance()) {
-      double bestd = Double.POSITIVE_INFINITY;
-      int besti = -1;
-      for(riter.seek(0); riter.valid(); riter.advance()) {
-        double dist = distanceQuery.distance(oiter, riter);
-        if(dist < bestd) {
-          bestd = dist;
-          besti = riter.getOffset();
-        }
-      }
-      assert (besti >= 0 && besti < k);
-      index[besti].add(bestd, oiter);
+      index[i] = DBIDUtil.newDistanceDBIDList(counts[i]);
+    }
+    for(DBIDArrayIter oiter = ids.iter(); oiter.valid(); oiter.advance()) {
+      index[assignment[oiter.getOffset()]].add(dists[oiter.getOffset()], oiter);
     }
 
-    // Sort index.
-    for(int i = 0; i < k; i++) {
-      index[i].sort();
+    // Sort index, in parallel.
+    tasks.clear();
+    for(ModifiableDoubleDBIDList list : index) {
+      tasks.add(() -> {
+        list.sort();
+        return null;
+      });
+    }
+    ParallelExecutor.runTasks(tasks);
+  }
+
+  /**
+   * Choose the number of objects to process in a parallel task.
+   *
+   * @param size Number of objects
+   * @return Task size
+   */
+  private static int parallelTaskSize(int size) {
+    return ParallelCore.isWorkerThread() ? Math.max(size, 1) : //
+        Math.max(MIN_TASK_SIZE, size / (ParallelCore.getCore().getParallelism() << 4));
+  }
+
+  @Override
+  public void writeSnapshot(DataOutput out) throws IOException {
+    IndexSnapshots.writeParameters(out, parameters);
+    IndexSnapshots.writeDBIDs(out, referencepoints);
+    for(ModifiableDoubleDBIDList list : index) {
+      IndexSnapshots.writeDoubleDBIDList(out, list);
+    }
+  }
+
+  @Override
+  public boolean loadSnapshot(ByteBuffer in) throws IOException {
+    if(!IndexSnapshots.matchParameters(in, parameters)) {
+      return false;
     }
+    referencepoints = IndexSnapshots.readDBIDs(in);
+    index = new ModifiableDoubleDBIDList[referencepoints.size()];
+    for(int i = 0; i < index.length; i++) {
+      index[i] = IndexSnapshots.readDoubleDBIDList(in);
+    }
+    return true;
   }
 
   @Override
@@ -184,6 +288,18 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
         new IDistanceRangeSearcher(distanceQuery) : null;
   }
 
+  @Override
+  public KNNSearcher<DBIDRef> kNNByDBID(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    return distanceQuery.getRelation() == relation && this.getDistance().equals(distanceQuery.getDistance()) ? //
+        new IDistanceAllKNNSearcher(new IDistanceKNNSearcher(distanceQuery)) : null;
+  }
+
+  @Override
+  public RangeSearcher<DBIDRef> rangeByDBID(DistanceQuery<O> distanceQuery, double maxradius, int flags) {
+    return distanceQuery.getRelation() == relation && this.getDistance().equals(distanceQuery.getDistance()) ? //
+        new IDistanceAllRangeSearcher(new IDistanceRangeSearcher(distanceQuery)) : null;
+  }
+
   /**
    * Distance function.
    * 
@@ -260,6 +376,49 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
     iter.seek(left);
   }
 
+  /**
+   * Process all indexed objects in parallel, grouped by their reference point
+   * and in the order of the lists, such that consecutive queries scan
+   * overlapping parts of the same list.
+   *
+   * @param processor Processor for a part of a list
+   * @return Number of refinements
+   */
+  private int processAll(ListProcessor processor) {
+    final int taskSize = parallelTaskSize(relation.size());
+    List<Callable<Integer>> tasks = new ArrayList<>();
+    for(int l = 0; l < index.length; l++) {
+      final int list = l, size = index[l].size();
+      for(int start = 0; start < size; start += taskSize) {
+        final int begin = start, end = Math.min(start + taskSize, size);
+        tasks.add(() -> processor.process(list, begin, end));
+      }
+    }
+    int refinements = 0;
+    for(Integer c : ParallelExecutor.runTasks(tasks)) {
+      refinements += c;
+    }
+    return refinements;
+  }
+
+  /**
+   * Processor for a part of a reference point list.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  private interface ListProcessor {
+    /**
+     * Process a part of a list.
+     *
+     * @param list List number
+     * @param begin First offset
+     * @param end End offset (exclusive)
+     * @return Number of refinements
+     */
+    int process(int list, int begin, int end);
+  }
+
   /**
    * kNN query implementation.
    * 
@@ -277,16 +436,35 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
 
     @Override
     public KNNList getKNN(O obj, int k) {
-      DoubleIntPair[] priority = rankReferencePoints(distanceQuery, obj, referencepoints);
       // Approximate kNN search. We do not check _every_ list.
       KNNHeap heap = DBIDUtil.newHeap(k);
+      incRefinements(search(obj, heap, -1, -1));
+      return heap.toKNNList();
+    }
 
+    /**
+     * Perform a kNN search.
+     *
+     * @param obj Query object
+     * @param heap Output heap
+     * @param own List containing the query object, or -1
+     * @param offset Offset of the query object in its list
+     * @return Number of refinements
+     */
+    protected int search(O obj, KNNHeap heap, int own, int offset) {
+      DoubleIntPair[] priority = rankReferencePoints(distanceQuery, obj, referencepoints);
+      int refinements = 0;
       for(DoubleIntPair pair : priority) {
         final ModifiableDoubleDBIDList nindex = index[pair.second];
         final double refd = pair.first;
 
         final DoubleDBIDListIter ifwd = nindex.iter(), ibwd = nindex.iter();
-        binarySearch(nindex, ibwd, refd);
+        if(pair.second == own) {
+          ibwd.seek(offset); // Skip the binary search.
+        }
+        else {
+          binarySearch(nindex, ibwd, refd);
+        }
         ifwd.seek(ibwd.getOffset() + 1);
 
         // This assumes a metric, as we exploit triangle inequality:
@@ -307,7 +485,8 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
           }
           // Careful: NaN handling: not NaN and not worse than fwd (may be NaN).
           if(lbfwd <= kdist && !(lbfwd > lbbwd)) {
-            final double dist = refine(ifwd, obj);
+            final double dist = distanceQuery.distance(obj, ifwd);
+            ++refinements;
             if(dist <= kdist) {
               heap.insert(dist, ifwd);
               kdist = heap.getKNNDistance();
@@ -317,7 +496,8 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
             lbfwd = ifwd.valid() ? Math.abs(ifwd.doubleValue() - refd) : Double.NaN;
           }
           if(lbbwd <= kdist && !(lbbwd > lbfwd)) {
-            final double dist = refine(ibwd, obj);
+            final double dist = distanceQuery.distance(obj, ibwd);
+            ++refinements;
             if(dist <= kdist) {
               heap.insert(dist, ibwd);
               kdist = heap.getKNNDistance();
@@ -328,8 +508,7 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
           }
         }
       }
-
-      return heap.toKNNList();
+      return refinements;
     }
   }
 
@@ -350,13 +529,34 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
 
     @Override
     public ModifiableDoubleDBIDList getRange(O obj, double range, ModifiableDoubleDBIDList result) {
+      incRefinements(search(obj, range, result, -1, -1));
+      return result;
+    }
+
+    /**
+     * Perform a range search.
+     *
+     * @param obj Query object
+     * @param range Query radius
+     * @param result Output list
+     * @param own List containing the query object, or -1
+     * @param offset Offset of the query object in its list
+     * @return Number of refinements
+     */
+    protected int search(O obj, double range, ModifiableDoubleDBIDList result, int own, int offset) {
       DoubleIntPair[] priority = rankReferencePoints(distanceQuery, obj, referencepoints);
+      int refinements = 0;
       for(DoubleIntPair pair : priority) {
         final ModifiableDoubleDBIDList nindex = index[pair.second];
         final double refd = pair.first;
 
         DoubleDBIDListIter ifwd = nindex.iter(), ibwd = nindex.iter();
-        binarySearch(nindex, ibwd, refd);
+        if(pair.second == own) {
+          ibwd.seek(offset); // Skip the binary search.
+        }
+        else {
+          binarySearch(nindex, ibwd, refd);
+        }
         ifwd.seek(ibwd.getOffset() + 1);
 
         // This assumes a metric, as we exploit triangle inequality:
@@ -375,7 +575,8 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
           }
           // Careful: NaN handling: not NaN and not worse than fwd (may be NaN).
           if(lbfwd <= range && !(lbfwd > lbbwd)) {
-            final double dist = refine(ifwd, obj);
+            final double dist = distanceQuery.distance(obj, ifwd);
+            ++refinements;
             if(dist <= range) {
               result.add(dist, ifwd);
             }
@@ -384,7 +585,8 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
             lbfwd = ifwd.valid() ? Math.abs(ifwd.doubleValue() - refd) : Double.NaN;
           }
           if(lbbwd <= range && !(lbbwd > lbfwd)) {
-            final double dist = refine(ibwd, obj);
+            final double dist = distanceQuery.distance(obj, ibwd);
+            ++refinements;
             if(dist <= range) {
               result.add(dist, ibwd);
             }
@@ -394,7 +596,111 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
           }
         }
       }
-      return result;
+      return refinements;
+    }
+  }
+
+  /**
+   * kNN query by DBID, which can also compute the kNN of all indexed objects
+   * in a batch.
+   * 
+   * @author Erich Schubert
+   */
+  protected class IDistanceAllKNNSearcher implements AllKNNSearcher {
+    /**
+     * Searcher for single objects.
+     */
+    private IDistanceKNNSearcher searcher;
+
+    /**
+     * Constructor.
+     *
+     * @param searcher Searcher for single objects
+     */
+    public IDistanceAllKNNSearcher(IDistanceKNNSearcher searcher) {
+      super();
+      this.searcher = searcher;
+    }
+
+    @Override
+    public KNNList getKNN(DBIDRef id, int k) {
+      return searcher.getKNN(relation.get(id), k);
+    }
+
+    @Override
+    public void getAllKNN(int k, WritableDataStore<? super KNNList> result) {
+      // Collect by offset first, data stores need not be thread-safe.
+      final KNNList[][] knns = new KNNList[index.length][];
+      for(int l = 0; l < index.length; l++) {
+        knns[l] = new KNNList[index[l].size()];
+      }
+      countRefinements(processAll((list, begin, end) -> {
+        int refinements = 0;
+        DoubleDBIDListIter iter = index[list].iter();
+        for(iter.seek(begin); iter.getOffset() < end; iter.advance()) {
+          final KNNHeap heap = DBIDUtil.newHeap(k);
+          refinements += searcher.search(relation.get(iter), heap, list, iter.getOffset());
+          knns[list][iter.getOffset()] = heap.toKNNList();
+        }
+        return refinements;
+      }));
+      for(int l = 0; l < index.length; l++) {
+        for(DoubleDBIDListIter it = index[l].iter(); it.valid(); it.advance()) {
+          result.put(it, knns[l][it.getOffset()]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Range query by DBID, which can also compute the range queries of all
+   * indexed objects in a batch.
+   * 
+   * @author Erich Schubert
+   */
+  protected class IDistanceAllRangeSearcher implements AllRangeSearcher {
+    /**
+     * Searcher for single objects.
+     */
+    private IDistanceRangeSearcher searcher;
+
+    /**
+     * Constructor.
+     *
+     * @param searcher Searcher for single objects
+     */
+    public IDistanceAllRangeSearcher(IDistanceRangeSearcher searcher) {
+      super();
+      this.searcher = searcher;
+    }
+
+    @Override
+    public ModifiableDoubleDBIDList getRange(DBIDRef id, double range, ModifiableDoubleDBIDList result) {
+      return searcher.getRange(relation.get(id), range, result);
+    }
+
+    @Override
+    public void getAllRange(double range, WritableDataStore<? super DoubleDBIDList> result) {
+      // Collect by offset first, data stores need not be thread-safe.
+      final DoubleDBIDList[][] ranges = new DoubleDBIDList[index.length][];
+      for(int l = 0; l < index.length; l++) {
+        ranges[l] = new DoubleDBIDList[index[l].size()];
+      }
+      countRefinements(processAll((list, begin, end) -> {
+        int refinements = 0;
+        DoubleDBIDListIter iter = index[list].iter();
+        for(iter.seek(begin); iter.getOffset() < end; iter.advance()) {
+          final ModifiableDoubleDBIDList res = DBIDUtil.newDistanceDBIDList();
+          refinements += searcher.search(relation.get(iter), range, res, list, iter.getOffset());
+          ranges[list][iter.getOffset()] = res.sort();
+        }
+        return refinements;
+      }));
+      for(int l = 0; l < index.length; l++) {
+        for(DoubleDBIDListIter it = index[l].iter(); it.valid(); it.advance()) {
+          result.put(it, ranges[l][it.getOffset()]);
+        }
+      }
     }
   }
 
@@ -423,6 +729,11 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
      */
     int k;
 
+    /**
+     * Description of the parameters, for snapshots.
+     */
+    String parameters;
+
     /**
      * Constructor.
      * 
@@ -431,15 +742,28 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
      * @param k Number of reference points
      */
     public Factory(Distance<? super V> distance, KMedoidsInitialization<V> initialization, int k) {
+      this(distance, initialization, k, IndexSnapshots.describe(k, distance, initialization));
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param distance Distance function
+     * @param initialization Initialization method
+     * @param k Number of reference points
+     * @param parameters Description of the parameters, for snapshots
+     */
+    public Factory(Distance<? super V> distance, KMedoidsInitialization<V> initialization, int k, String parameters) {
       super();
       this.distance = distance;
       this.initialization = initialization;
       this.k = k;
+      this.parameters = parameters;
     }
 
     @Override
     public InMemoryIDistanceIndex<V> instantiate(Relation<V> relation) {
-      return new InMemoryIDistanceIndex<>(relation, distance.instantiate(relation), initialization, k);
+      return new InMemoryIDistanceIndex<>(relation, distance.instantiate(relation), initialization, k, parameters);
     }
 
     @Override
@@ -487,20 +811,27 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
        */
       int k;
 
+      /**
+       * Description of the parameters, for snapshots.
+       */
+      String parameters;
+
       @Override
       public void configure(Parameterization config) {
+        TrackParameters track = new TrackParameters(config);
         new ObjectParameter<Distance<? super V>>(DISTANCE_ID, Distance.class) //
-            .grab(config, x -> distance = x);
+            .grab(track, x -> distance = x);
         new ObjectParameter<KMedoidsInitialization<V>>(REFERENCE_ID, KMedoidsInitialization.class) //
-            .grab(config, x -> initialization = x);
+            .grab(track, x -> initialization = x);
         new IntParameter(K_ID)//
             .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
-            .grab(config, x -> k = x);
+            .grab(track, x -> k = x);
+        parameters = IndexSnapshots.describe(track);
       }
 
       @Override
       public InMemoryIDistanceIndex.Factory<V> make() {
-        return new InMemoryIDistanceIndex.Factory<>(distance, initialization, k);
+        return new InMemoryIDistanceIndex.Factory<>(distance, initialization, k, parameters);
       }
     }
   }
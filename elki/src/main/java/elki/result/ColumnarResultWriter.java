@@ -0,0 +1,555 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.result;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.DoubleRelation;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
+import elki.logging.Logging;
+import elki.utilities.io.AsyncChannelWriter;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
+import elki.utilities.optionhandling.parameters.PatternParameter;
+import elki.workflow.OutputStep;
+
+/**
+ * Result handler that writes per-object results (outlier scores, cluster
+ * assignments, numerical result relations, orderings) in a compact columnar
+ * form, one file per result.
+ * <p>
+ * Contrary to {@link ResultWriter}, this does not render objects via the
+ * text writer handlers, but encodes values directly into a reusable byte
+ * buffer, which is written asynchronously by {@link AsyncChannelWriter}.
+ * Objects are identified by their integer DBID only, the input data itself is
+ * not repeated. Two formats are supported:
+ * <ul>
+ * <li>CSV: a header line with the column names, then one line per row.</li>
+ * <li>Binary: the magic number {@link #BINARY_MAGIC}, the number of columns,
+ * then for each column a type byte ({@link #TYPE_INT} or {@link #TYPE_DOUBLE})
+ * and its name (length-prefixed UTF-8), followed by fixed-width little-endian
+ * rows. The number of rows follows from the file size.</li>
+ * </ul>
+ * Cluster assignments are written as rows (object, cluster number), where the
+ * cluster number is the position in {@link Clustering#getAllClusters()}; the
+ * cluster names are written in a separate small CSV file.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ColumnarResultWriter implements ResultHandler {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ColumnarResultWriter.class);
+
+  /**
+   * Magic number of the binary format.
+   */
+  public static final int BINARY_MAGIC = 0xE1C1_0001;
+
+  /**
+   * Column type: 32 bit integer.
+   */
+  public static final byte TYPE_INT = 0;
+
+  /**
+   * Column type: 64 bit double.
+   */
+  public static final byte TYPE_DOUBLE = 1;
+
+  /**
+   * Output formats.
+   *
+   * @author Erich Schubert
+   */
+  public enum Format {
+    /** Comma separated text. */
+    CSV,
+    /** Binary columns. */
+    BINARY
+  }
+
+  /**
+   * Output folder.
+   */
+  private Path out;
+
+  /**
+   * Output format.
+   */
+  private Format format;
+
+  /**
+   * Whether or not to warn on overwrite
+   */
+  private boolean warnoverwrite;
+
+  /**
+   * Result filter pattern, optional.
+   */
+  private Pattern filter;
+
+  /**
+   * Used file names.
+   */
+  private Set<String> filenames = new HashSet<>();
+
+  /**
+   * Constructor.
+   *
+   * @param out Output folder
+   * @param format Output format
+   * @param warnoverwrite Warn before overwriting files
+   * @param filter Filter pattern, may be {@code null}
+   */
+  public ColumnarResultWriter(Path out, Format format, boolean warnoverwrite, Pattern filter) {
+    super();
+    this.out = out;
+    this.format = format;
+    this.warnoverwrite = warnoverwrite;
+    this.filter = filter;
+  }
+
+  @Override
+  public void processNewResult(Object result) {
+    Database db = ResultUtil.findDatabase(result);
+    Collection<Relation<?>> dbrels = db != null ? db.getRelations() : Collections.emptyList();
+    List<Object> results = new ArrayList<>();
+    Metadata.hierarchyOf(result).iterDescendantsSelf().forEach(res -> {
+      if(res instanceof Database || dbrels.contains(res)) {
+        return;
+      }
+      if(filter != null) {
+        final String nam = Metadata.of(res).getLongName();
+        if(nam == null || !filter.matcher(nam).find()) {
+          return;
+        }
+      }
+      results.add(res);
+    });
+    try {
+      if(!Files.isDirectory(out)) {
+        LOG.info("Creating output directory: " + out);
+        Files.createDirectories(out);
+      }
+      else if(warnoverwrite) {
+        try (Stream<Path> s = Files.list(out)) {
+          if(s.findFirst().isPresent()) {
+            LOG.warning("Output directory specified is not empty. Files will be overwritten and old files may be left over.");
+          }
+        }
+      }
+      for(Object res : results) {
+        if(res instanceof DoubleRelation) {
+          writeDoubleRelation((DoubleRelation) res);
+        }
+        else if(res instanceof Relation) {
+          writeRelation((Relation<?>) res);
+        }
+        else if(res instanceof Clustering) {
+          writeClustering((Clustering<?>) res);
+        }
+        else if(res instanceof OrderingResult) {
+          writeOrdering((OrderingResult) res);
+        }
+      }
+    }
+    catch(IOException e) {
+      throw new IllegalStateException("Input/Output error while writing result.", e);
+    }
+  }
+
+  /**
+   * Write a relation of double values, such as outlier scores.
+   *
+   * @param rel Relation
+   * @throws IOException on errors
+   */
+  private void writeDoubleRelation(DoubleRelation rel) throws IOException {
+    try (ColumnOutput o = open(rel, new String[] { "id", "score" }, new byte[] { TYPE_INT, TYPE_DOUBLE })) {
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        o.putInt(DBIDUtil.asInteger(it)).putDouble(rel.doubleValue(it)).endRow();
+      }
+    }
+  }
+
+  /**
+   * Write a relation of numbers or fixed-dimensional vectors.
+   *
+   * @param rel Relation
+   * @throws IOException on errors
+   */
+  @SuppressWarnings("unchecked")
+  private void writeRelation(Relation<?> rel) throws IOException {
+    if(TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(rel.getDataTypeInformation())) {
+      Relation<? extends NumberVector> vrel = (Relation<? extends NumberVector>) rel;
+      final int dim = RelationUtil.dimensionality(vrel);
+      if(dim > 0) {
+        String[] names = new String[dim + 1];
+        byte[] types = new byte[dim + 1];
+        names[0] = "id";
+        for(int d = 0; d < dim; d++) {
+          names[d + 1] = "d" + d;
+          types[d + 1] = TYPE_DOUBLE;
+        }
+        try (ColumnOutput o = open(rel, names, types)) {
+          for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+            NumberVector v = vrel.get(it);
+            o.putInt(DBIDUtil.asInteger(it));
+            for(int d = 0; d < dim; d++) {
+              o.putDouble(v.doubleValue(d));
+            }
+            o.endRow();
+          }
+        }
+        return;
+      }
+    }
+    final boolean isint = TypeUtil.INTEGER.isAssignableFromType(rel.getDataTypeInformation());
+    if(!isint && !TypeUtil.DOUBLE.isAssignableFromType(rel.getDataTypeInformation())) {
+      if(LOG.isVerbose()) {
+        LOG.verbose("Skipping relation of unsupported type: " + rel.getDataTypeInformation());
+      }
+      return;
+    }
+    try (ColumnOutput o = open(rel, new String[] { "id", "value" }, new byte[] { TYPE_INT, isint ? TYPE_INT : TYPE_DOUBLE })) {
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        Number v = (Number) rel.get(it);
+        o.putInt(DBIDUtil.asInteger(it));
+        if(isint) {
+          o.putInt(v.intValue());
+        }
+        else {
+          o.putDouble(v != null ? v.doubleValue() : Double.NaN);
+        }
+        o.endRow();
+      }
+    }
+  }
+
+  /**
+   * Write the cluster assignments of a clustering.
+   *
+   * @param c Clustering
+   * @throws IOException on errors
+   */
+  private void writeClustering(Clustering<?> c) throws IOException {
+    List<? extends Cluster<?>> clusters = c.getAllClusters();
+    String filename = filename(c);
+    try (ColumnOutput o = open(filename, new String[] { "id", "cluster" }, new byte[] { TYPE_INT, TYPE_INT })) {
+      int cnum = 0;
+      for(Cluster<?> clus : clusters) {
+        for(DBIDIter it = clus.getIDs().iter(); it.valid(); it.advance()) {
+          o.putInt(DBIDUtil.asInteger(it)).putInt(cnum).endRow();
+        }
+        ++cnum;
+      }
+    }
+    // Cluster names, as a small text file:
+    StringBuilder buf = new StringBuilder(clusters.size() * 20).append("cluster,size,noise,name\n");
+    int cnum = 0;
+    for(Cluster<?> clus : clusters) {
+      buf.append(cnum++).append(',').append(clus.size()).append(',').append(clus.isNoise()).append(',') //
+          .append(quote(clus.getNameAutomatic())).append('\n');
+    }
+    Files.write(out.resolve(filename + "-clusters.csv"), buf.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Write an ordering.
+   *
+   * @param or Ordering result
+   * @throws IOException on errors
+   */
+  private void writeOrdering(OrderingResult or) throws IOException {
+    try (ColumnOutput o = open(or, new String[] { "id" }, new byte[] { TYPE_INT })) {
+      for(DBIDIter it = or.order(or.getDBIDs()).iter(); it.valid(); it.advance()) {
+        o.putInt(DBIDUtil.asInteger(it)).endRow();
+      }
+    }
+  }
+
+  /**
+   * Open the output for a result.
+   *
+   * @param res Result
+   * @param names Column names
+   * @param types Column types
+   * @return Output
+   * @throws IOException on errors
+   */
+  private ColumnOutput open(Object res, String[] names, byte[] types) throws IOException {
+    return open(filename(res), names, types);
+  }
+
+  /**
+   * Open the output for a file name.
+   *
+   * @param filename File name (without extension)
+   * @param names Column names
+   * @param types Column types
+   * @return Output
+   * @throws IOException on errors
+   */
+  private ColumnOutput open(String filename, String[] names, byte[] types) throws IOException {
+    Path file = out.resolve(filename + (format == Format.BINARY ? ".bin" : ".csv"));
+    AsyncChannelWriter w = new AsyncChannelWriter(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    return format == Format.BINARY ? new BinaryOutput(w, names, types) : new CSVOutput(w, names);
+  }
+
+  /**
+   * Produce a unique file name for a result.
+   *
+   * @param res Result
+   * @return File name, without extension
+   */
+  private String filename(Object res) {
+    String name = Metadata.of(res).getLongName();
+    name = name == null || name.isEmpty() ? "result" : name.toLowerCase().replaceAll("[^a-zA-Z0-9_.\\[\\]-]", "_");
+    for(int i = 0;; i++) {
+      String filename = i > 0 ? name + "-" + i : name;
+      if(filenames.add(filename)) {
+        return filename;
+      }
+    }
+  }
+
+  /**
+   * Quote a string for CSV output, if necessary.
+   *
+   * @param s String
+   * @return Quoted string
+   */
+  private static String quote(String s) {
+    return s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 ? s : "\"" + s.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * Row-wise output of typed columns.
+   *
+   * @author Erich Schubert
+   */
+  private abstract static class ColumnOutput implements AutoCloseable {
+    /**
+     * Output writer.
+     */
+    protected AsyncChannelWriter w;
+
+    /**
+     * Constructor.
+     *
+     * @param w Output writer
+     */
+    ColumnOutput(AsyncChannelWriter w) {
+      this.w = w;
+    }
+
+    /**
+     * Append an integer value.
+     *
+     * @param v Value
+     * @return this
+     * @throws IOException on errors
+     */
+    abstract ColumnOutput putInt(int v) throws IOException;
+
+    /**
+     * Append a double value.
+     *
+     * @param v Value
+     * @return this
+     * @throws IOException on errors
+     */
+    abstract ColumnOutput putDouble(double v) throws IOException;
+
+    /**
+     * Finish the current row.
+     *
+     * @throws IOException on errors
+     */
+    abstract void endRow() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+      w.close();
+    }
+  }
+
+  /**
+   * Binary output: fixed width little endian values.
+   *
+   * @author Erich Schubert
+   */
+  private static class BinaryOutput extends ColumnOutput {
+    /**
+     * Constructor.
+     *
+     * @param w Output writer
+     * @param names Column names
+     * @param types Column types
+     * @throws IOException on errors
+     */
+    BinaryOutput(AsyncChannelWriter w, String[] names, byte[] types) throws IOException {
+      super(w);
+      w.buffer(8).putInt(BINARY_MAGIC).putInt(names.length);
+      for(int i = 0; i < names.length; i++) {
+        byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = w.buffer(3 + name.length);
+        buf.put(types[i]).putShort((short) name.length).put(name);
+      }
+    }
+
+    @Override
+    ColumnOutput putInt(int v) throws IOException {
+      w.buffer(4).putInt(v);
+      return this;
+    }
+
+    @Override
+    ColumnOutput putDouble(double v) throws IOException {
+      w.buffer(8).putDouble(v);
+      return this;
+    }
+
+    @Override
+    void endRow() {
+      // Nothing to do.
+    }
+  }
+
+  /**
+   * CSV output, formatted into a reused character buffer.
+   *
+   * @author Erich Schubert
+   */
+  private static class CSVOutput extends ColumnOutput {
+    /**
+     * Row buffer.
+     */
+    private StringBuilder buf = new StringBuilder(1000);
+
+    /**
+     * Constructor.
+     *
+     * @param w Output writer
+     * @param names Column names
+     * @throws IOException on errors
+     */
+    CSVOutput(AsyncChannelWriter w, String[] names) throws IOException {
+      super(w);
+      for(String name : names) {
+        (buf.length() > 0 ? buf.append(',') : buf).append(quote(name));
+      }
+      endRow();
+    }
+
+    @Override
+    ColumnOutput putInt(int v) {
+      (buf.length() > 0 ? buf.append(',') : buf).append(v);
+      return this;
+    }
+
+    @Override
+    ColumnOutput putDouble(double v) {
+      (buf.length() > 0 ? buf.append(',') : buf).append(v);
+      return this;
+    }
+
+    @Override
+    void endRow() throws IOException {
+      w.writeASCII(buf.append('\n'));
+      buf.setLength(0);
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par implements Parameterizer {
+    /**
+     * Output format.
+     */
+    public static final OptionID FORMAT_ID = new OptionID("columnar.format", "Output format for per-object results.");
+
+    /**
+     * Output folder.
+     */
+    private Path out;
+
+    /**
+     * Output format.
+     */
+    private Format format = Format.CSV;
+
+    /**
+     * Whether or not to warn on overwrite
+     */
+    private boolean warnoverwrite = true;
+
+    /**
+     * Result filter pattern, optional.
+     */
+    private Pattern filter;
+
+    @Override
+    public void configure(Parameterization config) {
+      OptionID opt = new OptionID(OutputStep.Par.OUTPUT_ID.getName(), "Folder the result columns are written to.");
+      new FileParameter(opt, FileParameter.FileType.OUTPUT_FILE) //
+          .grab(config, x -> out = Paths.get(x));
+      new EnumParameter<Format>(FORMAT_ID, Format.class, Format.CSV) //
+          .grab(config, x -> format = x);
+      new Flag(ResultWriter.Par.OVERWRITE_OPTION_ID).grab(config, x -> warnoverwrite = !x);
+      new PatternParameter(ResultWriter.Par.FILTER_PATTERN_ID) //
+          .setOptional(true) //
+          .grab(config, x -> filter = x);
+    }
+
+    @Override
+    public ColumnarResultWriter make() {
+      return new ColumnarResultWriter(out, format, warnoverwrite, filter);
+    }
+  }
+}
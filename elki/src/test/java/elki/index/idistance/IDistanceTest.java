@@ -20,15 +20,34 @@
  */
 package elki.index.idistance;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.clustering.kmeans.KMeans;
 import elki.clustering.kmeans.initialization.FarthestPoints;
+import elki.clustering.kmeans.initialization.RandomlyChosen;
+import elki.data.DoubleVector;
 import elki.data.NumberVector;
-import elki.database.query.knn.WrappedKNNDBIDByLookup;
-import elki.database.query.range.WrappedRangeDBIDByLookup;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.knn.AllKNNSearcher;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.AllRangeSearcher;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
 import elki.distance.minkowski.EuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
  * Unit test for the iDistance index.
@@ -45,6 +64,72 @@ public class IDistanceTest extends AbstractIndexStructureTest {
         .with(InMemoryIDistanceIndex.Factory.Par.REFERENCE_ID, FarthestPoints.class) //
         .build();
     assertExactEuclidean(factory, InMemoryIDistanceIndex.IDistanceKNNSearcher.class, InMemoryIDistanceIndex.IDistanceRangeSearcher.class);
-    assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
+    assertSinglePoint(factory, InMemoryIDistanceIndex.IDistanceAllKNNSearcher.class, InMemoryIDistanceIndex.IDistanceAllRangeSearcher.class);
+  }
+
+  @Test
+  public void testSnapshot() {
+    assertSnapshotEuclidean(() -> idistance(0L), InMemoryIDistanceIndex.IDistanceKNNSearcher.class, InMemoryIDistanceIndex.IDistanceRangeSearcher.class, false);
+    // Different reference points must not reuse the snapshot.
+    assertStaleSnapshot(() -> idistance(0L), () -> idistance(1L));
+  }
+
+  /**
+   * Build an iDistance index factory with random reference points.
+   *
+   * @param seed Random seed
+   * @return Factory
+   */
+  private static InMemoryIDistanceIndex.Factory<NumberVector> idistance(long seed) {
+    return new ELKIBuilder<>(InMemoryIDistanceIndex.Factory.class) //
+        .with(InMemoryIDistanceIndex.Factory.Par.K_ID, 4) //
+        .with(InMemoryIDistanceIndex.Factory.Par.DISTANCE_ID, EuclideanDistance.class) //
+        .with(InMemoryIDistanceIndex.Factory.Par.REFERENCE_ID, RandomlyChosen.class) //
+        .with(KMeans.SEED_ID, seed) //
+        .build();
+  }
+
+  @Test
+  public void testAllKNNAndRange() {
+    InMemoryIDistanceIndex.Factory<NumberVector> factory = new ELKIBuilder<>(InMemoryIDistanceIndex.Factory.class) //
+        .with(InMemoryIDistanceIndex.Factory.Par.K_ID, 4) //
+        .with(InMemoryIDistanceIndex.Factory.Par.DISTANCE_ID, EuclideanDistance.class) //
+        .with(InMemoryIDistanceIndex.Factory.Par.REFERENCE_ID, FarthestPoints.class) //
+        .build();
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "hierarchical-3d2d1d.csv", 600, //
+        new ListParameterization().addParameter(StaticArrayDatabase.Par.INDEX_ID, factory));
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    final int k = 10;
+    final double range = 0.1;
+    QueryBuilder<DoubleVector> qb = new QueryBuilder<>(relation, EuclideanDistance.STATIC).cheapOnly();
+    KNNSearcher<DBIDRef> knnq = qb.kNNByDBID(k);
+    assertTrue("Expected an all-kNN searcher", knnq instanceof AllKNNSearcher);
+    WritableDataStore<KNNList> knns = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, KNNList.class);
+    ((AllKNNSearcher) knnq).getAllKNN(k, knns);
+    RangeSearcher<DBIDRef> rangeq = qb.rangeByDBID(range);
+    assertTrue("Expected an all-range searcher", rangeq instanceof AllRangeSearcher);
+    WritableDataStore<DoubleDBIDList> ranges = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, DoubleDBIDList.class);
+    ((AllRangeSearcher) rangeq).getAllRange(range, ranges);
+    // Compare to a linear scan:
+    QueryBuilder<DoubleVector> lin = new QueryBuilder<>(relation, EuclideanDistance.STATIC).linearOnly();
+    KNNSearcher<DBIDRef> linknn = lin.kNNByDBID(k);
+    RangeSearcher<DBIDRef> linrange = lin.rangeByDBID(range);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      assertSameDistances(linknn.getKNN(it, k), knns.get(it));
+      assertSameDistances(linrange.getRange(it, range), ranges.get(it));
+    }
+  }
+
+  /**
+   * Compare two result lists by their distances.
+   *
+   * @param expect Expected result
+   * @param actual Actual result
+   */
+  private static void assertSameDistances(DoubleDBIDList expect, DoubleDBIDList actual) {
+    assertEquals("Result size does not match.", expect.size(), actual.size());
+    for(DoubleDBIDListIter e = expect.iter(), a = actual.iter(); e.valid(); e.advance(), a.advance()) {
+      assertEquals("Distance does not match.", e.doubleValue(), a.doubleValue(), 0.);
+    }
   }
 }
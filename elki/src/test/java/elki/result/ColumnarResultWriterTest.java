@@ -0,0 +1,124 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.result;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.clustering.trivial.ByLabelClustering;
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.database.Database;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.DoubleRelation;
+import elki.outlier.distance.KNNOutlier;
+import elki.result.outlier.OutlierResult;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test the columnar result writer, by reading the output back.
+ *
+ * @author Erich Schubert
+ * @since 0.8.0
+ */
+public class ColumnarResultWriterTest extends AbstractSimpleAlgorithmTest {
+  @Test
+  public void testCSV() throws IOException {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    OutlierResult result = new ELKIBuilder<>(KNNOutlier.class) //
+        .with(KNNOutlier.Par.K_ID, 5).build().autorun(db);
+    Path dir = Files.createTempDirectory("elki-columnar-result");
+    try {
+      new ColumnarResultWriter(dir, ColumnarResultWriter.Format.CSV, false, null).processNewResult(result);
+      List<String> lines = Files.readAllLines(dir.resolve("knn_outlier_score.csv"));
+      assertEquals("Number of lines", 961, lines.size());
+      assertEquals("Header", "id,score", lines.get(0));
+      DoubleRelation scores = result.getScores();
+      int i = 1;
+      for(DBIDIter it = scores.iterDBIDs(); it.valid(); it.advance(), i++) {
+        String[] row = lines.get(i).split(",");
+        assertEquals("Wrong id", DBIDUtil.asInteger(it), Integer.parseInt(row[0]));
+        assertEquals("Wrong score", scores.doubleValue(it), Double.parseDouble(row[1]), 0.);
+      }
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void testBinary() throws IOException {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    Clustering<?> result = new ELKIBuilder<>(ByLabelClustering.class).build().autorun(db);
+    Path dir = Files.createTempDirectory("elki-columnar-result");
+    try {
+      new ColumnarResultWriter(dir, ColumnarResultWriter.Format.BINARY, false, null).processNewResult(result);
+      ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(dir.resolve("by_label_clustering.bin"))).order(ByteOrder.LITTLE_ENDIAN);
+      assertEquals("Magic", ColumnarResultWriter.BINARY_MAGIC, buf.getInt());
+      assertEquals("Columns", 2, buf.getInt());
+      for(int i = 0; i < 2; i++) {
+        assertEquals("Column type", ColumnarResultWriter.TYPE_INT, buf.get());
+        final int len = buf.getShort();
+        buf.position(buf.position() + len);
+      }
+      assertEquals("Number of rows", 960 * 8, buf.remaining());
+      int cnum = 0;
+      for(Cluster<?> clus : result.getAllClusters()) {
+        for(DBIDIter it = clus.getIDs().iter(); it.valid(); it.advance()) {
+          assertEquals("Wrong id", DBIDUtil.asInteger(it), buf.getInt());
+          assertEquals("Wrong cluster", cnum, buf.getInt());
+        }
+        ++cnum;
+      }
+      List<String> names = Files.readAllLines(dir.resolve("by_label_clustering-clusters.csv"));
+      assertEquals("Cluster names", result.getAllClusters().size() + 1, names.size());
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * Remove the temporary folder.
+   *
+   * @param dir Folder
+   * @throws IOException on errors
+   */
+  private static void delete(Path dir) throws IOException {
+    try (Stream<Path> s = Files.list(dir)) {
+      for(Path p : (Iterable<Path>) s::iterator) {
+        Files.delete(p);
+      }
+    }
+    Files.delete(dir);
+  }
+}